@@ -0,0 +1,169 @@
+/**
+ * Copyright 2010/2011, Martin Lansler
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codegility.commandflow.benchmark;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+import org.codegility.commandflow.binding.xml.v1.XmlBindingConfigurerV1;
+
+/**
+ * Generates XML command catalogs of a given size for the startup benchmarks.
+ * <p>
+ * The catalog consists of a main file importing one file per {@link #COMMANDS_PER_FILE} top-level commands. Every tenth top-level command is a flow
+ * nested {@link #DEPTH} levels deep, the remaining commands are leaf commands configured via properties and references to these.
+ * @author Martin Lansler
+ */
+final class CatalogGenerator {
+    /** Number of top-level commands per imported file */
+    static final int COMMANDS_PER_FILE = 1000;
+
+    /** The nesting depth of the generated flows */
+    static final int DEPTH = 12;
+
+    /** The name of the main catalog file */
+    static final String MAIN_FILE = "catalog.xml";
+
+    /** The composite elements used for nesting */
+    private static final String[] COMPOSITES = { "sequence", "and", "or", "not", "if" };
+
+    /** Util class */
+    private CatalogGenerator() {
+    }
+
+    /**
+     * Generates a catalog
+     * @param directory the directory to generate the files to
+     * @param commands the number of top-level commands
+     * @return the main catalog file
+     * @throws IOException if writing the files fails
+     */
+    static File generate(File directory, int commands) throws IOException {
+        Writer main = open(new File(directory, MAIN_FILE));
+        try {
+            for (int file = 0; file * COMMANDS_PER_FILE < commands; file++) {
+                String name = "commands-" + file + ".xml";
+                main.write("  <import resource=\"" + name + "\" />\n");
+                Writer writer = open(new File(directory, name));
+                try {
+                    int end = Math.min(commands, (file + 1) * COMMANDS_PER_FILE);
+                    for (int i = file * COMMANDS_PER_FILE; i < end; i++) {
+                        writeCommand(writer, i, commands);
+                    }
+                } finally {
+                    close(writer);
+                }
+            }
+        } finally {
+            close(main);
+        }
+        return new File(directory, MAIN_FILE);
+    }
+
+    /**
+     * Writes a top-level command
+     * @param writer the writer
+     * @param i the command index
+     * @param commands the number of top-level commands
+     * @throws IOException if writing fails
+     */
+    private static void writeCommand(Writer writer, int i, int commands) throws IOException {
+        switch (i % 10) {
+        case 0:
+            writeFlow(writer, i, commands);
+            break;
+        case 5:
+            writer.write("  <command name=\"c" + i + "\" ref=\"c" + (i - 2) + "\" />\n");
+            break;
+        default:
+            writer.write("  <command name=\"c" + i + "\" class=\"" + ConfigurableLeaf.class.getName() + "\">\n");
+            writer.write("    <property name=\"label\" value=\"command " + i + "\" />\n");
+            writer.write("    <property name=\"weight\" value=\"" + i + "\" />\n");
+            writer.write("  </command>\n");
+        }
+    }
+
+    /**
+     * Writes a nested flow, each level contains a reference to a leaf command and the next level
+     * @param writer the writer
+     * @param i the command index
+     * @param commands the number of top-level commands
+     * @throws IOException if writing fails
+     */
+    private static void writeFlow(Writer writer, int i, int commands) throws IOException {
+        String leaf = "c" + (i + 1 < commands ? i + 1 : 1);
+        StringBuilder indent = new StringBuilder("  ");
+        writer.write(indent + "<sequence name=\"c" + i + "\">\n");
+        for (int level = 0; level < DEPTH; level++) {
+            indent.append("  ");
+            String element = COMPOSITES[level % COMPOSITES.length];
+            writer.write(indent + "<" + element + ("if".equals(element) ? " ref=\"" + leaf + "\"" : "") + ">\n");
+            writer.write(indent + "  <command ref=\"" + leaf + "\" />\n");
+        }
+        writer.write(indent + "  <command class=\"" + ConfigurableLeaf.class.getName() + "\">\n");
+        writer.write(indent + "    <property name=\"weight\" value=\"" + i + "\" />\n");
+        writer.write(indent + "  </command>\n");
+        for (int level = DEPTH - 1; level >= 0; level--) {
+            writer.write(indent + "</" + COMPOSITES[level % COMPOSITES.length] + ">\n");
+            indent.setLength(indent.length() - 2);
+        }
+        writer.write(indent + "</sequence>\n");
+    }
+
+    /**
+     * Opens a catalog file and writes the root element
+     * @param file the file
+     * @return the writer
+     * @throws IOException if writing fails
+     */
+    private static Writer open(File file) throws IOException {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"));
+        writer.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+        writer.write("<commands xmlns=\"" + XmlBindingConfigurerV1.NAMESPACE + "\">\n");
+        return writer;
+    }
+
+    /**
+     * Writes the end of the root element and closes a catalog file
+     * @param writer the writer
+     * @throws IOException if writing fails
+     */
+    private static void close(Writer writer) throws IOException {
+        try {
+            writer.write("</commands>\n");
+        } finally {
+            writer.close();
+        }
+    }
+
+    /**
+     * Deletes a generated catalog
+     * @param directory the directory of the catalog
+     */
+    static void delete(File directory) {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+}
@@ -0,0 +1,76 @@
+/**
+ * Copyright 2010/2011, Martin Lansler
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codegility.commandflow.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.codegility.commandflow.Command;
+import org.codegility.commandflow.benchmark.Flows.Counter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks deep (nested) and wide (flat) trees of sequence, and and or commands, all leaf commands of the trees are executed.
+ * @author Martin Lansler
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class CompositeBenchmark {
+    /** The composite command type */
+    @Param({ "sequence", "and", "or" })
+    String type;
+
+    /** The tree shape, <code>deep</code> or <code>wide</code> */
+    @Param({ "deep", "wide" })
+    String shape;
+
+    /** The depth or width of the tree */
+    @Param({ "64" })
+    int size;
+
+    /** The flow */
+    private Command<Counter> flow;
+
+    @Setup
+    public void setup() {
+        flow = "deep".equals(shape) ? Flows.deep(type, size) : Flows.wide(type, size);
+    }
+
+    @Benchmark
+    public boolean execute(CounterState state) {
+        return flow.execute(state.counter);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public boolean executeThreaded(CounterState state) {
+        return flow.execute(state.counter);
+    }
+}
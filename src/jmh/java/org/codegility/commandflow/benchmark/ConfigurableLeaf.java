@@ -0,0 +1,50 @@
+/**
+ * Copyright 2010/2011, Martin Lansler
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codegility.commandflow.benchmark;
+
+import org.codegility.commandflow.Command;
+
+/**
+ * Leaf command configured via XML properties in the generated catalogs, see {@link CatalogGenerator}.
+ * @author Martin Lansler
+ */
+public class ConfigurableLeaf implements Command<Object> {
+    /** A string property */
+    private String label;
+    /** An integer property */
+    private Integer weight;
+
+    @Override
+    public boolean execute(Object context) {
+        return weight != null && weight.intValue() >= 0;
+    }
+
+    public String getLabel() {
+        return label;
+    }
+
+    public void setLabel(String label) {
+        this.label = label;
+    }
+
+    public Integer getWeight() {
+        return weight;
+    }
+
+    public void setWeight(Integer weight) {
+        this.weight = weight;
+    }
+}
@@ -0,0 +1,30 @@
+/**
+ * Copyright 2010/2011, Martin Lansler
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codegility.commandflow.benchmark;
+
+import org.codegility.commandflow.benchmark.Flows.Counter;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Benchmark state holding the command context of each benchmark thread.
+ * @author Martin Lansler
+ */
+@State(Scope.Thread)
+public class CounterState {
+    /** The command context */
+    final Counter counter = new Counter();
+}
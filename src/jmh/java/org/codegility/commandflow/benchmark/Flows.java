@@ -0,0 +1,110 @@
+/**
+ * Copyright 2010/2011, Martin Lansler
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codegility.commandflow.benchmark;
+
+import org.codegility.commandflow.Command;
+import org.codegility.commandflow.command.AbstractCompositeCommand;
+import org.codegility.commandflow.command.AndCommand;
+import org.codegility.commandflow.command.OrCommand;
+import org.codegility.commandflow.command.SequenceCommand;
+
+/**
+ * Flows and contexts shared by the benchmarks.
+ * @author Martin Lansler
+ */
+final class Flows {
+    /** Util class */
+    private Flows() {
+    }
+
+    /**
+     * Benchmark context counting the executed leaf commands
+     */
+    static final class Counter {
+        /** Number of executed leaf commands */
+        int value;
+    }
+
+    /**
+     * Creates a leaf command that increments the counter
+     * @param status the command status
+     * @return the leaf command
+     */
+    static Command<Counter> leaf(final boolean status) {
+        return new Command<Counter>() {
+            @Override
+            public boolean execute(Counter context) {
+                context.value++;
+                return status;
+            }
+        };
+    }
+
+    /**
+     * Creates a composite command of the given type
+     * @param type the type, <code>sequence</code>, <code>and</code> or <code>or</code>
+     * @return the composite command
+     */
+    static AbstractCompositeCommand<Counter> composite(String type) {
+        if ("sequence".equals(type)) {
+            return new SequenceCommand<Counter>();
+        }
+        if ("and".equals(type)) {
+            return new AndCommand<Counter>();
+        }
+        if ("or".equals(type)) {
+            return new OrCommand<Counter>();
+        }
+        throw new IllegalArgumentException("Unknown composite type: " + type);
+    }
+
+    /**
+     * Creates a leaf command that does not short-circuit the given composite type, so that all leaves are executed
+     * @param type the composite type
+     * @return the leaf command
+     */
+    static Command<Counter> nonShortCircuitLeaf(String type) {
+        return leaf(!"or".equals(type));
+    }
+
+    /**
+     * Creates a flow of nested composite commands, each composite contains a leaf command and the next composite
+     * @param type the composite type
+     * @param depth the number of nested composites
+     * @return the flow
+     */
+    static Command<Counter> deep(String type, int depth) {
+        Command<Counter> flow = nonShortCircuitLeaf(type);
+        for (int i = 0; i < depth; i++) {
+            flow = composite(type).add(nonShortCircuitLeaf(type)).add(flow);
+        }
+        return flow;
+    }
+
+    /**
+     * Creates a flow of a single composite command containing the given number of leaf commands
+     * @param type the composite type
+     * @param width the number of leaf commands
+     * @return the flow
+     */
+    static Command<Counter> wide(String type, int width) {
+        AbstractCompositeCommand<Counter> flow = composite(type);
+        for (int i = 0; i < width; i++) {
+            flow.add(nonShortCircuitLeaf(type));
+        }
+        return flow;
+    }
+}
@@ -0,0 +1,87 @@
+/**
+ * Copyright 2010/2011, Martin Lansler
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codegility.commandflow.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.codegility.commandflow.Command;
+import org.codegility.commandflow.benchmark.Flows.Counter;
+import org.codegility.commandflow.builder.DefaultCommandBuilder;
+import org.codegility.commandflow.catalog.CommandReference;
+import org.codegility.commandflow.catalog.DefaultCommandCatalog;
+import org.codegility.commandflow.command.SequenceCommand;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks static {@link CommandReference}s, resolved when the catalog is linked, against dynamic references resolved at execution time.
+ * @author Martin Lansler
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class ReferenceBenchmark {
+    /** Flow referencing the target command statically */
+    private Command<Counter> staticFlow;
+
+    /** Flow referencing the target command dynamically */
+    private Command<Counter> dynamicFlow;
+
+    @Setup
+    public void setup() {
+        DefaultCommandCatalog<Counter> catalog = new DefaultCommandCatalog<Counter>();
+        catalog.addCommand("target", Flows.leaf(true));
+        catalog.addCommand("static", new SequenceCommand<Counter>().add(new CommandReference<Counter>("target")));
+        catalog.addCommand("dynamic", new SequenceCommand<Counter>().add(new CommandReference<Counter>("target", true)));
+        new DefaultCommandBuilder<Counter>(catalog).make();
+        staticFlow = catalog.getCommand("static");
+        dynamicFlow = catalog.getCommand("dynamic");
+    }
+
+    @Benchmark
+    public boolean staticReference(CounterState state) {
+        return staticFlow.execute(state.counter);
+    }
+
+    @Benchmark
+    public boolean dynamicReference(CounterState state) {
+        return dynamicFlow.execute(state.counter);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public boolean staticReferenceThreaded(CounterState state) {
+        return staticFlow.execute(state.counter);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public boolean dynamicReferenceThreaded(CounterState state) {
+        return dynamicFlow.execute(state.counter);
+    }
+}
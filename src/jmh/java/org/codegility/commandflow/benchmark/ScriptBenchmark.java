@@ -0,0 +1,63 @@
+/**
+ * Copyright 2010/2011, Martin Lansler
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codegility.commandflow.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.codegility.commandflow.benchmark.Flows.Counter;
+import org.codegility.commandflow.command.ScriptCommand;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks the evaluation of a {@link ScriptCommand} using the default script engine.
+ * @author Martin Lansler
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class ScriptBenchmark {
+    /** The script command */
+    private ScriptCommand<Counter> command;
+
+    @Setup
+    public void setup() {
+        command = new ScriptCommand<Counter>("c != null");
+    }
+
+    @Benchmark
+    public boolean execute(CounterState state) {
+        return command.execute(state.counter);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public boolean executeThreaded(CounterState state) {
+        return command.execute(state.counter);
+    }
+}
@@ -0,0 +1,79 @@
+/**
+ * Copyright 2010/2011, Martin Lansler
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codegility.commandflow.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.codegility.commandflow.Command;
+import org.codegility.commandflow.benchmark.Flows.Counter;
+import org.codegility.commandflow.command.WhileCommand;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks {@link WhileCommand} loops executing a leaf command a given number of times.
+ * @author Martin Lansler
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class WhileBenchmark {
+    /** Number of loop iterations */
+    @Param({ "10", "1000" })
+    int iterations;
+
+    /** The loop */
+    private Command<Counter> loop;
+
+    @Setup
+    public void setup() throws Exception {
+        WhileCommand<Counter> command = new WhileCommand<Counter>();
+        command.add(new Command<Counter>() {
+            @Override
+            public boolean execute(Counter context) {
+                return context.value < iterations;
+            }
+        }).add(Flows.leaf(true));
+        command.init();
+        loop = command;
+    }
+
+    @Benchmark
+    public boolean execute(CounterState state) {
+        state.counter.value = 0;
+        return loop.execute(state.counter);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public boolean executeThreaded(CounterState state) {
+        state.counter.value = 0;
+        return loop.execute(state.counter);
+    }
+}
@@ -0,0 +1,184 @@
+/**
+ * Copyright 2010/2011, Martin Lansler
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codegility.commandflow.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.transform.stax.StAXSource;
+
+import org.codegility.commandflow.CommandFlow;
+import org.codegility.commandflow.binding.BindingFactory;
+import org.codegility.commandflow.binding.xml.XmlBindingHandler;
+import org.codegility.commandflow.binding.xml.v1.XmlBindingConfigurerV1;
+import org.codegility.commandflow.builder.CommandBuilder;
+import org.codegility.commandflow.builder.DefaultCommandBuilder;
+import org.codegility.commandflow.catalog.CommandCatalog;
+import org.codegility.commandflow.catalog.DefaultCommandCatalog;
+import org.codegility.commandflow.io.FileResource;
+import org.codegility.commandflow.io.Resource;
+import org.codegility.commandflow.util.XmlNamespaceUtil;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Startup benchmarks of {@link CommandFlow#buildXmlCommandCatalog(Resource...)} for generated XML catalogs, see {@link CatalogGenerator}.
+ * <p>
+ * Besides the complete build each phase is measured separately: the namespace sniffing of the main file, the XSD validation of all files, the StAX
+ * processing of all files into a catalog (without validation) and the {@link CommandBuilder#link()} and {@link CommandBuilder#init()} phases. The
+ * phases are single shot measurements, {@link #main(String[])} runs the suite with the JMH GC profiler to also report the allocations per phase.
+ * @author Martin Lansler
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class XmlCatalogBenchmark {
+    /** Number of top-level commands in the catalog */
+    @Param({ "1000", "10000", "100000" })
+    int commands;
+
+    /** The directory of the generated catalog */
+    private File directory;
+
+    /** The main catalog file */
+    private Resource catalog;
+
+    /** All catalog files */
+    private List<Resource> files;
+
+    @Setup
+    public void setup() throws IOException {
+        directory = File.createTempFile("commandflow-catalog", "");
+        directory.delete();
+        directory.mkdir();
+        catalog = new FileResource(CatalogGenerator.generate(directory, commands));
+        files = new ArrayList<Resource>();
+        for (File file : directory.listFiles()) {
+            files.add(new FileResource(file));
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        CatalogGenerator.delete(directory);
+    }
+
+    /**
+     * Creates a binding handler for the generated catalog without schema validation
+     * @return the binding handler
+     */
+    XmlBindingHandler<Object> newHandler() {
+        XmlBindingHandler<Object> handler = (XmlBindingHandler<Object>) BindingFactory.<Object> createHandler(XmlBindingConfigurerV1.NAMESPACE);
+        handler.setCommandSchema(null);
+        handler.addCommandResource(catalog);
+        return handler;
+    }
+
+    @Benchmark
+    public CommandCatalog<Object> buildXmlCommandCatalog() {
+        return CommandFlow.buildXmlCommandCatalog(catalog);
+    }
+
+    @Benchmark
+    public String namespace() {
+        return XmlNamespaceUtil.getTopLevelNamespace(catalog);
+    }
+
+    @Benchmark
+    public int validate() throws Exception {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        for (Resource file : files) {
+            XmlBindingConfigurerV1.COMMAND_SCHEMA.newValidator().validate(new StAXSource(factory.createXMLStreamReader(file.getInputStream())));
+        }
+        return files.size();
+    }
+
+    @Benchmark
+    public CommandCatalog<Object> process() {
+        CommandCatalog<Object> processed = new DefaultCommandCatalog<Object>();
+        newHandler().build(processed);
+        return processed;
+    }
+
+    @Benchmark
+    public CommandBuilder<Object> link(BuiltCatalog built) {
+        return built.builder.link();
+    }
+
+    @Benchmark
+    public CommandBuilder<Object> init(LinkedCatalog linked) {
+        return linked.builder.init();
+    }
+
+    /**
+     * A catalog built from the generated XML, a new catalog is built for each iteration
+     */
+    @State(Scope.Thread)
+    public static class BuiltCatalog {
+        /** The builder of the catalog */
+        CommandBuilder<Object> builder;
+
+        @Setup(Level.Iteration)
+        public void setup(XmlCatalogBenchmark benchmark) {
+            builder = new DefaultCommandBuilder<Object>(new DefaultCommandCatalog<Object>()).addBindingHandler(benchmark.newHandler()).build();
+        }
+    }
+
+    /**
+     * A catalog built from the generated XML and linked, a new catalog is built for each iteration
+     */
+    @State(Scope.Thread)
+    public static class LinkedCatalog {
+        /** The builder of the catalog */
+        CommandBuilder<Object> builder;
+
+        @Setup(Level.Iteration)
+        public void setup(XmlCatalogBenchmark benchmark) {
+            builder = new DefaultCommandBuilder<Object>(new DefaultCommandCatalog<Object>()).addBindingHandler(benchmark.newHandler()).build().link();
+        }
+    }
+
+    /**
+     * Runs the startup benchmarks with the GC profiler, reporting the allocation rate and allocated bytes per phase
+     * @param args not used
+     * @throws RunnerException if running the benchmarks fails
+     */
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(XmlCatalogBenchmark.class.getName()).addProfiler(GCProfiler.class).build()).run();
+    }
+}
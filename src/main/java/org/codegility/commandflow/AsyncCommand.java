@@ -0,0 +1,47 @@
+/**
+ * Copyright 2010/2011, Martin Lansler
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codegility.commandflow;
+
+import java.util.concurrent.Executor;
+
+import org.codegility.commandflow.command.CommandTask;
+
+/**
+ * Optional interface for commands that can execute without blocking a thread while waiting, e.g. for I/O.
+ * <p>
+ * The execution is represented by a {@link CommandTask} that is done once the command status is known, its listeners are notified via
+ * {@link CommandTask#addListener(Runnable, Executor)}. A leaf command typically returns a task created via {@link CommandTask#CommandTask()} that is
+ * completed from the callback of an asynchronous I/O operation. The sequential composite commands execute their contained commands one at a time
+ * and continue from the listener of each contained execution, hence no thread waits for a contained command to complete and many flows awaiting
+ * I/O can be executed by few threads. Contained commands that are not asynchronous are executed as a {@link CommandTask} via the executor.
+ * <p>
+ * Executing asynchronously must have the same effect on the context as {@link #execute(Object)}. The {@link org.codegility.commandflow.command.ExecutionScope}
+ * of the calling thread applies to the whole execution, cancelling the returned task cancels the contained execution in progress via its
+ * cancellation token and no further contained commands are executed. Subclasses of asynchronous commands that override {@link #execute(Object)}
+ * must override {@link #executeAsync(Object, Executor)} accordingly.
+ * @param <C> the context class of the command
+ * @author Martin Lansler
+ * @see org.codegility.commandflow.command.CommandUtil#executeAsync(Command, Object, Executor)
+ */
+public interface AsyncCommand<C> extends Command<C> {
+    /**
+     * Executes the command asynchronously
+     * @param context the command context
+     * @param executor the executor of the contained commands that are not asynchronous
+     * @return the execution, its result is the command status
+     */
+    CommandTask<C> executeAsync(C context, Executor executor);
+}
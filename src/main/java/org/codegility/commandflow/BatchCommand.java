@@ -0,0 +1,45 @@
+/**
+ * Copyright 2010/2011, Martin Lansler
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codegility.commandflow;
+
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * Optional interface for commands that can execute a batch of contexts at once.
+ * <p>
+ * A batch is a list of contexts together with a selection, a {@link BitSet} holding the indexes of the contexts in the list to execute the command
+ * for. The result is the set of selected indexes for which the command status is <code>true</code>. Composite commands execute their contained
+ * commands on sub-batches, e.g. an and command only passes on the indexes for which the previous command returned <code>true</code>. A leaf command
+ * can use the batch to amortize per-execution costs, for instance by loading data for all contexts in a single round trip.
+ * <p>
+ * Executing a batch must have the same effect on each context as executing the command for each selected context, however the order in which the
+ * contexts are processed is not defined. In particular a composite command executes each contained command for the whole sub-batch before proceeding
+ * with the next contained command. Subclasses of batch commands that override {@link #execute(Object)} must override
+ * {@link #executeBatch(List, BitSet)} accordingly.
+ * @param <C> the context class of the command
+ * @author Martin Lansler
+ * @see org.codegility.commandflow.command.CommandUtil#executeBatch(Command, List, BitSet)
+ */
+public interface BatchCommand<C> extends Command<C> {
+    /**
+     * Executes the command for the selected contexts
+     * @param contexts the command contexts
+     * @param selection the indexes of the contexts to execute the command for, must not be modified
+     * @return a new bit set holding the selected indexes for which the command status is <code>true</code>
+     */
+    BitSet executeBatch(List<C> contexts, BitSet selection);
+}
@@ -0,0 +1,152 @@
+/**
+ * Copyright 2010/2011, Martin Lansler
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codegility.commandflow.admission;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Concurrency limit that adapts to the observed latency, using additive increase and multiplicative decrease (AIMD).
+ * <p>
+ * The lowest latency observed within a window of samples is taken as the latency of the flow without queueing. An execution slower than this latency
+ * times the latency tolerance, or one that failed, signals congestion and the limit is decreased by the backoff ratio. Otherwise the limit is
+ * increased by one if the limit is being used, i.e. at least half of it is in flight. The limit is kept between the minimum and maximum limits. All
+ * updates are lock-free.
+ * @author Martin Lansler
+ */
+public class AdaptiveLimit {
+    /** The number of samples after which the minimum latency is observed anew, so that the limit follows lasting latency changes */
+    private static final int MIN_LATENCY_WINDOW = 1000;
+
+    /** The minimum limit */
+    private final int minLimit;
+
+    /** The maximum limit */
+    private final int maxLimit;
+
+    /** The ratio the limit is multiplied with on congestion */
+    private volatile double backoffRatio = 0.9;
+
+    /** The ratio of the minimum latency above which a sample signals congestion */
+    private volatile double latencyTolerance = 2.0;
+
+    /** The limit, as the bits of a double */
+    private final AtomicLong limit;
+
+    /** The minimum latency in nanoseconds within the current window */
+    private final AtomicLong minLatency = new AtomicLong(Long.MAX_VALUE);
+
+    /** The number of samples */
+    private final AtomicLong sampleCount = new AtomicLong();
+
+    /**
+     * Creates a new adaptive limit
+     * @param initialLimit the initial limit
+     * @param minLimit the minimum limit, positive
+     * @param maxLimit the maximum limit, at least the minimum limit
+     */
+    public AdaptiveLimit(int initialLimit, int minLimit, int maxLimit) {
+        if (minLimit < 1 || maxLimit < minLimit) {
+            throw new IllegalArgumentException("Illegal limits, min " + minLimit + " max " + maxLimit);
+        }
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.limit = new AtomicLong(Double.doubleToLongBits(Math.min(maxLimit, Math.max(minLimit, initialLimit))));
+    }
+
+    /**
+     * Records the outcome of an execution and adapts the limit
+     * @param latency the latency of the execution in nanoseconds
+     * @param failed <code>true</code> if the execution failed
+     * @param inFlight the number of executions in flight when the execution started
+     */
+    public void onSample(long latency, boolean failed, int inFlight) {
+        long min = updateMinLatency(latency);
+        boolean congested = failed || latency > min * latencyTolerance;
+        while (true) {
+            long current = limit.get();
+            double value = Double.longBitsToDouble(current);
+            double next;
+            if (congested) {
+                next = Math.max(minLimit, value * backoffRatio);
+            } else if (inFlight * 2 >= value) {
+                next = Math.min(maxLimit, value + 1);
+            } else {
+                return;
+            }
+            if (next == value || limit.compareAndSet(current, Double.doubleToLongBits(next))) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Updates the minimum latency with a sample
+     * @param latency the sampled latency
+     * @return the minimum latency
+     */
+    private long updateMinLatency(long latency) {
+        if (sampleCount.incrementAndGet() % MIN_LATENCY_WINDOW == 0) {
+            minLatency.set(latency);
+            return latency;
+        }
+        while (true) {
+            long min = minLatency.get();
+            if (latency >= min || minLatency.compareAndSet(min, latency)) {
+                return Math.min(min, latency);
+            }
+        }
+    }
+
+    /**
+     * @return the current limit
+     */
+    public int getLimit() {
+        return (int) Double.longBitsToDouble(limit.get());
+    }
+
+    /**
+     * @return the minimum latency in nanoseconds observed within the current window, {@link Long#MAX_VALUE} if none
+     */
+    public long getMinLatency() {
+        return minLatency.get();
+    }
+
+    /**
+     * Sets the ratio the limit is multiplied with on congestion
+     * @param backoffRatio the ratio, above 0 and below 1, default is 0.9
+     * @return this (for method chaining)
+     */
+    public AdaptiveLimit setBackoffRatio(double backoffRatio) {
+        if (backoffRatio <= 0 || backoffRatio >= 1) {
+            throw new IllegalArgumentException("Backoff ratio must be above 0 and below 1: " + backoffRatio);
+        }
+        this.backoffRatio = backoffRatio;
+        return this;
+    }
+
+    /**
+     * Sets the ratio of the minimum latency above which a sample signals congestion
+     * @param latencyTolerance the ratio, at least 1, default is 2
+     * @return this (for method chaining)
+     */
+    public AdaptiveLimit setLatencyTolerance(double latencyTolerance) {
+        if (latencyTolerance < 1) {
+            throw new IllegalArgumentException("Latency tolerance must be at least 1: " + latencyTolerance);
+        }
+        this.latencyTolerance = latencyTolerance;
+        return this;
+    }
+}
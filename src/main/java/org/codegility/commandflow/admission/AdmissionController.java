@@ -0,0 +1,346 @@
+/**
+ * Copyright 2010/2011, Martin Lansler
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codegility.commandflow.admission;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.codegility.commandflow.command.CommandExecutionException;
+import org.codegility.commandflow.command.ExecutionScope;
+
+/**
+ * Admission control of the executions of a flow, set per named command via
+ * {@link org.codegility.commandflow.catalog.CommandCatalog#setAdmissionController(String, AdmissionController)}.
+ * <p>
+ * An execution must acquire a {@link Permit} before it starts and release it when done. The controller combines:
+ * <ul>
+ * <li>a concurrency limit, the maximum number of executions in flight, see {@link #setMaxConcurrency(int)}</li>
+ * <li>a rate limit, a token bucket of permits per second, see {@link #setRateLimit(double, int)}</li>
+ * <li>an adaptive concurrency limit following the observed latency, see {@link #setAdaptiveLimit(AdaptiveLimit)}</li>
+ * </ul>
+ * When a limit is reached the execution is rejected with an {@link AdmissionRejectedException}, unless queueing is enabled via
+ * {@link #setQueue(int, long, TimeUnit)}. Queued executions wait at most the maximum queue time, and never past the deadline of the
+ * {@link ExecutionScope} of the caller, before being rejected. Admitting an execution within the limits is lock-free, only queued executions block.
+ * @author Martin Lansler
+ */
+public class AdmissionController {
+    /** The maximum number of executions in flight, zero if unlimited */
+    private volatile int maxConcurrency;
+
+    /** The rate limit, <code>null</code> if none */
+    private volatile TokenBucket rateLimit;
+
+    /** The adaptive concurrency limit, <code>null</code> if none */
+    private volatile AdaptiveLimit adaptiveLimit;
+
+    /** The maximum number of queued executions, zero if executions are rejected directly */
+    private volatile int maxQueueSize;
+
+    /** The maximum time an execution is queued, in nanoseconds */
+    private volatile long maxQueueNanos;
+
+    /** The number of executions in flight */
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    /** The number of executions waiting for a concurrency permit */
+    private final AtomicInteger queued = new AtomicInteger();
+
+    /** The number of admitted executions */
+    private final AtomicLong admittedCount = new AtomicLong();
+
+    /** The number of rejected executions */
+    private final AtomicLong rejectedCount = new AtomicLong();
+
+    /** Guards the waiting of queued executions */
+    private final ReentrantLock lock = new ReentrantLock();
+
+    /** Signalled when a permit is released */
+    private final Condition released = lock.newCondition();
+
+    /**
+     * Acquires a permit for an execution, the permit must be released when the execution is done
+     * @return the permit
+     * @throws AdmissionRejectedException if the execution is rejected
+     */
+    public Permit acquire() throws AdmissionRejectedException {
+        long start = System.nanoTime();
+        long maxWait = getMaxWaitNanos();
+        TokenBucket rateLimit = this.rateLimit;
+        long wait = 0;
+        if (rateLimit != null) {
+            wait = rateLimit.reserve(start, maxWait);
+            if (wait < 0) {
+                throw reject("Rate limit of %s executions per second reached", rateLimit.getRate());
+            }
+        }
+        int admitted;
+        try {
+            if (wait > 0) {
+                park(wait);
+            }
+            admitted = tryAdmit();
+            if (admitted < 0) {
+                admitted = await(start + maxWait);
+            }
+        } catch (RuntimeException e) {
+            if (rateLimit != null) {
+                // the reserved rate permit was not used by an execution
+                rateLimit.unreserve();
+            }
+            throw e;
+        }
+        admittedCount.incrementAndGet();
+        return new Permit(admitted + 1);
+    }
+
+    /**
+     * Tries to admit an execution within the concurrency limit without waiting
+     * @return the number of executions in flight before the execution was admitted, negative if not admitted
+     */
+    private int tryAdmit() {
+        int limit = getLimit();
+        while (true) {
+            int current = inFlight.get();
+            if (current >= limit) {
+                return -1;
+            }
+            if (inFlight.compareAndSet(current, current + 1)) {
+                return current;
+            }
+        }
+    }
+
+    /**
+     * Waits in the queue until an execution can be admitted
+     * @param deadline the time until which to wait, see {@link System#nanoTime()}
+     * @return the number of executions in flight before the execution was admitted
+     * @throws AdmissionRejectedException if the queue is full or the wait timed out
+     */
+    private int await(long deadline) {
+        try {
+            if (queued.incrementAndGet() > maxQueueSize) {
+                throw reject("Concurrency limit of %d executions reached", getLimit());
+            }
+            lock.lockInterruptibly();
+            try {
+                while (true) {
+                    int admitted = tryAdmit();
+                    if (admitted >= 0) {
+                        return admitted;
+                    }
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) {
+                        throw reject("Concurrency limit of %d executions reached, queued for %d ms", getLimit(), TimeUnit.NANOSECONDS.toMillis(maxQueueNanos));
+                    }
+                    released.awaitNanos(remaining);
+                }
+            } finally {
+                lock.unlock();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CommandExecutionException(e, "Interrupted while queued for admission");
+        } finally {
+            queued.decrementAndGet();
+        }
+    }
+
+    /**
+     * Waits for a rate limit permit
+     * @param nanos the time to wait
+     */
+    private void park(long nanos) {
+        long deadline = System.nanoTime() + nanos;
+        for (long remaining = nanos; remaining > 0; remaining = deadline - System.nanoTime()) {
+            LockSupport.parkNanos(this, remaining);
+            if (Thread.interrupted()) {
+                Thread.currentThread().interrupt();
+                throw new CommandExecutionException("Interrupted while queued for admission");
+            }
+        }
+    }
+
+    /**
+     * Releases the permit of an execution
+     * @param permit the permit
+     * @param failed <code>true</code> if the execution failed
+     */
+    private void release(Permit permit, boolean failed) {
+        inFlight.decrementAndGet();
+        AdaptiveLimit adaptiveLimit = this.adaptiveLimit;
+        if (adaptiveLimit != null) {
+            adaptiveLimit.onSample(System.nanoTime() - permit.start, failed, permit.inFlight);
+        }
+        if (queued.get() > 0) {
+            lock.lock();
+            try {
+                released.signal();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * @return a new exception for a rejected execution
+     */
+    private AdmissionRejectedException reject(String message, Object... formattingArgs) {
+        rejectedCount.incrementAndGet();
+        return new AdmissionRejectedException(message, formattingArgs);
+    }
+
+    /**
+     * @return the maximum time to wait for admission in nanoseconds, bounded by the deadline of the execution scope
+     */
+    private long getMaxWaitNanos() {
+        long maxWait = maxQueueSize > 0 ? maxQueueNanos : 0;
+        ExecutionScope scope = ExecutionScope.current();
+        if (scope != null && scope.hasDeadline()) {
+            maxWait = Math.max(0, Math.min(maxWait, scope.getRemaining(TimeUnit.NANOSECONDS)));
+        }
+        return maxWait;
+    }
+
+    /**
+     * @return the current concurrency limit, the lowest of the maximum concurrency and the adaptive limit, {@link Integer#MAX_VALUE} if unlimited
+     */
+    public int getLimit() {
+        int limit = maxConcurrency > 0 ? maxConcurrency : Integer.MAX_VALUE;
+        AdaptiveLimit adaptiveLimit = this.adaptiveLimit;
+        return adaptiveLimit != null ? Math.min(limit, adaptiveLimit.getLimit()) : limit;
+    }
+
+    /**
+     * Sets the maximum number of executions in flight
+     * @param maxConcurrency the maximum number, zero if unlimited
+     * @return this (for method chaining)
+     */
+    public AdmissionController setMaxConcurrency(int maxConcurrency) {
+        if (maxConcurrency < 0) {
+            throw new IllegalArgumentException("Max concurrency must not be negative: " + maxConcurrency);
+        }
+        this.maxConcurrency = maxConcurrency;
+        return this;
+    }
+
+    /**
+     * Sets the rate limit
+     * @param permitsPerSecond the sustained number of executions per second, positive
+     * @param burst the maximum number of executions admitted at once after being idle, positive
+     * @return this (for method chaining)
+     */
+    public AdmissionController setRateLimit(double permitsPerSecond, int burst) {
+        if (permitsPerSecond <= 0 || burst < 1) {
+            throw new IllegalArgumentException("Illegal rate limit of " + permitsPerSecond + " per second with burst " + burst);
+        }
+        this.rateLimit = new TokenBucket(permitsPerSecond, burst);
+        return this;
+    }
+
+    /**
+     * Sets the adaptive concurrency limit
+     * @param adaptiveLimit the adaptive limit, <code>null</code> if none
+     * @return this (for method chaining)
+     */
+    public AdmissionController setAdaptiveLimit(AdaptiveLimit adaptiveLimit) {
+        this.adaptiveLimit = adaptiveLimit;
+        return this;
+    }
+
+    /**
+     * @return the adaptive concurrency limit, <code>null</code> if none
+     */
+    public AdaptiveLimit getAdaptiveLimit() {
+        return adaptiveLimit;
+    }
+
+    /**
+     * Enables queueing of executions when a limit is reached
+     * @param maxQueueSize the maximum number of executions waiting for a concurrency permit, zero if executions should be rejected directly
+     * @param maxQueueTime the maximum time an execution waits for admission
+     * @param unit the unit of the maximum queue time
+     * @return this (for method chaining)
+     */
+    public AdmissionController setQueue(int maxQueueSize, long maxQueueTime, TimeUnit unit) {
+        if (maxQueueSize < 0 || maxQueueTime < 0) {
+            throw new IllegalArgumentException("Illegal queue size " + maxQueueSize + " or time " + maxQueueTime);
+        }
+        this.maxQueueSize = maxQueueSize;
+        this.maxQueueNanos = unit.toNanos(maxQueueTime);
+        return this;
+    }
+
+    /**
+     * @return the number of executions in flight
+     */
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    /**
+     * @return the number of executions waiting for a concurrency permit
+     */
+    public int getQueued() {
+        return queued.get();
+    }
+
+    /**
+     * @return the number of admitted executions
+     */
+    public long getAdmittedCount() {
+        return admittedCount.get();
+    }
+
+    /**
+     * @return the number of rejected executions
+     */
+    public long getRejectedCount() {
+        return rejectedCount.get();
+    }
+
+    /**
+     * The permit of an admitted execution.
+     */
+    public final class Permit {
+        /** The admission time, see {@link System#nanoTime()} */
+        private final long start = System.nanoTime();
+
+        /** The number of executions in flight when admitted, including this one */
+        private final int inFlight;
+
+        /** <code>true</code> if released */
+        private boolean released;
+
+        Permit(int inFlight) {
+            this.inFlight = inFlight;
+        }
+
+        /**
+         * Releases the permit, subsequent calls are ignored
+         * @param failed <code>true</code> if the execution failed
+         */
+        public void release(boolean failed) {
+            if (!released) {
+                released = true;
+                AdmissionController.this.release(this, failed);
+            }
+        }
+    }
+}
@@ -0,0 +1,86 @@
+/**
+ * Copyright 2010/2011, Martin Lansler
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codegility.commandflow.admission;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lock-free token bucket rate limit, implemented as the generic cell rate algorithm.
+ * <p>
+ * Instead of a token count the bucket holds the theoretical arrival time of the next permit, each permit advances it by the emission interval. A
+ * permit conforms if the theoretical arrival time is at most the burst tolerance ahead of the current time, hence up to the burst size of permits
+ * may be acquired at once after the bucket has been idle.
+ * @author Martin Lansler
+ */
+final class TokenBucket {
+    /** The emission interval in nanoseconds, i.e. the time between two permits at the sustained rate */
+    private final long interval;
+
+    /** The burst tolerance in nanoseconds */
+    private final long tolerance;
+
+    /** The permits per second */
+    private final double rate;
+
+    /** The theoretical arrival time of the next permit, see {@link System#nanoTime()} */
+    private final AtomicLong arrival = new AtomicLong(System.nanoTime());
+
+    /**
+     * Creates a new token bucket
+     * @param rate the sustained number of permits per second, positive
+     * @param burst the maximum number of permits acquired at once, positive
+     */
+    TokenBucket(double rate, int burst) {
+        this.rate = rate;
+        this.interval = Math.max(1, (long) (1e9 / rate));
+        this.tolerance = (burst - 1) * interval;
+    }
+
+    /**
+     * Reserves a permit
+     * @param now the current time, see {@link System#nanoTime()}
+     * @param maxWait the maximum time in nanoseconds the caller is willing to wait for the permit
+     * @return the time in nanoseconds the caller must wait before the permit conforms, zero if it conforms now, negative if the permit would not
+     *         conform within the maximum wait and nothing was reserved
+     */
+    long reserve(long now, long maxWait) {
+        while (true) {
+            long current = arrival.get();
+            long start = Math.max(current, now);
+            long wait = start - now - tolerance;
+            if (wait > maxWait) {
+                return -1;
+            }
+            if (arrival.compareAndSet(current, start + interval)) {
+                return Math.max(0, wait);
+            }
+        }
+    }
+
+    /**
+     * Gives back a reserved permit, e.g. when the execution was rejected for another reason after the permit had been reserved
+     */
+    void unreserve() {
+        arrival.addAndGet(-interval);
+    }
+
+    /**
+     * @return the sustained number of permits per second
+     */
+    double getRate() {
+        return rate;
+    }
+}
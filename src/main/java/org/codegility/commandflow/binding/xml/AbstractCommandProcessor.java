@@ -36,7 +36,7 @@ public abstract class AbstractCommandProcessor<C> implements XmlElementProcessor
      */
     @Override
     public void startElement(XmlBindingHandler<C> handler, QName elementName, Map<String, String> attributes) {
-        Command<C> command = createCommand(elementName, attributes);
+        Command<C> command = createCommand(handler, elementName, attributes);
         handler.pushCommand(command, handler.getCommandName(command, elementName, attributes));
     }
 
@@ -46,6 +46,16 @@ public abstract class AbstractCommandProcessor<C> implements XmlElementProcessor
      */
     protected abstract Command<C> createCommand(QName elementName, Map<String, String> attributes);
 
+    /**
+     * Called to create the command in the subclass, by default via {@link #createCommand(QName, Map)}. Overridden by subclasses depending on the
+     * settings of the binding handler.
+     * @param handler the binding handler processing the element
+     * @return the created command
+     */
+    protected Command<C> createCommand(XmlBindingHandler<C> handler, QName elementName, Map<String, String> attributes) {
+        return createCommand(elementName, attributes);
+    }
+
     /**
      * Pops the created command
      */
@@ -25,7 +25,11 @@ import javax.xml.namespace.QName;
 import org.codegility.commandflow.Command;
 import org.codegility.commandflow.binding.BindingException;
 import org.codegility.commandflow.catalog.CommandReference;
+import org.codegility.commandflow.command.ExpressionCommand;
+import org.codegility.commandflow.command.ScriptCache;
 import org.codegility.commandflow.command.ScriptCommand;
+import org.codegility.commandflow.expression.Expression;
+import org.codegility.commandflow.expression.ExpressionException;
 
 /**
  * The base processor for a command.
@@ -36,9 +40,16 @@ import org.codegility.commandflow.command.ScriptCommand;
  * <li>Via an attribute containing a named reference to another command</li>
  * <li>Via an attribute containing a script</li>
  * </ul>
- * Hence either a {@link Command}, {@link CommandReference} or {@link ScriptCommand} instance is created.
+ * Hence either a {@link Command}, {@link CommandReference}, {@link ExpressionCommand} or {@link ScriptCommand} instance is created.
  * <p>
  * If a script attribute is specified the script vaue must either be a #{expression} or a static boolean value (parseable by {@link Boolean#parseBoolean(String)}).
+ * Scripts are compiled into a {@link ScriptCommand} via the {@link ScriptCache} set via {@link #setScriptCache(ScriptCache)}, by default the
+ * script cache of the binding handler, see {@link XmlBindingHandler#getScriptCache()}, hence identical scripts are compiled once per catalog. If expressions are enabled via {@link #setExpressionsEnabled(boolean)}
+ * or for all processors of a binding handler via {@link XmlBindingHandler#setExpressionsEnabled(boolean)}, a script that is a valid
+ * {@link Expression} is instead parsed into an {@link ExpressionCommand}, which needs no script engine. Expressions are disabled by default as
+ * their semantics differ from JavaScript for some scripts, e.g. comparisons of numbers with strings or of missing properties, see
+ * {@link Expression}. If no {@link ScriptCommand#DEFAULT_SCRIPT_ENGINE} script engine is found, scripts are always parsed into expression
+ * commands.
  * @author Martin Lansler
  */
 public class BasicCommandProcessor<C> extends AbstractCommandProcessor<C> {
@@ -50,6 +61,10 @@ public class BasicCommandProcessor<C> extends AbstractCommandProcessor<C> {
     private String dynamicRefAttribut;
     /** The name of the script attribute, may be <code>null</code> */
     private String scriptAttribute;
+    /** The cache compiling the scripts, <code>null</code> if the script cache of the binding handler should be used */
+    private ScriptCache scriptCache;
+    /** If <code>true</code> scripts that are valid expressions are parsed into expression commands */
+    private boolean expressionsEnabled;
 
     /**
      * Creates a new command processor without any bound attributes
@@ -74,6 +89,11 @@ public class BasicCommandProcessor<C> extends AbstractCommandProcessor<C> {
     
     @Override
     protected Command<C> createCommand(QName elementName, Map<String, String> attributes) {
+        return createCommand(null, elementName, attributes);
+    }
+
+    @Override
+    protected Command<C> createCommand(XmlBindingHandler<C> handler, QName elementName, Map<String, String> attributes) {
         Command<C> command;
 
         if (hasAttribute(getClassAttribute(), attributes)) {
@@ -83,13 +103,36 @@ public class BasicCommandProcessor<C> extends AbstractCommandProcessor<C> {
             boolean isDynamic = hasAttribute(getDynamicRefAttribut(), attributes) ? parseBoolean(attributes.get(getDynamicRefAttribut())) : false;
             command = new CommandReference<C>(ref, isDynamic);
         } else if (hasAttribute(getScriptAttribute(), attributes)) {
-            command = new ScriptCommand<C>(extractScript(attributes.get(getScriptAttribute())));
+            command = createScriptCommand(handler, extractScript(attributes.get(getScriptAttribute())));
         } else {
             throw new BindingException("Cannot build command with element name '%s' and attributes '%s'", elementName, attributes);
         }
         return command;
     }
 
+    /**
+     * Creates the command of a script, an expression command if the script is a valid expression
+     * @param handler the binding handler, <code>null</code> if unknown
+     * @param script the script
+     * @return the command
+     */
+    private Command<C> createScriptCommand(XmlBindingHandler<C> handler, String script) {
+        ScriptCache scriptCache = getScriptCache(handler);
+        boolean hasEngine = scriptCache.hasEngine(ScriptCommand.DEFAULT_SCRIPT_ENGINE);
+        if (!hasEngine || expressionsEnabled || (handler != null && handler.isExpressionsEnabled())) {
+            try {
+                return new ExpressionCommand<C>(script);
+            } catch (ExpressionException e) {
+                if (!hasEngine) {
+                    throw new BindingException(e, "Script '%s' is not a valid expression and no %s script engine is found", script,
+                            ScriptCommand.DEFAULT_SCRIPT_ENGINE);
+                }
+                // not an expression, evaluated by the script engine
+            }
+        }
+        return new ScriptCommand<C>(script, scriptCache);
+    }
+
     /**
      * Extract a script expression wrapped in a #{}
      * @return the extracted script if wrapped, otherwise trimmed script string
@@ -178,4 +221,53 @@ public class BasicCommandProcessor<C> extends AbstractCommandProcessor<C> {
         return this;
     }
 
+    /**
+     * Gets the cache compiling the scripts
+     * @param handler the binding handler, <code>null</code> if unknown
+     * @return the script cache set for this processor, otherwise the script cache of the handler, {@link ScriptCache#getDefault()} if no handler
+     */
+    private ScriptCache getScriptCache(XmlBindingHandler<C> handler) {
+        if (scriptCache != null) {
+            return scriptCache;
+        }
+        return handler != null ? handler.getScriptCache() : ScriptCache.getDefault();
+    }
+
+    /**
+     * @return the cache compiling the scripts, <code>null</code> if the script cache of the binding handler is used
+     */
+    public ScriptCache getScriptCache() {
+        return scriptCache;
+    }
+
+    /**
+     * Sets the cache compiling the scripts, e.g. to share compiled scripts between catalogs
+     * @param scriptCache the script cache, <code>null</code> if the script cache of the binding handler should be used
+     * @return this processor (for method chaining)
+     */
+    public BasicCommandProcessor<C> setScriptCache(ScriptCache scriptCache) {
+        this.scriptCache = scriptCache;
+        return this;
+    }
+
+    /**
+     * @return <code>true</code> if scripts that are valid expressions are parsed into expression commands
+     */
+    public boolean isExpressionsEnabled() {
+        return expressionsEnabled;
+    }
+
+    /**
+     * Enables or disables parsing scripts into expression commands, disabled by default unless enabled for the binding handler.
+     * <p>
+     * Only enable expressions if the scripts do not rely on JavaScript semantics differing from {@link Expression}.
+     * @param expressionsEnabled <code>true</code> if scripts that are valid expressions should be parsed into expression commands, <code>false</code>
+     *            if all scripts should be evaluated by the script engine
+     * @return this processor (for method chaining)
+     */
+    public BasicCommandProcessor<C> setExpressionsEnabled(boolean expressionsEnabled) {
+        this.expressionsEnabled = expressionsEnabled;
+        return this;
+    }
+
 }
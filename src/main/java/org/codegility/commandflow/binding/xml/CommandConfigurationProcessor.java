@@ -66,7 +66,17 @@ public class CommandConfigurationProcessor<C> implements XmlElementProcessor<C>
     public void startElement(XmlBindingHandler<C> handler, QName elementName, Map<String, String> attributes) {
         String propertyName = attributes.get(propertyNameAttribute);
         String propertyValue = attributes.get(propertyValueAttribute);
-        Command<C> bean = handler.peekCommand();
+        configure(handler.peekCommand(), propertyName, propertyValue);
+    }
+
+    /**
+     * Configures a property of the given command
+     * @param bean the command to configure
+     * @param propertyName the name of the property
+     * @param propertyValue the textual property value, coerced to the property type via {@link #coerceToType(Class, String)}
+     * @throws BindingException if the property could not be configured
+     */
+    public void configure(Command<C> bean, String propertyName, String propertyValue) {
         Method method = getSetter(propertyName, bean);
         try {
             method.invoke(bean, coerceToType(getSetterType(method), propertyValue));
@@ -177,6 +187,9 @@ public class CommandConfigurationProcessor<C> implements XmlElementProcessor<C>
      * @throws BindingException if the setter could not be found
      */
     private Method getSetter(String name, Object bean) {
+        if (settersCache == null) {
+            settersCache = new HashMap<Class<?>, Map<String, Method>>();
+        }
         Map<String, Method> setters = settersCache.get(bean.getClass());
         if (setters == null) {
             cacheSetters(bean.getClass());
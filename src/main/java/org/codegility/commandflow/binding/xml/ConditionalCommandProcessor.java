@@ -51,8 +51,8 @@ public class ConditionalCommandProcessor<C> extends BasicCommandProcessor<C> {
 
     
     @Override
-    protected Command<C> createCommand(QName elementName, Map<String, String> attributes) {
-        Command<C> condition = super.createCommand(elementName, attributes);
+    protected Command<C> createCommand(XmlBindingHandler<C> handler, QName elementName, Map<String, String> attributes) {
+        Command<C> condition = super.createCommand(handler, elementName, attributes);
         Command<C> conditionalCommand = newInstance(conditionalCommandClass);
         asComposite(conditionalCommand).add(condition);
         return conditionalCommand;
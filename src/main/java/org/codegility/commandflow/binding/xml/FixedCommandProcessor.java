@@ -26,25 +26,48 @@ import org.codegility.commandflow.Command;
 /**
  * A command processor that always creates a fixed command class.
  * <p>
- * This processor is usually used when the element name determines the command implementation class.
+ * This processor is usually used when the element name determines the command implementation class. Optionally a set of attributes can be given
+ * whose values, if present, are set as properties of the same name on the created command.
  * @author Martin Lansler
  */
 public class FixedCommandProcessor<C> extends AbstractCommandProcessor<C> {
     /** The command class to create */
     private Class<? extends Command<C>> clazz;
 
+    /** The attributes configured as command properties */
+    private String[] propertyAttributes;
+
+    /** Configures the command properties */
+    private CommandConfigurationProcessor<C> configurator;
+
     /**
      * Creates a new fixed command processor
      * @param clazz the command class
+     * @param propertyAttributes the attributes to configure as command properties
      */
     @SuppressWarnings({ "rawtypes", "unchecked" })
-    public FixedCommandProcessor(Class<? extends Command> clazz) {
+    public FixedCommandProcessor(Class<? extends Command> clazz, String... propertyAttributes) {
         this.clazz = (Class<? extends Command<C>>) clazz;
+        this.propertyAttributes = propertyAttributes;
+        this.configurator = new CommandConfigurationProcessor<C>(null, null);
     }
 
-    
     @Override
     protected Command<C> createCommand(QName elementName, Map<String, String> attributes) {
-        return newInstance(clazz);
+        Command<C> command = newInstance(clazz);
+        for (String propertyAttribute : propertyAttributes) {
+            String value = attributes.get(propertyAttribute);
+            if (value != null) {
+                configurator.configure(command, propertyAttribute, value);
+            }
+        }
+        return command;
+    }
+
+    @Override
+    public FixedCommandProcessor<C> clone() {
+        FixedCommandProcessor<C> clone = (FixedCommandProcessor<C>) super.clone();
+        clone.configurator = configurator.clone();
+        return clone;
     }
 }
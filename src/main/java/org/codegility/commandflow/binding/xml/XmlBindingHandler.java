@@ -40,6 +40,7 @@ import org.codegility.commandflow.binding.BindingException;
 import org.codegility.commandflow.binding.BindingHandler;
 import org.codegility.commandflow.builder.CompositeCommand;
 import org.codegility.commandflow.catalog.CommandCatalog;
+import org.codegility.commandflow.command.ScriptCache;
 import org.codegility.commandflow.io.Resource;
 
 import com.sun.org.apache.xml.internal.resolver.Catalog;
@@ -75,6 +76,12 @@ public class XmlBindingHandler<C> implements BindingHandler<C> {
     /** Command name lookup, may be <code>null</code> */
     private XmlCommandNameLookup<C> xmlCommandNameLookup;
 
+    /** The cache compiling the scripts of the catalog */
+    private ScriptCache scriptCache = new ScriptCache();
+
+    /** If <code>true</code> scripts that are valid expressions are parsed into expression commands by all processors */
+    private boolean expressionsEnabled;
+
     /** StAX factory */
     private static final XMLInputFactory xmlInputFactory;
     static {
@@ -338,6 +345,42 @@ public class XmlBindingHandler<C> implements BindingHandler<C> {
         return name;
     }
 
+    /**
+     * @return the cache compiling the scripts of the command XML, by default a cache of its own so compiled scripts are shared only within the
+     *         catalog built by this handler
+     */
+    public ScriptCache getScriptCache() {
+        return scriptCache;
+    }
+
+    /**
+     * Sets the cache compiling the scripts of the command XML, e.g. {@link ScriptCache#getDefault()} to share compiled scripts between catalogs
+     * @param scriptCache the script cache
+     * @return this handler (for method chaining)
+     */
+    public XmlBindingHandler<C> setScriptCache(ScriptCache scriptCache) {
+        this.scriptCache = scriptCache;
+        return this;
+    }
+
+    /**
+     * @return <code>true</code> if scripts that are valid expressions are parsed into expression commands by all processors
+     */
+    public boolean isExpressionsEnabled() {
+        return expressionsEnabled;
+    }
+
+    /**
+     * Enables or disables parsing scripts into expression commands for all {@link BasicCommandProcessor}s of this handler, disabled by default,
+     * see {@link BasicCommandProcessor#setExpressionsEnabled(boolean)}
+     * @param expressionsEnabled <code>true</code> if scripts that are valid expressions should be parsed into expression commands
+     * @return this handler (for method chaining)
+     */
+    public XmlBindingHandler<C> setExpressionsEnabled(boolean expressionsEnabled) {
+        this.expressionsEnabled = expressionsEnabled;
+        return this;
+    }
+
     /**
      * Clears all bindings.
      * <p>
@@ -355,6 +398,8 @@ public class XmlBindingHandler<C> implements BindingHandler<C> {
         clone.processedResources = new HashSet<Resource>(processedResources);
         clone.schema = this.schema;
         clone.xmlCommandNameLookup = this.xmlCommandNameLookup;
+        clone.scriptCache = this.scriptCache;
+        clone.expressionsEnabled = this.expressionsEnabled;
         clone.xmlElementProcessors = new HashMap<QName, XmlElementProcessor<C>>();
         for (Entry<QName, XmlElementProcessor<C>> entry : this.xmlElementProcessors.entrySet()) {
             clone.xmlElementProcessors.put(entry.getKey(), entry.getValue().clone());
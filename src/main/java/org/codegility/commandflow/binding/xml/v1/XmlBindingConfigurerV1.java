@@ -36,17 +36,30 @@ import org.codegility.commandflow.binding.xml.XmlBindingConfigurer;
 import org.codegility.commandflow.binding.xml.XmlBindingFactory;
 import org.codegility.commandflow.binding.xml.XmlBindingHandler;
 import org.codegility.commandflow.command.AndCommand;
+import org.codegility.commandflow.command.CachingCommand;
+import org.codegility.commandflow.command.CircuitBreakerCommand;
 import org.codegility.commandflow.command.DoWhileCommand;
+import org.codegility.commandflow.command.ForEachCommand;
+import org.codegility.commandflow.command.HedgedCommand;
 import org.codegility.commandflow.command.IfCommand;
 import org.codegility.commandflow.command.NotCommand;
 import org.codegility.commandflow.command.OrCommand;
+import org.codegility.commandflow.command.ParallelAndCommand;
+import org.codegility.commandflow.command.ParallelCommand;
+import org.codegility.commandflow.command.ParallelOrCommand;
+import org.codegility.commandflow.command.PipelineCommand;
 import org.codegility.commandflow.command.SequenceCommand;
+import org.codegility.commandflow.command.StageCommand;
+import org.codegility.commandflow.command.TimeoutCommand;
 import org.codegility.commandflow.command.WhileCommand;
 import org.xml.sax.SAXException;
 
 /**
  * The {@link XmlBindingConfigurer} for this XML namespace.
  * <p>
+ * The scripts of the command, condition and loop elements are parsed into expression commands if enabled via
+ * {@link XmlBindingHandler#setExpressionsEnabled(boolean)}, or if no JavaScript engine is found, see {@link BasicCommandProcessor}.
+ * <p>
  * This class also defines constants for the default element and attributes names from the command schema.
  * @author Martin Lansler
  */
@@ -77,6 +90,26 @@ public class XmlBindingConfigurerV1 implements XmlBindingConfigurer {
     private static final QName WHILE_ELEMENT = new QName(NAMESPACE, "while");
     /** Element {@value} */
     private static final QName DO_WHILE_ELEMENT = new QName(NAMESPACE, "doWhile");
+    /** Element {@value} */
+    public static final QName PARALLEL_ELEMENT = new QName(NAMESPACE, "parallel");
+    /** Element {@value} */
+    public static final QName PARALLEL_OR_ELEMENT = new QName(NAMESPACE, "parallelOr");
+    /** Element {@value} */
+    public static final QName PARALLEL_AND_ELEMENT = new QName(NAMESPACE, "parallelAnd");
+    /** Element {@value} */
+    public static final QName PIPELINE_ELEMENT = new QName(NAMESPACE, "pipeline");
+    /** Element {@value} */
+    public static final QName STAGE_ELEMENT = new QName(NAMESPACE, "stage");
+    /** Element {@value} */
+    public static final QName TIMEOUT_ELEMENT = new QName(NAMESPACE, "timeout");
+    /** Element {@value} */
+    public static final QName CIRCUIT_BREAKER_ELEMENT = new QName(NAMESPACE, "circuitBreaker");
+    /** Element {@value} */
+    public static final QName CACHE_ELEMENT = new QName(NAMESPACE, "cache");
+    /** Element {@value} */
+    public static final QName HEDGED_ELEMENT = new QName(NAMESPACE, "hedged");
+    /** Element {@value} */
+    public static final QName FOR_EACH_ELEMENT = new QName(NAMESPACE, "forEach");
 
     /** The {@value} attribute in {@link #IMPORT_ELEMENT} */
     private static final String RESOURCE_ATTRIBUTE = "resource";
@@ -88,6 +121,44 @@ public class XmlBindingConfigurerV1 implements XmlBindingConfigurer {
     public static final String REF_ATTRIBUTE = "ref";
     /** The {@value} attribute in {@link #COMMAND_ELEMENT} */
     public static final String DYNAMIC_REF_ATTRIBUTE = "dynamicRef";
+    /** The {@value} attribute in {@link #PIPELINE_ELEMENT} */
+    public static final String QUEUE_CAPACITY_ATTRIBUTE = "queueCapacity";
+    /** The {@value} attribute in {@link #STAGE_ELEMENT} */
+    public static final String PARALLELISM_ATTRIBUTE = "parallelism";
+    /** The {@value} attribute in {@link #TIMEOUT_ELEMENT} */
+    public static final String MILLIS_ATTRIBUTE = "millis";
+    /** The {@value} attribute in {@link #CIRCUIT_BREAKER_ELEMENT} */
+    public static final String FAILURE_RATE_THRESHOLD_ATTRIBUTE = "failureRateThreshold";
+    /** The {@value} attribute in {@link #CIRCUIT_BREAKER_ELEMENT} */
+    public static final String MINIMUM_CALLS_ATTRIBUTE = "minimumCalls";
+    /** The {@value} attribute in {@link #CIRCUIT_BREAKER_ELEMENT} */
+    public static final String WINDOW_MILLIS_ATTRIBUTE = "windowMillis";
+    /** The {@value} attribute in {@link #CIRCUIT_BREAKER_ELEMENT} */
+    public static final String SLOW_CALL_MILLIS_ATTRIBUTE = "slowCallMillis";
+    /** The {@value} attribute in {@link #CIRCUIT_BREAKER_ELEMENT} */
+    public static final String OPEN_MILLIS_ATTRIBUTE = "openMillis";
+    /** The {@value} attribute in {@link #CACHE_ELEMENT} */
+    public static final String KEY_ATTRIBUTE = "key";
+    /** The {@value} attribute in {@link #CACHE_ELEMENT} */
+    public static final String MAX_SIZE_ATTRIBUTE = "maxSize";
+    /** The {@value} attribute in {@link #CACHE_ELEMENT} */
+    public static final String TTL_ATTRIBUTE = "ttl";
+    /** The {@value} attribute in {@link #CACHE_ELEMENT} */
+    public static final String CAPTURE_ATTRIBUTE = "capture";
+    /** The {@value} attribute in {@link #HEDGED_ELEMENT} */
+    public static final String DELAY_MILLIS_ATTRIBUTE = "delayMillis";
+    /** The {@value} attribute in {@link #HEDGED_ELEMENT} */
+    public static final String PERCENTILE_ATTRIBUTE = "percentile";
+    /** The {@value} attribute in {@link #FOR_EACH_ELEMENT} */
+    public static final String ITEMS_ATTRIBUTE = "items";
+    /** The {@value} attribute in {@link #FOR_EACH_ELEMENT} */
+    public static final String VAR_ATTRIBUTE = "var";
+    /** The {@value} attribute in {@link #FOR_EACH_ELEMENT} */
+    public static final String RESULT_ATTRIBUTE = "result";
+    /** The {@value} attribute in {@link #FOR_EACH_ELEMENT} */
+    public static final String RESULTS_ATTRIBUTE = "results";
+    /** The {@value} attribute in {@link #FOR_EACH_ELEMENT} */
+    public static final String ORDERED_ATTRIBUTE = "ordered";
     /** Name attribute */
     public static final String NAME_ATTRIBUTE = "name";
 
@@ -136,8 +207,18 @@ public class XmlBindingConfigurerV1 implements XmlBindingConfigurer {
         handler.addElementProcessor(NOT_ELEMENT, new FixedCommandProcessor<C>(NotCommand.class));
         handler.addElementProcessor(OR_ELEMENT, new FixedCommandProcessor<C>(OrCommand.class));
         handler.addElementProcessor(AND_ELEMENT, new FixedCommandProcessor<C>(AndCommand.class));
-        // TODO: parallel
-        // TODO: parallelOr
-        // TODO: parallelAnd
+        handler.addElementProcessor(PARALLEL_ELEMENT, new FixedCommandProcessor<C>(ParallelCommand.class));
+        handler.addElementProcessor(PARALLEL_OR_ELEMENT, new FixedCommandProcessor<C>(ParallelOrCommand.class));
+        handler.addElementProcessor(PARALLEL_AND_ELEMENT, new FixedCommandProcessor<C>(ParallelAndCommand.class));
+        handler.addElementProcessor(PIPELINE_ELEMENT, new FixedCommandProcessor<C>(PipelineCommand.class, QUEUE_CAPACITY_ATTRIBUTE));
+        handler.addElementProcessor(STAGE_ELEMENT, new FixedCommandProcessor<C>(StageCommand.class, PARALLELISM_ATTRIBUTE));
+        handler.addElementProcessor(TIMEOUT_ELEMENT, new FixedCommandProcessor<C>(TimeoutCommand.class, MILLIS_ATTRIBUTE));
+        handler.addElementProcessor(CIRCUIT_BREAKER_ELEMENT, new FixedCommandProcessor<C>(CircuitBreakerCommand.class, FAILURE_RATE_THRESHOLD_ATTRIBUTE,
+                MINIMUM_CALLS_ATTRIBUTE, WINDOW_MILLIS_ATTRIBUTE, SLOW_CALL_MILLIS_ATTRIBUTE, OPEN_MILLIS_ATTRIBUTE));
+        handler.addElementProcessor(CACHE_ELEMENT, new FixedCommandProcessor<C>(CachingCommand.class, KEY_ATTRIBUTE, MAX_SIZE_ATTRIBUTE, TTL_ATTRIBUTE,
+                CAPTURE_ATTRIBUTE));
+        handler.addElementProcessor(HEDGED_ELEMENT, new FixedCommandProcessor<C>(HedgedCommand.class, DELAY_MILLIS_ATTRIBUTE, PERCENTILE_ATTRIBUTE));
+        handler.addElementProcessor(FOR_EACH_ELEMENT, new FixedCommandProcessor<C>(ForEachCommand.class, ITEMS_ATTRIBUTE, VAR_ATTRIBUTE,
+                PARALLELISM_ATTRIBUTE, RESULT_ATTRIBUTE, RESULTS_ATTRIBUTE, ORDERED_ATTRIBUTE));
     }
 }
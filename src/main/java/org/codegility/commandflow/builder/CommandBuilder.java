@@ -15,9 +15,15 @@
  */
 package org.codegility.commandflow.builder;
 
+import java.util.concurrent.Executor;
+
 import org.codegility.commandflow.binding.BindingHandler;
 import org.codegility.commandflow.catalog.CommandCatalog;
 import org.codegility.commandflow.catalog.CommandReference;
+import org.codegility.commandflow.catalog.FrozenCommandCatalog;
+import org.codegility.commandflow.compiler.FlowCompiler;
+import org.codegility.commandflow.metrics.FlowInstrumenter;
+import org.codegility.commandflow.metrics.FlowMetrics;
 
 /**
  * Interface for a command builder.
@@ -29,6 +35,8 @@ import org.codegility.commandflow.catalog.CommandReference;
  * <li>Building phase - using a {@link BindingHandler} commands are created and added to the catalog</li>
  * <li>Initialization phase - commands needing initialization (see {@link CommandInitialization}) are initialized</li>
  * <li>Linking phase - all {@link CommandReference} instances are resolved by the builder, if any cannot be resolved an error is raised</li>
+ * <li>Instrumentation phase (optional) - if {@link FlowMetrics} are set all commands are decorated to record execution metrics</li>
+ * <li>Compilation phase (optional) - if a {@link FlowCompiler} is set all commands in the catalog are replaced by their compiled counterparts</li>
  * </ol>
  * <p>
  * Implementation of this interface are not thread-safe if not otherwise noted.
@@ -58,6 +66,32 @@ public interface CommandBuilder<C> {
      */
     CommandCatalog<C> getCommandCatalog();
 
+    /**
+     * Sets the executor used by the commands and catalog created by this builder.
+     * <p>
+     * If set the executor replaces the executor of all commands implementing {@link ExecutorAware} during {@link #init()}, as well as the executor of
+     * the catalog if it implements {@link ExecutorAware}. If not set the commands and catalog use their own executors.
+     * @param executor the executor, <code>null</code> if the executors of commands and catalog should not be changed
+     * @return this command builder (for method chaining)
+     */
+    CommandBuilder<C> setExecutor(Executor executor);
+
+    /**
+     * Sets the flow compiler used to compile the commands in the catalog during {@link #compile()}.
+     * @param compiler the flow compiler, <code>null</code> if the commands should not be compiled
+     * @return this command builder (for method chaining)
+     */
+    CommandBuilder<C> setFlowCompiler(FlowCompiler<C> compiler);
+
+    /**
+     * Sets the flow metrics that commands are instrumented to record to during {@link #instrument()}.
+     * <p>
+     * If not set no commands are instrumented and execution has no metrics overhead.
+     * @param metrics the flow metrics, <code>null</code> if the commands should not be instrumented
+     * @return this command builder (for method chaining)
+     */
+    CommandBuilder<C> setFlowMetrics(FlowMetrics metrics);
+
     /**
      * Builds all commands by invoking the added binding handlers.
      * <p>
@@ -92,16 +126,48 @@ public interface CommandBuilder<C> {
     CommandBuilder<C> init() throws BuilderException;
 
     /**
-     * Convenience method that builds, links and initializes the commands.
+     * Instruments all commands in the catalog, including contained commands, to record execution metrics to the flow metrics, if set.
+     * <p>
+     * This method must be invoked after {@link #link()} and before {@link #init()}. The flow metrics are also set on the catalog, see
+     * {@link CommandCatalog#getFlowMetrics()}. Instrumented commands are not compiled by {@link #compile()}.
+     * @see FlowInstrumenter
+     * @return this command builder (for method chaining)
+     */
+    CommandBuilder<C> instrument();
+
+    /**
+     * Compiles all commands in the catalog using the flow compiler, if one is set.
+     * <p>
+     * This method must be invoked after {@link #link()} and {@link #init()} since the structure of a compiled command cannot be changed.
+     * @see FlowCompiler
+     * @return this command builder (for method chaining)
+     * @throws BuilderException if a compilation error occurred
+     */
+    CommandBuilder<C> compile() throws BuilderException;
+
+    /**
+     * Convenience method that builds, links, (optionally) instruments, initializes and (optionally) compiles the commands.
      * <p>
      * This method is equivalent to invoking (expect that the whole operation is synchronized):
      * <ol>
      * <li>{@link #build()}</li>
      * <li>{@link #link()}</li>
+     * <li>{@link #instrument()}</li>
      * <li>{@link #init()}</li>
+     * <li>{@link #compile()}</li>
      * </ol>
      * @return this command builder (for method chaining)
      * @throws BuilderException if a builder or initialization related error occurred
      */
     CommandBuilder<C> make() throws BuilderException;
+
+    /**
+     * Creates an immutable snapshot of the associated command catalog, typically invoked once after {@link #make()}.
+     * <p>
+     * The snapshot is not changed by later invocations of this builder, to pick up rebuilt commands a new snapshot must be created. Asynchronous
+     * executions of the snapshot use the executor set on this builder, if none is set the executor of the associated catalog.
+     * @see FrozenCommandCatalog
+     * @return the frozen command catalog
+     */
+    CommandCatalog<C> freeze();
 }
@@ -20,11 +20,18 @@ import java.util.List;
 import java.util.Map;
 import java.util.RandomAccess;
 import java.util.Set;
+import java.util.concurrent.Executor;
 
 import org.codegility.commandflow.Command;
 import org.codegility.commandflow.binding.BindingHandler;
+import org.codegility.commandflow.catalog.AbstractCommandCatalog;
 import org.codegility.commandflow.catalog.CommandCatalog;
 import org.codegility.commandflow.catalog.CommandReference;
+import org.codegility.commandflow.catalog.FrozenCommandCatalog;
+import org.codegility.commandflow.compiler.FlowCompiler;
+import org.codegility.commandflow.metrics.FlowInstrumenter;
+import org.codegility.commandflow.metrics.FlowMetrics;
+import org.codegility.commandflow.metrics.InstrumentedCommand;
 
 /**
  * The default command builder.
@@ -41,6 +48,15 @@ public class DefaultCommandBuilder<C> implements CommandBuilder<C> {
     /** The set of initialized commands, used to ensure commands are only initialized once */
     private Set<Command<C>> initializedCommands = new HashSet<Command<C>>();
 
+    /** The executor set on {@link ExecutorAware} commands and catalog, <code>null</code> if not used */
+    private Executor executor;
+
+    /** The flow compiler, <code>null</code> if commands should not be compiled */
+    private FlowCompiler<C> compiler;
+
+    /** The flow metrics, <code>null</code> if commands should not be instrumented */
+    private FlowMetrics metrics;
+
     /**
      * Creates a new command builder.
      * <p>
@@ -68,6 +84,24 @@ public class DefaultCommandBuilder<C> implements CommandBuilder<C> {
         return catalog;
     }
 
+    @Override
+    public CommandBuilder<C> setExecutor(Executor executor) {
+        this.executor = executor;
+        return this;
+    }
+
+    @Override
+    public CommandBuilder<C> setFlowCompiler(FlowCompiler<C> compiler) {
+        this.compiler = compiler;
+        return this;
+    }
+
+    @Override
+    public CommandBuilder<C> setFlowMetrics(FlowMetrics metrics) {
+        this.metrics = metrics;
+        return this;
+    }
+
     @Override
     public synchronized CommandBuilder<C> addBindingHandler(BindingHandler<C> handler) {
         handlers.add(handler);
@@ -91,12 +125,20 @@ public class DefaultCommandBuilder<C> implements CommandBuilder<C> {
 
     @Override
     public synchronized CommandBuilder<C> link() {
-        Map<String, Command<C>> commands = catalog.getCommands();
-        for (Map.Entry<String, Command<C>> entry : commands.entrySet()) {
-            Command<C> command = entry.getValue();
-            entry.setValue(link(command));
+        // the commands are only copied if a top level command is a static reference
+        Map<String, Command<C>> linkedCommands = null;
+        for (Map.Entry<String, Command<C>> entry : catalog.getCommandsView().entrySet()) {
+            Command<C> command = link(entry.getValue());
+            if (command != entry.getValue()) {
+                if (linkedCommands == null) {
+                    linkedCommands = catalog.getCommands();
+                }
+                linkedCommands.put(entry.getKey(), command);
+            }
+        }
+        if (linkedCommands != null) {
+            catalog.setCommands(linkedCommands);
         }
-        catalog.setCommands(commands);
         return this;
     }
 
@@ -160,7 +202,10 @@ public class DefaultCommandBuilder<C> implements CommandBuilder<C> {
 
     @Override
     public synchronized CommandBuilder<C> init() throws BuilderException {
-        for (Command<C> command : catalog.getCommands().values()) {
+        if (executor != null && catalog instanceof ExecutorAware) {
+            ((ExecutorAware) catalog).setExecutor(executor);
+        }
+        for (Command<C> command : catalog.getCommandsView().values()) {
             init(command);
         }
         return this;
@@ -169,11 +214,20 @@ public class DefaultCommandBuilder<C> implements CommandBuilder<C> {
     /**
      * Initializes the needed command if it implements {@link CommandInitialization}.
      * <p>
-     * If the command is a {@link CompositeCommand} the contained commands are recursively initialized as well.
+     * If the command is a {@link CompositeCommand} the contained commands are recursively initialized as well. If an executor is set on this builder
+     * it is set on commands implementing {@link ExecutorAware}. Commands instrumented by {@link #instrument()} are initialized through their
+     * decorator.
      * @param command the command to initialize
      * @throws BuilderException if an initialization error occurs
      */
     private void init(Command<C> command) throws BuilderException {
+        if (command instanceof InstrumentedCommand) {
+            init(((InstrumentedCommand<C>) command).getCommand());
+            return;
+        }
+        if (executor != null && command instanceof ExecutorAware) {
+            ((ExecutorAware) command).setExecutor(executor);
+        }
         if (command instanceof CommandInitialization && !initializedCommands.contains(command)) {
             ((CommandInitialization) command).init();
             initializedCommands.add(command);
@@ -187,12 +241,49 @@ public class DefaultCommandBuilder<C> implements CommandBuilder<C> {
         }
     }
 
+    @Override
+    public synchronized CommandBuilder<C> instrument() {
+        if (metrics == null) {
+            return this;
+        }
+        Map<String, Command<C>> commands = catalog.getCommands();
+        new FlowInstrumenter<C>(metrics).instrument(commands);
+        catalog.setCommands(commands);
+        catalog.setFlowMetrics(metrics);
+        return this;
+    }
+
+    @Override
+    public synchronized CommandBuilder<C> compile() throws BuilderException {
+        if (compiler == null) {
+            return this;
+        }
+        Map<String, Command<C>> commands = catalog.getCommands();
+        for (Map.Entry<String, Command<C>> entry : commands.entrySet()) {
+            entry.setValue(compiler.compile(entry.getValue()));
+        }
+        catalog.setCommands(commands);
+        return this;
+    }
+
     @Override
     public synchronized CommandBuilder<C> make() throws BuilderException {
         build();
         link();
+        instrument();
         init();
+        compile();
         return this;
     }
 
+    @Override
+    public synchronized CommandCatalog<C> freeze() {
+        Executor snapshotExecutor = executor;
+        if (snapshotExecutor == null && catalog instanceof AbstractCommandCatalog) {
+            // the executor set directly on the catalog
+            snapshotExecutor = ((AbstractCommandCatalog<C>) catalog).getExecutor();
+        }
+        return new FrozenCommandCatalog<C>(catalog, snapshotExecutor);
+    }
+
 }
@@ -0,0 +1,33 @@
+/**
+ * Copyright 2010/2011, Martin Lansler
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codegility.commandflow.builder;
+
+import java.util.concurrent.Executor;
+
+/**
+ * Interface for commands (or catalogs) that execute commands via an {@link Executor}.
+ * <p>
+ * If an executor is set on the {@link CommandBuilder} it is set on all commands implementing this interface when the builder initializes the
+ * commands, this allows the execution mode (for instance a platform thread pool or virtual threads) to be selected once for a whole catalog.
+ * @author Martin Lansler
+ */
+public interface ExecutorAware {
+    /**
+     * Sets the executor to use
+     * @param executor the executor, if <code>null</code> the implementation default is used
+     */
+    void setExecutor(Executor executor);
+}
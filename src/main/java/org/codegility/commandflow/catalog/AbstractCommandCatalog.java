@@ -0,0 +1,254 @@
+/**
+ * Copyright 2010/2011, Martin Lansler
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codegility.commandflow.catalog;
+
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.codegility.commandflow.AsyncCommand;
+import org.codegility.commandflow.Command;
+import org.codegility.commandflow.admission.AdmissionController;
+import org.codegility.commandflow.admission.AdmissionController.Permit;
+import org.codegility.commandflow.command.CommandExecutors;
+import org.codegility.commandflow.command.CommandTask;
+import org.codegility.commandflow.command.CommandUtil;
+import org.codegility.commandflow.command.ExecutionScope;
+
+/**
+ * Abstract base class for command catalogs implementing the execute methods on top of {@link #getCommand(String)} and
+ * {@link #getAdmissionController(String)}.
+ * <p>
+ * Executions of commands with an {@link AdmissionController} hold a permit of the controller for the duration of the execution, commands without
+ * admission control are executed directly. Asynchronous executions via {@link #executeAsync(String, Object)} use the executor returned by
+ * {@link #getExecutor()}.
+ * @param <C> the context class of the command
+ * @author Martin Lansler
+ */
+public abstract class AbstractCommandCatalog<C> implements CommandCatalog<C> {
+
+    /**
+     * @return the executor used for asynchronous command executions, never <code>null</code>
+     */
+    public abstract Executor getExecutor();
+
+    @Override
+    public boolean execute(String name, C context) {
+        return execute(name, getExistingCommand(name), context);
+    }
+
+    @Override
+    public boolean execute(String name, C context, long timeout, TimeUnit unit) {
+        Command<C> command = getExistingCommand(name);
+        ExecutionScope scope = ExecutionScope.enter(timeout, unit);
+        try {
+            scope.check();
+            return execute(name, command, context);
+        } finally {
+            scope.exit();
+        }
+    }
+
+    /**
+     * Executes a command, holding a permit of its admission controller if any
+     * @param name the command name
+     * @param command the command
+     * @param context the command context
+     * @return the command status
+     */
+    private boolean execute(String name, Command<C> command, C context) {
+        AdmissionController controller = getAdmissionController(name);
+        if (controller == null) {
+            return command.execute(context);
+        }
+        Permit permit = controller.acquire();
+        boolean failed = true;
+        try {
+            boolean status = command.execute(context);
+            failed = false;
+            return status;
+        } finally {
+            permit.release(failed);
+        }
+    }
+
+    @Override
+    public BitSet executeBatch(String name, List<C> contexts) {
+        Command<C> command = getExistingCommand(name);
+        BitSet selection = new BitSet(contexts.size());
+        selection.set(0, contexts.size());
+        AdmissionController controller = getAdmissionController(name);
+        if (controller == null) {
+            return CommandUtil.executeBatch(command, contexts, selection);
+        }
+        Permit permit = controller.acquire();
+        boolean failed = true;
+        try {
+            BitSet result = CommandUtil.executeBatch(command, contexts, selection);
+            failed = false;
+            return result;
+        } finally {
+            permit.release(failed);
+        }
+    }
+
+    @Override
+    public CommandTask<C> executeAsync(String name, C context) {
+        return executeAsync(name, context, getExecutor());
+    }
+
+    @Override
+    public CommandTask<C> executeAsync(String name, C context, Executor executor) {
+        Command<C> command = getExistingCommand(name);
+        AdmissionController controller = getAdmissionController(name);
+        if (controller == null) {
+            return CommandUtil.executeAsync(command, context, executor);
+        }
+        if (command instanceof AsyncCommand) {
+            return executeAsync(command, context, executor, controller.acquire());
+        }
+        AdmittedTask task = new AdmittedTask(command, context, controller.acquire());
+        try {
+            executor.execute(task);
+        } catch (RejectedExecutionException e) {
+            task.release();
+            throw e;
+        }
+        return task;
+    }
+
+    /**
+     * Executes an asynchronous command holding an admission permit, the permit is released once the returned task is done and before the
+     * listeners added by the caller are notified
+     * @param command the command
+     * @param context the command context
+     * @param executor the executor
+     * @param permit the admission permit
+     * @return the execution
+     */
+    private CommandTask<C> executeAsync(Command<C> command, C context, Executor executor, final Permit permit) {
+        final CommandTask<C> task;
+        boolean started = false;
+        try {
+            task = CommandUtil.executeAsync(command, context, executor);
+            started = true;
+        } finally {
+            if (!started) {
+                permit.release(true);
+            }
+        }
+        task.addListener(new Runnable() {
+            @Override
+            public void run() {
+                permit.release(isFailed(task));
+            }
+        }, CommandExecutors.getDirectExecutor());
+        return task;
+    }
+
+    /**
+     * Checks if a task failed, i.e. was cancelled or raised an exception
+     * @param task the task, done
+     * @return <code>true</code> if failed
+     */
+    private static boolean isFailed(CommandTask<?> task) {
+        if (task.isCancelled()) {
+            return true;
+        }
+        try {
+            task.get();
+            return false;
+        } catch (ExecutionException e) {
+            return true;
+        } catch (InterruptedException e) {
+            // not raised as the task is done
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * Gets an existing command
+     * @param name the command name
+     * @return the command
+     * @throws CatalogException if the command could not be found
+     */
+    protected Command<C> getExistingCommand(String name) {
+        Command<C> command = getCommand(name);
+        if (command == null) {
+            throw new CatalogException("Could not find command %s", name);
+        }
+        return command;
+    }
+
+    /**
+     * An asynchronous execution holding an admission permit, the permit is released once the command has finished and before the listeners are
+     * notified. A task cancelled while running keeps the permit until the command actually returns, a task cancelled before it was started releases
+     * it directly.
+     */
+    private class AdmittedTask extends CommandTask<C> {
+        /** The admission permit */
+        private final Permit permit;
+
+        /** Set by whoever releases the permit, either the running thread or the cancellation of a task not yet started */
+        private final AtomicBoolean releaseClaimed = new AtomicBoolean();
+
+        AdmittedTask(Command<C> command, C context, Permit permit) {
+            super(command, context);
+            this.permit = permit;
+        }
+
+        @Override
+        public void run() {
+            if (!releaseClaimed.compareAndSet(false, true)) {
+                // cancelled before started, the permit is already released
+                return;
+            }
+            try {
+                super.run();
+            } finally {
+                if (isCancelled()) {
+                    // cancelled while running, the command has now returned
+                    permit.release(true);
+                }
+            }
+        }
+
+        @Override
+        protected void done() {
+            if (isCancelled()) {
+                release();
+            } else {
+                // completed by the running thread, the command has returned
+                permit.release(isFailed(this));
+            }
+            super.done();
+        }
+
+        /**
+         * Releases the permit as failed unless the running thread has claimed it
+         */
+        void release() {
+            if (releaseClaimed.compareAndSet(false, true)) {
+                permit.release(true);
+            }
+        }
+    }
+}
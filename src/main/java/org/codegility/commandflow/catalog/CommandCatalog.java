@@ -15,10 +15,24 @@
  */
 package org.codegility.commandflow.catalog;
 
+import java.util.BitSet;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
+import org.codegility.commandflow.BatchCommand;
 import org.codegility.commandflow.Command;
+import org.codegility.commandflow.admission.AdmissionController;
+import org.codegility.commandflow.admission.AdmissionRejectedException;
 import org.codegility.commandflow.binding.BindingHandler;
+import org.codegility.commandflow.command.CancellationToken;
+import org.codegility.commandflow.command.CommandCancelledException;
+import org.codegility.commandflow.command.CommandTask;
+import org.codegility.commandflow.command.CommandTimeoutException;
+import org.codegility.commandflow.command.ExecutionScope;
+import org.codegility.commandflow.metrics.FlowMetrics;
 
 /**
  * The command catalog interface.
@@ -72,6 +86,15 @@ public interface CommandCatalog<C> {
      */
     Map<String, Command<C>> getCommands();
 
+    /**
+     * Gets a read-only view of all commands, map key is the command name.
+     * <p>
+     * Unlike {@link #getCommands()} the commands are not copied, hence this method is suitable for frequent reads such as monitoring. The view must
+     * not be modified and should not be retained, whether it reflects later changes of the catalog is implementation dependent.
+     * @return a read-only mapping of all held commands
+     */
+    Map<String, Command<C>> getCommandsView();
+
     /**
      * Clears all current commands and set the specified commands as specified in the map, mapped via command names.
      * <p>
@@ -81,12 +104,125 @@ public interface CommandCatalog<C> {
      */
     CommandCatalog<C> setCommands(Map<String, Command<C>> commands);
 
+    /**
+     * Sets the flow metrics recorded by the instrumented commands of this catalog.
+     * <p>
+     * The metrics are set by the {@link org.codegility.commandflow.builder.CommandBuilder} when instrumenting the commands.
+     * @param metrics the flow metrics, <code>null</code> if the commands are not instrumented
+     * @return this command catalog (for method chaining)
+     */
+    CommandCatalog<C> setFlowMetrics(FlowMetrics metrics);
+
+    /**
+     * Gets the flow metrics recorded by the instrumented commands of this catalog, e.g. the latencies and outcomes of each named command and its
+     * contained commands.
+     * @return the flow metrics, <code>null</code> if the commands are not instrumented
+     */
+    FlowMetrics getFlowMetrics();
+
+    /**
+     * Sets the admission controller limiting the executions of a named command via the execute methods of this catalog.
+     * <p>
+     * Once set, each execution must be admitted by the controller before the command is executed, otherwise it fails with an
+     * {@link AdmissionRejectedException}. A batch execution counts as a single execution. The controller is kept if the command is replaced or
+     * removed.
+     * @param name the command name
+     * @param controller the admission controller, <code>null</code> to remove any admission control
+     * @return this command catalog (for method chaining)
+     */
+    CommandCatalog<C> setAdmissionController(String name, AdmissionController controller);
+
+    /**
+     * Gets the admission controller of a named command
+     * @param name the command name
+     * @return the admission controller, <code>null</code> if executions of the command are not limited
+     */
+    AdmissionController getAdmissionController(String name);
+
+    /**
+     * Gets the version of the command mapping held by this catalog.
+     * <p>
+     * The version changes every time the result of {@link #getCommand(String)} may change, i.e. when commands are added, removed, cleared or set. It
+     * allows callers, such as dynamic {@link CommandReference} instances, to cache resolved commands and only resolve them again once the version has
+     * changed. The version is updated after the mapping has been changed.
+     * @return the current version
+     */
+    long getVersion();
+
     /**
      * Convenience method to retrieve and execute the named command from this catalog
      * @param name the name of the command to execute
      * @param context the command context
      * @return the boolean result of executing the command
      * @throws CatalogException if the names command could not be found
+     * @throws AdmissionRejectedException if the execution was not admitted, see {@link #setAdmissionController(String, AdmissionController)}
+     */
+    boolean execute(String name, C context) throws CatalogException, AdmissionRejectedException;
+
+    /**
+     * Convenience method to retrieve and execute the named command from this catalog within an execution deadline.
+     * <p>
+     * The deadline is visible to all commands of the flow via {@link ExecutionScope}, the built-in composite commands check it before each contained
+     * command and loop iteration. The deadline is checked co-operatively, leaf commands are not interrupted.
+     * @param name the name of the command to execute
+     * @param context the command context
+     * @param timeout the execution timeout
+     * @param unit the unit of the timeout
+     * @return the boolean result of executing the command
+     * @throws CatalogException if the names command could not be found
+     * @throws CommandTimeoutException if the flow exceeded the timeout
+     * @throws AdmissionRejectedException if the execution was not admitted within the timeout
+     */
+    boolean execute(String name, C context, long timeout, TimeUnit unit) throws CatalogException, CommandTimeoutException;
+
+    /**
+     * Convenience method to retrieve the named command from this catalog and execute it for a batch of contexts.
+     * <p>
+     * If the command implements {@link BatchCommand} the whole batch is passed to the command, otherwise the command is executed for each context in
+     * list order.
+     * @param name the name of the command to execute
+     * @param contexts the command contexts
+     * @return the indexes of the contexts for which the command status is <code>true</code>
+     * @throws CatalogException if the names command could not be found
+     */
+    BitSet executeBatch(String name, List<C> contexts) throws CatalogException;
+
+    /**
+     * Convenience method to retrieve the named command from this catalog and execute it asynchronously on the default executor of this catalog.
+     * <p>
+     * The command is retrieved by the calling thread, hence an unknown command is reported directly and not via the returned future. Unchecked
+     * exceptions raised by the command are reported as the cause of the {@link java.util.concurrent.ExecutionException} raised by
+     * {@link Future#get()}.
+     * <p>
+     * If the command has an admission controller the execution is admitted by the calling thread before it is submitted to the executor, hence a
+     * rejected execution is reported directly. The permit is released once the command has returned, an execution cancelled while running keeps
+     * the permit until then.
+     * <p>
+     * Cancelling the returned future cancels the execution co-operatively via its {@link CancellationToken}, the flow fails with a
+     * {@link CommandCancelledException} at the next check between contained commands and loop iterations. If cancelled with interruption the
+     * executing thread is also interrupted.
+     * <p>
+     * The execution can be continued without blocking a thread via {@link CommandTask#addListener(Runnable, Executor)}, the listeners are notified
+     * once the command has returned and its admission permit, if any, has been released. A command implementing
+     * {@link org.codegility.commandflow.AsyncCommand} is executed via
+     * {@link org.codegility.commandflow.command.CommandUtil#executeAsync(Command, Object, Executor)}, hence no thread waits for its contained
+     * commands and the permit is held until the returned task is done.
+     * @param name the name of the command to execute
+     * @param context the command context
+     * @return a future holding the boolean result of executing the command
+     * @throws CatalogException if the names command could not be found
+     * @throws AdmissionRejectedException if the execution was not admitted
+     */
+    CommandTask<C> executeAsync(String name, C context) throws CatalogException, AdmissionRejectedException;
+
+    /**
+     * Convenience method to retrieve the named command from this catalog and execute it asynchronously on the given executor.
+     * @param name the name of the command to execute
+     * @param context the command context
+     * @param executor the executor to execute the command on
+     * @return a future holding the boolean result of executing the command
+     * @throws CatalogException if the names command could not be found
+     * @see #executeAsync(String, Object)
      */
-    boolean execute(String name, C context) throws CatalogException;
+    CommandTask<C> executeAsync(String name, C context, Executor executor) throws CatalogException;
 }
@@ -15,7 +15,12 @@
  */
 package org.codegility.commandflow.catalog;
 
+import java.util.BitSet;
+import java.util.List;
+
+import org.codegility.commandflow.BatchCommand;
 import org.codegility.commandflow.Command;
+import org.codegility.commandflow.command.CommandUtil;
 
 /**
  * A reference to a named command.
@@ -26,7 +31,7 @@ import org.codegility.commandflow.Command;
  * Before the command reference can be executed the associated {@link CommandCatalog} must be set. Note: A static reference can never be executed, attempting this raises a runtime exception.
  * @author Martin Lansler
  */
-public class CommandReference<C> implements Command<C> {
+public class CommandReference<C> implements BatchCommand<C> {
     /** Name of command this reference refers to */
     private String referenceName;
     /** If <code>true</code> this is a dynamic reference */
@@ -35,6 +40,9 @@ public class CommandReference<C> implements Command<C> {
     /** The command catalog */
     private CommandCatalog<C> catalog;
 
+    /** The last resolution of a dynamic reference, <code>null</code> if not resolved */
+    private volatile Resolution<C> resolution;
+
     /**
      * Creates a new static command reference
      * @param referenceName the referenceName of the command to refer to
@@ -62,6 +70,7 @@ public class CommandReference<C> implements Command<C> {
      */
     public void setCommandCatalog(CommandCatalog<C> catalog) {
         this.catalog = catalog;
+        this.resolution = null;
     }
 
     /**
@@ -84,14 +93,37 @@ public class CommandReference<C> implements Command<C> {
         return command.execute(context);
     }
 
+    @Override
+    public BitSet executeBatch(List<C> contexts, BitSet selection) {
+        if (!isDynamic) {
+            throw new CatalogException("Cannot execute static command reference '%s'", referenceName);
+        }
+        if (catalog == null) {
+            throw new CatalogException("No command catalog is set for dynamic command reference '%s'", referenceName);
+        }
+        return CommandUtil.executeBatch(getReferencedCommand(), contexts, selection);
+    }
+
     /**
+     * Gets the referenced command.
+     * <p>
+     * The resolved command is cached together with the catalog version (see {@link CommandCatalog#getVersion()}), the command is only resolved again
+     * once the catalog has changed.
      * @return the references command
      */
     public Command<C> getReferencedCommand() {
+        CommandCatalog<C> catalog = this.catalog;
+        // read the version before resolving so that a concurrent change invalidates the resolution
+        long version = catalog.getVersion();
+        Resolution<C> resolution = this.resolution;
+        if (resolution != null && resolution.version == version && resolution.catalog == catalog) {
+            return resolution.command;
+        }
         Command<C> command = catalog.getCommand(referenceName);
         if (command == null) {
             throw new CatalogException("Cannot resolve dynamic command reference '%s'", referenceName);
         }
+        this.resolution = new Resolution<C>(catalog, version, command);
         return command;
     }
 
@@ -102,4 +134,21 @@ public class CommandReference<C> implements Command<C> {
         return referenceName;
     }
 
+    /**
+     * A resolved command together with the catalog version it was resolved at, immutable so that it can be safely published to other threads.
+     */
+    private static class Resolution<C> {
+        /** The catalog the command was resolved from */
+        private final CommandCatalog<C> catalog;
+        /** The catalog version */
+        private final long version;
+        /** The resolved command */
+        private final Command<C> command;
+
+        Resolution(CommandCatalog<C> catalog, long version, Command<C> command) {
+            this.catalog = catalog;
+            this.version = version;
+            this.command = command;
+        }
+    }
 }
@@ -15,24 +15,56 @@
  */
 package org.codegility.commandflow.catalog;
 
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 
 import org.codegility.commandflow.Command;
+import org.codegility.commandflow.admission.AdmissionController;
+import org.codegility.commandflow.builder.ExecutorAware;
+import org.codegility.commandflow.command.CommandExecutors;
+import org.codegility.commandflow.compiler.CompiledFlow;
+import org.codegility.commandflow.metrics.FlowMetrics;
 
 /**
  * The default command catalog.
  * <p>
  * The catalog is responsible for holding a named set of commands.
+ * <p>
+ * Asynchronous executions via {@link #executeAsync(String, Object)} use the executor set via {@link #setExecutor(Executor)}, if none is set
+ * {@link CommandExecutors#getDefaultExecutor()} is used.
+ * <p>
+ * Executions of commands with an {@link AdmissionController} hold a permit of the controller for the duration of the execution. Looking up the
+ * controller is a single map lookup, commands without admission control are executed as before.
+ * <p>
+ * The catalog may be changed at any time. For read-mostly catalogs that no longer change once built, a {@link FrozenCommandCatalog} snapshot offers
+ * cheaper lookups.
  * @param <C> the context class of the command
  * @author Martin Lansler
  */
-public class DefaultCommandCatalog<C> implements CommandCatalog<C> {
+public class DefaultCommandCatalog<C> extends AbstractCommandCatalog<C> implements ExecutorAware {
     /** The current set of named commands */
     private volatile Map<String, Command<C>> commands = new ConcurrentHashMap<String, Command<C>>();
 
+    /** The executor used for asynchronous executions, <code>null</code> if the default executor should be used */
+    private volatile Executor executor;
+
+    /** The version of the command mapping, incremented after each change */
+    private final AtomicLong version = new AtomicLong();
+
+    /** The flow metrics of the instrumented commands, <code>null</code> if not instrumented */
+    private volatile FlowMetrics metrics;
+
+    /** The admission controllers, mapped via command names */
+    private final Map<String, AdmissionController> admissionControllers = new ConcurrentHashMap<String, AdmissionController>();
+
+    /** If <code>false</code> the source flows of compiled commands are returned instead of the compiled commands */
+    private volatile boolean compiledFlowsEnabled = true;
+
     @SuppressWarnings("rawtypes")
     private static final AtomicReferenceFieldUpdater<DefaultCommandCatalog, Map> fieldUpdater;
     static {
@@ -42,17 +74,24 @@ public class DefaultCommandCatalog<C> implements CommandCatalog<C> {
     @Override
     public CommandCatalog<C> addCommand(String name, Command<C> command) {
         commands.put(name, command);
+        version.incrementAndGet();
         return this;
     }
 
     @Override
     public Command<C> getCommand(String name) {
-        return commands.get(name);
+        Command<C> command = commands.get(name);
+        if (!compiledFlowsEnabled && command instanceof CompiledFlow) {
+            return ((CompiledFlow<C>) command).getSource();
+        }
+        return command;
     }
 
     @Override
     public Command<C> removeCommand(String name) {
-        return commands.remove(name);
+        Command<C> command = commands.remove(name);
+        version.incrementAndGet();
+        return command;
     }
 
     @Override
@@ -60,9 +99,15 @@ public class DefaultCommandCatalog<C> implements CommandCatalog<C> {
         return new HashMap<String, Command<C>>(commands);
     }
 
+    @Override
+    public Map<String, Command<C>> getCommandsView() {
+        return Collections.unmodifiableMap(commands);
+    }
+
     @Override
     public CommandCatalog<C> clear() {
         commands.clear();
+        version.incrementAndGet();
         return this;
     }
 
@@ -71,16 +116,72 @@ public class DefaultCommandCatalog<C> implements CommandCatalog<C> {
         clear();
         Map<String, Command<C>> newCommands = new ConcurrentHashMap<String, Command<C>>(commands);
         fieldUpdater.set(this, newCommands);
+        version.incrementAndGet();
         return this;
     }
 
     @Override
-    public boolean execute(String name, C context) {
-        Command<C> command = getCommand(name);
-        if (command == null) {
-            throw new CatalogException("Could not find command %s", name);
+    public CommandCatalog<C> setFlowMetrics(FlowMetrics metrics) {
+        this.metrics = metrics;
+        return this;
+    }
+
+    @Override
+    public FlowMetrics getFlowMetrics() {
+        return metrics;
+    }
+
+    @Override
+    public CommandCatalog<C> setAdmissionController(String name, AdmissionController controller) {
+        if (controller == null) {
+            admissionControllers.remove(name);
+        } else {
+            admissionControllers.put(name, controller);
         }
-        return command.execute(context);
+        return this;
+    }
+
+    @Override
+    public AdmissionController getAdmissionController(String name) {
+        return admissionControllers.get(name);
     }
 
+    @Override
+    public long getVersion() {
+        return version.get();
+    }
+
+    /**
+     * Sets the executor used for asynchronous command executions
+     * @param executor the executor, if <code>null</code> the default executor is used
+     */
+    @Override
+    public void setExecutor(Executor executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * Enables or disables the execution of compiled commands.
+     * <p>
+     * When disabled {@link #getCommand(String)} returns the source flow of each {@link CompiledFlow} instead of the compiled command, which allows
+     * comparing compiled and interpreted execution of the same catalog. Compiled flows are enabled by default.
+     * @param enabled <code>true</code> if compiled commands should be executed
+     */
+    public void setCompiledFlowsEnabled(boolean enabled) {
+        this.compiledFlowsEnabled = enabled;
+        version.incrementAndGet();
+    }
+
+    /**
+     * @return <code>true</code> if compiled commands are executed, <code>false</code> if their source flows are executed
+     */
+    public boolean isCompiledFlowsEnabled() {
+        return compiledFlowsEnabled;
+    }
+
+    @Override
+    public Executor getExecutor() {
+        Executor executor = this.executor;
+        return executor != null ? executor : CommandExecutors.getDefaultExecutor();
+    }
 }
@@ -0,0 +1,312 @@
+/**
+ * Copyright 2010/2011, Martin Lansler
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codegility.commandflow.catalog;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.Executor;
+
+import org.codegility.commandflow.Command;
+import org.codegility.commandflow.admission.AdmissionController;
+import org.codegility.commandflow.builder.CommandBuilder;
+import org.codegility.commandflow.command.CommandExecutors;
+import org.codegility.commandflow.metrics.FlowMetrics;
+
+/**
+ * An immutable snapshot of a command catalog.
+ * <p>
+ * The snapshot holds the commands, admission controllers, flow metrics and version of the source catalog at the time it was created, typically via
+ * {@link CommandBuilder#freeze()} once the builder has made the commands. Any later change of the source catalog is not reflected by the snapshot,
+ * and all methods changing the catalog raise an {@link UnsupportedOperationException}.
+ * <p>
+ * The command names are held in an open addressing hash table with linear probing, sized to be at most half full. All state is final and assigned
+ * once, hence looking up a command neither locks nor reads or writes any volatile field, it is typically resolved by the first probe. The map
+ * returned by {@link #getCommandsView()} is a read-only view of the table and is never copied.
+ * <p>
+ * Dynamic {@link CommandReference} instances keep resolving commands via the catalog they were linked to, i.e. the source catalog.
+ * <p>
+ * Asynchronous executions via {@link #executeAsync(String, Object)} use the executor given on creation, if none is given
+ * {@link CommandExecutors#getDefaultExecutor()} is used.
+ * @param <C> the context class of the command
+ * @author Martin Lansler
+ */
+public class FrozenCommandCatalog<C> extends AbstractCommandCatalog<C> {
+    /** The command names, indexed by hash slot, <code>null</code> for empty slots */
+    private final String[] names;
+
+    /** The spread hash codes of the command names, indexed by hash slot */
+    private final int[] hashes;
+
+    /** The commands, indexed by hash slot */
+    private final Command<C>[] commands;
+
+    /** The admission controllers, indexed by hash slot, <code>null</code> if executions are not limited */
+    private final AdmissionController[] admissionControllers;
+
+    /** The mask of the hash slots, the number of slots is a power of two */
+    private final int mask;
+
+    /** The number of commands */
+    private final int size;
+
+    /** The read-only view of the commands */
+    private final Map<String, Command<C>> view = new View();
+
+    /** The executor used for asynchronous executions, <code>null</code> if the default executor should be used */
+    private final Executor executor;
+
+    /** The flow metrics of the instrumented commands, <code>null</code> if not instrumented */
+    private final FlowMetrics metrics;
+
+    /** The version of the source catalog */
+    private final long version;
+
+    /**
+     * Creates a snapshot of a catalog using the default executor for asynchronous executions
+     * @param catalog the source catalog
+     */
+    public FrozenCommandCatalog(CommandCatalog<C> catalog) {
+        this(catalog, null);
+    }
+
+    /**
+     * Creates a snapshot of a catalog
+     * @param catalog the source catalog
+     * @param executor the executor used for asynchronous executions, if <code>null</code> the default executor is used
+     */
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    public FrozenCommandCatalog(CommandCatalog<C> catalog, Executor executor) {
+        this.version = catalog.getVersion();
+        this.metrics = catalog.getFlowMetrics();
+        this.executor = executor;
+        Set<String> sourceNames = catalog.getCommandsView().keySet();
+        int capacity = 2;
+        while (capacity < sourceNames.size() * 2) {
+            capacity <<= 1;
+        }
+        this.names = new String[capacity];
+        this.hashes = new int[capacity];
+        this.commands = new Command[capacity];
+        this.admissionControllers = new AdmissionController[capacity];
+        this.mask = capacity - 1;
+        int count = 0;
+        for (String name : sourceNames) {
+            // resolved via the catalog so that e.g. the compiled flow setting of the source catalog is honoured
+            Command<C> command = catalog.getCommand(name);
+            if (command == null) {
+                // removed concurrently
+                continue;
+            }
+            int hash = hash(name);
+            int index = hash & mask;
+            while (names[index] != null) {
+                index = (index + 1) & mask;
+            }
+            names[index] = name;
+            hashes[index] = hash;
+            commands[index] = command;
+            admissionControllers[index] = catalog.getAdmissionController(name);
+            count++;
+        }
+        this.size = count;
+    }
+
+    /**
+     * @return the spread hash code of a command name
+     */
+    private static int hash(String name) {
+        int hash = name.hashCode();
+        return hash ^ (hash >>> 16);
+    }
+
+    /**
+     * Looks up the hash slot of a command name
+     * @param name the command name
+     * @return the slot index, negative if not found
+     */
+    private int indexOf(String name) {
+        int hash = hash(name);
+        for (int index = hash & mask;; index = (index + 1) & mask) {
+            String candidate = names[index];
+            if (candidate == null) {
+                return -1;
+            }
+            if (hashes[index] == hash && (candidate == name || candidate.equals(name))) {
+                return index;
+            }
+        }
+    }
+
+    @Override
+    public Command<C> getCommand(String name) {
+        int index = indexOf(name);
+        return index < 0 ? null : commands[index];
+    }
+
+    @Override
+    public AdmissionController getAdmissionController(String name) {
+        int index = indexOf(name);
+        return index < 0 ? null : admissionControllers[index];
+    }
+
+    @Override
+    public Map<String, Command<C>> getCommands() {
+        return new HashMap<String, Command<C>>(view);
+    }
+
+    @Override
+    public Map<String, Command<C>> getCommandsView() {
+        return view;
+    }
+
+    @Override
+    public FlowMetrics getFlowMetrics() {
+        return metrics;
+    }
+
+    @Override
+    public long getVersion() {
+        return version;
+    }
+
+    @Override
+    public Executor getExecutor() {
+        return executor != null ? executor : CommandExecutors.getDefaultExecutor();
+    }
+
+    @Override
+    public CommandCatalog<C> addCommand(String name, Command<C> command) {
+        throw frozen();
+    }
+
+    @Override
+    public Command<C> removeCommand(String name) {
+        throw frozen();
+    }
+
+    @Override
+    public CommandCatalog<C> clear() {
+        throw frozen();
+    }
+
+    @Override
+    public CommandCatalog<C> setCommands(Map<String, Command<C>> commands) {
+        throw frozen();
+    }
+
+    @Override
+    public CommandCatalog<C> setFlowMetrics(FlowMetrics metrics) {
+        throw frozen();
+    }
+
+    @Override
+    public CommandCatalog<C> setAdmissionController(String name, AdmissionController controller) {
+        throw frozen();
+    }
+
+    /**
+     * @return the exception raised when trying to change this catalog
+     */
+    private UnsupportedOperationException frozen() {
+        return new UnsupportedOperationException("A frozen command catalog cannot be changed");
+    }
+
+    /**
+     * The read-only view of the hash table.
+     */
+    private class View extends AbstractMap<String, Command<C>> {
+        /** The entries */
+        private final Set<Map.Entry<String, Command<C>>> entrySet = new EntrySet();
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return key instanceof String && indexOf((String) key) >= 0;
+        }
+
+        @Override
+        public Command<C> get(Object key) {
+            return key instanceof String ? getCommand((String) key) : null;
+        }
+
+        @Override
+        public Set<Map.Entry<String, Command<C>>> entrySet() {
+            return entrySet;
+        }
+    }
+
+    /**
+     * The read-only entries of the hash table.
+     */
+    private class EntrySet extends AbstractSet<Map.Entry<String, Command<C>>> {
+        @Override
+        public int size() {
+            return size;
+        }
+
+        @Override
+        public Iterator<Map.Entry<String, Command<C>>> iterator() {
+            return new EntryIterator();
+        }
+    }
+
+    /**
+     * Iterates the occupied slots of the hash table.
+     */
+    private class EntryIterator implements Iterator<Map.Entry<String, Command<C>>> {
+        /** The index of the next occupied slot, the number of slots if none */
+        private int next = advance(0);
+
+        /**
+         * @return the index of the first occupied slot at or after the given index, the number of slots if none
+         */
+        private int advance(int index) {
+            while (index < names.length && names[index] == null) {
+                index++;
+            }
+            return index;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next < names.length;
+        }
+
+        @Override
+        public Map.Entry<String, Command<C>> next() {
+            if (next >= names.length) {
+                throw new NoSuchElementException();
+            }
+            int index = next;
+            next = advance(index + 1);
+            return new AbstractMap.SimpleImmutableEntry<String, Command<C>>(names[index], commands[index]);
+        }
+
+        @Override
+        public void remove() {
+            throw frozen();
+        }
+    }
+}
@@ -42,7 +42,8 @@ public abstract class AbstractCompositeCommand<C> implements Command<C>, Composi
     
     @Override
     public AbstractCompositeCommand<C> addAll(Collection<Command<C>> commands) {
-        return null;
+        this.commands.addAll(commands);
+        return this;
     }
 
     
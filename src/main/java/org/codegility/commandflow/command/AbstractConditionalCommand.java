@@ -18,6 +18,7 @@ package org.codegility.commandflow.command;
 import static org.codegility.commandflow.builder.BuilderException.raiseWrongNumberContainedCommands;
 
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.List;
 
 import org.codegility.commandflow.Command;
@@ -61,6 +62,20 @@ public abstract class AbstractConditionalCommand<C> extends AbstractCompositeCom
         this.action = getCommands().get(1);
     }
 
+    /**
+     * @return the condition command, <code>null</code> until initialized
+     */
+    protected Command<C> getCondition() {
+        return condition;
+    }
+
+    /**
+     * @return the action command, <code>null</code> until initialized
+     */
+    protected Command<C> getAction() {
+        return action;
+    }
+
     /**
      * Executes the condition command
      * @param context the command context
@@ -78,4 +93,26 @@ public abstract class AbstractConditionalCommand<C> extends AbstractCompositeCom
     protected boolean executeAction(C context) {
         return action.execute(context);
     }
-}
\ No newline at end of file
+
+    /**
+     * Executes the condition command for a batch of contexts
+     * @param contexts the command contexts
+     * @param selection the indexes of the contexts to execute the condition for
+     * @return the indexes for which the condition status is <code>true</code>
+     * @see CommandUtil#executeBatch(Command, List, BitSet)
+     */
+    protected BitSet executeCondition(List<C> contexts, BitSet selection) {
+        return CommandUtil.executeBatch(condition, contexts, selection);
+    }
+
+    /**
+     * Executes the action command for a batch of contexts
+     * @param contexts the command contexts
+     * @param selection the indexes of the contexts to execute the action for
+     * @return the indexes for which the action status is <code>true</code>
+     * @see CommandUtil#executeBatch(Command, List, BitSet)
+     */
+    protected BitSet executeAction(List<C> contexts, BitSet selection) {
+        return CommandUtil.executeBatch(action, contexts, selection);
+    }
+}
@@ -17,6 +17,9 @@ package org.codegility.commandflow.command;
 
 import static org.codegility.commandflow.builder.BuilderException.raiseWrongNumberContainedCommands;
 
+import java.util.BitSet;
+import java.util.List;
+
 import org.codegility.commandflow.Command;
 import org.codegility.commandflow.builder.BuilderException;
 import org.codegility.commandflow.builder.CommandInitialization;
@@ -66,4 +69,14 @@ public abstract class AbstractContainsOneCommand<C> extends AbstractCompositeCom
         return command.execute(context);
     }
 
-}
\ No newline at end of file
+    /**
+     * Executes the wrapped command for a batch of contexts
+     * @param contexts the command contexts
+     * @param selection the indexes of the contexts to execute the wrapped command for
+     * @return the indexes for which the wrapped command status is <code>true</code>
+     * @see CommandUtil#executeBatch(Command, List, BitSet)
+     */
+    protected BitSet executeWrappedCommand(List<C> contexts, BitSet selection) {
+        return CommandUtil.executeBatch(command, contexts, selection);
+    }
+}
@@ -0,0 +1,286 @@
+/**
+ * Copyright 2010/2011, Martin Lansler
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codegility.commandflow.command;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.codegility.commandflow.Command;
+import org.codegility.commandflow.builder.CommandBuilder;
+import org.codegility.commandflow.builder.ExecutorAware;
+
+/**
+ * Suitable base class for composite commands that execute their contained commands in parallel.
+ * <p>
+ * The contained commands are forked to the associated {@link Executor}, set via {@link #setExecutor(Executor)}. If none is set
+ * {@link CommandExecutors#getDefaultExecutor()} is used. The executor may also be set for all commands via {@link CommandBuilder#setExecutor(Executor)}.
+ * Commands rejected by the executor are executed by the calling thread. As the contained
+ * commands share the same context instance the context must be safe to access concurrently for the set of commands executed.
+ * <p>
+ * The {@link ExecutionScope} of the calling thread, if any, is attached to the forked commands. Once its deadline has passed the calling thread stops
+ * waiting, the forked commands are cancelled and a {@link CommandTimeoutException} is raised. Each forked command has its own
+ * {@link CancellationToken} linked to the token of the calling thread, hence cancelling the flow of the calling thread also cancels the forked
+ * commands, and cancelling a forked command stops it at its next checkpoint even if it does not respond to interruption.
+ * @param <C> the context class of the command
+ * @author Martin Lansler
+ */
+public abstract class AbstractParallelCommand<C> extends AbstractCompositeCommand<C> implements ExecutorAware {
+    /** The executor used to execute the forked commands, <code>null</code> if the default executor should be used */
+    private Executor executor;
+
+    /**
+     * Forks the given commands to the executor
+     * @param commands the commands to fork
+     * @param context the command context
+     * @param completionQueue queue to which each forked command is added once it completes, may be <code>null</code>
+     * @return the forked commands in the same order as the commands
+     */
+    protected List<ForkedCommand> fork(List<Command<C>> commands, C context, BlockingQueue<Future<Boolean>> completionQueue) {
+        return fork(commands, context, completionQueue, null);
+    }
+
+    /**
+     * Forks the given commands to the executor, once a forked command returns the decisive status or raises an exception the other forked commands
+     * are cancelled by the completing command, including a command executed by the calling thread
+     * @param commands the commands to fork
+     * @param context the command context
+     * @param completionQueue queue to which each forked command is added once it completes, may be <code>null</code>
+     * @param decisiveStatus the command status that cancels the other forked commands, <code>null</code> if none
+     * @return the forked commands in the same order as the commands
+     */
+    protected List<ForkedCommand> fork(List<Command<C>> commands, C context, BlockingQueue<Future<Boolean>> completionQueue, Boolean decisiveStatus) {
+        Executor executor = getExecutor();
+        List<ForkedCommand> forked = new ArrayList<ForkedCommand>(commands.size());
+        for (Command<C> command : commands) {
+            ForkedCommand task = new ForkedCommand(command, context, completionQueue);
+            try {
+                executor.execute(task);
+            } catch (RejectedExecutionException e) {
+                task.rejected = true;
+            }
+            forked.add(task);
+        }
+        if (decisiveStatus != null) {
+            for (ForkedCommand task : forked) {
+                task.decisiveStatus = decisiveStatus;
+                task.siblings = forked;
+            }
+        }
+        return forked;
+    }
+
+    /**
+     * Executes all contained commands in parallel until the first command returns the given decisive command status.
+     * <p>
+     * Once a command returns the decisive status all other commands are cancelled (and interrupted if running) and the decisive status is returned
+     * without waiting for the cancelled commands to finish. If no command returns the decisive status the negated decisive status is returned. If a
+     * command raises an exception all other commands are cancelled and the exception is propagated.
+     * <p>
+     * While no command has completed the calling thread executes the forked commands not yet picked up by the executor, hence nesting does not
+     * deadlock on a bounded executor. A command executed by the calling thread is cancelled as soon as another command returns the decisive status.
+     * Within an execution scope with a deadline only commands rejected by the executor are executed by the calling
+     * thread, so that the calling thread is not blocked past the deadline.
+     * @param context the command context
+     * @param decisiveStatus the command status that halts the execution
+     * @return the command status
+     */
+    protected boolean executeUntil(C context, boolean decisiveStatus) {
+        BlockingQueue<Future<Boolean>> completionQueue = new LinkedBlockingQueue<Future<Boolean>>();
+        List<ForkedCommand> forked = fork(getCommands(), context, completionQueue, decisiveStatus);
+        ExecutionScope scope = ExecutionScope.current();
+        boolean runUnstarted = scope == null || !scope.hasDeadline();
+        int next = 0;
+        try {
+            for (int pending = forked.size(); pending > 0; pending--) {
+                Future<Boolean> completed = completionQueue.poll();
+                while (completed == null && next < forked.size()) {
+                    ForkedCommand task = forked.get(next++);
+                    if (runUnstarted || task.rejected) {
+                        // a no-op if the task already has been started by the executor
+                        task.run();
+                        if (task.isCancelled()) {
+                            // clears the interrupt of a sibling cancelling the task
+                            Thread.interrupted();
+                        }
+                        completed = completionQueue.poll();
+                    }
+                }
+                if (completed == null) {
+                    completed = take(completionQueue);
+                }
+                if (getStatus(completed) == decisiveStatus) {
+                    cancel(forked);
+                    return decisiveStatus;
+                }
+            }
+        } catch (InterruptedException e) {
+            cancel(forked);
+            Thread.currentThread().interrupt();
+            throw new CommandExecutionException(e, "Interrupted while waiting for parallel commands to finish");
+        } catch (RuntimeException e) {
+            cancel(forked);
+            throw e;
+        } catch (Error e) {
+            cancel(forked);
+            throw e;
+        }
+        return !decisiveStatus;
+    }
+
+    /**
+     * Takes the next completed command, waiting at most until the deadline of the execution scope
+     * @param completionQueue the completion queue
+     * @return the completed command
+     * @throws InterruptedException if interrupted while waiting
+     * @throws CommandTimeoutException if the deadline passed while waiting
+     */
+    private Future<Boolean> take(BlockingQueue<Future<Boolean>> completionQueue) throws InterruptedException {
+        ExecutionScope scope = ExecutionScope.current();
+        if (scope == null || !scope.hasDeadline()) {
+            return completionQueue.take();
+        }
+        Future<Boolean> completed = completionQueue.poll(scope.getRemaining(TimeUnit.NANOSECONDS), TimeUnit.NANOSECONDS);
+        if (completed == null) {
+            throw scope.newTimeoutException();
+        }
+        return completed;
+    }
+
+    /**
+     * Gets the command status of a completed forked command, propagating any exception raised by the command
+     * @param completed the completed command
+     * @return the command status
+     * @throws InterruptedException if interrupted while waiting
+     */
+    private boolean getStatus(Future<Boolean> completed) throws InterruptedException {
+        try {
+            return completed.get();
+        } catch (ExecutionException e) {
+            propagate(e.getCause());
+            return false;
+        }
+    }
+
+    /**
+     * Cancels the given commands, interrupting them if running and cancelling their cancellation tokens
+     * @param forked the forked commands to cancel
+     */
+    protected void cancel(List<ForkedCommand> forked) {
+        for (ForkedCommand task : forked) {
+            task.cancel(true);
+        }
+    }
+
+    /**
+     * Propagates an exception raised by a contained command
+     * @param failure the exception
+     */
+    protected void propagate(Throwable failure) {
+        if (failure instanceof RuntimeException) {
+            throw (RuntimeException) failure;
+        }
+        if (failure instanceof Error) {
+            throw (Error) failure;
+        }
+        throw new CommandExecutionException(failure);
+    }
+
+    /**
+     * Sets the executor used to execute the contained commands
+     * @param executor the executor, if <code>null</code> the default executor is used
+     */
+    @Override
+    public void setExecutor(Executor executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * @return the executor used to execute the contained commands, never <code>null</code>
+     */
+    public Executor getExecutor() {
+        return executor != null ? executor : CommandExecutors.getDefaultExecutor();
+    }
+
+    /**
+     * A contained command forked for execution.
+     * <p>
+     * The command is added to the completion queue (if any) when done, including when cancelled.
+     */
+    protected class ForkedCommand extends CommandTask<C> {
+        /** Queue to add this command to when completed, may be <code>null</code> */
+        private final BlockingQueue<Future<Boolean>> completionQueue;
+        /** <code>true</code> if the executor rejected the command, it must then be executed by the calling thread */
+        private boolean rejected;
+        /** The command status that cancels the siblings, <code>null</code> if none */
+        private Boolean decisiveStatus;
+        /** The forked commands to cancel on the decisive status, <code>null</code> until all commands are forked */
+        private volatile List<ForkedCommand> siblings;
+
+        ForkedCommand(Command<C> command, C context, BlockingQueue<Future<Boolean>> completionQueue) {
+            super(command, context);
+            this.completionQueue = completionQueue;
+        }
+
+        /**
+         * @return <code>true</code> if the executor rejected the command
+         */
+        boolean isRejected() {
+            return rejected;
+        }
+
+        @Override
+        protected void done() {
+            if (completionQueue != null) {
+                completionQueue.add(this);
+            }
+            // added to the queue first, if the siblings are not yet set the calling thread sees this command before executing any other
+            List<ForkedCommand> siblings = this.siblings;
+            if (siblings != null && isDecisive()) {
+                for (ForkedCommand sibling : siblings) {
+                    if (sibling != this) {
+                        sibling.cancel(true);
+                    }
+                }
+            }
+            super.done();
+        }
+
+        /**
+         * @return <code>true</code> if the completed command returned the decisive status or raised an exception
+         */
+        private boolean isDecisive() {
+            if (isCancelled()) {
+                return false;
+            }
+            try {
+                return get().booleanValue() == decisiveStatus.booleanValue();
+            } catch (ExecutionException e) {
+                return true;
+            } catch (InterruptedException e) {
+                // not raised as the command has completed
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+    }
+}
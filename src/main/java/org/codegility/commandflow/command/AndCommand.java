@@ -15,6 +15,12 @@
  */
 package org.codegility.commandflow.command;
 
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import org.codegility.commandflow.AsyncCommand;
+import org.codegility.commandflow.BatchCommand;
 import org.codegility.commandflow.Command;
 
 /**
@@ -25,11 +31,12 @@ import org.codegility.commandflow.Command;
  * @param <C> the context class of the command
  * @author Martin Lansler
  */
-public class AndCommand<C> extends AbstractCompositeCommand<C> {
+public class AndCommand<C> extends AbstractCompositeCommand<C> implements BatchCommand<C>, AsyncCommand<C> {
     
     @Override
     public boolean execute(C context) {
         for (Command<C> command : getCommands()) {
+            ExecutionScope.checkpoint();
             if (!command.execute(context)) {
                 return false;
             }
@@ -37,4 +44,39 @@ public class AndCommand<C> extends AbstractCompositeCommand<C> {
         return getCommands().isEmpty() ? false : true;
     }
 
+    @Override
+    public BitSet executeBatch(List<C> contexts, BitSet selection) {
+        if (getCommands().isEmpty()) {
+            return new BitSet();
+        }
+        // only the contexts with status true so far proceed to the next command
+        BitSet status = selection;
+        for (Command<C> command : getCommands()) {
+            if (status.isEmpty()) {
+                break;
+            }
+            ExecutionScope.checkpoint();
+            status = CommandUtil.executeBatch(command, contexts, status);
+        }
+        return status == selection ? (BitSet) selection.clone() : status;
+    }
+
+    @Override
+    public CommandTask<C> executeAsync(C context, Executor executor) {
+        return new AsyncExecution<C>(context, executor) {
+            /** The index of the next command */
+            private int next;
+
+            @Override
+            void step(boolean status) {
+                if (next > 0 && !status) {
+                    complete(false);
+                } else if (next < getCommands().size()) {
+                    execute(getCommands().get(next++));
+                } else {
+                    complete(next > 0);
+                }
+            }
+        }.start();
+    }
 }
@@ -0,0 +1,172 @@
+/**
+ * Copyright 2010/2011, Martin Lansler
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codegility.commandflow.command;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+
+import org.codegility.commandflow.AsyncCommand;
+import org.codegility.commandflow.Command;
+
+/**
+ * The asynchronous execution of a sequential composite command, see {@link AsyncCommand}.
+ * <p>
+ * The execution proceeds in steps, each step either executes a contained command via {@link #execute(Command)} or completes the execution via
+ * {@link #complete(boolean)}. The next step is taken by the listener of the contained execution, i.e. by the thread completing it. If the contained
+ * execution is already done when the listener is added the steps are taken in a loop rather than recursively, so that long loops do not overflow
+ * the stack. The scope of the thread starting the execution is attached while starting a contained command and checked before, as by
+ * {@link ExecutionScope#checkpoint()}.
+ * @param <C> the context class of the command
+ * @author Martin Lansler
+ */
+abstract class AsyncExecution<C> implements Runnable {
+    /** The execution as seen by the caller */
+    private final CommandTask<C> task = new CommandTask<C>();
+
+    /** The command context */
+    private final C context;
+
+    /** The executor of the contained commands that are not asynchronous */
+    private final Executor executor;
+
+    /** The contained execution in progress, <code>null</code> if none started */
+    private volatile CommandTask<C> pending;
+
+    /** <code>true</code> while a thread takes steps, guarded by this execution */
+    private boolean stepping;
+
+    /** <code>true</code> if the contained execution completed while a thread took steps, guarded by this execution */
+    private boolean resumed;
+
+    /** The status of the contained execution that completed while a thread took steps, guarded by this execution */
+    private boolean resumedStatus;
+
+    /**
+     * Creates a new execution, the scope of the current thread applies to it
+     * @param context the command context
+     * @param executor the executor of the contained commands that are not asynchronous
+     */
+    AsyncExecution(C context, Executor executor) {
+        this.context = context;
+        this.executor = executor;
+    }
+
+    /**
+     * Takes the next step, either executing a contained command or completing the execution
+     * @param status the status of the contained command executed by the previous step, <code>false</code> for the first step
+     */
+    abstract void step(boolean status);
+
+    /**
+     * Starts the execution by taking the first step
+     * @return the execution
+     */
+    CommandTask<C> start() {
+        task.addListener(new Runnable() {
+            @Override
+            public void run() {
+                CommandTask<C> execution = pending;
+                if (task.isCancelled() && execution != null) {
+                    execution.cancel(true);
+                }
+            }
+        }, CommandExecutors.getDirectExecutor());
+        proceed(false);
+        return task;
+    }
+
+    /**
+     * Executes a contained command, the next step is taken once it completes
+     * @param command the command
+     */
+    void execute(Command<C> command) {
+        ExecutionScope scope = task.attachScope();
+        try {
+            scope.check();
+            pending = CommandUtil.executeAsync(command, context, executor);
+        } finally {
+            scope.exit();
+        }
+        pending.addListener(this, CommandExecutors.getDirectExecutor());
+    }
+
+    /**
+     * Completes the execution
+     * @param status the command status
+     */
+    void complete(boolean status) {
+        task.complete(status);
+    }
+
+    /**
+     * Takes the next step once the contained execution has completed
+     */
+    @Override
+    public void run() {
+        boolean status;
+        try {
+            status = pending.get();
+        } catch (ExecutionException e) {
+            task.fail(e.getCause());
+            return;
+        } catch (CancellationException e) {
+            task.fail(new CommandCancelledException("Contained execution cancelled"));
+            return;
+        } catch (InterruptedException e) {
+            // not raised as the contained execution is done
+            Thread.currentThread().interrupt();
+            task.fail(e);
+            return;
+        }
+        proceed(status);
+    }
+
+    /**
+     * Takes steps until a contained execution is in progress or the execution is done
+     * @param status the status of the contained command executed by the previous step
+     */
+    private void proceed(boolean status) {
+        synchronized (this) {
+            if (stepping) {
+                // completed before its listener was added, taken by the stepping thread
+                resumed = true;
+                resumedStatus = status;
+                return;
+            }
+            stepping = true;
+        }
+        for (;;) {
+            if (!task.isDone()) {
+                try {
+                    step(status);
+                } catch (RuntimeException e) {
+                    task.fail(e);
+                } catch (Error e) {
+                    task.fail(e);
+                }
+            }
+            synchronized (this) {
+                if (!resumed) {
+                    stepping = false;
+                    return;
+                }
+                resumed = false;
+                status = resumedStatus;
+            }
+        }
+    }
+}
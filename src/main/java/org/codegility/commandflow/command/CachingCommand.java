@@ -0,0 +1,284 @@
+/**
+ * Copyright 2010/2011, Martin Lansler
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codegility.commandflow.command;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.codegility.commandflow.builder.BuilderException;
+
+/**
+ * A command that memoizes the command status of the wrapped command.
+ * <p>
+ * The cache key is derived from a set of context properties, set via {@link #setKey(String)}, hence the wrapped command must be a pure function of
+ * these properties. On a cache miss the wrapped command is executed and its command status is cached, on a hit the cached status is returned
+ * without executing the wrapped command. Optionally the values of a set of context properties, set via {@link #setCapture(String)}, are captured
+ * after executing the wrapped command and written back to the context on a hit, so that the mutations of the context made by the wrapped command are
+ * replayed. Context properties are read and written as Java bean properties, if the context is a {@link Map} as its entries, nested properties are
+ * separated by dots, e.g. <code>order.total</code>. Executions raising an exception are not cached.
+ * <p>
+ * The cache is bounded, set via {@link #setMaxSize(int)}, and evicts the least recently used entries. Entries optionally expire after a time to live,
+ * set via {@link #setTtl(long)}. The cache is safe to use concurrently, concurrent misses of the same key may all execute the wrapped command.
+ * <p>
+ * If it wraps more than one command, the wrapped commands are coerced into a sequence command.
+ * @param <C> the context class of the command
+ * @author Martin Lansler
+ */
+public class CachingCommand<C> extends AbstractContainsOneCommand<C> {
+    /** The default maximum number of cached entries */
+    public static final int DEFAULT_MAX_SIZE = 1024;
+
+    /** The names of the key properties */
+    private String[] keyProperties = new String[0];
+
+    /** The names of the captured properties */
+    private String[] captureProperties = new String[0];
+
+    /** The maximum number of cached entries */
+    private int maxSize = DEFAULT_MAX_SIZE;
+
+    /** The time to live of the cached entries in milliseconds, zero if the entries do not expire */
+    private long ttl;
+
+    /** The cache, created on initialization */
+    private LruCache<Object, Entry> cache;
+
+    /** The number of executions that found a cached entry */
+    private final AtomicLong hitCount = new AtomicLong();
+
+    /** The number of executions that did not find a cached entry */
+    private final AtomicLong missCount = new AtomicLong();
+
+    /** The context property accessors */
+    private final ContextProperties properties = new ContextProperties();
+
+    @Override
+    public void init() throws BuilderException {
+        super.init();
+        if (keyProperties.length == 0) {
+            throw new BuilderException("Command %s requires at least one key property", getClass().getSimpleName());
+        }
+        cache = new LruCache<Object, Entry>(maxSize);
+    }
+
+    @Override
+    public boolean execute(C context) {
+        Object key = getKey(context);
+        Entry entry = cache.get(key);
+        if (entry != null && entry.isExpired(System.nanoTime())) {
+            cache.remove(key);
+            entry = null;
+        }
+        if (entry != null) {
+            hitCount.incrementAndGet();
+            for (int i = 0; i < captureProperties.length; i++) {
+                properties.set(context, captureProperties[i], entry.captured[i]);
+            }
+            return entry.status;
+        }
+        missCount.incrementAndGet();
+        boolean status = executeWrappedCommand(context);
+        Object[] captured = new Object[captureProperties.length];
+        for (int i = 0; i < captureProperties.length; i++) {
+            captured[i] = properties.get(context, captureProperties[i]);
+        }
+        long expires = ttl > 0 ? System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(ttl) : 0;
+        cache.put(key, new Entry(status, captured, expires));
+        return status;
+    }
+
+    /**
+     * Derives the cache key of a context, subclasses may override this method to derive keys otherwise
+     * @param context the command context
+     * @return the cache key, must implement {@link Object#equals(Object)} and {@link Object#hashCode()}
+     */
+    protected Object getKey(C context) {
+        if (keyProperties.length == 1) {
+            return properties.get(context, keyProperties[0]);
+        }
+        Object[] key = new Object[keyProperties.length];
+        for (int i = 0; i < keyProperties.length; i++) {
+            key[i] = properties.get(context, keyProperties[i]);
+        }
+        return Arrays.asList(key);
+    }
+
+    /**
+     * Removes all cached entries
+     */
+    public void clear() {
+        if (cache != null) {
+            cache.clear();
+        }
+    }
+
+    /**
+     * @return the number of cached entries
+     */
+    public int getSize() {
+        return cache != null ? cache.size() : 0;
+    }
+
+    /**
+     * @return the number of executions that found a cached entry
+     */
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    /**
+     * @return the number of executions that did not find a cached entry, including expired entries
+     */
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    /**
+     * @return the ratio of executions that found a cached entry, zero if not executed
+     */
+    public double getHitRate() {
+        long hits = hitCount.get(), total = hits + missCount.get();
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    /**
+     * @return the number of entries evicted to bound the cache size
+     */
+    public long getEvictionCount() {
+        return cache != null ? cache.getEvictionCount() : 0;
+    }
+
+    /**
+     * Sets the key properties
+     * @param key comma separated names of the context properties the cache key is derived from
+     */
+    public void setKey(String key) {
+        this.keyProperties = split(key);
+    }
+
+    /**
+     * @return comma separated names of the context properties the cache key is derived from
+     */
+    public String getKey() {
+        return join(keyProperties);
+    }
+
+    /**
+     * Sets the captured properties
+     * @param capture comma separated names of the context properties captured on a miss and replayed on a hit
+     */
+    public void setCapture(String capture) {
+        this.captureProperties = split(capture);
+    }
+
+    /**
+     * @return comma separated names of the context properties captured on a miss and replayed on a hit
+     */
+    public String getCapture() {
+        return join(captureProperties);
+    }
+
+    /**
+     * Sets the maximum number of cached entries, it must be set before initialization
+     * @param maxSize the maximum number of entries, positive
+     */
+    public void setMaxSize(int maxSize) {
+        if (maxSize < 1) {
+            throw new IllegalArgumentException("Max size must be positive: " + maxSize);
+        }
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * @return the maximum number of cached entries
+     */
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Sets the time to live of the cached entries
+     * @param ttl the time to live in milliseconds, zero if the entries do not expire
+     */
+    public void setTtl(long ttl) {
+        if (ttl < 0) {
+            throw new IllegalArgumentException("Time to live must not be negative: " + ttl);
+        }
+        this.ttl = ttl;
+    }
+
+    /**
+     * @return the time to live of the cached entries in milliseconds, zero if the entries do not expire
+     */
+    public long getTtl() {
+        return ttl;
+    }
+
+    /**
+     * @return the trimmed, non-empty elements of a comma separated list
+     */
+    private static String[] split(String names) {
+        if (names == null || names.trim().length() == 0) {
+            return new String[0];
+        }
+        String[] split = names.split(",");
+        for (int i = 0; i < split.length; i++) {
+            split[i] = split[i].trim();
+        }
+        return split;
+    }
+
+    /**
+     * @return the comma separated list of the names
+     */
+    private static String join(String[] names) {
+        StringBuilder joined = new StringBuilder();
+        for (String name : names) {
+            if (joined.length() > 0) {
+                joined.append(',');
+            }
+            joined.append(name);
+        }
+        return joined.toString();
+    }
+
+    /**
+     * A cached command status.
+     */
+    private static class Entry {
+        /** The command status */
+        private final boolean status;
+        /** The values of the captured properties */
+        private final Object[] captured;
+        /** The expiry time, see {@link System#nanoTime()}, zero if the entry does not expire */
+        private final long expires;
+
+        Entry(boolean status, Object[] captured, long expires) {
+            this.status = status;
+            this.captured = captured;
+            this.expires = expires;
+        }
+
+        /**
+         * @return <code>true</code> if the entry has expired
+         */
+        boolean isExpired(long now) {
+            return expires != 0 && now - expires >= 0;
+        }
+    }
+}
@@ -0,0 +1,129 @@
+/**
+ * Copyright 2010/2011, Martin Lansler
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codegility.commandflow.command;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free sliding time window of call outcomes, used by {@link CircuitBreakerCommand}.
+ * <p>
+ * The window is divided into a fixed number of buckets, each holding the counts of the calls completed within its time slice. A bucket is reused
+ * once its time slice has slid out of the window, counts recorded concurrently with the reuse of a bucket may be lost, hence the counts are
+ * approximate at bucket boundaries.
+ * @author Martin Lansler
+ */
+final class CallWindow {
+    /** The number of buckets */
+    private static final int BUCKETS = 10;
+
+    /** Field offsets within a bucket */
+    private static final int EPOCH = 0, CALLS = 1, FAILURES = 2, SLOW_CALLS = 3, FIELDS = 4;
+
+    /** Index of the failure count in the array returned by {@link #getCounts(long)} */
+    static final int FAILURE_COUNT = 1;
+    /** Index of the slow call count in the array returned by {@link #getCounts(long)} */
+    static final int SLOW_CALL_COUNT = 2;
+
+    /** The buckets, each holding the epoch of its time slice followed by its counts */
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS * FIELDS);
+
+    /** The time slice of each bucket in nanoseconds */
+    private final long bucketNanos;
+
+    /** The start of epoch zero, see {@link System#nanoTime()} */
+    private final long origin = System.nanoTime();
+
+    /**
+     * Creates a new window
+     * @param windowNanos the window length in nanoseconds
+     */
+    CallWindow(long windowNanos) {
+        this.bucketNanos = Math.max(1, windowNanos / BUCKETS);
+        reset();
+    }
+
+    /**
+     * Records a completed call
+     * @param failed <code>true</code> if the call failed
+     * @param slow <code>true</code> if the call was slow
+     * @param now the completion time, see {@link System#nanoTime()}
+     */
+    void record(boolean failed, boolean slow, long now) {
+        int base = getBucket(now);
+        buckets.incrementAndGet(base + CALLS);
+        if (failed) {
+            buckets.incrementAndGet(base + FAILURES);
+        }
+        if (slow) {
+            buckets.incrementAndGet(base + SLOW_CALLS);
+        }
+    }
+
+    /**
+     * Gets the counts of the calls within the window
+     * @param now the current time, see {@link System#nanoTime()}
+     * @return the call count, failure count and slow call count
+     */
+    long[] getCounts(long now) {
+        long epoch = getEpoch(now);
+        long[] counts = new long[3];
+        for (int base = 0; base < buckets.length(); base += FIELDS) {
+            long bucketEpoch = buckets.get(base + EPOCH);
+            if (bucketEpoch > epoch - BUCKETS && bucketEpoch <= epoch) {
+                counts[0] += buckets.get(base + CALLS);
+                counts[FAILURE_COUNT] += buckets.get(base + FAILURES);
+                counts[SLOW_CALL_COUNT] += buckets.get(base + SLOW_CALLS);
+            }
+        }
+        return counts;
+    }
+
+    /**
+     * Clears the window
+     */
+    void reset() {
+        for (int base = 0; base < buckets.length(); base += FIELDS) {
+            buckets.set(base + EPOCH, -1);
+            buckets.set(base + CALLS, 0);
+            buckets.set(base + FAILURES, 0);
+            buckets.set(base + SLOW_CALLS, 0);
+        }
+    }
+
+    /**
+     * Gets the bucket of a point in time, reusing the bucket if its time slice has slid out of the window
+     * @param now the point in time
+     * @return the offset of the bucket
+     */
+    private int getBucket(long now) {
+        long epoch = getEpoch(now);
+        int base = (int) (epoch % BUCKETS) * FIELDS;
+        long bucketEpoch = buckets.get(base + EPOCH);
+        if (bucketEpoch < epoch && buckets.compareAndSet(base + EPOCH, bucketEpoch, epoch)) {
+            buckets.set(base + CALLS, 0);
+            buckets.set(base + FAILURES, 0);
+            buckets.set(base + SLOW_CALLS, 0);
+        }
+        return base;
+    }
+
+    /**
+     * @return the epoch, i.e. the index of the time slice, of a point in time
+     */
+    private long getEpoch(long now) {
+        return (now - origin) / bucketNanos;
+    }
+}
@@ -0,0 +1,65 @@
+/**
+ * Copyright 2010/2011, Martin Lansler
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codegility.commandflow.command;
+
+/**
+ * Token via which the execution of a flow is cancelled co-operatively, see {@link ExecutionScope}.
+ * <p>
+ * A token may be linked to a parent token, it is then also cancelled when the parent is cancelled. The token of a {@link CommandTask} is linked to the
+ * token of the thread creating the task, hence cancelling a flow also cancels the flows it has forked.
+ * @author Martin Lansler
+ */
+public class CancellationToken {
+    /** The parent token, <code>null</code> if none */
+    private final CancellationToken parent;
+
+    /** <code>true</code> if cancelled */
+    private volatile boolean cancelled;
+
+    /**
+     * Creates a new token without parent
+     */
+    public CancellationToken() {
+        this(null);
+    }
+
+    /**
+     * Creates a new token
+     * @param parent the parent token, may be <code>null</code>
+     */
+    public CancellationToken(CancellationToken parent) {
+        this.parent = parent;
+    }
+
+    /**
+     * Cancels this token, the flows observing it fail with a {@link CommandCancelledException} at their next checkpoint
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    /**
+     * @return <code>true</code> if this token or any of its parents is cancelled
+     */
+    public boolean isCancelled() {
+        for (CancellationToken token = this; token != null; token = token.parent) {
+            if (token.cancelled) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,394 @@
+/**
+ * Copyright 2010/2011, Martin Lansler
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codegility.commandflow.command;
+
+import static org.codegility.commandflow.builder.BuilderException.raiseWrongNumberContainedCommands;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.codegility.commandflow.Command;
+import org.codegility.commandflow.builder.BuilderException;
+
+/**
+ * A circuit breaker that stops executing the wrapped command while it is failing.
+ * <p>
+ * The first contained command is the wrapped command, an optional second contained command is the fallback. The outcome of each execution of the
+ * wrapped command is recorded in a sliding time window, an execution fails if it raises an exception or, if a slow call threshold is set, takes
+ * longer than the threshold. Once the window holds at least the minimum number of calls and the failure rate reaches the threshold the circuit opens.
+ * While open the wrapped command is not executed, the fallback is executed instead or, if there is no fallback, the command status is
+ * <code>false</code>. After the open duration the circuit becomes half-open and the next execution is a probe of the wrapped command while other
+ * executions still short-circuit, if the probe succeeds the circuit closes, otherwise it opens again.
+ * <p>
+ * The state is held in a single atomic value and the window is lock-free, hence the command adds no contention to the flows sharing it. Exceptions of
+ * the wrapped command are propagated, a {@link CommandCancelledException} is not recorded as a failure. The state is exposed via
+ * {@link org.codegility.commandflow.metrics.FlowMetrics} when the flow is instrumented.
+ * @param <C> the context class of the command
+ * @author Martin Lansler
+ */
+public class CircuitBreakerCommand<C> extends AbstractContainsOneCommand<C> {
+    /** The default failure rate threshold in percent */
+    public static final int DEFAULT_FAILURE_RATE_THRESHOLD = 50;
+    /** The default minimum number of calls in the window before the circuit may open */
+    public static final int DEFAULT_MINIMUM_CALLS = 20;
+    /** The default window length in milliseconds */
+    public static final long DEFAULT_WINDOW_MILLIS = 10000;
+    /** The default open duration in milliseconds */
+    public static final long DEFAULT_OPEN_MILLIS = 5000;
+
+    /** The states of the circuit */
+    public enum State {
+        /** The wrapped command is executed */
+        CLOSED,
+        /** The wrapped command is not executed */
+        OPEN,
+        /** A probe of the wrapped command is executing */
+        HALF_OPEN
+    }
+
+    /** The state values, indexed by ordinal */
+    private static final State[] STATES = State.values();
+
+    /** Permits returned by {@link #acquire(long)} */
+    private static final int DENIED = 0, PERMITTED = 1, PROBE = 2;
+
+    /** The failure rate threshold in percent */
+    private int failureRateThreshold = DEFAULT_FAILURE_RATE_THRESHOLD;
+
+    /** The minimum number of calls in the window before the circuit may open */
+    private int minimumCalls = DEFAULT_MINIMUM_CALLS;
+
+    /** The window length in milliseconds */
+    private long windowMillis = DEFAULT_WINDOW_MILLIS;
+
+    /** The slow call threshold in milliseconds, zero if slow calls are not failures */
+    private long slowCallMillis;
+
+    /** The open duration in milliseconds */
+    private long openMillis = DEFAULT_OPEN_MILLIS;
+
+    /** The fallback command, <code>null</code> if none */
+    private Command<C> fallback;
+
+    /** The outcomes of the recent calls, created on initialization */
+    private CallWindow window;
+
+    /** The start of the state time line, see {@link System#nanoTime()} */
+    private final long origin = System.nanoTime();
+
+    /** The state ordinal in the lowest two bits, the time the state was entered relative to the origin in the remaining bits */
+    private final AtomicLong state = new AtomicLong(State.CLOSED.ordinal());
+
+    /** The number of executions that short-circuited */
+    private final AtomicLong shortCircuitCount = new AtomicLong();
+
+    /** The number of times the circuit has opened */
+    private final AtomicLong openCount = new AtomicLong();
+
+    @Override
+    public void init() throws BuilderException {
+        if (getCommands().size() > 2) {
+            raiseWrongNumberContainedCommands(getClass().getSimpleName(), 1, 2, getCommands().size());
+        }
+        if (getCommands().size() == 2) {
+            // the fallback stays contained so the builder links and initializes it along with the wrapped command
+            fallback = getCommands().remove(1);
+            super.init();
+            getCommands().add(fallback);
+        } else {
+            super.init();
+        }
+        window = new CallWindow(TimeUnit.MILLISECONDS.toNanos(windowMillis));
+    }
+
+    @Override
+    public boolean execute(C context) {
+        long start = System.nanoTime();
+        int permit = acquire(start);
+        if (permit == DENIED) {
+            shortCircuitCount.incrementAndGet();
+            return fallback != null && fallback.execute(context);
+        }
+        boolean status;
+        try {
+            status = executeWrappedCommand(context);
+        } catch (CommandCancelledException e) {
+            if (permit == PROBE) {
+                // let the next execution probe
+                state.set(pack(State.OPEN, 0));
+            }
+            throw e;
+        } catch (RuntimeException e) {
+            completed(permit, start, true);
+            throw e;
+        } catch (Error e) {
+            completed(permit, start, true);
+            throw e;
+        }
+        completed(permit, start, false);
+        return status;
+    }
+
+    /**
+     * Acquires the permit to execute the wrapped command
+     * @param now the current time
+     * @return {@link #PERMITTED} if closed, {@link #PROBE} if this execution is the half-open probe, otherwise {@link #DENIED}
+     */
+    private int acquire(long now) {
+        long current = state.get();
+        State currentState = unpackState(current);
+        if (currentState == State.CLOSED) {
+            return PERMITTED;
+        }
+        if (currentState == State.OPEN && now - origin - unpackTime(current) >= TimeUnit.MILLISECONDS.toNanos(openMillis)
+                && state.compareAndSet(current, pack(State.HALF_OPEN, now - origin))) {
+            return PROBE;
+        }
+        return DENIED;
+    }
+
+    /**
+     * Records the outcome of an execution of the wrapped command and transitions the state
+     * @param permit the permit of the execution
+     * @param start the start time of the execution
+     * @param failed <code>true</code> if the execution raised an exception
+     */
+    private void completed(int permit, long start, boolean failed) {
+        long now = System.nanoTime();
+        boolean slow = !failed && slowCallMillis > 0 && now - start >= TimeUnit.MILLISECONDS.toNanos(slowCallMillis);
+        if (permit == PROBE) {
+            if (failed || slow) {
+                open(now);
+            } else {
+                window.reset();
+                state.set(pack(State.CLOSED, now - origin));
+            }
+            return;
+        }
+        window.record(failed, slow, now);
+        if ((failed || slow) && isFailureRateExceeded(now)) {
+            long current = state.get();
+            if (unpackState(current) == State.CLOSED && state.compareAndSet(current, pack(State.OPEN, now - origin))) {
+                openCount.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Opens the circuit
+     * @param now the current time
+     */
+    private void open(long now) {
+        state.set(pack(State.OPEN, now - origin));
+        openCount.incrementAndGet();
+    }
+
+    /**
+     * @return <code>true</code> if the window holds enough calls and the failure rate has reached the threshold
+     */
+    private boolean isFailureRateExceeded(long now) {
+        long[] counts = window.getCounts(now);
+        return counts[0] >= minimumCalls && getFailures(counts) * 100 >= counts[0] * failureRateThreshold;
+    }
+
+    /**
+     * @return the number of failed calls, i.e. the calls that raised an exception or were slow
+     */
+    private static long getFailures(long[] counts) {
+        return counts[CallWindow.FAILURE_COUNT] + counts[CallWindow.SLOW_CALL_COUNT];
+    }
+
+    /**
+     * @return the packed state value
+     */
+    private static long pack(State state, long time) {
+        return time << 2 | state.ordinal();
+    }
+
+    /**
+     * @return the state of a packed state value
+     */
+    private static State unpackState(long value) {
+        return STATES[(int) (value & 3)];
+    }
+
+    /**
+     * @return the time the state was entered of a packed state value, relative to the origin
+     */
+    private static long unpackTime(long value) {
+        return value >>> 2;
+    }
+
+    /**
+     * Closes the circuit and clears the recorded calls
+     */
+    public void reset() {
+        if (window != null) {
+            window.reset();
+        }
+        state.set(pack(State.CLOSED, System.nanoTime() - origin));
+    }
+
+    /**
+     * @return the current state of the circuit
+     */
+    public State getState() {
+        return unpackState(state.get());
+    }
+
+    /**
+     * @return the number of calls within the window
+     */
+    public long getCallCount() {
+        return window != null ? window.getCounts(System.nanoTime())[0] : 0;
+    }
+
+    /**
+     * @return the number of calls within the window that raised an exception
+     */
+    public long getFailureCount() {
+        return window != null ? window.getCounts(System.nanoTime())[CallWindow.FAILURE_COUNT] : 0;
+    }
+
+    /**
+     * @return the number of calls within the window that exceeded the slow call threshold without raising an exception
+     */
+    public long getSlowCallCount() {
+        return window != null ? window.getCounts(System.nanoTime())[CallWindow.SLOW_CALL_COUNT] : 0;
+    }
+
+    /**
+     * @return the failure rate in percent of the calls within the window, zero if there are no calls
+     */
+    public double getFailureRate() {
+        if (window == null) {
+            return 0;
+        }
+        long[] counts = window.getCounts(System.nanoTime());
+        return counts[0] == 0 ? 0 : 100.0 * getFailures(counts) / counts[0];
+    }
+
+    /**
+     * @return the number of executions that short-circuited
+     */
+    public long getShortCircuitCount() {
+        return shortCircuitCount.get();
+    }
+
+    /**
+     * @return the number of times the circuit has opened
+     */
+    public long getOpenCount() {
+        return openCount.get();
+    }
+
+    /**
+     * @return the fallback command, <code>null</code> if none
+     */
+    public Command<C> getFallbackCommand() {
+        return fallback;
+    }
+
+    /**
+     * Sets the failure rate threshold
+     * @param failureRateThreshold the threshold in percent, between 1 and 100
+     */
+    public void setFailureRateThreshold(int failureRateThreshold) {
+        if (failureRateThreshold < 1 || failureRateThreshold > 100) {
+            throw new IllegalArgumentException("Failure rate threshold must be between 1 and 100: " + failureRateThreshold);
+        }
+        this.failureRateThreshold = failureRateThreshold;
+    }
+
+    /**
+     * @return the failure rate threshold in percent
+     */
+    public int getFailureRateThreshold() {
+        return failureRateThreshold;
+    }
+
+    /**
+     * Sets the minimum number of calls in the window before the circuit may open
+     * @param minimumCalls the minimum number of calls, positive
+     */
+    public void setMinimumCalls(int minimumCalls) {
+        if (minimumCalls < 1) {
+            throw new IllegalArgumentException("Minimum calls must be positive: " + minimumCalls);
+        }
+        this.minimumCalls = minimumCalls;
+    }
+
+    /**
+     * @return the minimum number of calls in the window before the circuit may open
+     */
+    public int getMinimumCalls() {
+        return minimumCalls;
+    }
+
+    /**
+     * Sets the window length, it must be set before initialization
+     * @param windowMillis the window length in milliseconds, positive
+     */
+    public void setWindowMillis(long windowMillis) {
+        if (windowMillis < 1) {
+            throw new IllegalArgumentException("Window must be positive: " + windowMillis);
+        }
+        this.windowMillis = windowMillis;
+    }
+
+    /**
+     * @return the window length in milliseconds
+     */
+    public long getWindowMillis() {
+        return windowMillis;
+    }
+
+    /**
+     * Sets the slow call threshold, executions taking at least this long are failures
+     * @param slowCallMillis the threshold in milliseconds, zero if slow calls are not failures
+     */
+    public void setSlowCallMillis(long slowCallMillis) {
+        if (slowCallMillis < 0) {
+            throw new IllegalArgumentException("Slow call threshold must not be negative: " + slowCallMillis);
+        }
+        this.slowCallMillis = slowCallMillis;
+    }
+
+    /**
+     * @return the slow call threshold in milliseconds, zero if slow calls are not failures
+     */
+    public long getSlowCallMillis() {
+        return slowCallMillis;
+    }
+
+    /**
+     * Sets the duration the circuit stays open before a probe is made
+     * @param openMillis the open duration in milliseconds, zero or positive
+     */
+    public void setOpenMillis(long openMillis) {
+        if (openMillis < 0) {
+            throw new IllegalArgumentException("Open duration must not be negative: " + openMillis);
+        }
+        this.openMillis = openMillis;
+    }
+
+    /**
+     * @return the duration the circuit stays open before a probe is made, in milliseconds
+     */
+    public long getOpenMillis() {
+        return openMillis;
+    }
+}
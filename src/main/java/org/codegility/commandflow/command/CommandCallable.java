@@ -0,0 +1,75 @@
+/**
+ * Copyright 2010/2011, Martin Lansler
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codegility.commandflow.command;
+
+import java.util.concurrent.Callable;
+
+import org.codegility.commandflow.Command;
+
+/**
+ * Adapts the execution of a command on a given context to a {@link Callable}, for instance to execute a command via an executor.
+ * <p>
+ * The {@link ExecutionScope} of the thread creating the callable, if any, is attached to the thread executing the command. If a
+ * {@link CancellationToken} is given it replaces the token of the attached scope.
+ * @param <C> the context class of the command
+ * @author Martin Lansler
+ */
+public class CommandCallable<C> implements Callable<Boolean> {
+    /** The command to execute */
+    private final Command<C> command;
+    /** The command context */
+    private final C context;
+    /** The execution scope of the creating thread, <code>null</code> if none */
+    private final ExecutionScope scope;
+    /** The cancellation token of the execution, <code>null</code> if the token of the scope should be used */
+    private final CancellationToken token;
+
+    /**
+     * Creates a new command callable
+     * @param command the command to execute
+     * @param context the command context
+     */
+    public CommandCallable(Command<C> command, C context) {
+        this(command, context, null);
+    }
+
+    /**
+     * Creates a new command callable
+     * @param command the command to execute
+     * @param context the command context
+     * @param token the cancellation token of the execution, if <code>null</code> the token of the scope of the creating thread is used
+     */
+    public CommandCallable(Command<C> command, C context, CancellationToken token) {
+        this.command = command;
+        this.context = context;
+        this.scope = ExecutionScope.current();
+        this.token = token;
+    }
+
+    @Override
+    public Boolean call() {
+        if (scope == null && token == null) {
+            return command.execute(context);
+        }
+        ExecutionScope attached = ExecutionScope.attach(scope, token);
+        try {
+            attached.check();
+            return command.execute(context);
+        } finally {
+            attached.exit();
+        }
+    }
+}
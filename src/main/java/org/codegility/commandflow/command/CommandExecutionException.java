@@ -0,0 +1,41 @@
+/**
+ * Copyright 2010/2011, Martin Lansler
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codegility.commandflow.command;
+
+import org.codegility.commandflow.core.UncheckedException;
+
+/**
+ * Unchecked exception raised by the built-in commands when the execution of a flow fails for reasons other than an exception raised by a contained
+ * command, for instance when the executing thread is interrupted while waiting for commands executing on other threads.
+ * <p>
+ * Unchecked exceptions raised by contained commands are always propagated as is.
+ * @author Martin Lansler
+ */
+public class CommandExecutionException extends UncheckedException {
+    private static final long serialVersionUID = 1L;
+
+    public CommandExecutionException(String message, Object... formattingArgs) {
+        super(message, formattingArgs);
+    }
+
+    public CommandExecutionException(Throwable cause, String message, Object... formattingArgs) {
+        super(cause, message, formattingArgs);
+    }
+
+    public CommandExecutionException(Throwable cause) {
+        super(cause);
+    }
+}
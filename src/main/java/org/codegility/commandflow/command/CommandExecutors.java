@@ -0,0 +1,145 @@
+/**
+ * Copyright 2010/2011, Martin Lansler
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codegility.commandflow.command;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Holds the default {@link Executor} used by commands that execute contained commands on other threads, such as {@link ParallelCommand}.
+ * <p>
+ * Unless replaced via {@link #setDefaultExecutor(Executor)} the default executor is a cached thread pool of daemon threads which is created on first
+ * use. Commands that have an executor explicitly set will not use the default executor.
+ * <p>
+ * On a Java runtime supporting virtual threads (Java 21 or later) an executor starting a new virtual thread per task can be created via
+ * {@link #newVirtualThreadExecutor()}. Using it as the default executor, or setting it via
+ * {@link org.codegility.commandflow.builder.CommandBuilder#setExecutor(Executor)}, executes all parallel branches and asynchronous catalog executions on
+ * virtual threads. The virtual thread support is resolved at runtime so that the library itself still runs on older Java versions.
+ * @author Martin Lansler
+ */
+public final class CommandExecutors {
+    /** The default executor, lazily created */
+    private static volatile Executor defaultExecutor;
+
+    /** The executor running tasks directly on the calling thread */
+    private static final Executor DIRECT_EXECUTOR = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    /** Factory method for virtual thread executors, <code>null</code> if not supported by the Java runtime */
+    private static final Method NEW_VIRTUAL_THREAD_EXECUTOR;
+    static {
+        Method method;
+        try {
+            method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+        } catch (NoSuchMethodException e) {
+            method = null;
+        }
+        NEW_VIRTUAL_THREAD_EXECUTOR = method;
+    }
+
+    /** Util class */
+    private CommandExecutors() {
+    }
+
+    /**
+     * @return <code>true</code> if the Java runtime supports virtual threads
+     */
+    public static boolean isVirtualThreadSupported() {
+        return NEW_VIRTUAL_THREAD_EXECUTOR != null;
+    }
+
+    /**
+     * Creates a new executor that starts a new virtual thread for each task.
+     * @return the virtual thread executor
+     * @throws UnsupportedOperationException if the Java runtime does not support virtual threads
+     */
+    public static ExecutorService newVirtualThreadExecutor() {
+        if (!isVirtualThreadSupported()) {
+            throw new UnsupportedOperationException("Virtual threads are not supported by this Java runtime: " + System.getProperty("java.version"));
+        }
+        try {
+            return (ExecutorService) NEW_VIRTUAL_THREAD_EXECUTOR.invoke(null);
+        } catch (Exception e) {
+            throw new CommandExecutionException(e, "Failed to create virtual thread executor");
+        }
+    }
+
+    /**
+     * Gets the default executor
+     * @return the default executor, never <code>null</code>
+     */
+    public static Executor getDefaultExecutor() {
+        Executor executor = defaultExecutor;
+        if (executor == null) {
+            synchronized (CommandExecutors.class) {
+                executor = defaultExecutor;
+                if (executor == null) {
+                    executor = Executors.newCachedThreadPool(new DaemonThreadFactory("commandflow"));
+                    defaultExecutor = executor;
+                }
+            }
+        }
+        return executor;
+    }
+
+    /**
+     * Gets the executor running tasks directly on the calling thread, e.g. for short listeners of a {@link CommandTask} that then run on the thread
+     * completing the task
+     * @return the direct executor
+     */
+    public static Executor getDirectExecutor() {
+        return DIRECT_EXECUTOR;
+    }
+
+    /**
+     * Replaces the default executor.
+     * <p>
+     * The previous default executor is not shut down.
+     * @param executor the new default executor, if <code>null</code> a new cached thread pool will be created on next use
+     */
+    public static void setDefaultExecutor(Executor executor) {
+        defaultExecutor = executor;
+    }
+
+    /**
+     * Thread factory creating named daemon threads, so that the default executor never prevents JVM shutdown.
+     */
+    private static class DaemonThreadFactory implements ThreadFactory {
+        /** The thread name prefix */
+        private final String prefix;
+        /** Sequence for thread names */
+        private final AtomicInteger sequence = new AtomicInteger();
+
+        DaemonThreadFactory(String prefix) {
+            this.prefix = prefix;
+        }
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, prefix + "-" + sequence.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
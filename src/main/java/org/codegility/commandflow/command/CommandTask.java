@@ -0,0 +1,229 @@
+/**
+ * Copyright 2010/2011, Martin Lansler
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codegility.commandflow.command;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+
+import org.codegility.commandflow.Command;
+
+/**
+ * The execution of a command on a given context as a {@link FutureTask}, for instance to execute a command via an executor.
+ * <p>
+ * The task executes the command within an {@link ExecutionScope} holding the {@link CancellationToken} of the task, the token is linked to the token
+ * of the thread creating the task. Cancelling the task via {@link #cancel(boolean)} also cancels the token, a running flow then fails with a
+ * {@link CommandCancelledException} at its next checkpoint even if not interrupted. The deadline of the creating thread, if any, also applies to the
+ * task.
+ * <p>
+ * Listeners added via {@link #addListener(Runnable, Executor)} are notified once the task is done, including when cancelled, so that the result can be
+ * processed without blocking a thread in {@link #get()}. Subclasses overriding {@link #done()} must call <code>super.done()</code>.
+ * <p>
+ * A task created via {@link #CommandTask()} does not execute a command but is completed via {@link #complete(boolean)} or {@link #fail(Throwable)},
+ * e.g. by an {@link org.codegility.commandflow.AsyncCommand} from the callback of an asynchronous I/O operation.
+ * @param <C> the context class of the command
+ * @author Martin Lansler
+ */
+public class CommandTask<C> extends FutureTask<Boolean> {
+    /** The execution of the task */
+    private final Execution<C> execution;
+
+    /** The listeners to notify when done, <code>null</code> if none, guarded by this task */
+    private List<Listener> listeners;
+
+    /** <code>true</code> once the listeners have been notified, guarded by this task */
+    private boolean notified;
+
+    /**
+     * Creates a new command task
+     * @param command the command to execute
+     * @param context the command context
+     */
+    public CommandTask(Command<C> command, C context) {
+        this(new Execution<C>(command, context));
+    }
+
+    /**
+     * Creates a new command task completed via {@link #complete(boolean)} or {@link #fail(Throwable)} instead of by running it, the scope of the
+     * creating thread applies to the task as for a task executing a command
+     */
+    public CommandTask() {
+        this(new Execution<C>(null, null));
+    }
+
+    /**
+     * Creates a new command task
+     * @param execution the execution of the task
+     */
+    private CommandTask(Execution<C> execution) {
+        super(execution);
+        this.execution = execution;
+    }
+
+    /**
+     * Cancels the task, a running flow is cancelled co-operatively via the cancellation token
+     * @param mayInterruptIfRunning <code>true</code> if the executing thread should also be interrupted
+     * @return <code>false</code> if the task could not be cancelled, typically because it already has completed
+     */
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        execution.cancel();
+        return super.cancel(mayInterruptIfRunning);
+    }
+
+    /**
+     * Completes the task with the given command status, ignored if the task already is done
+     * @param status the command status
+     */
+    public void complete(boolean status) {
+        set(Boolean.valueOf(status));
+    }
+
+    /**
+     * Completes the task with the given exception raised by the command, ignored if the task already is done
+     * @param failure the exception
+     */
+    public void fail(Throwable failure) {
+        setException(failure);
+    }
+
+    /**
+     * Adds a listener notified once the task is done, if the task already is done the listener is notified directly. Listeners are notified in the
+     * order added, an exception raised by a listener or its executor is passed to the uncaught exception handler of the notifying thread.
+     * @param listener the listener, typically reading the result via {@link #get()} which then does not block
+     * @param executor the executor to run the listener on, e.g. {@link CommandExecutors#getDefaultExecutor()}
+     */
+    public void addListener(Runnable listener, Executor executor) {
+        if (listener == null || executor == null) {
+            throw new NullPointerException("Listener and executor must not be null");
+        }
+        synchronized (this) {
+            if (!notified) {
+                if (listeners == null) {
+                    listeners = new ArrayList<Listener>(2);
+                }
+                listeners.add(new Listener(listener, executor));
+                return;
+            }
+        }
+        notify(listener, executor);
+    }
+
+    /**
+     * Notifies the listeners
+     */
+    @Override
+    protected void done() {
+        List<Listener> notifying;
+        synchronized (this) {
+            notified = true;
+            notifying = listeners;
+            listeners = null;
+        }
+        if (notifying != null) {
+            for (Listener listener : notifying) {
+                notify(listener.listener, listener.executor);
+            }
+        }
+    }
+
+    /**
+     * Notifies a listener
+     * @param listener the listener
+     * @param executor the executor to run the listener on
+     */
+    private static void notify(Runnable listener, Executor executor) {
+        try {
+            executor.execute(listener);
+        } catch (RuntimeException e) {
+            Thread thread = Thread.currentThread();
+            thread.getUncaughtExceptionHandler().uncaughtException(thread, e);
+        }
+    }
+
+    /**
+     * @return the cancellation token of the task
+     */
+    public CancellationToken getCancellationToken() {
+        return execution.token;
+    }
+
+    /**
+     * Attaches the scope of the task to the current thread, used to continue an asynchronous execution from a listener
+     * @return the attached scope, it must be exited by the current thread
+     */
+    ExecutionScope attachScope() {
+        return ExecutionScope.attach(execution.scope, execution.token);
+    }
+
+    /**
+     * A listener together with the executor to run it on.
+     */
+    private static final class Listener {
+        final Runnable listener;
+        final Executor executor;
+
+        Listener(Runnable listener, Executor executor) {
+            this.listener = listener;
+            this.executor = executor;
+        }
+    }
+
+    /**
+     * Executes the command within the scope of the task.
+     */
+    private static class Execution<C> implements Callable<Boolean> {
+        /** The command to execute, <code>null</code> if the task is completed explicitly */
+        private final Command<C> command;
+        /** The command context */
+        private final C context;
+        /** The scope of the creating thread, <code>null</code> if none */
+        private final ExecutionScope scope;
+        /** The cancellation token */
+        private final CancellationToken token;
+
+        Execution(Command<C> command, C context) {
+            ExecutionScope scope = ExecutionScope.current();
+            this.command = command;
+            this.context = context;
+            this.scope = scope;
+            this.token = new CancellationToken(scope != null ? scope.getCancellationToken() : null);
+        }
+
+        @Override
+        public Boolean call() {
+            if (command == null) {
+                throw new IllegalStateException("Task must be completed via complete(boolean) or fail(Throwable)");
+            }
+            ExecutionScope attached = ExecutionScope.attach(scope, token);
+            try {
+                attached.check();
+                return command.execute(context);
+            } finally {
+                attached.exit();
+            }
+        }
+
+        /**
+         * Cancels the token
+         */
+        void cancel() {
+            token.cancel();
+        }
+    }
+}
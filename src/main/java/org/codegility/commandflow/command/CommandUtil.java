@@ -15,6 +15,12 @@
  */
 package org.codegility.commandflow.command;
 
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import org.codegility.commandflow.AsyncCommand;
+import org.codegility.commandflow.BatchCommand;
 import org.codegility.commandflow.Command;
 import org.codegility.commandflow.builder.BuilderException;
 import org.codegility.commandflow.builder.CompositeCommand;
@@ -68,4 +74,46 @@ public final class CommandUtil {
         return (CompositeCommand<C>) command;
     }
 
+    /**
+     * Executes a command for the selected contexts of a batch.
+     * <p>
+     * If the command implements {@link BatchCommand} the whole batch is passed to the command, otherwise the command is executed for each selected
+     * context in index order.
+     * @param command the command to execute
+     * @param contexts the command contexts
+     * @param selection the indexes of the contexts to execute the command for, not modified
+     * @return a new bit set holding the selected indexes for which the command status is <code>true</code>
+     */
+    public static <C> BitSet executeBatch(Command<C> command, List<C> contexts, BitSet selection) {
+        if (command instanceof BatchCommand) {
+            return ((BatchCommand<C>) command).executeBatch(contexts, selection);
+        }
+        BitSet status = new BitSet();
+        for (int i = selection.nextSetBit(0); i >= 0; i = selection.nextSetBit(i + 1)) {
+            if (command.execute(contexts.get(i))) {
+                status.set(i);
+            }
+        }
+        return status;
+    }
+
+    /**
+     * Executes a command asynchronously.
+     * <p>
+     * If the command implements {@link AsyncCommand} it is executed via {@link AsyncCommand#executeAsync(Object, Executor)}, otherwise a
+     * {@link CommandTask} executing the command is passed to the executor.
+     * @param command the command to execute
+     * @param context the command context
+     * @param executor the executor
+     * @return the execution, its result is the command status
+     * @throws java.util.concurrent.RejectedExecutionException if the executor rejects the execution of a command that is not asynchronous
+     */
+    public static <C> CommandTask<C> executeAsync(Command<C> command, C context, Executor executor) {
+        if (command instanceof AsyncCommand) {
+            return ((AsyncCommand<C>) command).executeAsync(context, executor);
+        }
+        CommandTask<C> task = new CommandTask<C>(command, context);
+        executor.execute(task);
+        return task;
+    }
 }
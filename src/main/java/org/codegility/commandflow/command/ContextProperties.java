@@ -0,0 +1,156 @@
+/**
+ * Copyright 2010/2011, Martin Lansler
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codegility.commandflow.command;
+
+import java.beans.BeanInfo;
+import java.beans.IntrospectionException;
+import java.beans.Introspector;
+import java.beans.PropertyDescriptor;
+import java.lang.reflect.Method;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Reads and writes properties of command contexts.
+ * <p>
+ * Properties are accessed as Java bean properties, if the context is a {@link Map} as its entries. The property descriptors are introspected once per
+ * class. Instances are safe to use concurrently.
+ * @author Martin Lansler
+ */
+final class ContextProperties {
+    /** The property descriptors, keyed by class */
+    private final ConcurrentMap<Class<?>, Map<String, PropertyDescriptor>> properties = new ConcurrentHashMap<Class<?>, Map<String, PropertyDescriptor>>();
+
+    /**
+     * Reads a property
+     * @param context the command context
+     * @param name the property name, nested properties are separated by dots, e.g. <code>order.lines</code>
+     * @return the property value, <code>null</code> if an enclosing property is <code>null</code>
+     * @throws CommandExecutionException if the property could not be read
+     */
+    Object get(Object context, String name) {
+        if (name.indexOf('.') < 0) {
+            return getSimple(context, name);
+        }
+        String[] parts = name.split("\\.");
+        Object value = getSimple(context, parts[0]);
+        for (int i = 1; i < parts.length && value != null; i++) {
+            value = getSimple(value, parts[i]);
+        }
+        return value;
+    }
+
+    /**
+     * Reads a property of an object
+     * @param object the object
+     * @param name the property name
+     * @return the property value
+     * @throws CommandExecutionException if the property could not be read
+     */
+    private Object getSimple(Object object, String name) {
+        if (object instanceof Map) {
+            return ((Map<?, ?>) object).get(name);
+        }
+        Method getter = getPropertyDescriptor(object, name).getReadMethod();
+        if (getter == null) {
+            throw new CommandExecutionException("Property '%s' of class %s is not readable", name, object.getClass().getName());
+        }
+        try {
+            return getter.invoke(object);
+        } catch (Exception e) {
+            throw new CommandExecutionException(e, "Failed to read property '%s' of class %s", name, object.getClass().getName());
+        }
+    }
+
+    /**
+     * Writes a property
+     * @param context the command context
+     * @param name the property name, nested properties are separated by dots, e.g. <code>order.total</code>
+     * @param value the property value
+     * @throws CommandExecutionException if the property could not be written, e.g. if an enclosing property is <code>null</code>
+     */
+    void set(Object context, String name, Object value) {
+        int dot = name.lastIndexOf('.');
+        if (dot < 0) {
+            setSimple(context, name, value);
+            return;
+        }
+        String enclosingName = name.substring(0, dot);
+        Object enclosing = get(context, enclosingName);
+        if (enclosing == null) {
+            throw new CommandExecutionException("Cannot write property '%s', enclosing property '%s' is null", name, enclosingName);
+        }
+        setSimple(enclosing, name.substring(dot + 1), value);
+    }
+
+    /**
+     * Writes a property of an object
+     * @param object the object
+     * @param name the property name
+     * @param value the property value
+     * @throws CommandExecutionException if the property could not be written
+     */
+    @SuppressWarnings("unchecked")
+    private void setSimple(Object object, String name, Object value) {
+        if (object instanceof Map) {
+            ((Map<String, Object>) object).put(name, value);
+            return;
+        }
+        Method setter = getPropertyDescriptor(object, name).getWriteMethod();
+        if (setter == null) {
+            throw new CommandExecutionException("Property '%s' of class %s is not writable", name, object.getClass().getName());
+        }
+        try {
+            setter.invoke(object, value);
+        } catch (Exception e) {
+            throw new CommandExecutionException(e, "Failed to write property '%s' of class %s", name, object.getClass().getName());
+        }
+    }
+
+    /**
+     * Gets a property descriptor of the class of an object, the descriptors are introspected once per class
+     * @param object the object
+     * @param name the property name
+     * @return the property descriptor
+     * @throws CommandExecutionException if the property does not exist
+     */
+    private PropertyDescriptor getPropertyDescriptor(Object object, String name) {
+        if (object == null) {
+            throw new CommandExecutionException("Cannot access property '%s' of null context", name);
+        }
+        Class<?> clazz = object.getClass();
+        Map<String, PropertyDescriptor> descriptors = properties.get(clazz);
+        if (descriptors == null) {
+            descriptors = new HashMap<String, PropertyDescriptor>();
+            try {
+                BeanInfo beanInfo = Introspector.getBeanInfo(clazz);
+                for (PropertyDescriptor descriptor : beanInfo.getPropertyDescriptors()) {
+                    descriptors.put(descriptor.getName(), descriptor);
+                }
+            } catch (IntrospectionException e) {
+                throw new CommandExecutionException(e, "Failed to introspect class %s", clazz.getName());
+            }
+            properties.put(clazz, descriptors);
+        }
+        PropertyDescriptor descriptor = descriptors.get(name);
+        if (descriptor == null) {
+            throw new CommandExecutionException("Could not find property '%s' in class %s", name, clazz.getName());
+        }
+        return descriptor;
+    }
+}
@@ -15,6 +15,13 @@
  */
 package org.codegility.commandflow.command;
 
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import org.codegility.commandflow.AsyncCommand;
+import org.codegility.commandflow.BatchCommand;
+
 /**
  * A do-while command.
  * <p>
@@ -23,14 +30,56 @@ package org.codegility.commandflow.command;
  * @param <C> the context class of the command
  * @author Martin Lansler
  */
-public class DoWhileCommand<C> extends AbstractConditionalCommand<C> {
+public class DoWhileCommand<C> extends AbstractConditionalCommand<C> implements BatchCommand<C>, AsyncCommand<C> {
     
     @Override
     public boolean execute(C context) {
         boolean status = false;
         do {
+            ExecutionScope.checkpoint();
             status = executeAction(context);
         } while (executeCondition(context));
         return status;
     }
+
+    @Override
+    public BitSet executeBatch(List<C> contexts, BitSet selection) {
+        BitSet status = new BitSet();
+        BitSet looping = selection;
+        do {
+            ExecutionScope.checkpoint();
+            // the status of each context is the status of its last action
+            status.andNot(looping);
+            status.or(executeAction(contexts, looping));
+            looping = executeCondition(contexts, looping);
+        } while (!looping.isEmpty());
+        return status;
+    }
+
+    @Override
+    public CommandTask<C> executeAsync(C context, Executor executor) {
+        return new AsyncExecution<C>(context, executor) {
+            /** <code>true</code> once the action has been executed */
+            private boolean started;
+            /** <code>true</code> if the action is executing, otherwise the condition */
+            private boolean inAction;
+            /** The status of the last action */
+            private boolean actionStatus;
+
+            @Override
+            void step(boolean status) {
+                if (!started || (!inAction && status)) {
+                    started = true;
+                    inAction = true;
+                    execute(getAction());
+                } else if (inAction) {
+                    inAction = false;
+                    actionStatus = status;
+                    execute(getCondition());
+                } else {
+                    complete(actionStatus);
+                }
+            }
+        }.start();
+    }
 }
@@ -0,0 +1,235 @@
+/**
+ * Copyright 2010/2011, Martin Lansler
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codegility.commandflow.command;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The scope of a flow execution bound to the executing thread, it holds the execution deadline and the {@link CancellationToken} of the execution.
+ * <p>
+ * A scope is entered via {@link #enter(long, TimeUnit)} or {@link #enter(CancellationToken)}, e.g. by {@link TimeoutCommand},
+ * {@link org.codegility.commandflow.catalog.CommandCatalog#execute(String, Object, long, TimeUnit)} or a {@link CommandTask}, and must be exited by the
+ * same thread via {@link #exit()}. A nested scope inherits the deadline and token of the enclosing scope unless given its own, the deadline of a
+ * nested scope never extends the deadline of the enclosing scope. The scope is visible to all commands executed by the thread, the built-in composite
+ * commands invoke {@link #checkpoint()} before each contained command and loop iteration and the parallel commands attach the scope to their forked
+ * commands and stop waiting for them once the deadline has passed. Leaf commands that block may bound their waiting via {@link #getRemaining(TimeUnit)}
+ * and long running leaf commands may invoke {@link #checkpoint()} themselves.
+ * <p>
+ * The scope is held per thread and the checkpoints only look up the scope of the executing thread, hence entering a scope does not add any work or
+ * contention to the checkpoints of other threads.
+ * @author Martin Lansler
+ */
+public final class ExecutionScope {
+    /** The scope of each thread */
+    private static final ThreadLocal<ExecutionScope> CURRENT = new ThreadLocal<ExecutionScope>();
+
+    /** Timeout of scopes without deadline */
+    private static final long NO_TIMEOUT = -1;
+
+    /** The deadline, see {@link System#nanoTime()}, only valid if the scope has a deadline */
+    private final long deadline;
+
+    /** The timeout the deadline was derived from, in nanoseconds, {@link #NO_TIMEOUT} if the scope has no deadline */
+    private final long timeout;
+
+    /** The cancellation token, <code>null</code> if none */
+    private final CancellationToken token;
+
+    /** The enclosing scope, <code>null</code> if none */
+    private final ExecutionScope enclosing;
+
+    /**
+     * Creates a new scope
+     * @param deadline the deadline
+     * @param timeout the timeout the deadline was derived from
+     * @param token the cancellation token, may be <code>null</code>
+     * @param enclosing the enclosing scope, may be <code>null</code>
+     */
+    private ExecutionScope(long deadline, long timeout, CancellationToken token, ExecutionScope enclosing) {
+        this.deadline = deadline;
+        this.timeout = timeout;
+        this.token = token;
+        this.enclosing = enclosing;
+    }
+
+    /**
+     * Enters a new scope with a deadline for the current thread, the cancellation token is inherited from the enclosing scope
+     * @param timeout the execution timeout
+     * @param unit the unit of the timeout
+     * @return the entered scope, it must be exited by the current thread
+     */
+    public static ExecutionScope enter(long timeout, TimeUnit unit) {
+        // bounded so that the deadline cannot overflow
+        long nanos = Math.min(unit.toNanos(timeout), Long.MAX_VALUE >> 1);
+        long deadline = System.nanoTime() + nanos;
+        ExecutionScope enclosing = CURRENT.get();
+        if (enclosing == null) {
+            return push(new ExecutionScope(deadline, nanos, null, null));
+        }
+        if (enclosing.hasDeadline() && enclosing.deadline - deadline < 0) {
+            deadline = enclosing.deadline;
+            nanos = enclosing.timeout;
+        }
+        return push(new ExecutionScope(deadline, nanos, enclosing.token, enclosing));
+    }
+
+    /**
+     * Enters a new cancellable scope for the current thread, the deadline is inherited from the enclosing scope.
+     * <p>
+     * The token replaces the token of the enclosing scope, to also observe the enclosing token the given token must be linked to it.
+     * @param token the cancellation token
+     * @return the entered scope, it must be exited by the current thread
+     */
+    public static ExecutionScope enter(CancellationToken token) {
+        return attach(CURRENT.get(), token);
+    }
+
+    /**
+     * Attaches this scope to the current thread, used when a command is executed by another thread than the one that entered the scope
+     * @return the attached scope, it must be exited by the current thread
+     */
+    public ExecutionScope attach() {
+        return push(new ExecutionScope(deadline, timeout, token, CURRENT.get()));
+    }
+
+    /**
+     * Attaches the deadline of a scope together with a cancellation token to the current thread
+     * @param scope the scope holding the deadline, <code>null</code> if none
+     * @param token the cancellation token, if <code>null</code> the token of the scope is used
+     * @return the attached scope, it must be exited by the current thread
+     */
+    static ExecutionScope attach(ExecutionScope scope, CancellationToken token) {
+        if (scope == null) {
+            return push(new ExecutionScope(0, NO_TIMEOUT, token, CURRENT.get()));
+        }
+        return push(new ExecutionScope(scope.deadline, scope.timeout, token != null ? token : scope.token, CURRENT.get()));
+    }
+
+    /**
+     * Creates a new cancellation token linked to the token of the scope of the current thread, if any
+     * @return the new token
+     */
+    static CancellationToken newCancellationToken() {
+        ExecutionScope scope = CURRENT.get();
+        return new CancellationToken(scope != null ? scope.token : null);
+    }
+
+    /**
+     * Binds a scope to the current thread
+     * @param scope the scope
+     * @return the scope
+     */
+    private static ExecutionScope push(ExecutionScope scope) {
+        CURRENT.set(scope);
+        return scope;
+    }
+
+    /**
+     * Exits this scope, the enclosing scope (if any) is restored for the current thread
+     */
+    public void exit() {
+        if (enclosing == null) {
+            CURRENT.remove();
+        } else {
+            CURRENT.set(enclosing);
+        }
+    }
+
+    /**
+     * @return the scope of the current thread, <code>null</code> if none
+     */
+    public static ExecutionScope current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * Checks the scope of the current thread, if any
+     * @throws CommandCancelledException if the execution is cancelled
+     * @throws CommandTimeoutException if the deadline has passed
+     */
+    public static void checkpoint() {
+        ExecutionScope scope = CURRENT.get();
+        if (scope != null) {
+            scope.check();
+        }
+    }
+
+    /**
+     * Checks this scope
+     * @throws CommandCancelledException if the execution is cancelled
+     * @throws CommandTimeoutException if the deadline has passed
+     */
+    public void check() {
+        if (isCancelled()) {
+            throw new CommandCancelledException("Execution cancelled");
+        }
+        if (isExpired()) {
+            throw newTimeoutException();
+        }
+    }
+
+    /**
+     * @return a new exception for when the deadline has passed
+     */
+    public CommandTimeoutException newTimeoutException() {
+        return new CommandTimeoutException("Execution timeout of %d ms exceeded", TimeUnit.NANOSECONDS.toMillis(timeout));
+    }
+
+    /**
+     * Gets the time remaining until the deadline
+     * @param unit the time unit
+     * @return the remaining time, zero or negative if the deadline has passed, {@link Long#MAX_VALUE} if the scope has no deadline
+     */
+    public long getRemaining(TimeUnit unit) {
+        return hasDeadline() ? unit.convert(getRemainingNanos(), TimeUnit.NANOSECONDS) : Long.MAX_VALUE;
+    }
+
+    /**
+     * @return the nanoseconds remaining until the deadline, zero or negative if the deadline has passed, {@link Long#MAX_VALUE} if the scope has no
+     *         deadline
+     */
+    long getRemainingNanos() {
+        return hasDeadline() ? deadline - System.nanoTime() : Long.MAX_VALUE;
+    }
+
+    /**
+     * @return <code>true</code> if the scope has a deadline
+     */
+    public boolean hasDeadline() {
+        return timeout != NO_TIMEOUT;
+    }
+
+    /**
+     * @return <code>true</code> if the deadline has passed
+     */
+    public boolean isExpired() {
+        return getRemainingNanos() <= 0;
+    }
+
+    /**
+     * @return <code>true</code> if the execution is cancelled
+     */
+    public boolean isCancelled() {
+        return token != null && token.isCancelled();
+    }
+
+    /**
+     * @return the cancellation token, <code>null</code> if none
+     */
+    public CancellationToken getCancellationToken() {
+        return token;
+    }
+}
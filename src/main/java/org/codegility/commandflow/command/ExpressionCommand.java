@@ -0,0 +1,67 @@
+/**
+ * Copyright 2010/2011, Martin Lansler
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codegility.commandflow.command;
+
+import org.codegility.commandflow.Command;
+import org.codegility.commandflow.expression.Expression;
+import org.codegility.commandflow.expression.ExpressionException;
+
+/**
+ * A command that evaluates a boolean {@link Expression} on the command context.
+ * <p>
+ * The expression is parsed when the command is created and its value is used as the command status, see {@link Expression} for the syntax. The
+ * context is referred to in the expression as {@link Expression#DEFAULT_CONTEXT_NAME}, like the context binding of a {@link ScriptCommand}, or its
+ * properties may be accessed directly, e.g. <code>c.amount &gt; 100</code> or <code>amount &gt; 100</code>. Unlike a {@link ScriptCommand} no
+ * script engine is involved, evaluating the expression is a walk of its parsed tree with cached property accessors.
+ * @param <C> the context class of the command
+ * @author Martin Lansler
+ */
+public class ExpressionCommand<C> implements Command<C> {
+    /** The expression */
+    private final Expression expression;
+
+    /**
+     * Creates a new expression command
+     * @param expression the expression text
+     * @throws ExpressionException if the expression could not be parsed
+     */
+    public ExpressionCommand(String expression) {
+        this(Expression.parse(expression));
+    }
+
+    /**
+     * Creates a new expression command
+     * @param expression the expression
+     */
+    public ExpressionCommand(Expression expression) {
+        this.expression = expression;
+    }
+
+    /**
+     * @return the expression
+     */
+    public Expression getExpression() {
+        return expression;
+    }
+
+    /**
+     * @throws ExpressionException if the expression could not be evaluated or does not evaluate to a boolean
+     */
+    @Override
+    public boolean execute(C context) {
+        return expression.test(context);
+    }
+}
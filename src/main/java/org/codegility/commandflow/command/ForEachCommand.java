@@ -0,0 +1,480 @@
+/**
+ * Copyright 2010/2011, Martin Lansler
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codegility.commandflow.command;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.codegility.commandflow.Command;
+import org.codegility.commandflow.builder.BuilderException;
+import org.codegility.commandflow.builder.CommandBuilder;
+import org.codegility.commandflow.builder.ExecutorAware;
+
+/**
+ * A command that executes the wrapped command for each element of a collection held by the context.
+ * <p>
+ * The collection is read from the context property set via {@link #setItems(String)}, it may be an {@link Iterable} or an array, a
+ * <code>null</code> value is treated as an empty collection. For each element a sub-context is created via {@link #newElementContext(Object, Object)}
+ * and the element is written to its property set via {@link #setVar(String)}, the wrapped command is then executed on the sub-context. By default a
+ * {@link Map} context is copied into a new map and other contexts are cloned, hence they must implement {@link Cloneable} with a public
+ * <code>clone()</code> method. Subclasses may override {@link #newElementContext(Object, Object)} to create sub-contexts otherwise.
+ * <p>
+ * Up to the given parallelism, set via {@link #setParallelism(int)}, elements are executed concurrently. The calling thread and the workers forked to
+ * the associated {@link Executor} claim the elements one by one from a shared cursor, hence elements of uneven cost are balanced between the workers.
+ * Workers not yet started by the executor when the calling thread runs out of elements are executed by the calling thread, so the command always
+ * progresses even on a saturated executor. With the default parallelism of one all elements are executed by the calling thread in order. The executor
+ * is set via {@link #setExecutor(Executor)}, if none is set {@link CommandExecutors#getDefaultExecutor()} is used. The executor may also be set for
+ * all commands via {@link CommandBuilder#setExecutor(Executor)}.
+ * <p>
+ * Optionally the value of a sub-context property, set via {@link #setResult(String)}, is collected for each element into a list written to the
+ * context property set via {@link #setResults(String)}. The list is in element order if ordered, see {@link #setOrdered(boolean)}, otherwise in the
+ * order the elements completed, which avoids holding the results of all elements until the last element completes.
+ * <p>
+ * The command status is <code>true</code> if the wrapped command returns <code>true</code> for all elements, <code>false</code> for an empty
+ * collection. If the wrapped command raises an exception no further elements are started and the exception is propagated once all running elements
+ * have finished. The {@link ExecutionScope} of the calling thread is attached to the workers, the scope is checked before each element. If it wraps
+ * more than one command, the wrapped commands are coerced into a sequence command.
+ * @param <C> the context class of the command
+ * @author Martin Lansler
+ */
+public class ForEachCommand<C> extends AbstractContainsOneCommand<C> implements ExecutorAware {
+    /** The executor of the workers, <code>null</code> if the default executor should be used */
+    private Executor executor;
+
+    /** The name of the context property holding the collection */
+    private String items;
+
+    /** The name of the sub-context property the element is written to */
+    private String var;
+
+    /** The maximum number of elements executed concurrently */
+    private int parallelism = 1;
+
+    /** The name of the sub-context property collected for each element, <code>null</code> if no results are collected */
+    private String result;
+
+    /** The name of the context property the collected results are written to, <code>null</code> if no results are collected */
+    private String results;
+
+    /** If <code>true</code> the results are collected in element order, otherwise in completion order */
+    private boolean ordered = true;
+
+    /** The context property accessors */
+    private final ContextProperties properties = new ContextProperties();
+
+    @Override
+    public void init() throws BuilderException {
+        super.init();
+        if (items == null || var == null) {
+            throw new BuilderException("Command %s requires the items and var properties", getClass().getSimpleName());
+        }
+        if ((result == null) != (results == null)) {
+            throw new BuilderException("Command %s requires both or none of the result and results properties", getClass().getSimpleName());
+        }
+    }
+
+    @Override
+    public boolean execute(C context) {
+        Loop loop = new Loop(getElements(context));
+        if (loop.elements.isEmpty()) {
+            writeResults(context, Collections.emptyList());
+            return false;
+        }
+        int workerCount = Math.min(parallelism, loop.elements.size()) - 1;
+        List<CommandTask<C>> workers = new ArrayList<CommandTask<C>>(workerCount);
+        Executor executor = getExecutor();
+        for (int i = 0; i < workerCount; i++) {
+            CommandTask<C> worker = new CommandTask<C>(loop, context);
+            try {
+                executor.execute(worker);
+                workers.add(worker);
+            } catch (RejectedExecutionException e) {
+                // the calling thread executes the elements
+                break;
+            }
+        }
+        ExecutionScope scope = ExecutionScope.current();
+        boolean status;
+        try {
+            status = loop.execute(context);
+            for (CommandTask<C> worker : workers) {
+                status &= join(worker, scope);
+            }
+        } catch (RuntimeException e) {
+            // the scope was cancelled or its deadline passed
+            cancel(workers);
+            throw e;
+        } catch (InterruptedException e) {
+            cancel(workers);
+            Thread.currentThread().interrupt();
+            throw new CommandExecutionException(e, "Interrupted while waiting for elements to finish");
+        } catch (TimeoutException e) {
+            cancel(workers);
+            throw scope.newTimeoutException();
+        }
+        loop.propagateFailure();
+        writeResults(context, loop.getResults());
+        return status;
+    }
+
+    /**
+     * Joins a worker, if the worker has not yet been started by the executor it is executed by the calling thread
+     * @param worker the worker to join
+     * @param scope the execution scope of the calling thread, <code>null</code> if none
+     * @return the command status of the worker
+     * @throws InterruptedException if the calling thread was interrupted while waiting
+     * @throws TimeoutException if the deadline of the execution scope passed while waiting
+     */
+    private boolean join(CommandTask<C> worker, ExecutionScope scope) throws InterruptedException, TimeoutException {
+        // a no-op if the worker already has been started by the executor
+        worker.run();
+        try {
+            if (scope == null || !scope.hasDeadline()) {
+                return worker.get();
+            }
+            return worker.get(scope.getRemaining(TimeUnit.NANOSECONDS), TimeUnit.NANOSECONDS);
+        } catch (ExecutionException e) {
+            // failures of the elements are recorded by the loop, this is a failure of the worker itself, e.g. a cancelled scope
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new CommandExecutionException(e.getCause());
+        }
+    }
+
+    /**
+     * Cancels the workers
+     * @param workers the workers to cancel
+     */
+    private void cancel(List<CommandTask<C>> workers) {
+        for (CommandTask<C> worker : workers) {
+            worker.cancel(true);
+        }
+    }
+
+    /**
+     * Reads the elements of the collection held by the context
+     * @param context the command context
+     * @return the elements, a list allowing random access
+     * @throws CommandExecutionException if the items property is not a collection
+     */
+    @SuppressWarnings("unchecked")
+    private List<Object> getElements(C context) {
+        Object value = properties.get(context, items);
+        if (value == null) {
+            return Collections.emptyList();
+        }
+        if (value instanceof List && value instanceof RandomAccess) {
+            return (List<Object>) value;
+        }
+        if (value instanceof Collection) {
+            return new ArrayList<Object>((Collection<Object>) value);
+        }
+        if (value instanceof Iterable) {
+            List<Object> elements = new ArrayList<Object>();
+            for (Object element : (Iterable<Object>) value) {
+                elements.add(element);
+            }
+            return elements;
+        }
+        if (value instanceof Object[]) {
+            return Arrays.asList((Object[]) value);
+        }
+        if (value.getClass().isArray()) {
+            int length = Array.getLength(value);
+            List<Object> elements = new ArrayList<Object>(length);
+            for (int i = 0; i < length; i++) {
+                elements.add(Array.get(value, i));
+            }
+            return elements;
+        }
+        throw new CommandExecutionException("Property '%s' of class %s is neither iterable nor an array: %s", items, context.getClass().getName(), value
+                .getClass().getName());
+    }
+
+    /**
+     * Creates the sub-context of an element, subclasses may override this method to create sub-contexts otherwise. The element is written to the
+     * sub-context after this method returns.
+     * @param context the command context
+     * @param element the element
+     * @return the sub-context
+     * @throws CommandExecutionException if the context can neither be copied nor cloned
+     */
+    @SuppressWarnings("unchecked")
+    protected C newElementContext(C context, Object element) {
+        if (context instanceof Map) {
+            return (C) new HashMap<Object, Object>((Map<Object, Object>) context);
+        }
+        if (context instanceof Cloneable) {
+            try {
+                Method clone = context.getClass().getMethod("clone");
+                return (C) clone.invoke(context);
+            } catch (NoSuchMethodException e) {
+                // not publicly cloneable
+            } catch (Exception e) {
+                throw new CommandExecutionException(e, "Failed to clone context of class %s", context.getClass().getName());
+            }
+        }
+        throw new CommandExecutionException("Cannot create element context, class %s is neither a map nor publicly cloneable", context == null ? null
+                : context.getClass().getName());
+    }
+
+    /**
+     * Writes the collected results to the context
+     * @param context the command context
+     * @param values the results
+     */
+    private void writeResults(C context, List<Object> values) {
+        if (results != null) {
+            properties.set(context, results, values);
+        }
+    }
+
+    /**
+     * Sets the executor used to execute the workers
+     * @param executor the executor, if <code>null</code> the default executor is used
+     */
+    @Override
+    public void setExecutor(Executor executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * @return the executor used to execute the workers, never <code>null</code>
+     */
+    public Executor getExecutor() {
+        return executor != null ? executor : CommandExecutors.getDefaultExecutor();
+    }
+
+    /**
+     * Sets the context property holding the collection
+     * @param items the name of the property, nested properties are separated by dots
+     */
+    public void setItems(String items) {
+        this.items = items;
+    }
+
+    /**
+     * @return the name of the context property holding the collection
+     */
+    public String getItems() {
+        return items;
+    }
+
+    /**
+     * Sets the sub-context property the element is written to
+     * @param var the name of the property
+     */
+    public void setVar(String var) {
+        this.var = var;
+    }
+
+    /**
+     * @return the name of the sub-context property the element is written to
+     */
+    public String getVar() {
+        return var;
+    }
+
+    /**
+     * Sets the maximum number of elements executed concurrently
+     * @param parallelism the parallelism, one if the elements should be executed in order by the calling thread
+     */
+    public void setParallelism(int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("Parallelism must be positive: " + parallelism);
+        }
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * @return the maximum number of elements executed concurrently
+     */
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * Sets the sub-context property collected for each element
+     * @param result the name of the property, <code>null</code> if no results are collected
+     */
+    public void setResult(String result) {
+        this.result = result;
+    }
+
+    /**
+     * @return the name of the sub-context property collected for each element, <code>null</code> if no results are collected
+     */
+    public String getResult() {
+        return result;
+    }
+
+    /**
+     * Sets the context property the collected results are written to
+     * @param results the name of the property, <code>null</code> if no results are collected
+     */
+    public void setResults(String results) {
+        this.results = results;
+    }
+
+    /**
+     * @return the name of the context property the collected results are written to, <code>null</code> if no results are collected
+     */
+    public String getResults() {
+        return results;
+    }
+
+    /**
+     * Sets if the results are collected in element order
+     * @param ordered <code>true</code> if in element order, <code>false</code> if in completion order
+     */
+    public void setOrdered(boolean ordered) {
+        this.ordered = ordered;
+    }
+
+    /**
+     * @return <code>true</code> if the results are collected in element order, <code>false</code> if in completion order
+     */
+    public boolean isOrdered() {
+        return ordered;
+    }
+
+    /**
+     * The state of one execution of the command, shared by the calling thread and the workers. Executing the loop claims and executes elements until
+     * all elements have been claimed or an element failed, the command status is <code>true</code> if the wrapped command returned <code>true</code>
+     * for all elements executed.
+     */
+    private class Loop implements Command<C> {
+        /** The elements */
+        private final List<Object> elements;
+
+        /** The index of the next element to claim */
+        private final AtomicInteger cursor = new AtomicInteger();
+
+        /** The first failure of an element, in element order */
+        private final AtomicReference<Failure> failure = new AtomicReference<Failure>();
+
+        /** The results in element order if ordered, otherwise <code>null</code> */
+        private final Object[] orderedResults;
+
+        /** The results in completion order if not ordered, otherwise <code>null</code> */
+        private final ConcurrentLinkedQueue<Object> completedResults;
+
+        Loop(List<Object> elements) {
+            this.elements = elements;
+            boolean collect = result != null;
+            this.orderedResults = collect && ordered ? new Object[elements.size()] : null;
+            this.completedResults = collect && !ordered ? new ConcurrentLinkedQueue<Object>() : null;
+        }
+
+        @Override
+        public boolean execute(C context) {
+            boolean status = true;
+            for (int index = cursor.getAndIncrement(); index < elements.size() && failure.get() == null; index = cursor.getAndIncrement()) {
+                ExecutionScope.checkpoint();
+                Object element = elements.get(index);
+                C elementContext = newElementContext(context, element);
+                properties.set(elementContext, var, element);
+                try {
+                    status &= executeWrappedCommand(elementContext);
+                } catch (RuntimeException e) {
+                    fail(index, e);
+                    return false;
+                } catch (Error e) {
+                    fail(index, e);
+                    return false;
+                }
+                if (orderedResults != null) {
+                    orderedResults[index] = properties.get(elementContext, result);
+                } else if (completedResults != null) {
+                    completedResults.add(properties.get(elementContext, result));
+                }
+            }
+            return status;
+        }
+
+        /**
+         * Records the failure of an element, keeping the failure of the lowest element index
+         * @param index the element index
+         * @param cause the failure
+         */
+        private void fail(int index, Throwable cause) {
+            Failure next = new Failure(index, cause);
+            while (true) {
+                Failure current = failure.get();
+                if ((current != null && current.index < index) || failure.compareAndSet(current, next)) {
+                    return;
+                }
+            }
+        }
+
+        /**
+         * Propagates the recorded failure, if any
+         */
+        void propagateFailure() {
+            Failure current = failure.get();
+            if (current == null) {
+                return;
+            }
+            if (current.cause instanceof RuntimeException) {
+                throw (RuntimeException) current.cause;
+            }
+            throw (Error) current.cause;
+        }
+
+        /**
+         * @return the collected results
+         */
+        List<Object> getResults() {
+            if (orderedResults != null) {
+                return Arrays.asList(orderedResults);
+            }
+            return completedResults != null ? new ArrayList<Object>(completedResults) : Collections.emptyList();
+        }
+    }
+
+    /**
+     * The failure of an element.
+     */
+    private static class Failure {
+        /** The element index */
+        private final int index;
+
+        /** The failure */
+        private final Throwable cause;
+
+        Failure(int index, Throwable cause) {
+            this.index = index;
+            this.cause = cause;
+        }
+    }
+}
@@ -0,0 +1,331 @@
+/**
+ * Copyright 2010/2011, Martin Lansler
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codegility.commandflow.command;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.codegility.commandflow.Command;
+import org.codegility.commandflow.builder.CommandBuilder;
+import org.codegility.commandflow.builder.ExecutorAware;
+import org.codegility.commandflow.metrics.LatencyHistogram;
+
+/**
+ * A command that hedges the execution of the wrapped command to reduce tail latency.
+ * <p>
+ * The wrapped command is executed on the associated {@link Executor}. If it has not completed within the hedge delay a second, speculative
+ * execution is started. The first execution to complete successfully wins, its command status is returned and the other execution is cancelled.
+ * If an execution raises an exception the other execution, if started, is awaited, the exception is only propagated if both executions fail. An
+ * execution that fails before the hedge delay is propagated without hedging.
+ * <p>
+ * The hedge delay is either fixed, set via {@link #setDelayMillis(long)}, or the given percentile of the observed latencies of the wrapped
+ * command, set via {@link #setPercentile(double)}. Until enough latencies have been observed the fixed delay is used. Only the recent latencies,
+ * at most the last {@link #WINDOW_SAMPLES} times two, are taken into account so the delay follows changes of the latency of the wrapped command.
+ * <p>
+ * As both executions share the context and the losing execution is only cancelled co-operatively, the wrapped command must be idempotent and safe to
+ * execute concurrently for the same context, typically a leaf command calling a replicated backend. The executor is set via
+ * {@link #setExecutor(Executor)}, if none is set {@link CommandExecutors#getDefaultExecutor()} is used. The executor may also be set for all commands
+ * via {@link CommandBuilder#setExecutor(Executor)}. If the executor rejects the first execution it is executed by the calling thread without hedging.
+ * The {@link ExecutionScope} of the calling thread is attached to both executions. If it wraps more than one command, the wrapped commands are
+ * coerced into a sequence command.
+ * @param <C> the context class of the command
+ * @author Martin Lansler
+ */
+public class HedgedCommand<C> extends AbstractContainsOneCommand<C> implements ExecutorAware {
+    /** The default hedge delay in milliseconds */
+    public static final long DEFAULT_DELAY_MILLIS = 50;
+
+    /** The number of observed latencies required before the percentile delay is used */
+    static final int MIN_SAMPLES = 100;
+
+    /** The percentile delay is recomputed each time this many latencies have been observed, must be a power of two */
+    private static final int RECOMPUTE_INTERVAL = 64;
+
+    /** The number of latencies observed per window, must be a power of two and at least twice {@link #MIN_SAMPLES} */
+    static final int WINDOW_SAMPLES = 1024;
+
+    /** The executor of the executions, <code>null</code> if the default executor should be used */
+    private Executor executor;
+
+    /** The fixed hedge delay in milliseconds */
+    private long delayMillis = DEFAULT_DELAY_MILLIS;
+
+    /** The latency percentile used as hedge delay, zero if the fixed delay should be used */
+    private double percentile;
+
+    /**
+     * The observed latencies of the successful executions of the wrapped command, in two alternating windows of {@link #WINDOW_SAMPLES} latencies so
+     * the percentile delay follows changes of the latency
+     */
+    private final LatencyHistogram[] windows = { new LatencyHistogram(), new LatencyHistogram() };
+
+    /** The number of observed latencies */
+    private final AtomicLong sampleCount = new AtomicLong();
+
+    /** The percentile delay in nanoseconds, negative until enough latencies have been observed */
+    private volatile long percentileDelayNanos = -1;
+
+    /** The number of executions */
+    private final AtomicLong executionCount = new AtomicLong();
+
+    /** The number of executions that were hedged */
+    private final AtomicLong hedgeCount = new AtomicLong();
+
+    /** The number of hedged executions won by the speculative execution */
+    private final AtomicLong hedgeWinCount = new AtomicLong();
+
+    @Override
+    public boolean execute(C context) {
+        executionCount.incrementAndGet();
+        BlockingQueue<Attempt> completionQueue = new LinkedBlockingQueue<Attempt>();
+        Attempt primary = new Attempt(context, completionQueue);
+        Attempt hedge = null;
+        Executor executor = getExecutor();
+        try {
+            executor.execute(primary);
+        } catch (RejectedExecutionException e) {
+            primary.run();
+        }
+        try {
+            Attempt completed = completionQueue.poll(getDelayNanos(), TimeUnit.NANOSECONDS);
+            int pending = 1;
+            if (completed == null) {
+                hedge = new Attempt(context, completionQueue);
+                try {
+                    executor.execute(hedge);
+                    hedgeCount.incrementAndGet();
+                    pending++;
+                } catch (RejectedExecutionException e) {
+                    hedge = null;
+                }
+            }
+            Throwable failure = null;
+            for (; pending > 0; pending--) {
+                if (completed == null) {
+                    completed = take(completionQueue);
+                }
+                try {
+                    boolean status = completed.get();
+                    if (completed == hedge) {
+                        hedgeWinCount.incrementAndGet();
+                    }
+                    return status;
+                } catch (ExecutionException e) {
+                    failure = failure == null ? e.getCause() : failure;
+                }
+                completed = null;
+            }
+            return propagate(failure);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CommandExecutionException(e, "Interrupted while waiting for hedged command to finish");
+        } finally {
+            primary.cancel(true);
+            if (hedge != null) {
+                hedge.cancel(true);
+            }
+        }
+    }
+
+    /**
+     * Takes the next completed execution, waiting at most until the deadline of the execution scope
+     * @param completionQueue the completion queue
+     * @return the completed execution
+     * @throws InterruptedException if interrupted while waiting
+     * @throws CommandTimeoutException if the deadline passed while waiting
+     */
+    private Attempt take(BlockingQueue<Attempt> completionQueue) throws InterruptedException {
+        ExecutionScope scope = ExecutionScope.current();
+        if (scope == null || !scope.hasDeadline()) {
+            return completionQueue.take();
+        }
+        Attempt completed = completionQueue.poll(scope.getRemaining(TimeUnit.NANOSECONDS), TimeUnit.NANOSECONDS);
+        if (completed == null) {
+            throw scope.newTimeoutException();
+        }
+        return completed;
+    }
+
+    /**
+     * Propagates an exception raised by the wrapped command
+     * @param failure the exception
+     * @return never returns normally
+     */
+    private boolean propagate(Throwable failure) {
+        if (failure instanceof RuntimeException) {
+            throw (RuntimeException) failure;
+        }
+        if (failure instanceof Error) {
+            throw (Error) failure;
+        }
+        throw new CommandExecutionException(failure);
+    }
+
+    /**
+     * Records the latency of a successful execution of the wrapped command
+     * @param nanos the latency
+     */
+    private void recordLatency(long nanos) {
+        long count = sampleCount.incrementAndGet();
+        long window = (count - 1) / WINDOW_SAMPLES;
+        long windowCount = ((count - 1) & (WINDOW_SAMPLES - 1)) + 1;
+        LatencyHistogram current = windows[(int) (window & 1)];
+        LatencyHistogram previous = windows[(int) ((window + 1) & 1)];
+        current.record(nanos);
+        if (windowCount == WINDOW_SAMPLES / 2) {
+            // the previous window is no longer needed, reset it well before it becomes the current window again
+            previous.reset();
+        }
+        if (percentile > 0 && count >= MIN_SAMPLES && (count & (RECOMPUTE_INTERVAL - 1)) == 0) {
+            // until the current window has enough latencies the previous, full, window is used
+            percentileDelayNanos = (windowCount >= MIN_SAMPLES ? current : previous).getValueAtPercentile(percentile);
+        }
+    }
+
+    /**
+     * @return the current hedge delay in nanoseconds
+     */
+    private long getDelayNanos() {
+        long delay = percentileDelayNanos;
+        return percentile > 0 && delay >= 0 ? delay : TimeUnit.MILLISECONDS.toNanos(delayMillis);
+    }
+
+    /**
+     * @return the current hedge delay in milliseconds, either the fixed delay or the percentile of the observed latencies
+     */
+    public double getCurrentDelayMillis() {
+        return getDelayNanos() / 1e6;
+    }
+
+    /**
+     * @return the latencies of the successful executions of the wrapped command observed in the current window of {@link #WINDOW_SAMPLES}
+     * latencies
+     */
+    public LatencyHistogram getLatency() {
+        return windows[(int) ((Math.max(1, sampleCount.get()) - 1) / WINDOW_SAMPLES & 1)];
+    }
+
+    /**
+     * @return the number of executions
+     */
+    public long getExecutionCount() {
+        return executionCount.get();
+    }
+
+    /**
+     * @return the number of executions that were hedged
+     */
+    public long getHedgeCount() {
+        return hedgeCount.get();
+    }
+
+    /**
+     * @return the number of hedged executions won by the speculative execution
+     */
+    public long getHedgeWinCount() {
+        return hedgeWinCount.get();
+    }
+
+    /**
+     * Sets the fixed hedge delay
+     * @param delayMillis the delay in milliseconds, zero or positive
+     */
+    public void setDelayMillis(long delayMillis) {
+        if (delayMillis < 0) {
+            throw new IllegalArgumentException("Delay must not be negative: " + delayMillis);
+        }
+        this.delayMillis = delayMillis;
+    }
+
+    /**
+     * @return the fixed hedge delay in milliseconds
+     */
+    public long getDelayMillis() {
+        return delayMillis;
+    }
+
+    /**
+     * Sets the latency percentile used as hedge delay
+     * @param percentile the percentile, e.g. 95, or zero if the fixed delay should always be used
+     */
+    public void setPercentile(double percentile) {
+        if (percentile < 0 || percentile >= 100) {
+            throw new IllegalArgumentException("Percentile must be at least 0 and below 100: " + percentile);
+        }
+        this.percentile = percentile;
+        this.percentileDelayNanos = -1;
+    }
+
+    /**
+     * @return the latency percentile used as hedge delay, zero if the fixed delay is used
+     */
+    public double getPercentile() {
+        return percentile;
+    }
+
+    /**
+     * Sets the executor of the executions
+     * @param executor the executor, if <code>null</code> the default executor is used
+     */
+    @Override
+    public void setExecutor(Executor executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * @return the executor of the executions, never <code>null</code>
+     */
+    public Executor getExecutor() {
+        return executor != null ? executor : CommandExecutors.getDefaultExecutor();
+    }
+
+    /**
+     * An execution of the wrapped command, added to the completion queue when done.
+     */
+    private class Attempt extends CommandTask<C> {
+        /** Queue to add this execution to when completed */
+        private final BlockingQueue<Attempt> completionQueue;
+
+        Attempt(C context, BlockingQueue<Attempt> completionQueue) {
+            super(new TimedCommand(), context);
+            this.completionQueue = completionQueue;
+        }
+
+        @Override
+        protected void done() {
+            completionQueue.add(this);
+            super.done();
+        }
+    }
+
+    /**
+     * Executes the wrapped command recording the latency of successful executions.
+     */
+    private class TimedCommand implements Command<C> {
+        @Override
+        public boolean execute(C context) {
+            long start = System.nanoTime();
+            boolean status = executeWrappedCommand(context);
+            recordLatency(System.nanoTime() - start);
+            return status;
+        }
+    }
+}
@@ -15,6 +15,13 @@
  */
 package org.codegility.commandflow.command;
 
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import org.codegility.commandflow.AsyncCommand;
+import org.codegility.commandflow.BatchCommand;
+
 /**
  * Conditional if command.
  * <p>
@@ -23,7 +30,7 @@ package org.codegility.commandflow.command;
  * @param <C> the context class of the command
  * @author Martin Lansler
  */
-public class IfCommand<C> extends AbstractConditionalCommand<C> {
+public class IfCommand<C> extends AbstractConditionalCommand<C> implements BatchCommand<C>, AsyncCommand<C> {
     
     @Override
     public boolean execute(C context) {
@@ -34,4 +41,38 @@ public class IfCommand<C> extends AbstractConditionalCommand<C> {
         return false;
     }
 
+    @Override
+    public BitSet executeBatch(List<C> contexts, BitSet selection) {
+        BitSet status = executeCondition(contexts, selection);
+        if (!status.isEmpty()) {
+            executeAction(contexts, status);
+        }
+        return status;
+    }
+
+    @Override
+    public CommandTask<C> executeAsync(C context, Executor executor) {
+        return new AsyncExecution<C>(context, executor) {
+            /** The number of steps taken */
+            private int steps;
+
+            @Override
+            void step(boolean status) {
+                switch (steps++) {
+                case 0:
+                    execute(getCondition());
+                    break;
+                case 1:
+                    if (status) {
+                        execute(getAction());
+                    } else {
+                        complete(false);
+                    }
+                    break;
+                default:
+                    complete(true);
+                }
+            }
+        }.start();
+    }
 }
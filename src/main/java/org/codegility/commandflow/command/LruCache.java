@@ -0,0 +1,168 @@
+/**
+ * Copyright 2010/2011, Martin Lansler
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codegility.commandflow.command;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Concurrent bounded cache with least recently used eviction, used by {@link CachingCommand}.
+ * <p>
+ * The keys are spread over a fixed number of segments, each an access ordered {@link LinkedHashMap} guarded by its own lock, hence threads only
+ * contend when accessing keys of the same segment. Each segment evicts its least recently used entry when it exceeds its share of the maximum size,
+ * the eviction order is therefore only approximately LRU across the whole cache.
+ * @param <K> the key type
+ * @param <V> the value type
+ * @author Martin Lansler
+ */
+final class LruCache<K, V> {
+    /** The maximum number of segments */
+    private static final int MAX_SEGMENTS = 16;
+
+    /** The segments */
+    private final Segment<K, V>[] segments;
+
+    /** Mask selecting the segment of a hash */
+    private final int segmentMask;
+
+    /** The number of evicted entries */
+    private final AtomicLong evictionCount = new AtomicLong();
+
+    /**
+     * Creates a new cache
+     * @param maxSize the maximum number of entries, positive
+     */
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    LruCache(int maxSize) {
+        int count = 1;
+        // at least 8 entries per segment so that small caches are not evicted too eagerly
+        while (count < MAX_SEGMENTS && count * 8 <= maxSize) {
+            count <<= 1;
+        }
+        segments = new Segment[count];
+        for (int i = 0; i < count; i++) {
+            // spread the remainder over the first segments
+            segments[i] = new Segment<K, V>(maxSize / count + (i < maxSize % count ? 1 : 0), evictionCount);
+        }
+        segmentMask = count - 1;
+    }
+
+    /**
+     * Gets a cached value, the entry becomes the most recently used entry of its segment
+     * @param key the key
+     * @return the value, <code>null</code> if not cached
+     */
+    V get(K key) {
+        Segment<K, V> segment = getSegment(key);
+        synchronized (segment) {
+            return segment.get(key);
+        }
+    }
+
+    /**
+     * Caches a value, evicting the least recently used entry of the segment if full
+     * @param key the key
+     * @param value the value
+     */
+    void put(K key, V value) {
+        Segment<K, V> segment = getSegment(key);
+        synchronized (segment) {
+            segment.put(key, value);
+        }
+    }
+
+    /**
+     * Removes a cached value
+     * @param key the key
+     */
+    void remove(K key) {
+        Segment<K, V> segment = getSegment(key);
+        synchronized (segment) {
+            segment.remove(key);
+        }
+    }
+
+    /**
+     * Removes all cached values, the statistics are kept
+     */
+    void clear() {
+        for (Segment<K, V> segment : segments) {
+            synchronized (segment) {
+                segment.clear();
+            }
+        }
+    }
+
+    /**
+     * @return the number of cached values
+     */
+    int size() {
+        int size = 0;
+        for (Segment<K, V> segment : segments) {
+            synchronized (segment) {
+                size += segment.size();
+            }
+        }
+        return size;
+    }
+
+    /**
+     * @return the number of evicted values
+     */
+    long getEvictionCount() {
+        return evictionCount.get();
+    }
+
+    /**
+     * @return the segment of a key
+     */
+    private Segment<K, V> getSegment(K key) {
+        int hash = key == null ? 0 : key.hashCode();
+        // spread the high bits, as done by HashMap
+        hash ^= (hash >>> 20) ^ (hash >>> 12);
+        hash ^= (hash >>> 7) ^ (hash >>> 4);
+        return segments[hash & segmentMask];
+    }
+
+    /**
+     * A segment of the cache.
+     */
+    private static class Segment<K, V> extends LinkedHashMap<K, V> {
+        private static final long serialVersionUID = 1L;
+
+        /** The maximum number of entries of the segment */
+        private final int maxSize;
+
+        /** The eviction counter of the cache */
+        private final AtomicLong evictionCount;
+
+        Segment(int maxSize, AtomicLong evictionCount) {
+            super(16, 0.75f, true);
+            this.maxSize = maxSize;
+            this.evictionCount = evictionCount;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+            if (size() > maxSize) {
+                evictionCount.incrementAndGet();
+                return true;
+            }
+            return false;
+        }
+    }
+}
@@ -15,6 +15,10 @@
  */
 package org.codegility.commandflow.command;
 
+import java.util.BitSet;
+import java.util.List;
+
+import org.codegility.commandflow.BatchCommand;
 
 /**
  * Negation command.
@@ -23,10 +27,16 @@ package org.codegility.commandflow.command;
  * @param <C> the context class of the command
  * @author Martin Lansler
  */
-public class NotCommand<C> extends AbstractContainsOneCommand<C> {
+public class NotCommand<C> extends AbstractContainsOneCommand<C> implements BatchCommand<C> {
     @Override
     public boolean execute(C context) {
         return !executeWrappedCommand(context);
     }
 
+    @Override
+    public BitSet executeBatch(List<C> contexts, BitSet selection) {
+        BitSet status = (BitSet) selection.clone();
+        status.andNot(executeWrappedCommand(contexts, selection));
+        return status;
+    }
 }
@@ -15,6 +15,12 @@
  */
 package org.codegility.commandflow.command;
 
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import org.codegility.commandflow.AsyncCommand;
+import org.codegility.commandflow.BatchCommand;
 import org.codegility.commandflow.Command;
 
 /**
@@ -25,12 +31,13 @@ import org.codegility.commandflow.Command;
  * @param <C> the context class of the command
  * @author Martin Lansler
  */
-public class OrCommand<C> extends AbstractCompositeCommand<C> {
+public class OrCommand<C> extends AbstractCompositeCommand<C> implements BatchCommand<C>, AsyncCommand<C> {
 
     
     @Override
     public boolean execute(C context) {
         for (Command<C> command : getCommands()) {
+            ExecutionScope.checkpoint();
             if (command.execute(context)) {
                 return true;
             }
@@ -38,4 +45,39 @@ public class OrCommand<C> extends AbstractCompositeCommand<C> {
         return false;
     }
 
+    @Override
+    public BitSet executeBatch(List<C> contexts, BitSet selection) {
+        // only the contexts with status false so far proceed to the next command
+        BitSet status = new BitSet();
+        BitSet remaining = (BitSet) selection.clone();
+        for (Command<C> command : getCommands()) {
+            if (remaining.isEmpty()) {
+                break;
+            }
+            ExecutionScope.checkpoint();
+            BitSet commandStatus = CommandUtil.executeBatch(command, contexts, remaining);
+            status.or(commandStatus);
+            remaining.andNot(commandStatus);
+        }
+        return status;
+    }
+
+    @Override
+    public CommandTask<C> executeAsync(C context, Executor executor) {
+        return new AsyncExecution<C>(context, executor) {
+            /** The index of the next command */
+            private int next;
+
+            @Override
+            void step(boolean status) {
+                if (status) {
+                    complete(true);
+                } else if (next < getCommands().size()) {
+                    execute(getCommands().get(next++));
+                } else {
+                    complete(false);
+                }
+            }
+        }.start();
+    }
 }
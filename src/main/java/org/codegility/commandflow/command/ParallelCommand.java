@@ -15,17 +15,99 @@
  */
 package org.codegility.commandflow.command;
 
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.codegility.commandflow.Command;
+
 /**
  * A command that executes a list of commands in parallel.
+ * <p>
+ * All contained commands except the first are forked to the associated {@link Executor}, the first command is executed by the calling thread. When
+ * the calling thread has finished its own command it joins the forked commands, any forked command not yet picked up by the executor is then executed
+ * directly by the calling thread. The command always waits for all contained commands to finish before returning, hence no contained command will
+ * access the context after this command has returned.
+ * <p>
+ * The command status is <code>true</code> if all contained commands return <code>true</code>, otherwise <code>false</code>. The empty parallel
+ * command always returns <code>false</code>. If one or more contained commands raise an exception the first exception (in the order the commands are
+ * contained) is propagated once all commands have finished. If the deadline of the {@link ExecutionScope} passes while waiting for the forked commands
+ * they are cancelled and a {@link CommandTimeoutException} is raised without waiting for them to finish. Cancelling the flow of the calling thread
+ * also cancels the forked commands, they fail with a {@link CommandCancelledException} at their next checkpoint.
  * @author Martin Lansler
  * @param <C> the context class of the command
  */
-public class ParallelCommand<C> extends AbstractCompositeCommand<C> {
+public class ParallelCommand<C> extends AbstractParallelCommand<C> {
 
     @Override
     public boolean execute(C context) {
-        // TODO Auto-generated method stub
-        return false;
+        List<Command<C>> commands = getCommands();
+        int size = commands.size();
+        if (size == 0) {
+            return false;
+        }
+        if (size == 1) {
+            return commands.get(0).execute(context);
+        }
+        List<ForkedCommand> forked = fork(commands.subList(1, size), context, null);
+
+        boolean status;
+        Throwable failure = null;
+        try {
+            status = commands.get(0).execute(context);
+        } catch (RuntimeException e) {
+            status = false;
+            failure = e;
+        } catch (Error e) {
+            status = false;
+            failure = e;
+        }
+
+        ExecutionScope scope = ExecutionScope.current();
+        try {
+            for (ForkedCommand task : forked) {
+                try {
+                    status &= join(task, scope);
+                } catch (ExecutionException e) {
+                    status = false;
+                    failure = failure == null ? e.getCause() : failure;
+                }
+            }
+        } catch (InterruptedException e) {
+            cancel(forked);
+            Thread.currentThread().interrupt();
+            throw new CommandExecutionException(e, "Interrupted while waiting for parallel commands to finish");
+        } catch (TimeoutException e) {
+            cancel(forked);
+            throw scope.newTimeoutException();
+        }
+        if (failure != null) {
+            propagate(failure);
+        }
+        return status;
     }
 
+    /**
+     * Joins a forked task, if the task has not yet been started by the executor it is executed by the calling thread. Within an execution scope with a
+     * deadline only tasks rejected by the executor are executed by the calling thread, so that the calling thread is not blocked past the deadline.
+     * @param task the task to join
+     * @param scope the execution scope of the calling thread, <code>null</code> if none
+     * @return the command status of the task
+     * @throws ExecutionException if the forked command raised an exception
+     * @throws InterruptedException if the calling thread was interrupted while waiting
+     * @throws TimeoutException if the deadline of the execution scope passed while waiting
+     */
+    private boolean join(ForkedCommand task, ExecutionScope scope) throws ExecutionException, InterruptedException, TimeoutException {
+        if (scope == null || !scope.hasDeadline()) {
+            // a no-op if the task already has been started by the executor
+            task.run();
+            return task.get();
+        }
+        if (task.isRejected()) {
+            task.run();
+        }
+        return task.get(scope.getRemaining(TimeUnit.NANOSECONDS), TimeUnit.NANOSECONDS);
+    }
 }
@@ -0,0 +1,41 @@
+/**
+ * Copyright 2010/2011, Martin Lansler
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codegility.commandflow.command;
+
+/**
+ * A parallel short-circuit or command.
+ * <p>
+ * All contained commands are started in parallel. The first command to return <code>true</code> completes this command with command status
+ * <code>true</code>, the other contained commands still executing are then cancelled (on a best try basis, i.e. running commands are interrupted). If no
+ * command returns <code>true</code> the command status is <code>false</code>. An empty parallel or command always returns <code>false</code>.
+ * <p>
+ * If a contained command raises an exception the other commands are cancelled and the exception is propagated. Note that a cancelled command that
+ * does not respond to interruption may still access the context after this command has returned.
+ * @param <C> the context class of the command
+ * @author Martin Lansler
+ * @see AbstractParallelCommand
+ */
+public class ParallelOrCommand<C> extends AbstractParallelCommand<C> {
+
+    @Override
+    public boolean execute(C context) {
+        if (getCommands().isEmpty()) {
+            return false;
+        }
+        return executeUntil(context, true);
+    }
+
+}
@@ -0,0 +1,481 @@
+/**
+ * Copyright 2010/2011, Martin Lansler
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codegility.commandflow.command;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.codegility.commandflow.Command;
+import org.codegility.commandflow.builder.CommandBuilder;
+import org.codegility.commandflow.builder.ExecutorAware;
+import org.codegility.commandflow.metrics.FlowInstrumenter;
+import org.codegility.commandflow.metrics.InstrumentedCommand;
+
+/**
+ * A sequence command that executes batches and streams of contexts as a staged pipeline.
+ * <p>
+ * Each contained command is a stage with its own workers and a bounded input queue, the contexts flow through the stages concurrently so that a slow
+ * stage only limits the throughput of the pipeline and not the latency of the other stages. When the input queue of a stage is full the preceding
+ * stage blocks, hence the number of contexts in flight is bounded. The number of workers of a stage is 1 unless the stage is a {@link StageCommand}
+ * with another parallelism. Each context is processed by the stages in order, however contexts may overtake each other in stages with more than one
+ * worker.
+ * <p>
+ * A single context is executed as by {@link SequenceCommand}, only {@link #executeBatch(List, BitSet)} and {@link #executeStream(Iterator, Sink)}
+ * execute the pipeline. The status of each context is the status of the last stage. If a stage raises an exception the pipeline stops accepting new
+ * contexts, the contexts in flight are dropped and the first exception is propagated once all workers have finished. The {@link ExecutionScope} of the
+ * calling thread, if any, is attached to the workers. The workers share a {@link CancellationToken} linked to the token of the calling thread, it is
+ * cancelled together with the workers when the pipeline is aborted.
+ * <p>
+ * The workers are executed by the associated {@link Executor} for the duration of the pipeline execution, the executor must be able to run all
+ * workers of all stages concurrently. If none is set {@link CommandExecutors#getDefaultExecutor()} is used. The executor may also be set for all
+ * commands via {@link CommandBuilder#setExecutor(Executor)}. If the executor rejects a worker the batch is executed as a sequence by the calling
+ * thread, the same applies if the executor has not started all workers within the start timeout, set via {@link #setStartTimeout(long)}, e.g. because
+ * a bounded executor queued them behind other tasks. Hand-offs between stages that block on a full queue re-check the deadline and cancellation of
+ * the {@link ExecutionScope} while waiting.
+ * @param <C> the context class of the command
+ * @author Martin Lansler
+ */
+public class PipelineCommand<C> extends SequenceCommand<C> implements ExecutorAware {
+    /** The default capacity of the stage input queues */
+    public static final int DEFAULT_QUEUE_CAPACITY = 256;
+
+    /** The default time in milliseconds to wait for the executor to start all workers */
+    public static final long DEFAULT_START_TIMEOUT = 1000;
+
+    /** The interval in nanoseconds at which blocked hand-offs re-check the execution scope */
+    private static final long CHECK_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+    /** Marks the end of the input of a stage */
+    @SuppressWarnings("rawtypes")
+    private static final Item END = new Item<Object>(-1, null);
+
+    /** The executor of the stage workers, <code>null</code> if the default executor should be used */
+    private Executor executor;
+
+    /** The capacity of each stage input queue */
+    private int queueCapacity = DEFAULT_QUEUE_CAPACITY;
+
+    /** The time in milliseconds to wait for the executor to start all workers */
+    private long startTimeout = DEFAULT_START_TIMEOUT;
+
+    /**
+     * Callback receiving the contexts that have passed through the pipeline.
+     * @param <C> the context class of the command
+     */
+    public interface Sink<C> {
+        /**
+         * Called when a context has been processed by all stages, may be called concurrently by the workers of the last stage
+         * @param context the context
+         * @param status the command status of the last stage
+         */
+        void accept(C context, boolean status);
+    }
+
+    @Override
+    public BitSet executeBatch(final List<C> contexts, BitSet selection) {
+        if (getCommands().isEmpty()) {
+            return new BitSet();
+        }
+        final BitSet status = new BitSet();
+        List<Item<C>> items = new ArrayList<Item<C>>(selection.cardinality());
+        for (int i = selection.nextSetBit(0); i >= 0; i = selection.nextSetBit(i + 1)) {
+            items.add(new Item<C>(i, contexts.get(i)));
+        }
+        Run run = new Run() {
+            @Override
+            void completed(Item<C> item) {
+                if (item.status) {
+                    synchronized (status) {
+                        status.set(item.index);
+                    }
+                }
+            }
+        };
+        if (!run.execute(items.iterator())) {
+            return super.executeBatch(contexts, selection);
+        }
+        synchronized (status) {
+            return status;
+        }
+    }
+
+    /**
+     * Executes the pipeline for a stream of contexts.
+     * <p>
+     * The contexts are pulled from the iterator by the calling thread as long as the first stage accepts more contexts, the method returns when all
+     * contexts have passed through the pipeline.
+     * @param contexts the contexts to execute
+     * @param sink the sink receiving the processed contexts
+     */
+    public void executeStream(final Iterator<? extends C> contexts, final Sink<? super C> sink) {
+        Iterator<Item<C>> items = new Iterator<Item<C>>() {
+            @Override
+            public boolean hasNext() {
+                return contexts.hasNext();
+            }
+
+            @Override
+            public Item<C> next() {
+                return new Item<C>(-1, contexts.next());
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+        Run run = new Run() {
+            @Override
+            void completed(Item<C> item) {
+                sink.accept(item.context, item.status);
+            }
+        };
+        if (getCommands().isEmpty() || !run.execute(items)) {
+            while (items.hasNext()) {
+                Item<C> item = items.next();
+                item.status = execute(item.context);
+                run.completed(item);
+            }
+        }
+    }
+
+    /**
+     * Sets the executor used to execute the stage workers
+     * @param executor the executor, if <code>null</code> the default executor is used
+     */
+    @Override
+    public void setExecutor(Executor executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * @return the executor used to execute the stage workers, never <code>null</code>
+     */
+    public Executor getExecutor() {
+        return executor != null ? executor : CommandExecutors.getDefaultExecutor();
+    }
+
+    /**
+     * Sets the capacity of the input queue of each stage
+     * @param queueCapacity the queue capacity, at least 1
+     */
+    public void setQueueCapacity(int queueCapacity) {
+        if (queueCapacity < 1) {
+            throw new IllegalArgumentException("Queue capacity must be at least 1: " + queueCapacity);
+        }
+        this.queueCapacity = queueCapacity;
+    }
+
+    /**
+     * @return the capacity of the input queue of each stage
+     */
+    public int getQueueCapacity() {
+        return queueCapacity;
+    }
+
+    /**
+     * Sets the time to wait for the executor to start all workers, if not all workers have started within this time the contexts are executed as a
+     * sequence by the calling thread
+     * @param startTimeout the start timeout in milliseconds, positive
+     */
+    public void setStartTimeout(long startTimeout) {
+        if (startTimeout < 1) {
+            throw new IllegalArgumentException("Start timeout must be positive: " + startTimeout);
+        }
+        this.startTimeout = startTimeout;
+    }
+
+    /**
+     * @return the time in milliseconds to wait for the executor to start all workers
+     */
+    public long getStartTimeout() {
+        return startTimeout;
+    }
+
+    /**
+     * Gets the number of workers of a stage, a stage instrumented by {@link FlowInstrumenter} keeps the parallelism of the decorated stage
+     * @param stage the stage command
+     * @return the number of workers
+     */
+    protected int getParallelism(Command<C> stage) {
+        if (stage instanceof InstrumentedCommand) {
+            stage = ((InstrumentedCommand<C>) stage).getCommand();
+        }
+        return stage instanceof StageCommand ? ((StageCommand<C>) stage).getParallelism() : 1;
+    }
+
+    /**
+     * A context flowing through the pipeline.
+     */
+    private static class Item<C> {
+        /** The index of the context in the batch */
+        private final int index;
+        /** The context */
+        private final C context;
+        /** The status of the last executed stage */
+        private boolean status;
+
+        Item(int index, C context) {
+            this.index = index;
+            this.context = context;
+        }
+    }
+
+    /**
+     * A single execution of the pipeline.
+     */
+    private abstract class Run {
+        /** The stages */
+        private final List<Command<C>> stages = getCommands();
+        /** The input queue of each stage */
+        private final List<BlockingQueue<Item<C>>> queues = new ArrayList<BlockingQueue<Item<C>>>(stages.size());
+        /** The number of running workers of each stage */
+        private final AtomicInteger[] running = new AtomicInteger[stages.size()];
+        /** The workers */
+        private final List<FutureTask<Void>> workers = new ArrayList<FutureTask<Void>>();
+        /** Counted down by each worker when started, created when the workers are started */
+        private CountDownLatch started;
+        /** Counted down when all workers of the last stage have finished */
+        private final CountDownLatch finished = new CountDownLatch(1);
+        /** The first failure raised by a stage */
+        private final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        /** The execution scope of the calling thread, <code>null</code> if none */
+        private final ExecutionScope scope = ExecutionScope.current();
+        /** The cancellation token of the workers */
+        private final CancellationToken token = ExecutionScope.newCancellationToken();
+
+        /**
+         * Called by the workers of the last stage for each processed context
+         * @param item the processed context
+         */
+        abstract void completed(Item<C> item);
+
+        /**
+         * Executes the pipeline
+         * @param items the contexts to execute
+         * @return <code>true</code> if executed, <code>false</code> if the executor did not start all workers and no context was consumed
+         */
+        boolean execute(Iterator<Item<C>> items) {
+            int workerCount = 0;
+            for (int stage = 0; stage < stages.size(); stage++) {
+                queues.add(new ArrayBlockingQueue<Item<C>>(queueCapacity));
+                running[stage] = new AtomicInteger(getParallelism(stages.get(stage)));
+                workerCount += running[stage].get();
+            }
+            started = new CountDownLatch(workerCount);
+            if (!start()) {
+                return false;
+            }
+            try {
+                while (failure.get() == null && items.hasNext()) {
+                    ExecutionScope.checkpoint();
+                    put(queues.get(0), items.next());
+                }
+                end(0);
+                awaitFinished();
+            } catch (InterruptedException e) {
+                cancel();
+                Thread.currentThread().interrupt();
+                throw new CommandExecutionException(e, "Interrupted while waiting for pipeline to finish");
+            } catch (RuntimeException e) {
+                cancel();
+                throw e;
+            } catch (Error e) {
+                cancel();
+                throw e;
+            }
+            Throwable failure = this.failure.get();
+            if (failure != null) {
+                // stops the workers of the other stages, e.g. blocked on the input of a stage whose worker was interrupted
+                cancel();
+            }
+            if (failure instanceof RuntimeException) {
+                throw (RuntimeException) failure;
+            }
+            if (failure != null) {
+                throw (Error) failure;
+            }
+            return true;
+        }
+
+        /**
+         * Waits for the pipeline to finish, at most until the deadline of the execution scope
+         * @throws InterruptedException if interrupted while waiting
+         * @throws CommandTimeoutException if the deadline passed before the pipeline finished
+         * @throws CommandCancelledException if the execution was cancelled before the pipeline finished
+         */
+        private void awaitFinished() throws InterruptedException {
+            while (!finished.await(getCheckIntervalNanos(), TimeUnit.NANOSECONDS)) {
+                ExecutionScope.checkpoint();
+            }
+        }
+
+        /**
+         * Hands off a context to a stage, waiting for space in its input queue at most until the deadline of the execution scope. If the pipeline
+         * finishes with a failure while waiting the context is dropped.
+         * @param queue the input queue of the stage
+         * @param item the context
+         * @throws InterruptedException if interrupted while waiting
+         * @throws CommandTimeoutException if the deadline passed while waiting
+         * @throws CommandCancelledException if the execution was cancelled while waiting
+         */
+        private void put(BlockingQueue<Item<C>> queue, Item<C> item) throws InterruptedException {
+            while (!queue.offer(item, getCheckIntervalNanos(), TimeUnit.NANOSECONDS)) {
+                if (finished.getCount() == 0) {
+                    return;
+                }
+                ExecutionScope.checkpoint();
+            }
+        }
+
+        /**
+         * @return the time in nanoseconds to wait before re-checking the execution scope
+         */
+        private long getCheckIntervalNanos() {
+            return scope == null ? CHECK_INTERVAL_NANOS : Math.max(0, Math.min(CHECK_INTERVAL_NANOS, scope.getRemainingNanos()));
+        }
+
+        /**
+         * Starts the workers of all stages
+         * @return <code>true</code> if started, <code>false</code> if the executor rejected a worker
+         */
+        private boolean start() {
+            Executor executor = getExecutor();
+            for (int stage = 0; stage < stages.size(); stage++) {
+                for (int i = 0; i < running[stage].get(); i++) {
+                    final int workerStage = stage;
+                    FutureTask<Void> worker = new FutureTask<Void>(new Runnable() {
+                        @Override
+                        public void run() {
+                            work(workerStage);
+                        }
+                    }, null);
+                    try {
+                        executor.execute(worker);
+                    } catch (RejectedExecutionException e) {
+                        cancel();
+                        return false;
+                    }
+                    workers.add(worker);
+                }
+            }
+            return awaitStarted();
+        }
+
+        /**
+         * Waits for the executor to start all workers, at most for the start timeout and until the deadline of the execution scope
+         * @return <code>true</code> if started, <code>false</code> if not all workers have started in time, the workers are then cancelled
+         */
+        private boolean awaitStarted() {
+            long timeout = TimeUnit.MILLISECONDS.toNanos(startTimeout);
+            if (scope != null) {
+                timeout = Math.min(timeout, scope.getRemainingNanos());
+            }
+            try {
+                if (started.await(timeout, TimeUnit.NANOSECONDS)) {
+                    return true;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            cancel();
+            return false;
+        }
+
+        /**
+         * The worker loop of a stage
+         * @param stage the stage index
+         */
+        private void work(int stage) {
+            Command<C> command = stages.get(stage);
+            BlockingQueue<Item<C>> input = queues.get(stage);
+            started.countDown();
+            ExecutionScope attached = ExecutionScope.attach(scope, token);
+            try {
+                for (Item<C> item = input.take(); item != END; item = input.take()) {
+                    if (failure.get() != null) {
+                        continue; // drop contexts in flight
+                    }
+                    try {
+                        item.status = command.execute(item.context);
+                        if (stage + 1 == stages.size()) {
+                            completed(item);
+                        } else {
+                            put(queues.get(stage + 1), item);
+                        }
+                    } catch (RuntimeException e) {
+                        failure.compareAndSet(null, e);
+                    } catch (Error e) {
+                        failure.compareAndSet(null, e);
+                    }
+                }
+                if (running[stage].decrementAndGet() == 0) {
+                    end(stage + 1);
+                }
+            } catch (RuntimeException e) {
+                // timed out or cancelled while ending the next stage
+                failure.compareAndSet(null, e);
+                finished.countDown();
+            } catch (InterruptedException e) {
+                // cancelled, or interrupted by other means, e.g. the executor being shut down, the calling thread must then not wait for this stage
+                failure.compareAndSet(null, new CommandExecutionException(e, "Pipeline stage %d interrupted", stage));
+                finished.countDown();
+                Thread.currentThread().interrupt();
+            } finally {
+                attached.exit();
+            }
+        }
+
+        /**
+         * Ends the input of a stage, when all stages have ended the pipeline is finished
+         * @param stage the stage index
+         * @throws InterruptedException if interrupted while waiting for space in the stage queue
+         * @throws CommandTimeoutException if the deadline passed while waiting for space in the stage queue
+         * @throws CommandCancelledException if the execution was cancelled while waiting for space in the stage queue
+         */
+        @SuppressWarnings("unchecked")
+        private void end(int stage) throws InterruptedException {
+            if (stage == stages.size()) {
+                finished.countDown();
+                return;
+            }
+            for (int i = getParallelism(stages.get(stage)); i > 0; i--) {
+                put(queues.get(stage), END);
+            }
+        }
+
+        /**
+         * Cancels all workers, interrupting them if running
+         */
+        private void cancel() {
+            token.cancel();
+            for (FutureTask<Void> worker : workers) {
+                worker.cancel(true);
+            }
+        }
+    }
+}
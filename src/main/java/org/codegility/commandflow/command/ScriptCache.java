@@ -0,0 +1,230 @@
+/**
+ * Copyright 2010/2011, Martin Lansler
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codegility.commandflow.command;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.script.ScriptEngine;
+import javax.script.ScriptEngineFactory;
+import javax.script.ScriptEngineManager;
+
+/**
+ * A cache of compiled scripts shared by script commands, keyed by script engine name and script text.
+ * <p>
+ * The cache holds a single {@link ScriptEngineManager} and looks up each script engine once, a thread-safe engine is then shared by all scripts
+ * compiled for it, each thread evaluating them in one script context per engine. For an engine that is not thread-safe the cache holds a single {@link ScriptEnginePool} shared by all scripts of the engine, each
+ * pooled engine compiles the scripts it evaluates, hence the number of engines created is bounded by the pool size and not by the number of scripts.
+ * Identical scripts are compiled once per engine and shared by all commands executing them. The first uses of a script from several threads at once
+ * may compile it more than once, only one compiled script is kept.
+ * <p>
+ * Script commands created via {@link ScriptCommand#ScriptCommand(String)} use the default cache, see {@link #getDefault()}, a cache may also be
+ * given per command, e.g. to share compiled scripts only within one catalog. Script commands given an explicit script engine do not use the cache.
+ * @author Martin Lansler
+ */
+public class ScriptCache {
+    /** The default cache */
+    private static final ScriptCache DEFAULT = new ScriptCache();
+
+    /** The threading levels of thread-safe script engines, see {@link ScriptEngineFactory#getParameter(String)} */
+    private static final Set<String> THREAD_SAFE_LEVELS;
+    static {
+        THREAD_SAFE_LEVELS = new HashSet<String>();
+        THREAD_SAFE_LEVELS.add("MULTITHREADED");
+        THREAD_SAFE_LEVELS.add("THREAD-ISOLATED");
+        THREAD_SAFE_LEVELS.add("STATELESS");
+    }
+
+    /** The engine manager used to look up the engines */
+    private final ScriptEngineManager manager;
+
+    /** The engines, mapped via engine names */
+    private final ConcurrentMap<String, ScriptEngine> engines = new ConcurrentHashMap<String, ScriptEngine>();
+
+    /** The script context of each thread for the thread-safe engines, mapped via engine names */
+    private final ConcurrentMap<String, ThreadLocal<ScriptEngineContext>> contexts = new ConcurrentHashMap<String, ThreadLocal<ScriptEngineContext>>();
+
+    /** The pools of the engines that are not thread-safe, mapped via engine names */
+    private final ConcurrentMap<String, ScriptEnginePool> pools = new ConcurrentHashMap<String, ScriptEnginePool>();
+
+    /** The compiled scripts, keyed by engine name and script */
+    private final ConcurrentMap<List<String>, ScriptEvaluator> scripts = new ConcurrentHashMap<List<String>, ScriptEvaluator>();
+
+    /**
+     * Creates a new script cache using a new script engine manager
+     */
+    public ScriptCache() {
+        this(new ScriptEngineManager());
+    }
+
+    /**
+     * Creates a new script cache
+     * @param manager the script engine manager used to look up the script engines
+     */
+    public ScriptCache(ScriptEngineManager manager) {
+        this.manager = manager;
+    }
+
+    /**
+     * @return the default cache, used by script commands created without an explicit script engine
+     */
+    public static ScriptCache getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * Gets a script compiled for the named script engine, compiling it on first use
+     * @param engineName the script engine name
+     * @param script the script
+     * @return the compiled script
+     * @throws IllegalArgumentException if no script engine is found for the name
+     */
+    ScriptEvaluator get(String engineName, String script) {
+        List<String> key = Arrays.asList(engineName, script);
+        ScriptEvaluator evaluator = scripts.get(key);
+        if (evaluator == null) {
+            ScriptEngine engine = getEngine(engineName);
+            if (isThreadSafe(engine)) {
+                evaluator = new SharedEngineScript(engine, script, getContexts(engineName, engine));
+            } else {
+                evaluator = getPool(engineName, engine).getScript(script);
+            }
+            ScriptEvaluator previous = scripts.putIfAbsent(key, evaluator);
+            if (previous != null) {
+                evaluator = previous;
+            }
+        }
+        return evaluator;
+    }
+
+    /**
+     * Gets a script engine, the engine is looked up once per name
+     * @param engineName the script engine name
+     * @return the script engine
+     * @throws IllegalArgumentException if no script engine is found for the name
+     */
+    public ScriptEngine getEngine(String engineName) {
+        ScriptEngine engine = engines.get(engineName);
+        if (engine == null) {
+            engine = manager.getEngineByName(engineName);
+            if (engine == null) {
+                throw new IllegalArgumentException("Could not find script engine " + engineName);
+            }
+            ScriptEngine previous = engines.putIfAbsent(engineName, engine);
+            if (previous != null) {
+                engine = previous;
+            }
+        }
+        return engine;
+    }
+
+    /**
+     * Checks if a script engine is found for a name
+     * @param engineName the script engine name
+     * @return <code>true</code> if found, the engine is then looked up once
+     */
+    public boolean hasEngine(String engineName) {
+        try {
+            getEngine(engineName);
+            return true;
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Gets the per thread script contexts of a thread-safe engine, the contexts are created once per name
+     * @param engineName the script engine name
+     * @param engine the script engine
+     * @return the script contexts
+     */
+    private ThreadLocal<ScriptEngineContext> getContexts(String engineName, ScriptEngine engine) {
+        ThreadLocal<ScriptEngineContext> engineContexts = contexts.get(engineName);
+        if (engineContexts == null) {
+            engineContexts = SharedEngineScript.newContexts(engine);
+            ThreadLocal<ScriptEngineContext> previous = contexts.putIfAbsent(engineName, engineContexts);
+            if (previous != null) {
+                engineContexts = previous;
+            }
+        }
+        return engineContexts;
+    }
+
+    /**
+     * Gets the pool of an engine that is not thread-safe, the pool is created once per name
+     * @param engineName the script engine name
+     * @param engine the script engine, its factory creates the pooled engines
+     * @return the pool
+     */
+    private ScriptEnginePool getPool(String engineName, ScriptEngine engine) {
+        ScriptEnginePool pool = pools.get(engineName);
+        if (pool == null) {
+            // the looked up engine is not pooled as it is available via getEngine(String)
+            pool = new ScriptEnginePool(engine.getFactory().getScriptEngine(), ScriptEnginePool.DEFAULT_MAX_SIZE);
+            ScriptEnginePool previous = pools.putIfAbsent(engineName, pool);
+            if (previous != null) {
+                pool = previous;
+            }
+        }
+        return pool;
+    }
+
+    /**
+     * @return the number of cached scripts
+     */
+    public int getSize() {
+        return scripts.size();
+    }
+
+    /**
+     * Removes all cached scripts and engines, script commands already created keep their compiled scripts
+     */
+    public void clear() {
+        scripts.clear();
+        contexts.clear();
+        pools.clear();
+        engines.clear();
+    }
+
+    /**
+     * Compiles a script for a script engine, the engine is shared by all threads if thread-safe and otherwise used via a pool
+     * @param engine the script engine, must not be used by other threads if not thread-safe
+     * @param script the script
+     * @param poolSize the maximum number of pooled engines
+     * @return the compiled script
+     */
+    static ScriptEvaluator compile(ScriptEngine engine, String script, int poolSize) {
+        if (isThreadSafe(engine)) {
+            return new SharedEngineScript(engine, script, SharedEngineScript.newContexts(engine));
+        }
+        return new ScriptEnginePool(engine, poolSize).getScript(script);
+    }
+
+    /**
+     * Checks if a script engine is thread-safe, i.e. if its factory declares <code>MULTITHREADED</code>, <code>THREAD-ISOLATED</code> or
+     * <code>STATELESS</code> as its <code>THREADING</code> parameter
+     * @param engine the script engine
+     * @return <code>true</code> if thread-safe
+     */
+    static boolean isThreadSafe(ScriptEngine engine) {
+        Object threading = engine.getFactory().getParameter("THREADING");
+        return threading != null && THREAD_SAFE_LEVELS.contains(threading);
+    }
+}
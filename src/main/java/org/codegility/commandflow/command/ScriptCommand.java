@@ -15,18 +15,11 @@
  */
 package org.codegility.commandflow.command;
 
-import java.util.HashSet;
-import java.util.Set;
-
-import javax.script.Bindings;
 import javax.script.Compilable;
-import javax.script.CompiledScript;
 import javax.script.ScriptContext;
 import javax.script.ScriptEngine;
 import javax.script.ScriptEngineFactory;
-import javax.script.ScriptEngineManager;
 import javax.script.ScriptException;
-import javax.script.SimpleBindings;
 
 import org.codegility.commandflow.Command;
 
@@ -40,12 +33,21 @@ import org.codegility.commandflow.Command;
  * status, any other return type will cause a runtime exception.
  * <p>
  * The default script engine used is {@link #DEFAULT_SCRIPT_ENGINE}, another script engine can be set via the {@link #setEngine(ScriptEngine)} method
- * prior to command execution. The used script engine <em>must be thread-safe</em>, more specifically the associated {@link ScriptEngineFactory} must
- * return either <code>MULTITHREADED</code>, <code>THREAD-ISOLATED</code> or <code>STATELESS</code> when queried for its <code>THREADING</code>
- * parameter via the {@link ScriptEngineFactory#getParameter(String)} method.
+ * prior to command execution. A thread-safe script engine, i.e. one whose associated {@link ScriptEngineFactory} returns either
+ * <code>MULTITHREADED</code>, <code>THREAD-ISOLATED</code> or <code>STATELESS</code> when queried for its <code>THREADING</code> parameter via the
+ * {@link ScriptEngineFactory#getParameter(String)} method, is shared by all threads. Any other script engine, including engines that do not declare
+ * their threading, is used via a {@link ScriptEnginePool} holding up to {@link #setPoolSize(int)} engines, each compiling the script on first use.
+ * Script commands created with the default script engine share one pool per {@link ScriptCache}, holding up to
+ * {@link ScriptEnginePool#DEFAULT_MAX_SIZE} engines.
  * <p>
  * If the used script engine supports compiled scripts, i.e. implements the {@link Compilable} interface, the script will be compiled for maximum
- * performance.
+ * performance. Script commands created with the default script engine share their compiled scripts via {@link ScriptCache#getDefault()}, hence
+ * identical scripts are only compiled once per engine.
+ * <p>
+ * Each thread evaluates the script in its own {@link ScriptContext}, created once per thread and script, a pooled engine evaluates all its scripts in
+ * its own script context. The engine scope bindings of a script context are created by the engine and reused for all executions, only the context
+ * binding is replaced, hence evaluating the script does not allocate any bindings or script contexts. The context binding is cleared after each
+ * execution so that the command context is not retained, as are any top level variables assigned by the script.
  * <p>
  * Runtime exceptions raised by the script in the form of {@link ScriptException} are wrapped in a {@link RuntimeException} and propagated.
  * @author Martin Lansler
@@ -55,37 +57,52 @@ public class ScriptCommand<C> implements Command<C> {
     public static final String DEFAULT_CONTEXT_BINDING_NAME = "c";
 
     /** The default script engine {@value} used for script evaluation */
-    private static final String DEFAULT_SCRIPT_ENGINE = "JavaScript";
-
-    /** The allowed threading levels for the engines associated {@link ScriptEngineFactory} */
-    private static final Set<String> ALLOWED_THREADING_LEVELS;
-    static {
-        ALLOWED_THREADING_LEVELS = new HashSet<String>();
-        ALLOWED_THREADING_LEVELS.add("MULTITHREADED");
-        ALLOWED_THREADING_LEVELS.add("THREAD-ISOLATED");
-        ALLOWED_THREADING_LEVELS.add("STATELESS");
-    }
+    public static final String DEFAULT_SCRIPT_ENGINE = "JavaScript";
 
     /** The script to execute */
     private String script;
 
-    /** Compiled version of {@link #script}, <code>null</code> if engine does not support compilation */
-    private CompiledScript compiledScript;
-
     /** The name to use when binding the command context prior to script execution */
     private String contextBindingName;
 
     /** The script engine used to execute the command */
     private ScriptEngine engine;
 
+    /** Evaluates the compiled script */
+    private ScriptEvaluator evaluator;
+
+    /** The maximum number of pooled engines */
+    private int poolSize = ScriptEnginePool.DEFAULT_MAX_SIZE;
+
     /**
-     * Creates a new script command
+     * Creates a new script command using the default script engine, the compiled script is shared via {@link ScriptCache#getDefault()}
      * @param script the script to execute
      */
     public ScriptCommand(String script) {
+        this(script, ScriptCache.getDefault());
+    }
+
+    /**
+     * Creates a new script command using the default script engine, the compiled script is shared via the given script cache
+     * @param script the script to execute
+     * @param cache the script cache
+     */
+    public ScriptCommand(String script, ScriptCache cache) {
         this.script = script;
         setContextBindingName(DEFAULT_CONTEXT_BINDING_NAME);
-        setEngine(new ScriptEngineManager().getEngineByName(DEFAULT_SCRIPT_ENGINE));
+        this.evaluator = cache.get(DEFAULT_SCRIPT_ENGINE, script);
+        this.engine = evaluator.getEngine();
+    }
+
+    /**
+     * Creates a new script command
+     * @param script the script to execute
+     * @param engine the script engine
+     */
+    public ScriptCommand(String script, ScriptEngine engine) {
+        this.script = script;
+        setContextBindingName(DEFAULT_CONTEXT_BINDING_NAME);
+        setEngine(engine);
     }
 
     /**
@@ -108,15 +125,11 @@ public class ScriptCommand<C> implements Command<C> {
 
     /**
      * Sets the script engine to use for script evaluation
-     * @param engine the script engine
+     * @param engine the script engine, pooled if not thread-safe
      */
     public void setEngine(ScriptEngine engine) {
-        String threading = (String) engine.getFactory().getParameter("THREADING");
-        if (threading == null || !ALLOWED_THREADING_LEVELS.contains(threading)) {
-            throw new IllegalArgumentException("The provided script engine is not threadsafe");
-        }
         this.engine = engine;
-        compile();
+        this.evaluator = ScriptCache.compile(engine, script, poolSize);
     }
 
     /**
@@ -127,27 +140,36 @@ public class ScriptCommand<C> implements Command<C> {
     }
 
     /**
-     * Compiles the script if supported by the script engine.
+     * Sets the maximum number of pooled engines, only used if the script engine is not thread-safe
+     * @param poolSize the maximum number of engines, default is the number of available processors
      */
-    private void compile() {
-        if (engine instanceof Compilable) {
-            try {
-                compiledScript = ((Compilable) engine).compile(script);
-            } catch (ScriptException e) {
-                throw new RuntimeException(e);
-            }
+    public void setPoolSize(int poolSize) {
+        if (poolSize < 1) {
+            throw new IllegalArgumentException("Pool size must be positive: " + poolSize);
         }
+        this.poolSize = poolSize;
+        if (evaluator instanceof ScriptEnginePool.PooledScript) {
+            // the current pool may be shared via the script cache, hence the new pool starts from a new engine
+            setEngine(engine.getFactory().getScriptEngine());
+        }
+    }
+
+    /**
+     * @return the maximum number of pooled engines
+     */
+    public int getPoolSize() {
+        return poolSize;
+    }
+
+    /**
+     * @return the pool of engines, <code>null</code> if the script engine is thread-safe and shared by all threads
+     */
+    public ScriptEnginePool getPool() {
+        return evaluator instanceof ScriptEnginePool.PooledScript ? ((ScriptEnginePool.PooledScript) evaluator).getPool() : null;
     }
 
-    
     @Override
     public boolean execute(C context) {
-        Bindings bindings = new SimpleBindings();
-        bindings.put(getContextBindingName(), context);
-        try {
-            return (Boolean) (compiledScript != null ? compiledScript.eval(bindings) : engine.eval(script, bindings));
-        } catch (ScriptException e) {
-            throw new RuntimeException(e);
-        }
+        return evaluator.eval(contextBindingName, context);
     }
 }
@@ -0,0 +1,126 @@
+/**
+ * Copyright 2010/2011, Martin Lansler
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codegility.commandflow.command;
+
+import java.util.ArrayList;
+
+import javax.script.Bindings;
+import javax.script.Compilable;
+import javax.script.CompiledScript;
+import javax.script.ScriptContext;
+import javax.script.ScriptEngine;
+import javax.script.ScriptException;
+import javax.script.SimpleScriptContext;
+
+/**
+ * A script engine together with the {@link ScriptContext} scripts are evaluated in.
+ * <p>
+ * An instance must only be used by one thread at a time. The engine scope bindings of the script context are created by the engine and reused for
+ * all evaluations, only the context binding is replaced, hence evaluating a script does not allocate any bindings or script contexts. Top level
+ * variables assigned by a script are removed after its evaluation, as with bindings created per evaluation.
+ * @author Martin Lansler
+ */
+final class ScriptEngineContext {
+    /** The script engine */
+    private final ScriptEngine engine;
+
+    /** The script context */
+    private final ScriptContext scriptContext;
+
+    /** The engine scope bindings of the script context */
+    private final Bindings bindings;
+
+    /**
+     * Creates a new script engine context
+     * @param engine the script engine
+     */
+    ScriptEngineContext(ScriptEngine engine) {
+        this.engine = engine;
+        this.bindings = engine.createBindings();
+        ScriptContext engineContext = engine.getContext();
+        scriptContext = new SimpleScriptContext();
+        scriptContext.setBindings(bindings, ScriptContext.ENGINE_SCOPE);
+        scriptContext.setBindings(engineContext.getBindings(ScriptContext.GLOBAL_SCOPE), ScriptContext.GLOBAL_SCOPE);
+        scriptContext.setReader(engineContext.getReader());
+        scriptContext.setWriter(engineContext.getWriter());
+        scriptContext.setErrorWriter(engineContext.getErrorWriter());
+    }
+
+    /**
+     * Evaluates a script
+     * @param script the script
+     * @param compiledScript the script compiled by the engine, <code>null</code> if the engine does not support compilation
+     * @param bindingName the binding name of the command context
+     * @param context the command context
+     * @return the boolean result of the script
+     * @throws CommandExecutionException if the script does not evaluate to a boolean
+     */
+    boolean eval(String script, CompiledScript compiledScript, String bindingName, Object context) {
+        bindings.put(bindingName, context);
+        Object result;
+        try {
+            result = compiledScript != null ? compiledScript.eval(scriptContext) : engine.eval(script, scriptContext);
+        } catch (ScriptException e) {
+            throw new RuntimeException(e);
+        } finally {
+            // keeps the binding entry so that binding the next context does not allocate
+            bindings.put(bindingName, null);
+            if (bindings.size() > 1) {
+                clearVariables(bindingName);
+            }
+        }
+        if (result instanceof Boolean) {
+            return ((Boolean) result).booleanValue();
+        }
+        throw new CommandExecutionException("Script '%s' must evaluate to a boolean: %s", script, result);
+    }
+
+    /**
+     * Removes the variables assigned by a script, so that they are not seen by the evaluation of another command context
+     * @param bindingName the binding name of the command context, kept
+     */
+    private void clearVariables(String bindingName) {
+        for (String name : new ArrayList<String>(bindings.keySet())) {
+            if (!name.equals(bindingName)) {
+                bindings.remove(name);
+            }
+        }
+    }
+
+    /**
+     * @return the script engine
+     */
+    ScriptEngine getEngine() {
+        return engine;
+    }
+
+    /**
+     * Compiles a script if supported by the script engine
+     * @param engine the script engine
+     * @param script the script
+     * @return the compiled script, <code>null</code> if the engine does not support compilation
+     */
+    static CompiledScript compile(ScriptEngine engine, String script) {
+        if (engine instanceof Compilable) {
+            try {
+                return ((Compilable) engine).compile(script);
+            } catch (ScriptException e) {
+                throw new RuntimeException(e);
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,251 @@
+/**
+ * Copyright 2010/2011, Martin Lansler
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codegility.commandflow.command;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+import javax.script.CompiledScript;
+import javax.script.ScriptEngine;
+import javax.script.ScriptEngineFactory;
+
+/**
+ * A bounded pool of script engines, allowing a script engine that is not thread-safe to be used concurrently.
+ * <p>
+ * Each pooled engine is created via the {@link ScriptEngineFactory} of the initial engine and has its own script context. The scripts evaluated by the
+ * pool share its engines, each pooled engine compiles a script on its first evaluation of it and keeps the compiled script keyed by the script text,
+ * hence the number of engines is bounded by the pool and not by the number of scripts. An evaluation takes an idle engine from the pool for its
+ * duration, engines are created on demand up to the maximum pool size. When all engines are busy the evaluation spins and then parks until an engine
+ * is returned, checking the {@link ExecutionScope} while waiting. The idle engines are held in an array of slots taken and returned by
+ * compare-and-set, hence the pool is lock-free. Each thread prefers its own slot, so that under moderate load a thread keeps evaluating on the same
+ * engine.
+ * @author Martin Lansler
+ */
+public class ScriptEnginePool {
+    /** The default maximum number of engines, the number of available processors */
+    public static final int DEFAULT_MAX_SIZE = Runtime.getRuntime().availableProcessors();
+
+    /** The number of times to yield while waiting for an engine before parking */
+    private static final int SPINS = 16;
+
+    /** The time in nanoseconds to park while waiting for an engine */
+    private static final long PARK_NANOS = 50000;
+
+    /** The initial engine */
+    private final ScriptEngine engine;
+
+    /** Creates the pooled engines */
+    private final ScriptEngineFactory factory;
+
+    /** The idle engines, <code>null</code> for empty slots */
+    private final AtomicReferenceArray<PooledEngine> idle;
+
+    /** The number of created engines */
+    private final AtomicInteger size = new AtomicInteger();
+
+    /**
+     * Creates a new script engine pool
+     * @param engine the initial engine, used as the first pooled engine
+     * @param maxSize the maximum number of engines
+     */
+    public ScriptEnginePool(ScriptEngine engine, int maxSize) {
+        if (maxSize < 1) {
+            throw new IllegalArgumentException("Max pool size must be positive: " + maxSize);
+        }
+        this.engine = engine;
+        this.factory = engine.getFactory();
+        this.idle = new AtomicReferenceArray<PooledEngine>(maxSize);
+        idle.set(0, new PooledEngine(engine));
+        size.set(1);
+    }
+
+    /**
+     * Gets a script evaluated by this pool, the script is compiled once by a pooled engine so that errors are raised here
+     * @param script the script
+     * @return the script evaluator
+     */
+    ScriptEvaluator getScript(String script) {
+        PooledEngine pooled = acquire();
+        try {
+            pooled.getCompiledScript(script);
+        } finally {
+            release(pooled);
+        }
+        return new PooledScript(script);
+    }
+
+    /**
+     * Evaluates a script on a pooled engine
+     * @param script the script
+     * @param bindingName the binding name of the command context
+     * @param context the command context
+     * @return the boolean result of the script
+     * @throws CommandExecutionException if the script does not evaluate to a boolean
+     */
+    public boolean eval(String script, String bindingName, Object context) {
+        PooledEngine pooled = acquire();
+        try {
+            return pooled.context.eval(script, pooled.getCompiledScript(script), bindingName, context);
+        } finally {
+            release(pooled);
+        }
+    }
+
+    /**
+     * Takes an idle engine from the pool, creating a new engine if none is idle and the pool is not full
+     * @return the engine
+     */
+    private PooledEngine acquire() {
+        int preferred = getPreferredSlot();
+        for (int spins = 0;; spins++) {
+            for (int i = 0; i < idle.length(); i++) {
+                int slot = (preferred + i) % idle.length();
+                PooledEngine pooled = idle.get(slot);
+                if (pooled != null && idle.compareAndSet(slot, pooled, null)) {
+                    return pooled;
+                }
+            }
+            int current = size.get();
+            if (current < idle.length() && size.compareAndSet(current, current + 1)) {
+                return newEngine();
+            }
+            ExecutionScope.checkpoint();
+            if (spins < SPINS) {
+                Thread.yield();
+            } else {
+                LockSupport.parkNanos(this, PARK_NANOS);
+            }
+        }
+    }
+
+    /**
+     * Returns an engine to the pool, as there are no more engines than slots an empty slot is always found
+     * @param pooled the engine
+     */
+    private void release(PooledEngine pooled) {
+        int preferred = getPreferredSlot();
+        for (int i = 0;; i++) {
+            int slot = (preferred + i) % idle.length();
+            if (idle.get(slot) == null && idle.compareAndSet(slot, null, pooled)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Creates a new pooled engine, the pool size has already been incremented
+     * @return the engine
+     */
+    private PooledEngine newEngine() {
+        try {
+            return new PooledEngine(factory.getScriptEngine());
+        } catch (RuntimeException e) {
+            size.decrementAndGet();
+            throw e;
+        }
+    }
+
+    /**
+     * @return the slot preferred by the current thread
+     */
+    private int getPreferredSlot() {
+        return (int) (Thread.currentThread().getId() % idle.length());
+    }
+
+    /**
+     * @return the initial engine, the other pooled engines are created by its factory
+     */
+    public ScriptEngine getEngine() {
+        return engine;
+    }
+
+    /**
+     * @return the number of created engines
+     */
+    public int getSize() {
+        return size.get();
+    }
+
+    /**
+     * @return the maximum number of engines
+     */
+    public int getMaxSize() {
+        return idle.length();
+    }
+
+    /**
+     * A pooled engine with the scripts compiled by it, only used by the thread that has taken it from the pool.
+     */
+    private static final class PooledEngine {
+        /** The script context of the engine */
+        private final ScriptEngineContext context;
+
+        /** The compiled scripts, keyed by script text, empty if the engine does not support compilation */
+        private final Map<String, CompiledScript> compiledScripts = new HashMap<String, CompiledScript>();
+
+        PooledEngine(ScriptEngine engine) {
+            this.context = new ScriptEngineContext(engine);
+        }
+
+        /**
+         * Gets a script compiled by the engine, compiling it on first use
+         * @param script the script
+         * @return the compiled script, <code>null</code> if the engine does not support compilation
+         */
+        CompiledScript getCompiledScript(String script) {
+            CompiledScript compiledScript = compiledScripts.get(script);
+            if (compiledScript == null) {
+                compiledScript = ScriptEngineContext.compile(context.getEngine(), script);
+                if (compiledScript != null) {
+                    compiledScripts.put(script, compiledScript);
+                }
+            }
+            return compiledScript;
+        }
+    }
+
+    /**
+     * A script evaluated by the pool.
+     */
+    final class PooledScript implements ScriptEvaluator {
+        /** The script */
+        private final String script;
+
+        PooledScript(String script) {
+            this.script = script;
+        }
+
+        @Override
+        public boolean eval(String bindingName, Object context) {
+            return ScriptEnginePool.this.eval(script, bindingName, context);
+        }
+
+        @Override
+        public ScriptEngine getEngine() {
+            return engine;
+        }
+
+        /**
+         * @return the pool evaluating the script
+         */
+        ScriptEnginePool getPool() {
+            return ScriptEnginePool.this;
+        }
+    }
+}
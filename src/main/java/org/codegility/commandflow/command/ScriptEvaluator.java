@@ -0,0 +1,39 @@
+/**
+ * Copyright 2010/2011, Martin Lansler
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codegility.commandflow.command;
+
+import javax.script.ScriptEngine;
+
+/**
+ * Evaluates a script compiled for a script engine, safe to use concurrently.
+ * @author Martin Lansler
+ * @see ScriptCache
+ */
+interface ScriptEvaluator {
+    /**
+     * Evaluates the script
+     * @param bindingName the binding name of the command context
+     * @param context the command context
+     * @return the boolean result of the script
+     * @throws CommandExecutionException if the script does not evaluate to a boolean
+     */
+    boolean eval(String bindingName, Object context);
+
+    /**
+     * @return the script engine the script was compiled for
+     */
+    ScriptEngine getEngine();
+}
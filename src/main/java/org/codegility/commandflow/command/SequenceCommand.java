@@ -15,6 +15,12 @@
  */
 package org.codegility.commandflow.command;
 
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import org.codegility.commandflow.AsyncCommand;
+import org.codegility.commandflow.BatchCommand;
 import org.codegility.commandflow.Command;
 
 /**
@@ -24,16 +30,43 @@ import org.codegility.commandflow.Command;
  * @param <C> the context class of the command
  * @author Martin Lansler
  */
-public class SequenceCommand<C> extends AbstractCompositeCommand<C> {
+public class SequenceCommand<C> extends AbstractCompositeCommand<C> implements BatchCommand<C>, AsyncCommand<C> {
 
     
     @Override
     public boolean execute(C context) {
         boolean status = false;
         for (Command<C> command : getCommands()) {
+            ExecutionScope.checkpoint();
             status = command.execute(context);
         }
         return status;
     }
 
+    @Override
+    public BitSet executeBatch(List<C> contexts, BitSet selection) {
+        BitSet status = new BitSet();
+        for (Command<C> command : getCommands()) {
+            ExecutionScope.checkpoint();
+            status = CommandUtil.executeBatch(command, contexts, selection);
+        }
+        return status;
+    }
+
+    @Override
+    public CommandTask<C> executeAsync(C context, Executor executor) {
+        return new AsyncExecution<C>(context, executor) {
+            /** The index of the next command */
+            private int next;
+
+            @Override
+            void step(boolean status) {
+                if (next < getCommands().size()) {
+                    execute(getCommands().get(next++));
+                } else {
+                    complete(status);
+                }
+            }
+        }.start();
+    }
 }
@@ -0,0 +1,75 @@
+/**
+ * Copyright 2010/2011, Martin Lansler
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codegility.commandflow.command;
+
+import javax.script.CompiledScript;
+import javax.script.ScriptEngine;
+
+/**
+ * A script evaluated by a thread-safe script engine shared by all threads, each thread evaluates the script in its own script context. The script
+ * contexts are shared by all scripts of the engine, see {@link #newContexts(ScriptEngine)}.
+ * @author Martin Lansler
+ */
+final class SharedEngineScript implements ScriptEvaluator {
+    /** The script engine */
+    private final ScriptEngine engine;
+
+    /** The script */
+    private final String script;
+
+    /** The compiled script, <code>null</code> if the engine does not support compilation */
+    private final CompiledScript compiledScript;
+
+    /** The script context of each thread, shared by all scripts of the engine */
+    private final ThreadLocal<ScriptEngineContext> contexts;
+
+    /**
+     * Compiles a script for a thread-safe script engine
+     * @param engine the script engine
+     * @param script the script
+     * @param contexts the script context of each thread, see {@link #newContexts(ScriptEngine)}
+     */
+    SharedEngineScript(ScriptEngine engine, String script, ThreadLocal<ScriptEngineContext> contexts) {
+        this.engine = engine;
+        this.script = script;
+        this.compiledScript = ScriptEngineContext.compile(engine, script);
+        this.contexts = contexts;
+    }
+
+    /**
+     * Creates the per thread script contexts of a thread-safe script engine, to be shared by the scripts of the engine
+     * @param engine the script engine
+     * @return the script contexts, created on first use by each thread
+     */
+    static ThreadLocal<ScriptEngineContext> newContexts(final ScriptEngine engine) {
+        return new ThreadLocal<ScriptEngineContext>() {
+            @Override
+            protected ScriptEngineContext initialValue() {
+                return new ScriptEngineContext(engine);
+            }
+        };
+    }
+
+    @Override
+    public boolean eval(String bindingName, Object context) {
+        return contexts.get().eval(script, compiledScript, bindingName, context);
+    }
+
+    @Override
+    public ScriptEngine getEngine() {
+        return engine;
+    }
+}
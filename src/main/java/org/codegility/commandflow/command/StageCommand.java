@@ -0,0 +1,62 @@
+/**
+ * Copyright 2010/2011, Martin Lansler
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codegility.commandflow.command;
+
+import java.util.BitSet;
+import java.util.List;
+
+import org.codegility.commandflow.BatchCommand;
+
+/**
+ * A stage of a {@link PipelineCommand}.
+ * <p>
+ * The stage wraps the command to execute and holds the number of workers executing the stage concurrently. Outside of a pipeline the command simply
+ * executes the wrapped command. If it wraps more than one command, the wrapped commands are coerced into a sequence command.
+ * @param <C> the context class of the command
+ * @author Martin Lansler
+ */
+public class StageCommand<C> extends AbstractContainsOneCommand<C> implements BatchCommand<C> {
+    /** The number of workers executing this stage */
+    private int parallelism = 1;
+
+    @Override
+    public boolean execute(C context) {
+        return executeWrappedCommand(context);
+    }
+
+    @Override
+    public BitSet executeBatch(List<C> contexts, BitSet selection) {
+        return executeWrappedCommand(contexts, selection);
+    }
+
+    /**
+     * Sets the number of workers executing this stage in a pipeline
+     * @param parallelism the number of workers, at least 1
+     */
+    public void setParallelism(int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("Stage parallelism must be at least 1: " + parallelism);
+        }
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * @return the number of workers executing this stage in a pipeline
+     */
+    public int getParallelism() {
+        return parallelism;
+    }
+}
@@ -0,0 +1,76 @@
+/**
+ * Copyright 2010/2011, Martin Lansler
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codegility.commandflow.command;
+
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.codegility.commandflow.BatchCommand;
+
+/**
+ * A command that executes the wrapped command within an execution deadline.
+ * <p>
+ * The deadline is the execution start time plus the timeout, it is visible to all contained commands via {@link ExecutionScope}. Once it has passed
+ * the next checkpoint of a contained command raises a {@link CommandTimeoutException}. If the command is executed within a scope with an earlier
+ * deadline that deadline is kept. If it wraps more than one command, the wrapped commands are coerced into a sequence command.
+ * @param <C> the context class of the command
+ * @author Martin Lansler
+ */
+public class TimeoutCommand<C> extends AbstractContainsOneCommand<C> implements BatchCommand<C> {
+    /** The timeout in milliseconds */
+    private long millis;
+
+    @Override
+    public boolean execute(C context) {
+        ExecutionScope scope = ExecutionScope.enter(millis, TimeUnit.MILLISECONDS);
+        try {
+            scope.check();
+            return executeWrappedCommand(context);
+        } finally {
+            scope.exit();
+        }
+    }
+
+    @Override
+    public BitSet executeBatch(List<C> contexts, BitSet selection) {
+        ExecutionScope scope = ExecutionScope.enter(millis, TimeUnit.MILLISECONDS);
+        try {
+            scope.check();
+            return executeWrappedCommand(contexts, selection);
+        } finally {
+            scope.exit();
+        }
+    }
+
+    /**
+     * Sets the timeout
+     * @param millis the timeout in milliseconds, zero or positive
+     */
+    public void setMillis(long millis) {
+        if (millis < 0) {
+            throw new IllegalArgumentException("Timeout must not be negative: " + millis);
+        }
+        this.millis = millis;
+    }
+
+    /**
+     * @return the timeout in milliseconds
+     */
+    public long getMillis() {
+        return millis;
+    }
+}
@@ -15,6 +15,12 @@
  */
 package org.codegility.commandflow.command;
 
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import org.codegility.commandflow.AsyncCommand;
+import org.codegility.commandflow.BatchCommand;
 
 /**
  * A while command.
@@ -25,14 +31,58 @@ package org.codegility.commandflow.command;
  * @param <C> the context class of the command
  * @author Martin Lansler
  */
-public class WhileCommand<C> extends AbstractConditionalCommand<C> {
+public class WhileCommand<C> extends AbstractConditionalCommand<C> implements BatchCommand<C>, AsyncCommand<C> {
 
     @Override
     public boolean execute(C context) {
         boolean status = false;
         while (executeCondition(context)) {
+            ExecutionScope.checkpoint();
             status = executeAction(context);
         }
         return status;
     }
+
+    @Override
+    public BitSet executeBatch(List<C> contexts, BitSet selection) {
+        BitSet status = new BitSet();
+        BitSet looping = executeCondition(contexts, selection);
+        while (!looping.isEmpty()) {
+            ExecutionScope.checkpoint();
+            // the status of each context is the status of its last action
+            status.andNot(looping);
+            status.or(executeAction(contexts, looping));
+            looping = executeCondition(contexts, looping);
+        }
+        return status;
+    }
+
+    @Override
+    public CommandTask<C> executeAsync(C context, Executor executor) {
+        return new AsyncExecution<C>(context, executor) {
+            /** <code>true</code> once the condition has been executed */
+            private boolean started;
+            /** <code>true</code> if the action is executing, otherwise the condition */
+            private boolean inAction;
+            /** The status of the last action */
+            private boolean actionStatus;
+
+            @Override
+            void step(boolean status) {
+                if (!started) {
+                    started = true;
+                    execute(getCondition());
+                } else if (inAction) {
+                    inAction = false;
+                    actionStatus = status;
+                    execute(getCondition());
+                } else if (status) {
+                    inAction = true;
+                    execute(getAction());
+                } else {
+                    complete(actionStatus);
+                }
+            }
+        }.start();
+    }
 }
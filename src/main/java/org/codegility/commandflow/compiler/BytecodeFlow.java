@@ -0,0 +1,64 @@
+/**
+ * Copyright 2010/2011, Martin Lansler
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codegility.commandflow.compiler;
+
+import java.util.BitSet;
+import java.util.List;
+
+import org.codegility.commandflow.Command;
+import org.codegility.commandflow.command.CommandUtil;
+
+/**
+ * Base class of the classes generated by {@link BytecodeFlowCompiler}.
+ * <p>
+ * The generated subclass holds each leaf command in a field of its own and implements {@link #execute(Object)} as straight-line bytecode with one call
+ * site per leaf command.
+ * @param <C> the context class of the command
+ * @author Martin Lansler
+ */
+public abstract class BytecodeFlow<C> implements CompiledFlow<C> {
+    /** The flow this command was compiled from */
+    private final Command<C> source;
+    /** The leaf commands */
+    private final Command<C>[] leaves;
+
+    /**
+     * Creates a new bytecode flow
+     * @param source the flow the class was generated from
+     * @param leaves the leaf commands
+     */
+    protected BytecodeFlow(Command<C> source, Command<C>[] leaves) {
+        this.source = source;
+        this.leaves = leaves;
+    }
+
+    @Override
+    public Command<C> getSource() {
+        return source;
+    }
+
+    @Override
+    public BitSet executeBatch(List<C> contexts, BitSet selection) {
+        return CommandUtil.executeBatch(source, contexts, selection);
+    }
+
+    /**
+     * @return the number of leaf commands
+     */
+    public int getLeafCount() {
+        return leaves.length;
+    }
+}
@@ -0,0 +1,90 @@
+/**
+ * Copyright 2010/2011, Martin Lansler
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codegility.commandflow.compiler;
+
+import java.lang.reflect.Constructor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.codegility.commandflow.Command;
+import org.codegility.commandflow.builder.BuilderException;
+
+/**
+ * Flow compiler that generates a class per command flow.
+ * <p>
+ * The flow is first compiled by an {@link InstructionFlowCompiler}, the instructions are then translated into the bytecode of a {@link BytecodeFlow}
+ * subclass. Each leaf command is invoked from a call site of its own, hence the JVM sees a single receiver class per call site and can inline the leaf
+ * commands into the generated method. Each generated class is defined by a class loader of its own so that it can be unloaded once the compiled flow
+ * is no longer referenced.
+ * <p>
+ * Flows too large to be translated into a single method are returned as {@link InstructionFlow} instances, as are all flows if class loaders cannot be
+ * created due to a security manager.
+ * @param <C> the context class of the command
+ * @author Martin Lansler
+ */
+public class BytecodeFlowCompiler<C> implements FlowCompiler<C> {
+    /** Package of the generated classes */
+    private static final String CLASS_NAME_PREFIX = BytecodeFlow.class.getPackage().getName() + ".GeneratedFlow";
+
+    /** Sequence for class names */
+    private static final AtomicInteger sequence = new AtomicInteger();
+
+    /** Compiler of the instructions translated into bytecode */
+    private final InstructionFlowCompiler<C> instructionCompiler = new InstructionFlowCompiler<C>();
+
+    @Override
+    public Command<C> compile(Command<C> flow) throws BuilderException {
+        Command<C> compiled = instructionCompiler.compile(flow);
+        if (!(compiled instanceof InstructionFlow)) {
+            return compiled;
+        }
+        InstructionFlow<C> instructions = (InstructionFlow<C>) compiled;
+        String className = CLASS_NAME_PREFIX + sequence.incrementAndGet();
+        byte[] classFile = new FlowClassWriter(className, instructions.getCode(), instructions.getLeafCount()).write();
+        if (classFile == null) {
+            return instructions;
+        }
+        FlowClassLoader loader;
+        try {
+            loader = new FlowClassLoader(BytecodeFlow.class.getClassLoader());
+        } catch (SecurityException e) {
+            return instructions;
+        }
+        try {
+            Class<?> generated = loader.define(className, classFile);
+            Constructor<?> constructor = generated.getConstructor(Command.class, Command[].class);
+            @SuppressWarnings("unchecked")
+            Command<C> command = (Command<C>) constructor.newInstance(flow, instructions.getLeaves());
+            return command;
+        } catch (Exception e) {
+            throw new BuilderException(e, "Failed to generate class %s", className);
+        } catch (LinkageError e) {
+            throw new BuilderException(e, "Failed to generate class %s", className);
+        }
+    }
+
+    /**
+     * Class loader defining a single generated class.
+     */
+    private static class FlowClassLoader extends ClassLoader {
+        FlowClassLoader(ClassLoader parent) {
+            super(parent);
+        }
+
+        Class<?> define(String name, byte[] classFile) {
+            return defineClass(name, classFile, 0, classFile.length);
+        }
+    }
+}
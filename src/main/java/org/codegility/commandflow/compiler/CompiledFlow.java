@@ -0,0 +1,37 @@
+/**
+ * Copyright 2010/2011, Martin Lansler
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codegility.commandflow.compiler;
+
+import org.codegility.commandflow.BatchCommand;
+import org.codegility.commandflow.Command;
+
+/**
+ * Interface implemented by commands created by a {@link FlowCompiler}.
+ * <p>
+ * Compiled flows execute batches (see {@link BatchCommand}) via their source flow.
+ * @param <C> the context class of the command
+ * @author Martin Lansler
+ */
+public interface CompiledFlow<C> extends BatchCommand<C> {
+    /**
+     * Gets the command flow this command was compiled from.
+     * <p>
+     * The source flow is semantically equivalent to the compiled command and may be executed in its place, for instance to compare execution
+     * performance.
+     * @return the source command flow
+     */
+    Command<C> getSource();
+}
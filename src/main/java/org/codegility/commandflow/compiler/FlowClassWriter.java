@@ -0,0 +1,417 @@
+/**
+ * Copyright 2010/2011, Martin Lansler
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codegility.commandflow.compiler;
+
+import static org.codegility.commandflow.compiler.InstructionFlow.CLEAR;
+import static org.codegility.commandflow.compiler.InstructionFlow.EXECUTE;
+import static org.codegility.commandflow.compiler.InstructionFlow.FALSE;
+import static org.codegility.commandflow.compiler.InstructionFlow.JUMP;
+import static org.codegility.commandflow.compiler.InstructionFlow.JUMP_IF_FALSE;
+import static org.codegility.commandflow.compiler.InstructionFlow.JUMP_IF_TRUE;
+import static org.codegility.commandflow.compiler.InstructionFlow.LOAD;
+import static org.codegility.commandflow.compiler.InstructionFlow.NOT;
+import static org.codegility.commandflow.compiler.InstructionFlow.OPCODE_MASK;
+import static org.codegility.commandflow.compiler.InstructionFlow.OPERAND_SHIFT;
+import static org.codegility.commandflow.compiler.InstructionFlow.RETURN;
+import static org.codegility.commandflow.compiler.InstructionFlow.STORE;
+import static org.codegility.commandflow.compiler.InstructionFlow.TRUE;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.codegility.commandflow.Command;
+import org.codegility.commandflow.builder.BuilderException;
+import org.codegility.commandflow.command.ExecutionScope;
+
+/**
+ * Writes the class file of a {@link BytecodeFlow} subclass from the instructions of an {@link InstructionFlow}.
+ * <p>
+ * Each instruction is translated into the corresponding bytecode, the command status is held in a local variable and each status slot in a local
+ * variable of its own. The class file version is 49 (Java 5) so that no stack map frames need to be written.
+ * @author Martin Lansler
+ */
+class FlowClassWriter {
+    /** The maximum size of the generated execute method, limited by the 16-bit branch offsets */
+    static final int MAX_CODE_SIZE = Short.MAX_VALUE;
+
+    // class file constants
+    private static final int MAGIC = 0xCAFEBABE;
+    private static final int VERSION = 49;
+    private static final int ACC_PUBLIC = 0x0001;
+    private static final int ACC_PRIVATE = 0x0002;
+    private static final int ACC_FINAL = 0x0010;
+    private static final int ACC_SUPER = 0x0020;
+    private static final int CONSTANT_UTF8 = 1;
+    private static final int CONSTANT_CLASS = 7;
+    private static final int CONSTANT_FIELDREF = 9;
+    private static final int CONSTANT_METHODREF = 10;
+    private static final int CONSTANT_INTERFACE_METHODREF = 11;
+    private static final int CONSTANT_NAME_AND_TYPE = 12;
+
+    // bytecode opcodes
+    private static final int ICONST_0 = 0x03;
+    private static final int ICONST_1 = 0x04;
+    private static final int BIPUSH = 0x10;
+    private static final int SIPUSH = 0x11;
+    private static final int ILOAD = 0x15;
+    private static final int ILOAD_2 = 0x1C;
+    private static final int ALOAD_0 = 0x2A;
+    private static final int ALOAD_1 = 0x2B;
+    private static final int ALOAD_2 = 0x2C;
+    private static final int AALOAD = 0x32;
+    private static final int ISTORE = 0x36;
+    private static final int ISTORE_2 = 0x3D;
+    private static final int IXOR = 0x82;
+    private static final int IFEQ = 0x99;
+    private static final int IFNE = 0x9A;
+    private static final int GOTO = 0xA7;
+    private static final int IRETURN = 0xAC;
+    private static final int RETURN_VOID = 0xB1;
+    private static final int GETFIELD = 0xB4;
+    private static final int PUTFIELD = 0xB5;
+    private static final int INVOKESPECIAL = 0xB7;
+    private static final int INVOKESTATIC = 0xB8;
+    private static final int INVOKEINTERFACE = 0xB9;
+
+    /** Local variable holding the command status */
+    private static final int STATUS_LOCAL = 2;
+    /** First local variable holding a status slot */
+    private static final int FIRST_SLOT_LOCAL = 3;
+
+    private static final String COMMAND = Command.class.getName().replace('.', '/');
+    private static final String COMMAND_DESCRIPTOR = "L" + COMMAND + ";";
+    private static final String SUPER_CLASS = BytecodeFlow.class.getName().replace('.', '/');
+    private static final String EXECUTION_SCOPE = ExecutionScope.class.getName().replace('.', '/');
+
+    /** The constant pool entries */
+    private final ByteArrayOutputStream constantPool = new ByteArrayOutputStream();
+    /** Data output of the constant pool */
+    private final DataOutputStream constants = new DataOutputStream(constantPool);
+    /** Index of each written constant */
+    private final Map<String, Integer> constantIndexes = new HashMap<String, Integer>();
+    /** The next constant pool index */
+    private int nextConstantIndex = 1;
+
+    /** The internal name of the generated class */
+    private final String className;
+    /** The instructions to translate */
+    private final int[] code;
+    /** The number of leaf commands */
+    private final int leafCount;
+
+    /**
+     * Creates a new class writer
+     * @param className the binary name of the class to generate
+     * @param code the instructions of the flow
+     * @param leafCount the number of leaf commands
+     */
+    FlowClassWriter(String className, int[] code, int leafCount) {
+        this.className = className.replace('.', '/');
+        this.code = code;
+        this.leafCount = leafCount;
+    }
+
+    /**
+     * Writes the class file
+     * @return the class file, <code>null</code> if the flow is too large to be translated into a single method
+     * @throws BuilderException if the class file could not be written
+     */
+    byte[] write() throws BuilderException {
+        try {
+            int[] addresses = getAddresses();
+            if (addresses[code.length] > MAX_CODE_SIZE || leafCount > Short.MAX_VALUE) {
+                return null;
+            }
+            byte[] constructor = writeConstructor();
+            byte[] execute = writeExecute(addresses);
+
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            // all constants must be added before the pool is written
+            int thisClass = classConstant(className);
+            int superClass = classConstant(SUPER_CLASS);
+            int commandDescriptor = utf8Constant(COMMAND_DESCRIPTOR);
+            int[] fieldNames = new int[leafCount];
+            for (int i = 0; i < leafCount; i++) {
+                fieldNames[i] = utf8Constant(fieldName(i));
+            }
+            int init = utf8Constant("<init>");
+            int constructorDescriptor = utf8Constant("(" + COMMAND_DESCRIPTOR + "[" + COMMAND_DESCRIPTOR + ")V");
+            int executeName = utf8Constant("execute");
+            int executeDescriptor = utf8Constant("(Ljava/lang/Object;)Z");
+            int codeAttribute = utf8Constant("Code");
+
+            out.writeInt(MAGIC);
+            out.writeShort(0);
+            out.writeShort(VERSION);
+            out.writeShort(nextConstantIndex);
+            constants.flush();
+            constantPool.writeTo(out);
+            out.writeShort(ACC_PUBLIC | ACC_FINAL | ACC_SUPER);
+            out.writeShort(thisClass);
+            out.writeShort(superClass);
+            out.writeShort(0); // interfaces
+            out.writeShort(leafCount);
+            for (int i = 0; i < leafCount; i++) {
+                out.writeShort(ACC_PRIVATE | ACC_FINAL);
+                out.writeShort(fieldNames[i]);
+                out.writeShort(commandDescriptor);
+                out.writeShort(0); // attributes
+            }
+            out.writeShort(2);
+            writeMethod(out, init, constructorDescriptor, codeAttribute, 3, 3, constructor);
+            writeMethod(out, executeName, executeDescriptor, codeAttribute, 2, FIRST_SLOT_LOCAL + getSlotCount(), execute);
+            out.writeShort(0); // attributes
+            out.flush();
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new BuilderException(e, "Failed to write class %s", className);
+        }
+    }
+
+    /**
+     * Writes a method
+     */
+    private void writeMethod(DataOutputStream out, int name, int descriptor, int codeAttribute, int maxStack, int maxLocals, byte[] bytecode) throws IOException {
+        out.writeShort(ACC_PUBLIC);
+        out.writeShort(name);
+        out.writeShort(descriptor);
+        out.writeShort(1);
+        out.writeShort(codeAttribute);
+        out.writeInt(12 + bytecode.length);
+        out.writeShort(maxStack);
+        out.writeShort(maxLocals);
+        out.writeInt(bytecode.length);
+        out.write(bytecode);
+        out.writeShort(0); // exception table
+        out.writeShort(0); // attributes
+    }
+
+    /**
+     * Writes the constructor, it invokes the super constructor and assigns each leaf command to its field
+     */
+    private byte[] writeConstructor() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(ALOAD_0);
+        out.writeByte(ALOAD_1);
+        out.writeByte(ALOAD_2);
+        out.writeByte(INVOKESPECIAL);
+        out.writeShort(memberConstant(CONSTANT_METHODREF, SUPER_CLASS, "<init>", "(" + COMMAND_DESCRIPTOR + "[" + COMMAND_DESCRIPTOR + ")V"));
+        for (int i = 0; i < leafCount; i++) {
+            out.writeByte(ALOAD_0);
+            out.writeByte(ALOAD_2);
+            if (i <= 5) {
+                out.writeByte(ICONST_0 + i);
+            } else if (i <= Byte.MAX_VALUE) {
+                out.writeByte(BIPUSH);
+                out.writeByte(i);
+            } else {
+                out.writeByte(SIPUSH);
+                out.writeShort(i);
+            }
+            out.writeByte(AALOAD);
+            out.writeByte(PUTFIELD);
+            out.writeShort(memberConstant(CONSTANT_FIELDREF, className, fieldName(i), COMMAND_DESCRIPTOR));
+        }
+        out.writeByte(RETURN_VOID);
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Writes the execute method, translating each instruction
+     * @param addresses the bytecode address of each instruction
+     */
+    private byte[] writeExecute(int[] addresses) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        int execute = memberConstant(CONSTANT_INTERFACE_METHODREF, COMMAND, "execute", "(Ljava/lang/Object;)Z");
+        int checkpoint = memberConstant(CONSTANT_METHODREF, EXECUTION_SCOPE, "checkpoint", "()V");
+        // the interpreter starts with a false status and cleared slots
+        out.writeByte(ICONST_0);
+        out.writeByte(ISTORE_2);
+        for (int slot = 0; slot < getSlotCount(); slot++) {
+            out.writeByte(ICONST_0);
+            out.writeByte(ISTORE);
+            out.writeByte(FIRST_SLOT_LOCAL + slot);
+        }
+        for (int pc = 0; pc < code.length; pc++) {
+            int operand = code[pc] >>> OPERAND_SHIFT;
+            switch (code[pc] & OPCODE_MASK) {
+            case EXECUTE:
+                out.writeByte(INVOKESTATIC);
+                out.writeShort(checkpoint);
+                out.writeByte(ALOAD_0);
+                out.writeByte(GETFIELD);
+                out.writeShort(memberConstant(CONSTANT_FIELDREF, className, fieldName(operand), COMMAND_DESCRIPTOR));
+                out.writeByte(ALOAD_1);
+                out.writeByte(INVOKEINTERFACE);
+                out.writeShort(execute);
+                out.writeByte(2);
+                out.writeByte(0);
+                out.writeByte(ISTORE_2);
+                break;
+            case JUMP:
+                out.writeByte(GOTO);
+                out.writeShort(addresses[operand] - addresses[pc]);
+                break;
+            case JUMP_IF_FALSE:
+            case JUMP_IF_TRUE:
+                out.writeByte(ILOAD_2);
+                out.writeByte((code[pc] & OPCODE_MASK) == JUMP_IF_FALSE ? IFEQ : IFNE);
+                out.writeShort(addresses[operand] - (addresses[pc] + 1));
+                break;
+            case FALSE:
+            case TRUE:
+                out.writeByte((code[pc] & OPCODE_MASK) == TRUE ? ICONST_1 : ICONST_0);
+                out.writeByte(ISTORE_2);
+                break;
+            case NOT:
+                out.writeByte(ILOAD_2);
+                out.writeByte(ICONST_1);
+                out.writeByte(IXOR);
+                out.writeByte(ISTORE_2);
+                break;
+            case CLEAR:
+                out.writeByte(ICONST_0);
+                out.writeByte(ISTORE);
+                out.writeByte(FIRST_SLOT_LOCAL + operand);
+                break;
+            case STORE:
+                out.writeByte(ILOAD_2);
+                out.writeByte(ISTORE);
+                out.writeByte(FIRST_SLOT_LOCAL + operand);
+                break;
+            case LOAD:
+                out.writeByte(ILOAD);
+                out.writeByte(FIRST_SLOT_LOCAL + operand);
+                out.writeByte(ISTORE_2);
+                break;
+            case RETURN:
+                out.writeByte(ILOAD_2);
+                out.writeByte(IRETURN);
+                break;
+            default:
+                throw new BuilderException("Illegal instruction %d at %d", code[pc], pc);
+            }
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Calculates the bytecode address of each instruction, the extra last element holds the size of the method
+     * @return the addresses
+     */
+    private int[] getAddresses() {
+        int[] addresses = new int[code.length + 1];
+        int address = 2 + 3 * getSlotCount();
+        for (int pc = 0; pc < code.length; pc++) {
+            addresses[pc] = address;
+            switch (code[pc] & OPCODE_MASK) {
+            case EXECUTE:
+                address += 14;
+                break;
+            case JUMP:
+            case CLEAR:
+            case STORE:
+            case LOAD:
+                address += 3;
+                break;
+            case JUMP_IF_FALSE:
+            case JUMP_IF_TRUE:
+            case NOT:
+                address += 4;
+                break;
+            default:
+                address += 2;
+            }
+        }
+        addresses[code.length] = address;
+        return addresses;
+    }
+
+    /**
+     * @return the number of status slots used by the instructions
+     */
+    private int getSlotCount() {
+        int count = 0;
+        for (int instruction : code) {
+            int opcode = instruction & OPCODE_MASK;
+            if (opcode == CLEAR || opcode == STORE || opcode == LOAD) {
+                count = Math.max(count, (instruction >>> OPERAND_SHIFT) + 1);
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return the name of the field holding the given leaf command
+     */
+    private static String fieldName(int leaf) {
+        return "leaf" + leaf;
+    }
+
+    private int utf8Constant(String value) throws IOException {
+        Integer index = constantIndexes.get("U" + value);
+        if (index == null) {
+            constants.writeByte(CONSTANT_UTF8);
+            constants.writeUTF(value);
+            index = addConstant("U" + value);
+        }
+        return index;
+    }
+
+    private int classConstant(String internalName) throws IOException {
+        Integer index = constantIndexes.get("C" + internalName);
+        if (index == null) {
+            int name = utf8Constant(internalName);
+            constants.writeByte(CONSTANT_CLASS);
+            constants.writeShort(name);
+            index = addConstant("C" + internalName);
+        }
+        return index;
+    }
+
+    private int memberConstant(int tag, String owner, String name, String descriptor) throws IOException {
+        String key = tag + owner + "." + name + descriptor;
+        Integer index = constantIndexes.get(key);
+        if (index == null) {
+            int ownerClass = classConstant(owner);
+            int nameIndex = utf8Constant(name);
+            int descriptorIndex = utf8Constant(descriptor);
+            constants.writeByte(CONSTANT_NAME_AND_TYPE);
+            constants.writeShort(nameIndex);
+            constants.writeShort(descriptorIndex);
+            int nameAndType = addConstant(key + "#NT");
+            constants.writeByte(tag);
+            constants.writeShort(ownerClass);
+            constants.writeShort(nameAndType);
+            index = addConstant(key);
+        }
+        return index;
+    }
+
+    private int addConstant(String key) {
+        int index = nextConstantIndex++;
+        constantIndexes.put(key, index);
+        return index;
+    }
+}
@@ -0,0 +1,42 @@
+/**
+ * Copyright 2010/2011, Martin Lansler
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codegility.commandflow.compiler;
+
+import org.codegility.commandflow.Command;
+import org.codegility.commandflow.builder.BuilderException;
+import org.codegility.commandflow.builder.CommandBuilder;
+
+/**
+ * Interface for a flow compiler.
+ * <p>
+ * A flow compiler transforms a linked and initialized command flow, i.e. a tree of composite commands, into an equivalent command with a lower
+ * per-execution overhead. The compiled command must have exactly the same semantics as the original flow, including the order of command executions
+ * and the propagation of exceptions. Commands that the compiler does not know how to compile are executed as is by the compiled command.
+ * <p>
+ * A flow must not be compiled until it is linked and initialized as the structure of the flow may not be changed once compiled, see
+ * {@link CommandBuilder}.
+ * @param <C> the context class of the command
+ * @author Martin Lansler
+ */
+public interface FlowCompiler<C> {
+    /**
+     * Compiles the given command flow
+     * @param flow the command flow to compile
+     * @return the compiled command, or the given command if it could not be compiled
+     * @throws BuilderException if a compilation error occurs
+     */
+    Command<C> compile(Command<C> flow) throws BuilderException;
+}
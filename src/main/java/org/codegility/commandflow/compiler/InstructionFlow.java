@@ -0,0 +1,181 @@
+/**
+ * Copyright 2010/2011, Martin Lansler
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codegility.commandflow.compiler;
+
+import java.util.BitSet;
+import java.util.List;
+
+import org.codegility.commandflow.Command;
+import org.codegility.commandflow.command.CommandExecutionException;
+import org.codegility.commandflow.command.CommandUtil;
+import org.codegility.commandflow.command.ExecutionScope;
+
+/**
+ * A command flow compiled into a flat instruction array, created by {@link InstructionFlowCompiler}.
+ * <p>
+ * Each instruction is a single <code>int</code> holding the opcode in the low byte and the operand in the upper bits. The interpreter holds the current
+ * command status in a single register and the saved loop statuses in a bit set, hence executing the flow allocates no objects and involves no virtual
+ * calls except for the execution of the leaf commands.
+ * @param <C> the context class of the command
+ * @author Martin Lansler
+ */
+public class InstructionFlow<C> implements CompiledFlow<C> {
+    /** Executes the leaf command given by the operand after an {@link ExecutionScope#checkpoint()}, the command status is set to the result */
+    static final int EXECUTE = 0;
+    /** Jumps to the instruction given by the operand */
+    static final int JUMP = 1;
+    /** Jumps to the instruction given by the operand if the command status is <code>false</code> */
+    static final int JUMP_IF_FALSE = 2;
+    /** Jumps to the instruction given by the operand if the command status is <code>true</code> */
+    static final int JUMP_IF_TRUE = 3;
+    /** Sets the command status to <code>false</code> */
+    static final int FALSE = 4;
+    /** Sets the command status to <code>true</code> */
+    static final int TRUE = 5;
+    /** Negates the command status */
+    static final int NOT = 6;
+    /** Clears the status slot given by the operand */
+    static final int CLEAR = 7;
+    /** Stores the command status in the status slot given by the operand */
+    static final int STORE = 8;
+    /** Loads the command status from the status slot given by the operand */
+    static final int LOAD = 9;
+    /** Returns the command status */
+    static final int RETURN = 10;
+
+    /** Mask of the opcode part of an instruction */
+    static final int OPCODE_MASK = 0xFF;
+    /** Shift of the operand part of an instruction */
+    static final int OPERAND_SHIFT = 8;
+    /** The maximum operand value */
+    static final int MAX_OPERAND = -1 >>> OPERAND_SHIFT;
+    /** The number of status slots */
+    static final int SLOTS = Long.SIZE;
+
+    /** The flow this command was compiled from */
+    private final Command<C> source;
+    /** The instructions */
+    private final int[] code;
+    /** The leaf commands */
+    private final Command<C>[] leaves;
+
+    /**
+     * Creates a new instruction flow
+     * @param source the flow the instructions were compiled from
+     * @param code the instructions
+     * @param leaves the leaf commands referred to by the {@link #EXECUTE} instructions
+     */
+    InstructionFlow(Command<C> source, int[] code, Command<C>[] leaves) {
+        this.source = source;
+        this.code = code;
+        this.leaves = leaves;
+    }
+
+    @Override
+    public boolean execute(C context) {
+        final int[] code = this.code;
+        final Command<C>[] leaves = this.leaves;
+        boolean status = false;
+        long slots = 0L;
+        int pc = 0;
+        for (;;) {
+            int instruction = code[pc++];
+            switch (instruction & OPCODE_MASK) {
+            case EXECUTE:
+                ExecutionScope.checkpoint();
+                status = leaves[instruction >>> OPERAND_SHIFT].execute(context);
+                break;
+            case JUMP:
+                pc = instruction >>> OPERAND_SHIFT;
+                break;
+            case JUMP_IF_FALSE:
+                if (!status) {
+                    pc = instruction >>> OPERAND_SHIFT;
+                }
+                break;
+            case JUMP_IF_TRUE:
+                if (status) {
+                    pc = instruction >>> OPERAND_SHIFT;
+                }
+                break;
+            case FALSE:
+                status = false;
+                break;
+            case TRUE:
+                status = true;
+                break;
+            case NOT:
+                status = !status;
+                break;
+            case CLEAR:
+                slots &= ~(1L << (instruction >>> OPERAND_SHIFT));
+                break;
+            case STORE:
+                if (status) {
+                    slots |= 1L << (instruction >>> OPERAND_SHIFT);
+                } else {
+                    slots &= ~(1L << (instruction >>> OPERAND_SHIFT));
+                }
+                break;
+            case LOAD:
+                status = (slots & (1L << (instruction >>> OPERAND_SHIFT))) != 0L;
+                break;
+            case RETURN:
+                return status;
+            default:
+                throw new CommandExecutionException("Illegal instruction %d at %d", instruction, pc - 1);
+            }
+        }
+    }
+
+    @Override
+    public Command<C> getSource() {
+        return source;
+    }
+
+    @Override
+    public BitSet executeBatch(List<C> contexts, BitSet selection) {
+        return CommandUtil.executeBatch(source, contexts, selection);
+    }
+
+    /**
+     * @return the instructions, must not be modified
+     */
+    int[] getCode() {
+        return code;
+    }
+
+    /**
+     * @return the leaf commands, must not be modified
+     */
+    Command<C>[] getLeaves() {
+        return leaves;
+    }
+
+    /**
+     * @return the number of instructions
+     */
+    public int getInstructionCount() {
+        return code.length;
+    }
+
+    /**
+     * @return the number of leaf commands
+     */
+    public int getLeafCount() {
+        return leaves.length;
+    }
+}
@@ -0,0 +1,266 @@
+/**
+ * Copyright 2010/2011, Martin Lansler
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codegility.commandflow.compiler;
+
+import static org.codegility.commandflow.compiler.InstructionFlow.CLEAR;
+import static org.codegility.commandflow.compiler.InstructionFlow.EXECUTE;
+import static org.codegility.commandflow.compiler.InstructionFlow.FALSE;
+import static org.codegility.commandflow.compiler.InstructionFlow.JUMP;
+import static org.codegility.commandflow.compiler.InstructionFlow.JUMP_IF_FALSE;
+import static org.codegility.commandflow.compiler.InstructionFlow.JUMP_IF_TRUE;
+import static org.codegility.commandflow.compiler.InstructionFlow.LOAD;
+import static org.codegility.commandflow.compiler.InstructionFlow.MAX_OPERAND;
+import static org.codegility.commandflow.compiler.InstructionFlow.NOT;
+import static org.codegility.commandflow.compiler.InstructionFlow.OPCODE_MASK;
+import static org.codegility.commandflow.compiler.InstructionFlow.OPERAND_SHIFT;
+import static org.codegility.commandflow.compiler.InstructionFlow.RETURN;
+import static org.codegility.commandflow.compiler.InstructionFlow.SLOTS;
+import static org.codegility.commandflow.compiler.InstructionFlow.STORE;
+import static org.codegility.commandflow.compiler.InstructionFlow.TRUE;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.codegility.commandflow.Command;
+import org.codegility.commandflow.builder.BuilderException;
+import org.codegility.commandflow.builder.CompositeCommand;
+import org.codegility.commandflow.command.AndCommand;
+import org.codegility.commandflow.command.DoWhileCommand;
+import org.codegility.commandflow.command.IfCommand;
+import org.codegility.commandflow.command.NotCommand;
+import org.codegility.commandflow.command.OrCommand;
+import org.codegility.commandflow.command.SequenceCommand;
+import org.codegility.commandflow.command.WhileCommand;
+
+/**
+ * Flow compiler that compiles a command flow into an {@link InstructionFlow}.
+ * <p>
+ * The structural commands {@link SequenceCommand}, {@link AndCommand}, {@link OrCommand}, {@link NotCommand}, {@link IfCommand},
+ * {@link WhileCommand} and {@link DoWhileCommand} are compiled into jumps. All other commands, including subclasses of the structural commands,
+ * parallel commands and dynamic references, are leaves executed as is. A command contained within itself (via a static reference) is compiled as a
+ * leaf at the point of recursion, as are loops nested deeper than the number of available status slots.
+ * <p>
+ * The compiled flow shares the leaf commands with the source flow, the source flow is not modified.
+ * @param <C> the context class of the command
+ * @author Martin Lansler
+ */
+public class InstructionFlowCompiler<C> implements FlowCompiler<C> {
+
+    @Override
+    public Command<C> compile(Command<C> flow) throws BuilderException {
+        if (!isStructural(flow)) {
+            return flow;
+        }
+        Compilation<C> compilation = new Compilation<C>();
+        compilation.compile(flow, 0);
+        compilation.emit(RETURN, 0);
+        return new InstructionFlow<C>(flow, compilation.getCode(), compilation.getLeaves());
+    }
+
+    /**
+     * Checks if the given command is a structural command compiled into instructions
+     * @param command the command to check
+     * @return <code>true</code> if the command is compiled into instructions, <code>false</code> if it is a leaf
+     */
+    static boolean isStructural(Command<?> command) {
+        Class<?> type = command.getClass();
+        return type == SequenceCommand.class || type == AndCommand.class || type == OrCommand.class || type == NotCommand.class || type == IfCommand.class
+                || type == WhileCommand.class || type == DoWhileCommand.class;
+    }
+
+    /**
+     * The state of a single compilation.
+     */
+    private static class Compilation<C> {
+        /** The emitted instructions */
+        private int[] code = new int[16];
+        /** Number of emitted instructions */
+        private int size;
+        /** The leaf commands, in operand order */
+        private List<Command<C>> leaves = new ArrayList<Command<C>>();
+        /** Operand of each leaf command, the same command instance is only added once */
+        private Map<Command<C>, Integer> leafOperands = new IdentityHashMap<Command<C>, Integer>();
+        /** The structural commands currently being compiled, used to detect recursion */
+        private Map<Command<C>, Boolean> path = new IdentityHashMap<Command<C>, Boolean>();
+
+        /**
+         * Compiles a command
+         * @param command the command to compile
+         * @param slot the first free status slot
+         */
+        @SuppressWarnings("unchecked")
+        void compile(Command<C> command, int slot) {
+            if (!isStructural(command) || path.containsKey(command) || (slot >= SLOTS && isLoop(command))) {
+                emit(EXECUTE, getLeafOperand(command));
+                return;
+            }
+            path.put(command, Boolean.TRUE);
+            Class<?> type = command.getClass();
+            List<Command<C>> commands = ((CompositeCommand<C>) command).getCommands();
+            if (type == SequenceCommand.class) {
+                if (commands.isEmpty()) {
+                    emit(FALSE, 0);
+                }
+                for (Command<C> contained : commands) {
+                    compile(contained, slot);
+                }
+            } else if (type == AndCommand.class || type == OrCommand.class) {
+                compileShortCircuit(commands, type == AndCommand.class ? JUMP_IF_FALSE : JUMP_IF_TRUE, slot);
+            } else if (type == NotCommand.class) {
+                compile(getContained(command, commands, 0, 1), slot);
+                emit(NOT, 0);
+            } else if (type == IfCommand.class) {
+                // cond; if false goto end; action; status = true; end:
+                compile(getContained(command, commands, 0, 2), slot);
+                int exit = emit(JUMP_IF_FALSE, 0);
+                compile(getContained(command, commands, 1, 2), slot);
+                emit(TRUE, 0);
+                patch(exit, size);
+            } else if (type == WhileCommand.class) {
+                // slot = false; loop: cond; if false goto end; action; slot = status; goto loop; end: status = slot
+                emit(CLEAR, slot);
+                int loop = size;
+                compile(getContained(command, commands, 0, 2), slot + 1);
+                int exit = emit(JUMP_IF_FALSE, 0);
+                compile(getContained(command, commands, 1, 2), slot + 1);
+                emit(STORE, slot);
+                emit(JUMP, loop);
+                patch(exit, size);
+                emit(LOAD, slot);
+            } else {
+                // loop: action; slot = status; cond; if true goto loop; status = slot
+                int loop = size;
+                compile(getContained(command, commands, 1, 2), slot + 1);
+                emit(STORE, slot);
+                compile(getContained(command, commands, 0, 2), slot + 1);
+                emit(JUMP_IF_TRUE, loop);
+                emit(LOAD, slot);
+            }
+            path.remove(command);
+        }
+
+        /**
+         * Compiles a short-circuit and/or command
+         * @param commands the contained commands
+         * @param jump the conditional jump exiting the command
+         * @param slot the first free status slot
+         */
+        private void compileShortCircuit(List<Command<C>> commands, int jump, int slot) {
+            if (commands.isEmpty()) {
+                emit(FALSE, 0);
+                return;
+            }
+            int[] exits = new int[commands.size() - 1];
+            for (int i = 0; i < commands.size(); i++) {
+                compile(commands.get(i), slot);
+                if (i < exits.length) {
+                    exits[i] = emit(jump, 0);
+                }
+            }
+            for (int exit : exits) {
+                patch(exit, size);
+            }
+        }
+
+        /**
+         * Checks if the given command is a loop, which needs a status slot
+         * @param command the command to check
+         * @return <code>true</code> if the command is a loop
+         */
+        private boolean isLoop(Command<C> command) {
+            return command.getClass() == WhileCommand.class || command.getClass() == DoWhileCommand.class;
+        }
+
+        /**
+         * Gets a contained command of an initialized command
+         * @param command the composite command
+         * @param commands the contained commands
+         * @param index the index of the contained command
+         * @param expected the expected number of contained commands
+         * @return the contained command
+         * @throws BuilderException if the command has not been initialized
+         */
+        private Command<C> getContained(Command<C> command, List<Command<C>> commands, int index, int expected) {
+            if (commands.size() != expected) {
+                throw new BuilderException("Cannot compile uninitialized command %s, expected %d contained commands but found %d", command.getClass().getSimpleName(),
+                        expected, commands.size());
+            }
+            return commands.get(index);
+        }
+
+        /**
+         * Gets the operand of a leaf command, adding it if needed
+         * @param command the leaf command
+         * @return the operand
+         */
+        private int getLeafOperand(Command<C> command) {
+            Integer operand = leafOperands.get(command);
+            if (operand == null) {
+                operand = leaves.size();
+                leaves.add(command);
+                leafOperands.put(command, operand);
+            }
+            return operand;
+        }
+
+        /**
+         * Emits an instruction
+         * @param opcode the opcode
+         * @param operand the operand
+         * @return the address of the instruction
+         */
+        int emit(int opcode, int operand) {
+            if (operand > MAX_OPERAND) {
+                throw new BuilderException("Command flow too large to compile, operand %d exceeds %d", operand, MAX_OPERAND);
+            }
+            if (size == code.length) {
+                code = Arrays.copyOf(code, size * 2);
+            }
+            code[size] = opcode | operand << OPERAND_SHIFT;
+            return size++;
+        }
+
+        /**
+         * Sets the jump target of an emitted jump instruction
+         * @param address the address of the jump instruction
+         * @param target the jump target
+         */
+        private void patch(int address, int target) {
+            if (target > MAX_OPERAND) {
+                throw new BuilderException("Command flow too large to compile, jump target %d exceeds %d", target, MAX_OPERAND);
+            }
+            code[address] = (code[address] & OPCODE_MASK) | target << OPERAND_SHIFT;
+        }
+
+        /**
+         * @return the emitted instructions
+         */
+        int[] getCode() {
+            return Arrays.copyOf(code, size);
+        }
+
+        /**
+         * @return the leaf commands
+         */
+        @SuppressWarnings({ "rawtypes", "unchecked" })
+        Command<C>[] getLeaves() {
+            return leaves.toArray(new Command[leaves.size()]);
+        }
+    }
+}
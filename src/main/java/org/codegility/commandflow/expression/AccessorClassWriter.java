@@ -0,0 +1,291 @@
+/**
+ * Copyright 2010/2011, Martin Lansler
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codegility.commandflow.expression;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Writes the class file of a {@link PropertyAccessor} subclass reading a property via its public read method.
+ * <p>
+ * The generated <code>get</code> method casts the object to the class declaring the read method, invokes it and boxes a primitive value. The class
+ * file version is 49 (Java 5) so that no stack map frames need to be written.
+ * @author Martin Lansler
+ */
+class AccessorClassWriter {
+    // class file constants
+    private static final int MAGIC = 0xCAFEBABE;
+    private static final int VERSION = 49;
+    private static final int ACC_PUBLIC = 0x0001;
+    private static final int ACC_FINAL = 0x0010;
+    private static final int ACC_SUPER = 0x0020;
+    private static final int CONSTANT_UTF8 = 1;
+    private static final int CONSTANT_CLASS = 7;
+    private static final int CONSTANT_METHODREF = 10;
+    private static final int CONSTANT_INTERFACE_METHODREF = 11;
+    private static final int CONSTANT_NAME_AND_TYPE = 12;
+
+    // bytecode opcodes
+    private static final int ACONST_NULL = 0x01;
+    private static final int ALOAD_0 = 0x2A;
+    private static final int ALOAD_1 = 0x2B;
+    private static final int ALOAD_2 = 0x2C;
+    private static final int ARETURN = 0xB0;
+    private static final int RETURN_VOID = 0xB1;
+    private static final int INVOKEVIRTUAL = 0xB6;
+    private static final int INVOKESPECIAL = 0xB7;
+    private static final int INVOKESTATIC = 0xB8;
+    private static final int INVOKEINTERFACE = 0xB9;
+    private static final int CHECKCAST = 0xC0;
+
+    private static final String SUPER_CLASS = PropertyAccessor.class.getName().replace('.', '/');
+    private static final String CONSTRUCTOR_DESCRIPTOR = "(Ljava/lang/Class;Ljava/lang/String;)V";
+    private static final String GET_DESCRIPTOR = "(Ljava/lang/Object;)Ljava/lang/Object;";
+
+    /** The wrapper classes of the primitive types */
+    private static final Map<Class<?>, Class<?>> WRAPPERS = new HashMap<Class<?>, Class<?>>();
+    static {
+        WRAPPERS.put(boolean.class, Boolean.class);
+        WRAPPERS.put(byte.class, Byte.class);
+        WRAPPERS.put(char.class, Character.class);
+        WRAPPERS.put(short.class, Short.class);
+        WRAPPERS.put(int.class, Integer.class);
+        WRAPPERS.put(long.class, Long.class);
+        WRAPPERS.put(float.class, Float.class);
+        WRAPPERS.put(double.class, Double.class);
+    }
+
+    /** The constant pool entries */
+    private final ByteArrayOutputStream constantPool = new ByteArrayOutputStream();
+    /** Data output of the constant pool */
+    private final DataOutputStream constants = new DataOutputStream(constantPool);
+    /** Index of each written constant */
+    private final Map<String, Integer> constantIndexes = new HashMap<String, Integer>();
+    /** The next constant pool index */
+    private int nextConstantIndex = 1;
+
+    /** The internal name of the generated class */
+    private final String className;
+    /** The read method, declared by a public class or interface */
+    private final Method method;
+
+    /**
+     * Creates a new class writer
+     * @param className the binary name of the class to generate
+     * @param method the public read method
+     */
+    AccessorClassWriter(String className, Method method) {
+        this.className = className.replace('.', '/');
+        this.method = method;
+    }
+
+    /**
+     * Writes the class file
+     * @return the class file
+     * @throws ExpressionException if the class file could not be written
+     */
+    byte[] write() throws ExpressionException {
+        try {
+            byte[] constructor = writeConstructor();
+            byte[] get = writeGet();
+
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            // all constants must be added before the pool is written
+            int thisClass = classConstant(className);
+            int superClass = classConstant(SUPER_CLASS);
+            int init = utf8Constant("<init>");
+            int constructorDescriptor = utf8Constant(CONSTRUCTOR_DESCRIPTOR);
+            int getName = utf8Constant("get");
+            int getDescriptor = utf8Constant(GET_DESCRIPTOR);
+            int codeAttribute = utf8Constant("Code");
+
+            out.writeInt(MAGIC);
+            out.writeShort(0);
+            out.writeShort(VERSION);
+            out.writeShort(nextConstantIndex);
+            constants.flush();
+            constantPool.writeTo(out);
+            out.writeShort(ACC_PUBLIC | ACC_FINAL | ACC_SUPER);
+            out.writeShort(thisClass);
+            out.writeShort(superClass);
+            out.writeShort(0); // interfaces
+            out.writeShort(0); // fields
+            out.writeShort(2);
+            writeMethod(out, init, constructorDescriptor, codeAttribute, 3, 3, constructor);
+            writeMethod(out, getName, getDescriptor, codeAttribute, 2, 2, get);
+            out.writeShort(0); // attributes
+            out.flush();
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new ExpressionException(e, "Failed to write class %s", className);
+        }
+    }
+
+    /**
+     * Writes a method
+     */
+    private void writeMethod(DataOutputStream out, int name, int descriptor, int codeAttribute, int maxStack, int maxLocals, byte[] bytecode) throws IOException {
+        out.writeShort(ACC_PUBLIC);
+        out.writeShort(name);
+        out.writeShort(descriptor);
+        out.writeShort(1);
+        out.writeShort(codeAttribute);
+        out.writeInt(12 + bytecode.length);
+        out.writeShort(maxStack);
+        out.writeShort(maxLocals);
+        out.writeInt(bytecode.length);
+        out.write(bytecode);
+        out.writeShort(0); // exception table
+        out.writeShort(0); // attributes
+    }
+
+    /**
+     * Writes the constructor, it passes the class and property name to the super constructor
+     */
+    private byte[] writeConstructor() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(ALOAD_0);
+        out.writeByte(ALOAD_1);
+        out.writeByte(ALOAD_2);
+        out.writeByte(INVOKESPECIAL);
+        out.writeShort(memberConstant(CONSTANT_METHODREF, SUPER_CLASS, "<init>", CONSTRUCTOR_DESCRIPTOR));
+        out.writeByte(RETURN_VOID);
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Writes the get method, it invokes the read method on the object and returns the boxed value
+     */
+    private byte[] writeGet() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        Class<?> owner = method.getDeclaringClass();
+        String ownerName = owner.getName().replace('.', '/');
+        Class<?> returnType = method.getReturnType();
+        out.writeByte(ALOAD_1);
+        out.writeByte(CHECKCAST);
+        out.writeShort(classConstant(ownerName));
+        if (owner.isInterface()) {
+            out.writeByte(INVOKEINTERFACE);
+            out.writeShort(memberConstant(CONSTANT_INTERFACE_METHODREF, ownerName, method.getName(), "()" + descriptor(returnType)));
+            out.writeByte(1);
+            out.writeByte(0);
+        } else {
+            out.writeByte(INVOKEVIRTUAL);
+            out.writeShort(memberConstant(CONSTANT_METHODREF, ownerName, method.getName(), "()" + descriptor(returnType)));
+        }
+        if (returnType == void.class) {
+            out.writeByte(ACONST_NULL);
+        } else if (returnType.isPrimitive()) {
+            String wrapper = WRAPPERS.get(returnType).getName().replace('.', '/');
+            out.writeByte(INVOKESTATIC);
+            out.writeShort(memberConstant(CONSTANT_METHODREF, wrapper, "valueOf", "(" + descriptor(returnType) + ")L" + wrapper + ";"));
+        }
+        out.writeByte(ARETURN);
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * @return the field descriptor of the given type
+     */
+    private static String descriptor(Class<?> type) {
+        if (type.isArray()) {
+            return type.getName().replace('.', '/');
+        }
+        if (type == void.class) {
+            return "V";
+        }
+        if (type == boolean.class) {
+            return "Z";
+        }
+        if (type == byte.class) {
+            return "B";
+        }
+        if (type == char.class) {
+            return "C";
+        }
+        if (type == short.class) {
+            return "S";
+        }
+        if (type == int.class) {
+            return "I";
+        }
+        if (type == long.class) {
+            return "J";
+        }
+        if (type == float.class) {
+            return "F";
+        }
+        if (type == double.class) {
+            return "D";
+        }
+        return "L" + type.getName().replace('.', '/') + ";";
+    }
+
+    private int utf8Constant(String value) throws IOException {
+        Integer index = constantIndexes.get("U" + value);
+        if (index == null) {
+            constants.writeByte(CONSTANT_UTF8);
+            constants.writeUTF(value);
+            index = addConstant("U" + value);
+        }
+        return index;
+    }
+
+    private int classConstant(String internalName) throws IOException {
+        Integer index = constantIndexes.get("C" + internalName);
+        if (index == null) {
+            int name = utf8Constant(internalName);
+            constants.writeByte(CONSTANT_CLASS);
+            constants.writeShort(name);
+            index = addConstant("C" + internalName);
+        }
+        return index;
+    }
+
+    private int memberConstant(int tag, String owner, String name, String descriptor) throws IOException {
+        String key = tag + owner + "." + name + descriptor;
+        Integer index = constantIndexes.get(key);
+        if (index == null) {
+            int ownerClass = classConstant(owner);
+            int nameIndex = utf8Constant(name);
+            int descriptorIndex = utf8Constant(descriptor);
+            constants.writeByte(CONSTANT_NAME_AND_TYPE);
+            constants.writeShort(nameIndex);
+            constants.writeShort(descriptorIndex);
+            int nameAndType = addConstant(key + "#NT");
+            constants.writeByte(tag);
+            constants.writeShort(ownerClass);
+            constants.writeShort(nameAndType);
+            index = addConstant(key);
+        }
+        return index;
+    }
+
+    private int addConstant(String key) {
+        int index = nextConstantIndex++;
+        constantIndexes.put(key, index);
+        return index;
+    }
+}
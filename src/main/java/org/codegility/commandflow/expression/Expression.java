@@ -0,0 +1,118 @@
+/**
+ * Copyright 2010/2011, Martin Lansler
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codegility.commandflow.expression;
+
+/**
+ * A parsed and compiled expression.
+ * <p>
+ * The expression language covers:
+ * <ul>
+ * <li>literals: <code>null</code>, <code>true</code>, <code>false</code>, integers, decimals and strings quoted by <code>'</code> or <code>"</code></li>
+ * <li>property access on the context: <code>amount</code>, <code>customer.name</code>, properties are Java bean properties, map entries, public
+ * no-argument methods such as <code>length</code> or <code>size</code>, or the length of an array. The context itself is referred to by its binding
+ * name, by default <code>c</code>, hence <code>c.amount</code> is the same as <code>amount</code>. Accessing a property of <code>null</code> gives
+ * <code>null</code></li>
+ * <li>comparisons: <code>== != &lt; &lt;= &gt; &gt;=</code> or <code>eq ne lt le gt ge</code>, numbers are compared by value regardless of their
+ * type, enums are equal to strings of their name, ordering comparisons involving <code>null</code> are <code>false</code></li>
+ * <li>boolean operators: <code>&amp;&amp; || !</code> or <code>and or not</code>, evaluated with short-circuit</li>
+ * <li>null checks: <code>x == null</code>, <code>empty x</code> is <code>true</code> for <code>null</code> and empty strings, collections, maps and
+ * arrays</li>
+ * <li>regular expression match: <code>x =~ 'pattern'</code> or <code>x matches 'pattern'</code>, the whole string value of <code>x</code> must
+ * match, literal patterns are compiled once</li>
+ * <li>grouping with parentheses</li>
+ * </ul>
+ * Although the syntax resembles JavaScript the semantics differ: values are not coerced, hence the number <code>1</code> is not equal to the
+ * string <code>'1'</code>, a property missing from a bean or class is an error rather than <code>undefined</code>, and numbers, including
+ * <code>NaN</code>, are equal by value. The JavaScript identifiers <code>undefined</code>, <code>NaN</code> and <code>Infinity</code> are
+ * rejected by the parser.
+ * <p>
+ * The expression is parsed once into a tree of nodes, each property access caches the accessor method resolved for the class it last accessed, hence
+ * evaluating the expression involves no parsing, lookups or string handling. Expressions are immutable and safe to evaluate concurrently.
+ * @author Martin Lansler
+ */
+public final class Expression {
+    /** The default name of the context in expressions */
+    public static final String DEFAULT_CONTEXT_NAME = "c";
+
+    /** The expression text */
+    private final String text;
+
+    /** The root node */
+    private final Node root;
+
+    /**
+     * Creates a new expression
+     * @param text the expression text
+     * @param root the root node
+     */
+    private Expression(String text, Node root) {
+        this.text = text;
+        this.root = root;
+    }
+
+    /**
+     * Parses an expression, referring to the context as {@link #DEFAULT_CONTEXT_NAME}
+     * @param text the expression text
+     * @return the expression
+     * @throws ExpressionException if the expression could not be parsed
+     */
+    public static Expression parse(String text) {
+        return parse(text, DEFAULT_CONTEXT_NAME);
+    }
+
+    /**
+     * Parses an expression
+     * @param text the expression text
+     * @param contextName the name referring to the context in the expression
+     * @return the expression
+     * @throws ExpressionException if the expression could not be parsed
+     */
+    public static Expression parse(String text, String contextName) {
+        return new Expression(text, new ExpressionParser(text, contextName).parse());
+    }
+
+    /**
+     * Evaluates the expression
+     * @param context the context
+     * @return the value of the expression
+     * @throws ExpressionException if the expression could not be evaluated
+     */
+    public Object evaluate(Object context) {
+        return root.eval(context);
+    }
+
+    /**
+     * Evaluates a boolean expression
+     * @param context the context
+     * @return the boolean value of the expression
+     * @throws ExpressionException if the expression could not be evaluated or does not evaluate to a boolean
+     */
+    public boolean test(Object context) {
+        return root.test(context);
+    }
+
+    /**
+     * @return the expression text
+     */
+    public String getText() {
+        return text;
+    }
+
+    @Override
+    public String toString() {
+        return text;
+    }
+}
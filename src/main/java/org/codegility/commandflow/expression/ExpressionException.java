@@ -0,0 +1,34 @@
+/**
+ * Copyright 2010/2011, Martin Lansler
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codegility.commandflow.expression;
+
+import org.codegility.commandflow.core.UncheckedException;
+
+/**
+ * Unchecked exception raised when an expression cannot be parsed or evaluated.
+ * @author Martin Lansler
+ */
+public class ExpressionException extends UncheckedException {
+    private static final long serialVersionUID = 1L;
+
+    public ExpressionException(String message, Object... formattingArgs) {
+        super(message, formattingArgs);
+    }
+
+    public ExpressionException(Throwable cause, String message, Object... formattingArgs) {
+        super(cause, message, formattingArgs);
+    }
+}
@@ -0,0 +1,338 @@
+/**
+ * Copyright 2010/2011, Martin Lansler
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codegility.commandflow.expression;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * Recursive descent parser of expressions, see {@link Expression} for the syntax.
+ * <p>
+ * Grammar, from lowest to highest precedence:
+ *
+ * <pre>
+ * or         := and (('||' | 'or') and)*
+ * and        := not (('&amp;&amp;' | 'and') not)*
+ * not        := ('!' | 'not') not | comparison
+ * comparison := unary (operator unary)?
+ * unary      := 'empty' unary | primary
+ * primary    := '(' or ')' | literal | identifier ('.' identifier)*
+ * </pre>
+ * @author Martin Lansler
+ */
+class ExpressionParser {
+    /** Token type of an identifier or keyword */
+    private static final int IDENTIFIER = 0;
+    /** Token type of a number */
+    private static final int NUMBER = 1;
+    /** Token type of a string */
+    private static final int STRING = 2;
+    /** Token type of an operator or punctuation */
+    private static final int OPERATOR = 3;
+    /** Token type of the end of the expression */
+    private static final int END = 4;
+
+    /** The JavaScript identifiers rejected so that scripts using them are left to the script engine */
+    private static final List<String> SCRIPT_IDENTIFIERS = Arrays.asList("undefined", "NaN", "Infinity");
+
+    /** The operators, longer operators before their prefixes */
+    private static final String[] OPERATORS = { "&&", "||", "==", "!=", "<=", ">=", "=~", "<", ">", "!", "(", ")", "." };
+
+    /** The expression text */
+    private final String text;
+
+    /** The name referring to the context */
+    private final String contextName;
+
+    /** The property accessors shared by the property nodes of the expression */
+    private final ConcurrentMap<Class<?>, ConcurrentMap<String, PropertyAccessor>> accessors = new ConcurrentHashMap<Class<?>, ConcurrentMap<String, PropertyAccessor>>(
+            4, 0.75f, 1);
+
+    /** The tokens */
+    private final List<Token> tokens = new ArrayList<Token>();
+
+    /** The index of the current token */
+    private int index;
+
+    /**
+     * Creates a new parser
+     * @param text the expression text
+     * @param contextName the name referring to the context
+     */
+    ExpressionParser(String text, String contextName) {
+        this.text = text;
+        this.contextName = contextName;
+    }
+
+    /**
+     * Parses the expression
+     * @return the root node
+     * @throws ExpressionException if the expression could not be parsed
+     */
+    Node parse() {
+        tokenize();
+        Node node = parseOr();
+        if (peek().type != END) {
+            throw error("Unexpected '%s'", peek().text);
+        }
+        return node;
+    }
+
+    private Node parseOr() {
+        Node node = parseAnd();
+        while (accept("||") || accept("or")) {
+            node = new Node.Or(node, parseAnd());
+        }
+        return node;
+    }
+
+    private Node parseAnd() {
+        Node node = parseNot();
+        while (accept("&&") || accept("and")) {
+            node = new Node.And(node, parseNot());
+        }
+        return node;
+    }
+
+    private Node parseNot() {
+        if (accept("!") || accept("not")) {
+            return new Node.Not(parseNot());
+        }
+        return parseComparison();
+    }
+
+    private Node parseComparison() {
+        Node left = parseUnary();
+        if (accept("==") || accept("eq")) {
+            return new Node.Equals(left, parseUnary(), false);
+        }
+        if (accept("!=") || accept("ne")) {
+            return new Node.Equals(left, parseUnary(), true);
+        }
+        if (accept("<") || accept("lt")) {
+            return new Node.Compare(left, parseUnary(), Node.Compare.LT);
+        }
+        if (accept("<=") || accept("le")) {
+            return new Node.Compare(left, parseUnary(), Node.Compare.LE);
+        }
+        if (accept(">") || accept("gt")) {
+            return new Node.Compare(left, parseUnary(), Node.Compare.GT);
+        }
+        if (accept(">=") || accept("ge")) {
+            return new Node.Compare(left, parseUnary(), Node.Compare.GE);
+        }
+        if (accept("=~") || accept("matches")) {
+            Node pattern = parseUnary();
+            try {
+                return new Node.Match(left, pattern);
+            } catch (PatternSyntaxException e) {
+                throw new ExpressionException(e, "Invalid pattern in expression '%s'", text);
+            }
+        }
+        return left;
+    }
+
+    private Node parseUnary() {
+        if (accept("empty")) {
+            return new Node.Empty(parseUnary());
+        }
+        return parsePrimary();
+    }
+
+    private Node parsePrimary() {
+        Token token = next();
+        switch (token.type) {
+        case NUMBER:
+            return new Node.Literal(parseNumber(token.text));
+        case STRING:
+            return new Node.Literal(token.text);
+        case IDENTIFIER:
+            if ("null".equals(token.text)) {
+                return new Node.Literal(null);
+            }
+            if ("true".equals(token.text) || "false".equals(token.text)) {
+                return new Node.Literal(Boolean.valueOf(token.text));
+            }
+            if (SCRIPT_IDENTIFIERS.contains(token.text)) {
+                throw error("Unsupported identifier '%s'", token.text);
+            }
+            Node node = token.text.equals(contextName) ? new Node.Root() : new Node.Property(new Node.Root(), token.text, accessors);
+            while (accept(".")) {
+                Token name = next();
+                if (name.type != IDENTIFIER) {
+                    throw error("Expected property name after '.' but was '%s'", name.text);
+                }
+                node = new Node.Property(node, name.text, accessors);
+            }
+            return node;
+        default:
+            if ("(".equals(token.text)) {
+                Node inner = parseOr();
+                if (!accept(")")) {
+                    throw error("Expected ')' but was '%s'", peek().text);
+                }
+                return inner;
+            }
+            throw error("Unexpected '%s'", token.text);
+        }
+    }
+
+    /**
+     * Parses a number literal
+     * @param number the number text
+     * @return a {@link Long} if integral, otherwise a {@link Double}
+     */
+    private Object parseNumber(String number) {
+        try {
+            if (number.indexOf('.') >= 0 || number.indexOf('e') >= 0 || number.indexOf('E') >= 0) {
+                return Double.valueOf(number);
+            }
+            return Long.valueOf(number);
+        } catch (NumberFormatException e) {
+            throw error("Invalid number '%s'", number);
+        }
+    }
+
+    /**
+     * Accepts the current token if it is the given operator or keyword
+     * @param operator the operator or keyword
+     * @return <code>true</code> if accepted
+     */
+    private boolean accept(String operator) {
+        Token token = peek();
+        if ((token.type == OPERATOR || token.type == IDENTIFIER) && token.text.equals(operator)) {
+            index++;
+            return true;
+        }
+        return false;
+    }
+
+    private Token peek() {
+        return tokens.get(index);
+    }
+
+    private Token next() {
+        Token token = tokens.get(index);
+        if (token.type != END) {
+            index++;
+        }
+        return token;
+    }
+
+    /**
+     * Splits the expression text into tokens
+     */
+    private void tokenize() {
+        int i = 0;
+        int length = text.length();
+        while (i < length) {
+            char ch = text.charAt(i);
+            if (Character.isWhitespace(ch)) {
+                i++;
+            } else if (Character.isJavaIdentifierStart(ch)) {
+                int start = i;
+                while (i < length && Character.isJavaIdentifierPart(text.charAt(i))) {
+                    i++;
+                }
+                tokens.add(new Token(IDENTIFIER, text.substring(start, i)));
+            } else if (Character.isDigit(ch)) {
+                int start = i;
+                while (i < length && (Character.isDigit(text.charAt(i)) || isNumberPart(text, i))) {
+                    i++;
+                }
+                tokens.add(new Token(NUMBER, text.substring(start, i)));
+            } else if (ch == '\'' || ch == '"') {
+                i = readString(i, ch);
+            } else {
+                String operator = null;
+                for (String candidate : OPERATORS) {
+                    if (text.startsWith(candidate, i)) {
+                        operator = candidate;
+                        break;
+                    }
+                }
+                if (operator == null) {
+                    throw error("Unexpected character '%s' at position %d", ch, i);
+                }
+                tokens.add(new Token(OPERATOR, operator));
+                i += operator.length();
+            }
+        }
+        tokens.add(new Token(END, "end of expression"));
+    }
+
+    /**
+     * @return <code>true</code> if the character at the index continues a number, i.e. a decimal point followed by a digit or an exponent
+     */
+    private static boolean isNumberPart(String text, int i) {
+        char ch = text.charAt(i);
+        if (ch == '.') {
+            return i + 1 < text.length() && Character.isDigit(text.charAt(i + 1));
+        }
+        if (ch == 'e' || ch == 'E') {
+            return true;
+        }
+        return (ch == '-' || ch == '+') && (text.charAt(i - 1) == 'e' || text.charAt(i - 1) == 'E');
+    }
+
+    /**
+     * Reads a quoted string, a backslash escapes the next character
+     * @param start the index of the opening quote
+     * @param quote the quote character
+     * @return the index after the closing quote
+     */
+    private int readString(int start, char quote) {
+        StringBuilder value = new StringBuilder();
+        for (int i = start + 1; i < text.length(); i++) {
+            char ch = text.charAt(i);
+            if (ch == quote) {
+                tokens.add(new Token(STRING, value.toString()));
+                return i + 1;
+            }
+            if (ch == '\\' && i + 1 < text.length()) {
+                ch = text.charAt(++i);
+            }
+            value.append(ch);
+        }
+        throw error("Unterminated string starting at position %d", start);
+    }
+
+    /**
+     * @return a new exception for a syntax error
+     */
+    private ExpressionException error(String message, Object... formattingArgs) {
+        return new ExpressionException("Invalid expression '%s': %s", text, String.format(message, formattingArgs));
+    }
+
+    /**
+     * A token of the expression.
+     */
+    private static class Token {
+        /** The token type */
+        private final int type;
+        /** The token text, the unquoted value of a string */
+        private final String text;
+
+        Token(int type, String text) {
+            this.type = type;
+            this.text = text;
+        }
+    }
+}
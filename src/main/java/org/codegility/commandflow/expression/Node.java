@@ -0,0 +1,504 @@
+/**
+ * Copyright 2010/2011, Martin Lansler
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codegility.commandflow.expression;
+
+import java.beans.BeanInfo;
+import java.beans.IntrospectionException;
+import java.beans.Introspector;
+import java.beans.PropertyDescriptor;
+import java.lang.reflect.Array;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.regex.Pattern;
+
+/**
+ * A node of a parsed expression.
+ * @author Martin Lansler
+ */
+abstract class Node {
+
+    /**
+     * Evaluates the node
+     * @param context the context
+     * @return the value
+     */
+    abstract Object eval(Object context);
+
+    /**
+     * Evaluates the node as a boolean, nodes with a boolean value override this method to avoid boxing
+     * @param context the context
+     * @return the boolean value
+     * @throws ExpressionException if the value is not a boolean
+     */
+    boolean test(Object context) {
+        Object value = eval(context);
+        if (value instanceof Boolean) {
+            return ((Boolean) value).booleanValue();
+        }
+        throw new ExpressionException("Expected a boolean value but was: %s", value);
+    }
+
+    /**
+     * Base class of nodes with a boolean value.
+     */
+    abstract static class Condition extends Node {
+        @Override
+        final Object eval(Object context) {
+            return Boolean.valueOf(test(context));
+        }
+
+        @Override
+        abstract boolean test(Object context);
+    }
+
+    /**
+     * A literal value.
+     */
+    static final class Literal extends Node {
+        /** The value */
+        final Object value;
+
+        Literal(Object value) {
+            this.value = value;
+        }
+
+        @Override
+        Object eval(Object context) {
+            return value;
+        }
+    }
+
+    /**
+     * The context itself.
+     */
+    static final class Root extends Node {
+        @Override
+        Object eval(Object context) {
+            return context;
+        }
+    }
+
+    /**
+     * A property of the value of another node.
+     * <p>
+     * The accessor resolved for a class is cached per class and shared by the property nodes of an expression, in addition each node caches the
+     * accessor of the class it last accessed so that accessing the same class again is a single class comparison. The accessor invokes the read
+     * method via a generated class, see {@link PropertyAccessor}. The accessors are not shared across
+     * expressions, hence the classes accessed are not retained beyond the lifetime of the expression.
+     */
+    static final class Property extends Node {
+        /** The resolved accessors of the expression, keyed by class and property name */
+        private final ConcurrentMap<Class<?>, ConcurrentMap<String, PropertyAccessor>> accessors;
+
+        /** The node whose value holds the property */
+        private final Node target;
+
+        /** The property name */
+        private final String name;
+
+        /** The accessor of the class last accessed, <code>null</code> if none */
+        private volatile PropertyAccessor cached;
+
+        Property(Node target, String name, ConcurrentMap<Class<?>, ConcurrentMap<String, PropertyAccessor>> accessors) {
+            this.accessors = accessors;
+            this.target = target;
+            this.name = name;
+        }
+
+        @Override
+        Object eval(Object context) {
+            Object object = target.eval(context);
+            if (object == null) {
+                return null;
+            }
+            if (object instanceof Map) {
+                return ((Map<?, ?>) object).get(name);
+            }
+            PropertyAccessor accessor = cached;
+            if (accessor == null || accessor.type != object.getClass()) {
+                accessor = getAccessor(object.getClass());
+                cached = accessor;
+            }
+            try {
+                return accessor.get(object);
+            } catch (ExpressionException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new ExpressionException(e, "Failed to read property '%s' of class %s", name, accessor.type.getName());
+            } catch (LinkageError e) {
+                // e.g. the read method is declared by a class in a module package that is not exported
+                throw new ExpressionException(e, "Failed to read property '%s' of class %s", name, accessor.type.getName());
+            }
+        }
+
+        /**
+         * Gets the accessor of the property, resolving it once per class
+         * @param type the class
+         * @return the accessor
+         * @throws ExpressionException if the class has no such property
+         */
+        private PropertyAccessor getAccessor(Class<?> type) {
+            ConcurrentMap<String, PropertyAccessor> typeAccessors = accessors.get(type);
+            if (typeAccessors == null) {
+                typeAccessors = new ConcurrentHashMap<String, PropertyAccessor>(4, 0.75f, 1);
+                ConcurrentMap<String, PropertyAccessor> previous = accessors.putIfAbsent(type, typeAccessors);
+                if (previous != null) {
+                    typeAccessors = previous;
+                }
+            }
+            PropertyAccessor accessor = typeAccessors.get(name);
+            if (accessor == null) {
+                accessor = PropertyAccessor.create(type, name, resolve(type, name));
+                typeAccessors.put(name, accessor);
+            }
+            return accessor;
+        }
+
+        /**
+         * Resolves the method reading a property, a bean getter or a public method without arguments of the same name
+         * @param type the class
+         * @param name the property name
+         * @return the method, <code>null</code> for the length of an array
+         * @throws ExpressionException if the class has no such property
+         */
+        private static Method resolve(Class<?> type, String name) {
+            if (type.isArray() && "length".equals(name)) {
+                return null;
+            }
+            Method method = null;
+            try {
+                BeanInfo beanInfo = Introspector.getBeanInfo(type);
+                for (PropertyDescriptor descriptor : beanInfo.getPropertyDescriptors()) {
+                    if (descriptor.getName().equals(name)) {
+                        method = descriptor.getReadMethod();
+                    }
+                }
+            } catch (IntrospectionException e) {
+                throw new ExpressionException(e, "Failed to introspect class %s", type.getName());
+            }
+            if (method == null) {
+                try {
+                    method = type.getMethod(name);
+                } catch (NoSuchMethodException e) {
+                    throw new ExpressionException("Could not find property '%s' in class %s", name, type.getName());
+                }
+            }
+            if (!Modifier.isPublic(method.getDeclaringClass().getModifiers())) {
+                // public methods of non-public classes, e.g. of anonymous classes or collection implementations, are invoked via a public declaration
+                Method publicMethod = getPublicMethod(type, method.getName(), method.getParameterTypes());
+                if (publicMethod == null) {
+                    throw new ExpressionException("Property '%s' of class %s is not declared by a public class or interface", name, type.getName());
+                }
+                method = publicMethod;
+            }
+            return method;
+        }
+
+        /**
+         * Gets a method declared by a public class or interface of the given class
+         * @param type the class
+         * @param name the method name
+         * @param parameterTypes the method parameter types
+         * @return the method, <code>null</code> if not declared by a public class or interface
+         */
+        private static Method getPublicMethod(Class<?> type, String name, Class<?>[] parameterTypes) {
+            for (Class<?> current = type; current != null; current = current.getSuperclass()) {
+                if (Modifier.isPublic(current.getModifiers())) {
+                    try {
+                        Method method = current.getMethod(name, parameterTypes);
+                        if (Modifier.isPublic(method.getDeclaringClass().getModifiers())) {
+                            return method;
+                        }
+                    } catch (NoSuchMethodException e) {
+                        // not declared by this class
+                    }
+                }
+                for (Class<?> iface : current.getInterfaces()) {
+                    Method method = getPublicMethod(iface, name, parameterTypes);
+                    if (method != null) {
+                        return method;
+                    }
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Logical and, evaluated with short-circuit.
+     */
+    static final class And extends Condition {
+        private final Node left;
+        private final Node right;
+
+        And(Node left, Node right) {
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        boolean test(Object context) {
+            return left.test(context) && right.test(context);
+        }
+    }
+
+    /**
+     * Logical or, evaluated with short-circuit.
+     */
+    static final class Or extends Condition {
+        private final Node left;
+        private final Node right;
+
+        Or(Node left, Node right) {
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        boolean test(Object context) {
+            return left.test(context) || right.test(context);
+        }
+    }
+
+    /**
+     * Logical not.
+     */
+    static final class Not extends Condition {
+        private final Node operand;
+
+        Not(Node operand) {
+            this.operand = operand;
+        }
+
+        @Override
+        boolean test(Object context) {
+            return !operand.test(context);
+        }
+    }
+
+    /**
+     * Checks if a value is <code>null</code> or empty.
+     */
+    static final class Empty extends Condition {
+        private final Node operand;
+
+        Empty(Node operand) {
+            this.operand = operand;
+        }
+
+        @Override
+        boolean test(Object context) {
+            Object value = operand.eval(context);
+            if (value == null) {
+                return true;
+            }
+            if (value instanceof CharSequence) {
+                return ((CharSequence) value).length() == 0;
+            }
+            if (value instanceof Collection) {
+                return ((Collection<?>) value).isEmpty();
+            }
+            if (value instanceof Map) {
+                return ((Map<?, ?>) value).isEmpty();
+            }
+            if (value.getClass().isArray()) {
+                return Array.getLength(value) == 0;
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Equality of two values.
+     */
+    static final class Equals extends Condition {
+        private final Node left;
+        private final Node right;
+        /** <code>true</code> if testing for inequality */
+        private final boolean negated;
+
+        Equals(Node left, Node right, boolean negated) {
+            this.left = left;
+            this.right = right;
+            this.negated = negated;
+        }
+
+        @Override
+        boolean test(Object context) {
+            return isEqual(left.eval(context), right.eval(context)) != negated;
+        }
+
+        /**
+         * Checks if two values are equal, numbers are compared by value and enums are equal to strings of their name
+         * @param a the first value
+         * @param b the second value
+         * @return <code>true</code> if equal
+         */
+        private static boolean isEqual(Object a, Object b) {
+            if (a == b) {
+                return true;
+            }
+            if (a == null || b == null) {
+                return false;
+            }
+            if (a instanceof Number && b instanceof Number) {
+                return compareNumbers((Number) a, (Number) b) == 0;
+            }
+            if (a instanceof Enum && b instanceof String) {
+                return ((Enum<?>) a).name().equals(b);
+            }
+            if (b instanceof Enum && a instanceof String) {
+                return ((Enum<?>) b).name().equals(a);
+            }
+            if (a instanceof Character && b instanceof String || b instanceof Character && a instanceof String) {
+                return a.toString().equals(b.toString());
+            }
+            return a.equals(b);
+        }
+    }
+
+    /**
+     * Ordering comparison of two values.
+     */
+    static final class Compare extends Condition {
+        /** Operator less than */
+        static final int LT = 0;
+        /** Operator less than or equal */
+        static final int LE = 1;
+        /** Operator greater than */
+        static final int GT = 2;
+        /** Operator greater than or equal */
+        static final int GE = 3;
+
+        private final Node left;
+        private final Node right;
+        /** The operator */
+        private final int operator;
+
+        Compare(Node left, Node right, int operator) {
+            this.left = left;
+            this.right = right;
+            this.operator = operator;
+        }
+
+        @Override
+        @SuppressWarnings({ "rawtypes", "unchecked" })
+        boolean test(Object context) {
+            Object a = left.eval(context);
+            Object b = right.eval(context);
+            if (a == null || b == null) {
+                return false;
+            }
+            int result;
+            if (a instanceof Number && b instanceof Number) {
+                result = compareNumbers((Number) a, (Number) b);
+            } else if (a instanceof Comparable && a.getClass().isInstance(b)) {
+                result = ((Comparable) a).compareTo(b);
+            } else {
+                throw new ExpressionException("Cannot compare %s with %s", a.getClass().getName(), b.getClass().getName());
+            }
+            switch (operator) {
+            case LT:
+                return result < 0;
+            case LE:
+                return result <= 0;
+            case GT:
+                return result > 0;
+            default:
+                return result >= 0;
+            }
+        }
+    }
+
+    /**
+     * Regular expression match of the string value of a value.
+     */
+    static final class Match extends Condition {
+        private final Node operand;
+        /** The pattern node, <code>null</code> if the pattern is a literal */
+        private final Node patternNode;
+        /** The compiled literal pattern, <code>null</code> if the pattern is not a literal */
+        private final Pattern pattern;
+
+        Match(Node operand, Node patternNode) {
+            this.operand = operand;
+            if (patternNode instanceof Literal) {
+                this.pattern = Pattern.compile(String.valueOf(((Literal) patternNode).value));
+                this.patternNode = null;
+            } else {
+                this.pattern = null;
+                this.patternNode = patternNode;
+            }
+        }
+
+        @Override
+        boolean test(Object context) {
+            Object value = operand.eval(context);
+            if (value == null) {
+                return false;
+            }
+            Pattern pattern = this.pattern != null ? this.pattern : Pattern.compile(String.valueOf(patternNode.eval(context)));
+            return pattern.matcher(value.toString()).matches();
+        }
+    }
+
+    /**
+     * Compares two numbers by value
+     * @param a the first number
+     * @param b the second number
+     * @return negative, zero or positive if the first number is less than, equal to or greater than the second number
+     */
+    static int compareNumbers(Number a, Number b) {
+        if (isIntegral(a) && isIntegral(b)) {
+            long x = a.longValue(), y = b.longValue();
+            return x < y ? -1 : (x == y ? 0 : 1);
+        }
+        if (isNonFinite(a) || isNonFinite(b)) {
+            // NaN and the infinities have no big decimal value, any finite number lies between the infinities
+            return Double.compare(isNonFinite(a) ? a.doubleValue() : 0, isNonFinite(b) ? b.doubleValue() : 0);
+        }
+        if (a instanceof BigDecimal || b instanceof BigDecimal || a instanceof BigInteger || b instanceof BigInteger) {
+            return new BigDecimal(a.toString()).compareTo(new BigDecimal(b.toString()));
+        }
+        return Double.compare(a.doubleValue(), b.doubleValue());
+    }
+
+    /**
+     * @return <code>true</code> if the number is a NaN or infinite floating point number
+     */
+    private static boolean isNonFinite(Number n) {
+        if (n instanceof Double) {
+            return ((Double) n).isNaN() || ((Double) n).isInfinite();
+        }
+        if (n instanceof Float) {
+            return ((Float) n).isNaN() || ((Float) n).isInfinite();
+        }
+        return false;
+    }
+
+    /**
+     * @return <code>true</code> if the number is a primitive integral wrapper
+     */
+    private static boolean isIntegral(Number n) {
+        return n instanceof Integer || n instanceof Long || n instanceof Short || n instanceof Byte;
+    }
+}
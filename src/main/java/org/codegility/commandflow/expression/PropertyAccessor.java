@@ -0,0 +1,151 @@
+/**
+ * Copyright 2010/2011, Martin Lansler
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codegility.commandflow.expression;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Reads a property of a given class.
+ * <p>
+ * The accessor of a read method is a class generated by {@link AccessorClassWriter} that invokes the read method directly, hence the JVM can inline
+ * the read method into the evaluation of the expression as for a hand-written call. Each generated class is defined by a class loader of its own so
+ * that it can be unloaded once the expression is no longer referenced. If class loaders cannot be created due to a security manager the read
+ * method is invoked via reflection instead.
+ * <p>
+ * This class is only public so that the generated classes can extend it, it is not intended to be used directly.
+ * @author Martin Lansler
+ */
+public abstract class PropertyAccessor {
+    /** Package of the generated classes */
+    private static final String CLASS_NAME_PREFIX = PropertyAccessor.class.getPackage().getName() + ".GeneratedAccessor";
+
+    /** Sequence for class names */
+    private static final AtomicInteger sequence = new AtomicInteger();
+
+    /** The class */
+    final Class<?> type;
+
+    /** The property name */
+    final String name;
+
+    /**
+     * @param type the class
+     * @param name the property name
+     */
+    protected PropertyAccessor(Class<?> type, String name) {
+        this.type = type;
+        this.name = name;
+    }
+
+    /**
+     * Reads the property
+     * @param object the object, an instance of the class
+     * @return the property value
+     */
+    public abstract Object get(Object object);
+
+    /**
+     * Creates the accessor of a property
+     * @param type the class
+     * @param name the property name
+     * @param method the public read method, <code>null</code> for the length of an array
+     * @return the accessor
+     * @throws ExpressionException if the accessor class could not be generated
+     */
+    static PropertyAccessor create(Class<?> type, String name, Method method) {
+        if (method == null) {
+            return new ArrayLengthAccessor(type, name);
+        }
+        String className = CLASS_NAME_PREFIX + sequence.incrementAndGet();
+        byte[] classFile = new AccessorClassWriter(className, method).write();
+        AccessorClassLoader loader;
+        try {
+            loader = new AccessorClassLoader(method.getDeclaringClass().getClassLoader());
+        } catch (SecurityException e) {
+            return new ReflectiveAccessor(type, name, method);
+        }
+        try {
+            Class<?> generated = loader.define(className, classFile);
+            return (PropertyAccessor) generated.getConstructor(Class.class, String.class).newInstance(type, name);
+        } catch (Exception e) {
+            throw new ExpressionException(e, "Failed to generate accessor of property '%s' of class %s", name, type.getName());
+        } catch (LinkageError e) {
+            throw new ExpressionException(e, "Failed to generate accessor of property '%s' of class %s", name, type.getName());
+        }
+    }
+
+    /**
+     * Reads the length of an array.
+     */
+    private static final class ArrayLengthAccessor extends PropertyAccessor {
+        ArrayLengthAccessor(Class<?> type, String name) {
+            super(type, name);
+        }
+
+        @Override
+        public Object get(Object object) {
+            return Array.getLength(object);
+        }
+    }
+
+    /**
+     * Reads a property via reflection.
+     */
+    private static final class ReflectiveAccessor extends PropertyAccessor {
+        /** The read method */
+        private final Method method;
+
+        ReflectiveAccessor(Class<?> type, String name, Method method) {
+            super(type, name);
+            this.method = method;
+        }
+
+        @Override
+        public Object get(Object object) {
+            try {
+                return method.invoke(object);
+            } catch (InvocationTargetException e) {
+                throw new ExpressionException(e.getCause(), "Failed to read property '%s' of class %s", name, type.getName());
+            } catch (IllegalAccessException e) {
+                throw new ExpressionException(e, "Failed to read property '%s' of class %s", name, type.getName());
+            }
+        }
+    }
+
+    /**
+     * Class loader defining a single generated class, it sees the classes of the class declaring the read method and this class.
+     */
+    private static class AccessorClassLoader extends ClassLoader {
+        AccessorClassLoader(ClassLoader parent) {
+            super(parent);
+        }
+
+        @Override
+        protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+            if (name.equals(PropertyAccessor.class.getName())) {
+                return PropertyAccessor.class;
+            }
+            return super.loadClass(name, resolve);
+        }
+
+        Class<?> define(String name, byte[] classFile) {
+            return defineClass(name, classFile, 0, classFile.length);
+        }
+    }
+}
@@ -0,0 +1,92 @@
+/**
+ * Copyright 2010/2011, Martin Lansler
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codegility.commandflow.metrics;
+
+import org.codegility.commandflow.command.CircuitBreakerCommand;
+
+/**
+ * Exposes the state of a {@link CircuitBreakerCommand} of an instrumented flow, the values are read from the command on each access.
+ * @author Martin Lansler
+ */
+public class CircuitBreakerMetrics implements CircuitBreakerMetricsMBean {
+    /** The path of the circuit breaker command */
+    private final String path;
+
+    /** The circuit breaker command */
+    private final CircuitBreakerCommand<?> circuitBreaker;
+
+    /**
+     * Creates new circuit breaker metrics
+     * @param path the path of the circuit breaker command
+     * @param circuitBreaker the circuit breaker command
+     */
+    public CircuitBreakerMetrics(String path, CircuitBreakerCommand<?> circuitBreaker) {
+        this.path = path;
+        this.circuitBreaker = circuitBreaker;
+    }
+
+    /**
+     * @return the circuit breaker command
+     */
+    public CircuitBreakerCommand<?> getCircuitBreaker() {
+        return circuitBreaker;
+    }
+
+    @Override
+    public String getPath() {
+        return path;
+    }
+
+    @Override
+    public String getState() {
+        return circuitBreaker.getState().name();
+    }
+
+    @Override
+    public long getCallCount() {
+        return circuitBreaker.getCallCount();
+    }
+
+    @Override
+    public long getFailureCount() {
+        return circuitBreaker.getFailureCount();
+    }
+
+    @Override
+    public long getSlowCallCount() {
+        return circuitBreaker.getSlowCallCount();
+    }
+
+    @Override
+    public double getFailureRate() {
+        return circuitBreaker.getFailureRate();
+    }
+
+    @Override
+    public long getShortCircuitCount() {
+        return circuitBreaker.getShortCircuitCount();
+    }
+
+    @Override
+    public long getOpenCount() {
+        return circuitBreaker.getOpenCount();
+    }
+
+    @Override
+    public void reset() {
+        circuitBreaker.reset();
+    }
+}
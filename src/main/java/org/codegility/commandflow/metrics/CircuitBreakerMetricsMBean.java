@@ -0,0 +1,67 @@
+/**
+ * Copyright 2010/2011, Martin Lansler
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codegility.commandflow.metrics;
+
+/**
+ * JMX management interface of {@link CircuitBreakerMetrics}.
+ * @author Martin Lansler
+ */
+public interface CircuitBreakerMetricsMBean {
+    /**
+     * @return the path of the circuit breaker command
+     */
+    String getPath();
+
+    /**
+     * @return the state of the circuit, see {@link org.codegility.commandflow.command.CircuitBreakerCommand.State}
+     */
+    String getState();
+
+    /**
+     * @return the number of calls within the window
+     */
+    long getCallCount();
+
+    /**
+     * @return the number of calls within the window that raised an exception
+     */
+    long getFailureCount();
+
+    /**
+     * @return the number of calls within the window that exceeded the slow call threshold
+     */
+    long getSlowCallCount();
+
+    /**
+     * @return the failure rate in percent of the calls within the window
+     */
+    double getFailureRate();
+
+    /**
+     * @return the number of executions that short-circuited
+     */
+    long getShortCircuitCount();
+
+    /**
+     * @return the number of times the circuit has opened
+     */
+    long getOpenCount();
+
+    /**
+     * Closes the circuit and clears the recorded calls
+     */
+    void reset();
+}
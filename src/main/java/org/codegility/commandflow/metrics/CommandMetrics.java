@@ -0,0 +1,141 @@
+/**
+ * Copyright 2010/2011, Martin Lansler
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codegility.commandflow.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The metrics of a single instrumented command: a latency histogram and counters of the execution outcomes.
+ * <p>
+ * Recording is lock-free and may be done concurrently.
+ * @author Martin Lansler
+ */
+public class CommandMetrics implements CommandMetricsMBean {
+    /** The path of the instrumented command */
+    private final String path;
+    /** The execution latencies */
+    private final LatencyHistogram latency = new LatencyHistogram();
+    /** Number of executions with status true */
+    private final AtomicLong trueCount = new AtomicLong();
+    /** Number of executions with status false */
+    private final AtomicLong falseCount = new AtomicLong();
+    /** Number of executions raising an exception */
+    private final AtomicLong exceptionCount = new AtomicLong();
+
+    /**
+     * Creates new command metrics
+     * @param path the path of the instrumented command
+     */
+    public CommandMetrics(String path) {
+        this.path = path;
+    }
+
+    /**
+     * Records a completed execution
+     * @param nanos the execution latency
+     * @param status the command status
+     */
+    public void record(long nanos, boolean status) {
+        latency.record(nanos);
+        (status ? trueCount : falseCount).incrementAndGet();
+    }
+
+    /**
+     * Records a completed batch execution as a single latency sample
+     * @param nanos the batch execution latency
+     * @param trueCount the number of contexts with command status <code>true</code>
+     * @param falseCount the number of contexts with command status <code>false</code>
+     */
+    public void recordBatch(long nanos, int trueCount, int falseCount) {
+        latency.record(nanos);
+        this.trueCount.addAndGet(trueCount);
+        this.falseCount.addAndGet(falseCount);
+    }
+
+    /**
+     * Records an execution that raised an exception
+     * @param nanos the execution latency
+     */
+    public void recordException(long nanos) {
+        latency.record(nanos);
+        exceptionCount.incrementAndGet();
+    }
+
+    /**
+     * @return the latency histogram
+     */
+    public LatencyHistogram getLatency() {
+        return latency;
+    }
+
+    @Override
+    public String getPath() {
+        return path;
+    }
+
+    @Override
+    public long getCount() {
+        return trueCount.get() + falseCount.get() + exceptionCount.get();
+    }
+
+    @Override
+    public long getTrueCount() {
+        return trueCount.get();
+    }
+
+    @Override
+    public long getFalseCount() {
+        return falseCount.get();
+    }
+
+    @Override
+    public long getExceptionCount() {
+        return exceptionCount.get();
+    }
+
+    @Override
+    public double getMeanLatency() {
+        return latency.getMean();
+    }
+
+    @Override
+    public long getMedianLatency() {
+        return latency.getValueAtPercentile(50);
+    }
+
+    @Override
+    public long get99thPercentileLatency() {
+        return latency.getValueAtPercentile(99);
+    }
+
+    @Override
+    public long get999thPercentileLatency() {
+        return latency.getValueAtPercentile(99.9);
+    }
+
+    @Override
+    public long getMaxLatency() {
+        return latency.getMax();
+    }
+
+    @Override
+    public void reset() {
+        latency.reset();
+        trueCount.set(0);
+        falseCount.set(0);
+        exceptionCount.set(0);
+    }
+}
@@ -0,0 +1,77 @@
+/**
+ * Copyright 2010/2011, Martin Lansler
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codegility.commandflow.metrics;
+
+/**
+ * JMX management interface of {@link CommandMetrics}, all latencies are in nanoseconds.
+ * @author Martin Lansler
+ */
+public interface CommandMetricsMBean {
+    /**
+     * @return the path of the instrumented command
+     */
+    String getPath();
+
+    /**
+     * @return the number of executions
+     */
+    long getCount();
+
+    /**
+     * @return the number of executions with command status <code>true</code>
+     */
+    long getTrueCount();
+
+    /**
+     * @return the number of executions with command status <code>false</code>
+     */
+    long getFalseCount();
+
+    /**
+     * @return the number of executions that raised an exception
+     */
+    long getExceptionCount();
+
+    /**
+     * @return the mean latency
+     */
+    double getMeanLatency();
+
+    /**
+     * @return the median latency
+     */
+    long getMedianLatency();
+
+    /**
+     * @return the 99th percentile latency
+     */
+    long get99thPercentileLatency();
+
+    /**
+     * @return the 99.9th percentile latency
+     */
+    long get999thPercentileLatency();
+
+    /**
+     * @return the maximum latency
+     */
+    long getMaxLatency();
+
+    /**
+     * Resets all counters and the latency histogram
+     */
+    void reset();
+}
@@ -0,0 +1,149 @@
+/**
+ * Copyright 2010/2011, Martin Lansler
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codegility.commandflow.metrics;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Preallocated ring buffer of the execution events of a single thread, see {@link FlowRecorder}.
+ * <p>
+ * Only the owning thread writes to the trace and recording an event does not allocate, once the buffer is full the oldest events are overwritten.
+ * Snapshots may be taken from any thread, events overwritten while the snapshot is taken are discarded from the snapshot.
+ * @author Martin Lansler
+ */
+final class ExecutionTrace {
+    /** The owning thread */
+    private final WeakReference<Thread> thread;
+    /** The name of the owning thread */
+    private final String threadName;
+    /** The event types, see {@link TraceEvent.Type#ordinal()} */
+    private final byte[] types;
+    /** The event command nodes */
+    private final int[] nodes;
+    /** The event times */
+    private final long[] times;
+    /** Mask of the buffer index */
+    private final int mask;
+    /** Number of events recorded since creation, published after each event */
+    private final AtomicLong count = new AtomicLong();
+    /** The nesting depth of the commands currently executed, only accessed by the owning thread */
+    private int depth;
+
+    /**
+     * Creates a new trace owned by the current thread
+     * @param capacity the number of events retained, a power of two
+     */
+    ExecutionTrace(int capacity) {
+        Thread current = Thread.currentThread();
+        this.thread = new WeakReference<Thread>(current);
+        this.threadName = current.getName();
+        this.types = new byte[capacity];
+        this.nodes = new int[capacity];
+        this.times = new long[capacity];
+        this.mask = capacity - 1;
+    }
+
+    /**
+     * Records the entry of a command
+     * @param node the command node
+     * @param nanoTime the event time
+     */
+    void enter(int node, long nanoTime) {
+        depth++;
+        record(TraceEvent.Type.ENTER, node, nanoTime);
+    }
+
+    /**
+     * Records the exit of a command
+     * @param type the exit event type
+     * @param node the command node
+     * @param nanoTime the event time
+     * @return <code>true</code> if the outermost command executed by the thread was exited
+     */
+    boolean exit(TraceEvent.Type type, int node, long nanoTime) {
+        record(type, node, nanoTime);
+        return --depth == 0;
+    }
+
+    /**
+     * Records an event
+     * @param type the event type
+     * @param node the command node
+     * @param nanoTime the event time
+     */
+    private void record(TraceEvent.Type type, int node, long nanoTime) {
+        long n = count.get();
+        int index = (int) n & mask;
+        types[index] = (byte) type.ordinal();
+        nodes[index] = node;
+        times[index] = nanoTime;
+        // ordered store, no full fence needed as there is a single writer
+        count.lazySet(n + 1);
+    }
+
+    /**
+     * Takes a snapshot of the retained events
+     * @param recorder the recorder, used to resolve the node paths
+     * @return the events, oldest first
+     */
+    List<TraceEvent> getEvents(FlowRecorder recorder) {
+        int capacity = mask + 1;
+        long end = count.get();
+        long start = Math.max(0, end - capacity);
+        int size = (int) (end - start);
+        byte[] eventTypes = new byte[size];
+        int[] eventNodes = new int[size];
+        long[] eventTimes = new long[size];
+        for (int i = 0; i < size; i++) {
+            int index = (int) (start + i) & mask;
+            eventTypes[i] = types[index];
+            eventNodes[i] = nodes[index];
+            eventTimes[i] = times[index];
+        }
+        // discard events the owning thread may have overwritten while copying
+        long overwritten = Math.max(start, count.get() - capacity);
+        List<TraceEvent> events = new ArrayList<TraceEvent>(size);
+        for (int i = (int) (overwritten - start); i < size; i++) {
+            events.add(new TraceEvent(TraceEvent.Type.VALUES[eventTypes[i]], eventNodes[i], recorder.getPath(eventNodes[i]), eventTimes[i]));
+        }
+        return events;
+    }
+
+    /**
+     * @return the number of events recorded since the trace was created
+     */
+    long getCount() {
+        return count.get();
+    }
+
+    /**
+     * @return the name of the owning thread
+     */
+    String getThreadName() {
+        return threadName;
+    }
+
+    /**
+     * @return <code>true</code> if the owning thread is still alive
+     */
+    boolean isAlive() {
+        Thread owner = thread.get();
+        return owner != null && owner.isAlive();
+    }
+}
@@ -0,0 +1,130 @@
+/**
+ * Copyright 2010/2011, Martin Lansler
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codegility.commandflow.metrics;
+
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.codegility.commandflow.Command;
+import org.codegility.commandflow.builder.CompositeCommand;
+import org.codegility.commandflow.command.CircuitBreakerCommand;
+
+/**
+ * Instruments command flows by decorating the commands with {@link InstrumentedCommand} instances.
+ * <p>
+ * Each command of the flow, i.e. the flow itself and recursively all contained commands of composite commands, is decorated. Since decorating
+ * replaces the contained commands of composite commands, flows must be instrumented after linking and before initialization. A command contained at
+ * more than one place, e.g. a named command statically referenced by several flows, is only decorated once. Named commands are recorded under their
+ * name, other commands under the path of the first place found. The state of circuit breaker commands is also registered with the metrics.
+ * @param <C> the context class of the command
+ * @author Martin Lansler
+ */
+public class FlowInstrumenter<C> {
+    /** The metrics to record to */
+    private final FlowMetrics metrics;
+
+    /** The decorator of each instrumented command */
+    private final Map<Command<C>, Command<C>> decorators = new IdentityHashMap<Command<C>, Command<C>>();
+
+    /** The composite commands whose contained commands are instrumented */
+    private final Map<Command<C>, Boolean> instrumented = new IdentityHashMap<Command<C>, Boolean>();
+
+    /**
+     * Creates a new flow instrumenter
+     * @param metrics the metrics the instrumented commands record to
+     */
+    public FlowInstrumenter(FlowMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Instruments the named commands of a catalog, the map values are replaced with the instrumented commands
+     * @param commands the commands keyed by name, see {@link org.codegility.commandflow.catalog.CommandCatalog#getCommands()}
+     */
+    public void instrument(Map<String, Command<C>> commands) {
+        // decorate the named commands first so that they are recorded under their names
+        Map<String, Command<C>> undecorated = new HashMap<String, Command<C>>(commands);
+        for (Map.Entry<String, Command<C>> entry : commands.entrySet()) {
+            entry.setValue(decorate(entry.getKey(), entry.getValue()));
+        }
+        for (Map.Entry<String, Command<C>> entry : undecorated.entrySet()) {
+            instrumentContained(entry.getKey(), entry.getValue());
+        }
+    }
+
+    /**
+     * Instruments a command flow
+     * @param path the path of the flow, usually the name of the command in the catalog
+     * @param flow the command flow
+     * @return the instrumented flow
+     */
+    public Command<C> instrument(String path, Command<C> flow) {
+        Command<C> decorated = decorate(path, flow);
+        instrumentContained(path, flow);
+        return decorated;
+    }
+
+    /**
+     * Gets the decorator of a command, creating it if needed
+     * @param path the path of the command
+     * @param command the command
+     * @return the decorated command
+     */
+    private Command<C> decorate(String path, Command<C> command) {
+        if (command instanceof InstrumentedCommand) {
+            return command;
+        }
+        Command<C> decorated = decorators.get(command);
+        if (decorated == null) {
+            decorated = new InstrumentedCommand<C>(command, metrics.getOrCreateCommandMetrics(path), metrics.getRecorder());
+            decorators.put(command, decorated);
+            if (command instanceof CircuitBreakerCommand) {
+                metrics.addCircuitBreaker(path, (CircuitBreakerCommand<C>) command);
+            }
+        }
+        return decorated;
+    }
+
+    /**
+     * Recursively instruments the contained commands of a composite command, each composite command is only instrumented once
+     * @param path the path of the composite command
+     * @param command the command
+     */
+    private void instrumentContained(String path, Command<C> command) {
+        if (!(command instanceof CompositeCommand) || instrumented.containsKey(command)) {
+            return;
+        }
+        instrumented.put(command, Boolean.TRUE);
+        @SuppressWarnings("unchecked")
+        List<Command<C>> commands = ((CompositeCommand<C>) command).getCommands();
+        for (int i = 0; i < commands.size(); i++) {
+            Command<C> contained = commands.get(i);
+            String containedPath = path + "/" + i + ":" + getName(contained);
+            commands.set(i, decorate(containedPath, contained));
+            instrumentContained(containedPath, contained);
+        }
+    }
+
+    /**
+     * @return the name of the command class used in paths
+     */
+    private String getName(Command<C> command) {
+        String name = command.getClass().getSimpleName();
+        return name.length() > 0 ? name : command.getClass().getName();
+    }
+}
@@ -0,0 +1,274 @@
+/**
+ * Copyright 2010/2011, Martin Lansler
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codegility.commandflow.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.codegility.commandflow.command.CircuitBreakerCommand;
+
+/**
+ * Registry of the {@link CommandMetrics} of the instrumented commands of a catalog, keyed by command path.
+ * <p>
+ * The path of a command in the catalog is its name, the path of a contained command is the path of its composite command followed by
+ * <code>/index:CommandClass</code>, e.g. <code>order/1:IfCommand/0:CheckStock</code>. The commands are instrumented by the
+ * {@link org.codegility.commandflow.builder.CommandBuilder} if flow metrics are set on it.
+ * <p>
+ * The metrics can be exposed as JMX MBeans via {@link #registerMBeans()}, the object names are
+ * <code>org.codegility.commandflow:type=CommandMetrics,catalog=name,path="path"</code>. The state of the
+ * {@link org.codegility.commandflow.command.CircuitBreakerCommand} instances of the flows is exposed as {@link CircuitBreakerMetrics}, with object names
+ * of type <code>CircuitBreaker</code>.
+ * <p>
+ * If a {@link FlowRecorder} is set the entry and exit of each instrumented command is also recorded in an execution trace per thread.
+ * @author Martin Lansler
+ */
+public class FlowMetrics {
+    /** The JMX domain */
+    public static final String JMX_DOMAIN = "org.codegility.commandflow";
+
+    /** The name identifying the instrumented catalog */
+    private final String name;
+
+    /** The metrics, keyed by path */
+    private final ConcurrentMap<String, CommandMetrics> metrics = new ConcurrentHashMap<String, CommandMetrics>();
+
+    /** The circuit breaker metrics, keyed by path */
+    private final ConcurrentMap<String, CircuitBreakerMetrics> circuitBreakers = new ConcurrentHashMap<String, CircuitBreakerMetrics>();
+
+    /** The MBean server the metrics are registered with, <code>null</code> if not registered */
+    private volatile MBeanServer server;
+
+    /** The flight recorder of the instrumented commands, <code>null</code> if executions are not recorded */
+    private volatile FlowRecorder recorder;
+
+    /**
+     * Creates new flow metrics
+     * @param name the name identifying the instrumented catalog, used in the JMX object names
+     */
+    public FlowMetrics(String name) {
+        this.name = name;
+    }
+
+    /**
+     * @return the name identifying the instrumented catalog
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Sets the flight recorder of the instrumented commands, it must be set before the commands are instrumented
+     * @param recorder the recorder, <code>null</code> if executions should not be recorded
+     * @return this (for method chaining)
+     */
+    public FlowMetrics setRecorder(FlowRecorder recorder) {
+        this.recorder = recorder;
+        return this;
+    }
+
+    /**
+     * @return the flight recorder of the instrumented commands, <code>null</code> if executions are not recorded
+     */
+    public FlowRecorder getRecorder() {
+        return recorder;
+    }
+
+    /**
+     * Gets the metrics of a command, creating them if not existing
+     * @param path the command path
+     * @return the command metrics
+     */
+    public CommandMetrics getOrCreateCommandMetrics(String path) {
+        CommandMetrics commandMetrics = metrics.get(path);
+        if (commandMetrics == null) {
+            CommandMetrics created = new CommandMetrics(path);
+            commandMetrics = metrics.putIfAbsent(path, created);
+            if (commandMetrics == null) {
+                commandMetrics = created;
+                MBeanServer server = this.server;
+                if (server != null) {
+                    register(server, getObjectName(created), created, path);
+                }
+            }
+        }
+        return commandMetrics;
+    }
+
+    /**
+     * Adds the metrics of a circuit breaker command, if metrics already exist for the path they are kept
+     * @param path the command path
+     * @param circuitBreaker the circuit breaker command
+     * @return the circuit breaker metrics
+     */
+    public CircuitBreakerMetrics addCircuitBreaker(String path, CircuitBreakerCommand<?> circuitBreaker) {
+        CircuitBreakerMetrics created = new CircuitBreakerMetrics(path, circuitBreaker);
+        CircuitBreakerMetrics existing = circuitBreakers.putIfAbsent(path, created);
+        if (existing != null) {
+            return existing;
+        }
+        MBeanServer server = this.server;
+        if (server != null) {
+            register(server, getObjectName(created), created, path);
+        }
+        return created;
+    }
+
+    /**
+     * Gets the metrics of a circuit breaker command
+     * @param path the command path
+     * @return the circuit breaker metrics, <code>null</code> if the command is not an instrumented circuit breaker
+     */
+    public CircuitBreakerMetrics getCircuitBreakerMetrics(String path) {
+        return circuitBreakers.get(path);
+    }
+
+    /**
+     * @return the metrics of all instrumented circuit breaker commands sorted by path
+     */
+    public Map<String, CircuitBreakerMetrics> getCircuitBreakerMetrics() {
+        return new TreeMap<String, CircuitBreakerMetrics>(circuitBreakers);
+    }
+
+    /**
+     * Gets the metrics of a command
+     * @param path the command path
+     * @return the command metrics, <code>null</code> if the command is not instrumented
+     */
+    public CommandMetrics getCommandMetrics(String path) {
+        return metrics.get(path);
+    }
+
+    /**
+     * @return the metrics of all instrumented commands sorted by path
+     */
+    public Map<String, CommandMetrics> getCommandMetrics() {
+        return new TreeMap<String, CommandMetrics>(metrics);
+    }
+
+    /**
+     * Resets the metrics of all commands
+     */
+    public void reset() {
+        for (CommandMetrics commandMetrics : metrics.values()) {
+            commandMetrics.reset();
+        }
+    }
+
+    /**
+     * Registers the metrics of all commands, current and future, with the platform MBean server
+     */
+    public synchronized void registerMBeans() {
+        if (server != null) {
+            return;
+        }
+        server = ManagementFactory.getPlatformMBeanServer();
+        for (CommandMetrics commandMetrics : metrics.values()) {
+            register(server, getObjectName(commandMetrics), commandMetrics, commandMetrics.getPath());
+        }
+        for (CircuitBreakerMetrics circuitBreaker : circuitBreakers.values()) {
+            register(server, getObjectName(circuitBreaker), circuitBreaker, circuitBreaker.getPath());
+        }
+    }
+
+    /**
+     * Unregisters the metrics of all commands from the platform MBean server
+     */
+    public synchronized void unregisterMBeans() {
+        MBeanServer server = this.server;
+        if (server == null) {
+            return;
+        }
+        this.server = null;
+        for (CommandMetrics commandMetrics : metrics.values()) {
+            unregister(server, getObjectName(commandMetrics), commandMetrics.getPath());
+        }
+        for (CircuitBreakerMetrics circuitBreaker : circuitBreakers.values()) {
+            unregister(server, getObjectName(circuitBreaker), circuitBreaker.getPath());
+        }
+    }
+
+    /**
+     * Gets the JMX object name of a command's metrics
+     * @param commandMetrics the command metrics
+     * @return the object name
+     */
+    public ObjectName getObjectName(CommandMetrics commandMetrics) {
+        return getObjectName("CommandMetrics", commandMetrics.getPath());
+    }
+
+    /**
+     * Gets the JMX object name of a circuit breaker's metrics
+     * @param circuitBreaker the circuit breaker metrics
+     * @return the object name
+     */
+    public ObjectName getObjectName(CircuitBreakerMetrics circuitBreaker) {
+        return getObjectName("CircuitBreaker", circuitBreaker.getPath());
+    }
+
+    /**
+     * Gets a JMX object name
+     * @param type the MBean type
+     * @param path the command path
+     * @return the object name
+     */
+    private ObjectName getObjectName(String type, String path) {
+        try {
+            return new ObjectName(JMX_DOMAIN + ":type=" + type + ",catalog=" + ObjectName.quote(name) + ",path=" + ObjectName.quote(path));
+        } catch (JMException e) {
+            throw new MetricsException(e, "Illegal object name for metrics of %s", path);
+        }
+    }
+
+    /**
+     * Registers an MBean
+     * @param server the MBean server
+     * @param objectName the object name
+     * @param mbean the MBean
+     * @param path the command path
+     */
+    private void register(MBeanServer server, ObjectName objectName, Object mbean, String path) {
+        try {
+            if (!server.isRegistered(objectName)) {
+                server.registerMBean(mbean, objectName);
+            }
+        } catch (JMException e) {
+            throw new MetricsException(e, "Failed to register metrics of %s", path);
+        }
+    }
+
+    /**
+     * Unregisters an MBean
+     * @param server the MBean server
+     * @param objectName the object name
+     * @param path the command path
+     */
+    private void unregister(MBeanServer server, ObjectName objectName, String path) {
+        try {
+            if (server.isRegistered(objectName)) {
+                server.unregisterMBean(objectName);
+            }
+        } catch (JMException e) {
+            throw new MetricsException(e, "Failed to unregister metrics of %s", path);
+        }
+    }
+}
@@ -0,0 +1,257 @@
+/**
+ * Copyright 2010/2011, Martin Lansler
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codegility.commandflow.metrics;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Flight recorder of command executions, it records the entry and exit of each instrumented command into a preallocated ring buffer per thread.
+ * <p>
+ * The recorder is set on the {@link FlowMetrics} before the flows are instrumented, see
+ * {@link org.codegility.commandflow.builder.CommandBuilder#setFlowMetrics(FlowMetrics)}. Each instrumented command is a node identified by an
+ * <code>int</code> id, an event is the event type, the node and the {@link System#nanoTime()} of the event. Recording does not allocate nor
+ * synchronize and can therefore be left enabled under load. The retained events can be dumped on demand via {@link #getEvents()} and
+ * {@link #dump(Appendable)}, or passed to an {@link ExceptionListener} when an exception is propagated out of a flow.
+ * @author Martin Lansler
+ */
+public class FlowRecorder {
+    /** The default number of events retained per thread */
+    public static final int DEFAULT_CAPACITY = 1024;
+
+    /** The number of events retained per thread */
+    private final int capacity;
+
+    /** The trace of each thread */
+    private final ThreadLocal<ExecutionTrace> trace = new ThreadLocal<ExecutionTrace>() {
+        @Override
+        protected ExecutionTrace initialValue() {
+            return createTrace();
+        }
+    };
+
+    /** The traces of all threads */
+    private final Queue<ExecutionTrace> traces = new ConcurrentLinkedQueue<ExecutionTrace>();
+
+    /** The paths of the registered nodes, indexed by node id */
+    private final List<String> paths = new ArrayList<String>();
+
+    /** The registered node ids, keyed by path */
+    private final Map<String, Integer> nodes = new HashMap<String, Integer>();
+
+    /** <code>true</code> if events are recorded */
+    private volatile boolean enabled = true;
+
+    /** Listener notified of exceptions propagated out of flows, may be <code>null</code> */
+    private volatile ExceptionListener exceptionListener;
+
+    /**
+     * Creates a new recorder retaining {@link #DEFAULT_CAPACITY} events per thread
+     */
+    public FlowRecorder() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Creates a new recorder
+     * @param capacity the number of events retained per thread, rounded up to a power of two
+     */
+    public FlowRecorder(int capacity) {
+        if (capacity < 1 || capacity > 1 << 30) {
+            throw new IllegalArgumentException("Invalid capacity: " + capacity);
+        }
+        int rounded = Integer.highestOneBit(capacity);
+        this.capacity = rounded == capacity ? capacity : rounded << 1;
+    }
+
+    /**
+     * @return the number of events retained per thread
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Enables or disables recording, enabled by default
+     * @param enabled <code>true</code> if events should be recorded
+     */
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    /**
+     * @return <code>true</code> if events are recorded
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Sets the listener notified when an exception is propagated out of the outermost instrumented command executed by a thread
+     * @param exceptionListener the listener, may be <code>null</code>
+     */
+    public void setExceptionListener(ExceptionListener exceptionListener) {
+        this.exceptionListener = exceptionListener;
+    }
+
+    /**
+     * Registers a command node
+     * @param path the path of the command
+     * @return the node id
+     */
+    public synchronized int register(String path) {
+        Integer node = nodes.get(path);
+        if (node == null) {
+            node = paths.size();
+            paths.add(path);
+            nodes.put(path, node);
+        }
+        return node;
+    }
+
+    /**
+     * Gets the path of a command node
+     * @param node the node id
+     * @return the path, <code>null</code> if no such node is registered
+     */
+    public synchronized String getPath(int node) {
+        return node >= 0 && node < paths.size() ? paths.get(node) : null;
+    }
+
+    /**
+     * Records the entry of a command by the current thread
+     * @param node the command node
+     * @param nanoTime the event time
+     * @return the trace of the current thread, <code>null</code> if recording is disabled
+     */
+    ExecutionTrace enter(int node, long nanoTime) {
+        if (!enabled) {
+            return null;
+        }
+        ExecutionTrace current = trace.get();
+        current.enter(node, nanoTime);
+        return current;
+    }
+
+    /**
+     * Records the exit of a command
+     * @param current the trace returned on entry
+     * @param type the exit event type
+     * @param node the command node
+     * @param nanoTime the event time
+     */
+    void exit(ExecutionTrace current, TraceEvent.Type type, int node, long nanoTime) {
+        current.exit(type, node, nanoTime);
+    }
+
+    /**
+     * Records an exception raised by a command, the exception listener is notified if the outermost command was exited
+     * @param current the trace returned on entry
+     * @param node the command node
+     * @param exception the exception
+     * @param nanoTime the event time
+     */
+    void exception(ExecutionTrace current, int node, Throwable exception, long nanoTime) {
+        if (current.exit(TraceEvent.Type.EXCEPTION, node, nanoTime)) {
+            ExceptionListener listener = exceptionListener;
+            if (listener != null) {
+                listener.exceptionRecorded(exception, current.getEvents(this));
+            }
+        }
+    }
+
+    /**
+     * @return the events retained for the current thread, oldest first
+     */
+    public List<TraceEvent> getEvents() {
+        return trace.get().getEvents(this);
+    }
+
+    /**
+     * Dumps the events retained for all threads, the events of each thread are indented by command nesting with times relative to the first event
+     * @param out the output
+     * @throws IOException if writing to the output fails
+     */
+    public void dump(Appendable out) throws IOException {
+        for (ExecutionTrace each : traces) {
+            if (each.getCount() > 0) {
+                out.append("Thread ").append(each.getThreadName()).append(each.isAlive() ? "" : " (terminated)").append(":\n");
+                dump(each.getEvents(this), out);
+            }
+        }
+    }
+
+    /**
+     * Dumps a list of events, the events are indented by command nesting with times relative to the first event
+     * @param events the events
+     * @param out the output
+     * @throws IOException if writing to the output fails
+     */
+    public static void dump(List<TraceEvent> events, Appendable out) throws IOException {
+        if (events.isEmpty()) {
+            return;
+        }
+        long first = events.get(0).getNanoTime();
+        int depth = 0;
+        for (TraceEvent event : events) {
+            if (event.getType().isExit() && depth > 0) {
+                depth--;
+            }
+            out.append(String.format("%12d us  ", TimeUnit.NANOSECONDS.toMicros(event.getNanoTime() - first)));
+            for (int i = 0; i < depth; i++) {
+                out.append("  ");
+            }
+            out.append(event.getType().toString()).append(' ').append(event.getPath()).append('\n');
+            if (!event.getType().isExit()) {
+                depth++;
+            }
+        }
+    }
+
+    /**
+     * Creates the trace of the current thread, the traces of terminated threads are discarded
+     * @return the trace
+     */
+    private ExecutionTrace createTrace() {
+        for (Iterator<ExecutionTrace> i = traces.iterator(); i.hasNext();) {
+            if (!i.next().isAlive()) {
+                i.remove();
+            }
+        }
+        ExecutionTrace created = new ExecutionTrace(capacity);
+        traces.add(created);
+        return created;
+    }
+
+    /**
+     * Listener of exceptions propagated out of instrumented flows
+     */
+    public interface ExceptionListener {
+        /**
+         * Invoked by the thread that executed the flow when an exception is propagated out of the outermost instrumented command
+         * @param exception the exception
+         * @param events the events retained for the thread, oldest first
+         */
+        void exceptionRecorded(Throwable exception, List<TraceEvent> events);
+    }
+}
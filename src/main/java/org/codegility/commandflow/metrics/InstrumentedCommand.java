@@ -0,0 +1,146 @@
+/**
+ * Copyright 2010/2011, Martin Lansler
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codegility.commandflow.metrics;
+
+import java.util.BitSet;
+import java.util.List;
+
+import org.codegility.commandflow.BatchCommand;
+import org.codegility.commandflow.Command;
+import org.codegility.commandflow.command.CommandUtil;
+
+/**
+ * Decorator recording the latency and outcome of each execution of a command.
+ * <p>
+ * A batch execution (see {@link BatchCommand}) is recorded as a single latency sample, the outcome counters are incremented for each selected
+ * context. If a {@link FlowRecorder} is given the entry and exit of each execution is also recorded in the execution trace of the thread.
+ * @param <C> the context class of the command
+ * @author Martin Lansler
+ */
+public class InstrumentedCommand<C> implements BatchCommand<C> {
+    /** The instrumented command */
+    private final Command<C> command;
+    /** The metrics recorded to */
+    private final CommandMetrics metrics;
+    /** The flight recorder, <code>null</code> if executions are not recorded */
+    private final FlowRecorder recorder;
+    /** The recorder node id of the command */
+    private final int node;
+
+    /**
+     * Creates a new instrumented command
+     * @param command the command to instrument
+     * @param metrics the metrics to record to
+     */
+    public InstrumentedCommand(Command<C> command, CommandMetrics metrics) {
+        this(command, metrics, null);
+    }
+
+    /**
+     * Creates a new instrumented command
+     * @param command the command to instrument
+     * @param metrics the metrics to record to
+     * @param recorder the flight recorder, <code>null</code> if executions should not be recorded
+     */
+    public InstrumentedCommand(Command<C> command, CommandMetrics metrics, FlowRecorder recorder) {
+        this.command = command;
+        this.metrics = metrics;
+        this.recorder = recorder;
+        this.node = recorder != null ? recorder.register(metrics.getPath()) : -1;
+    }
+
+    @Override
+    public boolean execute(C context) {
+        long start = System.nanoTime();
+        ExecutionTrace trace = enter(start);
+        boolean status;
+        try {
+            status = command.execute(context);
+        } catch (RuntimeException e) {
+            failed(trace, start, e);
+            throw e;
+        } catch (Error e) {
+            failed(trace, start, e);
+            throw e;
+        }
+        long end = System.nanoTime();
+        metrics.record(end - start, status);
+        if (trace != null) {
+            recorder.exit(trace, status ? TraceEvent.Type.EXIT_TRUE : TraceEvent.Type.EXIT_FALSE, node, end);
+        }
+        return status;
+    }
+
+    @Override
+    public BitSet executeBatch(List<C> contexts, BitSet selection) {
+        long start = System.nanoTime();
+        ExecutionTrace trace = enter(start);
+        BitSet status;
+        try {
+            status = CommandUtil.executeBatch(command, contexts, selection);
+        } catch (RuntimeException e) {
+            failed(trace, start, e);
+            throw e;
+        } catch (Error e) {
+            failed(trace, start, e);
+            throw e;
+        }
+        long end = System.nanoTime();
+        int trueCount = status.cardinality();
+        metrics.recordBatch(end - start, trueCount, selection.cardinality() - trueCount);
+        if (trace != null) {
+            recorder.exit(trace, TraceEvent.Type.EXIT_BATCH, node, end);
+        }
+        return status;
+    }
+
+    /**
+     * Records the entry of an execution in the flight recorder
+     * @param start the execution start time
+     * @return the execution trace of the current thread, <code>null</code> if the execution is not recorded
+     */
+    private ExecutionTrace enter(long start) {
+        return recorder != null ? recorder.enter(node, start) : null;
+    }
+
+    /**
+     * Records an execution that raised an exception
+     * @param trace the execution trace, <code>null</code> if the execution is not recorded
+     * @param start the execution start time
+     * @param exception the exception
+     */
+    private void failed(ExecutionTrace trace, long start, Throwable exception) {
+        long end = System.nanoTime();
+        metrics.recordException(end - start);
+        if (trace != null) {
+            recorder.exception(trace, node, exception, end);
+        }
+    }
+
+    /**
+     * @return the instrumented command
+     */
+    public Command<C> getCommand() {
+        return command;
+    }
+
+    /**
+     * @return the metrics recorded to
+     */
+    public CommandMetrics getMetrics() {
+        return metrics;
+    }
+}
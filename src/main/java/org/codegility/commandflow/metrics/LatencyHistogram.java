@@ -0,0 +1,148 @@
+/**
+ * Copyright 2010/2011, Martin Lansler
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codegility.commandflow.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free histogram of latencies in nanoseconds.
+ * <p>
+ * The buckets are log-linear: values below 64 are counted exactly, larger values are counted in 32 linear sub-buckets per power of two, giving a
+ * relative error of at most 1/32 (about 3%) for any recorded value. The whole range of <code>long</code> values is covered by 1920 buckets.
+ * Recording a value is a single atomic increment of its bucket plus an atomic add to the total, hence the histogram can be recorded to concurrently
+ * without locking. Reading the histogram while values are recorded gives an approximate but consistent enough view for monitoring.
+ * @author Martin Lansler
+ */
+public class LatencyHistogram {
+    /** Number of bits of a value counted exactly */
+    private static final int SUB_BUCKET_BITS = 6;
+    /** Number of sub-buckets per power of two, above the exact range */
+    private static final int SUB_BUCKET_HALF = 1 << (SUB_BUCKET_BITS - 1);
+    /** The number of buckets */
+    private static final int BUCKETS = (Long.SIZE - SUB_BUCKET_BITS + 2) * SUB_BUCKET_HALF;
+
+    /** The bucket counts */
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    /** The sum of all recorded values */
+    private final AtomicLong sum = new AtomicLong();
+
+    /**
+     * Records a value
+     * @param nanos the value, negative values are recorded as zero
+     */
+    public void record(long nanos) {
+        long value = nanos < 0 ? 0 : nanos;
+        counts.incrementAndGet(getIndex(value));
+        sum.addAndGet(value);
+    }
+
+    /**
+     * @return the number of recorded values
+     */
+    public long getCount() {
+        long count = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            count += counts.get(i);
+        }
+        return count;
+    }
+
+    /**
+     * @return the mean of the recorded values, 0 if none recorded
+     */
+    public double getMean() {
+        long count = getCount();
+        return count == 0 ? 0 : (double) sum.get() / count;
+    }
+
+    /**
+     * @return the (approximate) maximum recorded value, 0 if none recorded
+     */
+    public long getMax() {
+        for (int i = BUCKETS - 1; i >= 0; i--) {
+            if (counts.get(i) != 0) {
+                return getHighestValue(i);
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Gets the (approximate) value at the given percentile, without allocating. Values recorded concurrently may or may not be taken into account.
+     * @param percentile the percentile, between 0 and 100
+     * @return the highest value of the bucket holding the percentile, 0 if none recorded
+     */
+    public long getValueAtPercentile(double percentile) {
+        long count = getCount();
+        if (count == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(Math.min(100.0, Math.max(0.0, percentile)) / 100.0 * count));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= rank) {
+                return getHighestValue(i);
+            }
+        }
+        // values were removed by a concurrent reset
+        return getMax();
+    }
+
+    /**
+     * Resets the histogram, values recorded concurrently may or may not be kept
+     */
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            counts.set(i, 0);
+        }
+        sum.set(0);
+    }
+
+    /**
+     * Gets the index of the bucket counting the given value
+     * @param value the non-negative value
+     * @return the bucket index
+     */
+    static int getIndex(long value) {
+        int shift = Math.max(0, Long.SIZE - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS);
+        int subBucket = (int) (value >>> shift);
+        return shift == 0 ? subBucket : shift * SUB_BUCKET_HALF + subBucket;
+    }
+
+    /**
+     * Gets the lowest value counted by a bucket
+     * @param index the bucket index
+     * @return the lowest value
+     */
+    static long getLowestValue(int index) {
+        if (index < 2 * SUB_BUCKET_HALF) {
+            return index;
+        }
+        int shift = index / SUB_BUCKET_HALF - 1;
+        return (long) (index % SUB_BUCKET_HALF + SUB_BUCKET_HALF) << shift;
+    }
+
+    /**
+     * Gets the highest value counted by a bucket
+     * @param index the bucket index
+     * @return the highest value
+     */
+    static long getHighestValue(int index) {
+        return index + 1 < BUCKETS ? getLowestValue(index + 1) - 1 : Long.MAX_VALUE;
+    }
+}
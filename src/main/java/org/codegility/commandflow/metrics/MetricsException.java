@@ -0,0 +1,38 @@
+/**
+ * Copyright 2010/2011, Martin Lansler
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codegility.commandflow.metrics;
+
+import org.codegility.commandflow.core.UncheckedException;
+
+/**
+ * Exception for metrics related errors.
+ * @author Martin Lansler
+ */
+public class MetricsException extends UncheckedException {
+    private static final long serialVersionUID = 1L;
+
+    public MetricsException(String message, Object... formattingArgs) {
+        super(message, formattingArgs);
+    }
+
+    public MetricsException(Throwable cause, String message, Object... formattingArgs) {
+        super(cause, message, formattingArgs);
+    }
+
+    public MetricsException(Throwable cause) {
+        super(cause);
+    }
+}
@@ -0,0 +1,104 @@
+/**
+ * Copyright 2010/2011, Martin Lansler
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codegility.commandflow.metrics;
+
+/**
+ * An execution event recorded by a {@link FlowRecorder}, events are only created when a trace is dumped.
+ * @author Martin Lansler
+ */
+public final class TraceEvent {
+    /**
+     * The type of an execution event
+     */
+    public enum Type {
+        /** The command was entered */
+        ENTER,
+        /** The command returned <code>true</code> */
+        EXIT_TRUE,
+        /** The command returned <code>false</code> */
+        EXIT_FALSE,
+        /** A batch execution of the command returned */
+        EXIT_BATCH,
+        /** The command raised an exception */
+        EXCEPTION;
+
+        /** All types, indexed by ordinal */
+        static final Type[] VALUES = values();
+
+        /**
+         * @return <code>true</code> if the event ends the execution of a command
+         */
+        public boolean isExit() {
+            return this != ENTER;
+        }
+    }
+
+    /** The event type */
+    private final Type type;
+    /** The id of the command node */
+    private final int node;
+    /** The path of the command node */
+    private final String path;
+    /** The event time, see {@link System#nanoTime()} */
+    private final long nanoTime;
+
+    /**
+     * Creates a new trace event
+     * @param type the event type
+     * @param node the id of the command node
+     * @param path the path of the command node
+     * @param nanoTime the event time
+     */
+    public TraceEvent(Type type, int node, String path, long nanoTime) {
+        this.type = type;
+        this.node = node;
+        this.path = path;
+        this.nanoTime = nanoTime;
+    }
+
+    /**
+     * @return the event type
+     */
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * @return the id of the command node
+     */
+    public int getNode() {
+        return node;
+    }
+
+    /**
+     * @return the path of the command node, see {@link FlowMetrics}
+     */
+    public String getPath() {
+        return path;
+    }
+
+    /**
+     * @return the event time, see {@link System#nanoTime()}
+     */
+    public long getNanoTime() {
+        return nanoTime;
+    }
+
+    @Override
+    public String toString() {
+        return nanoTime + " " + type + " " + path;
+    }
+}
@@ -0,0 +1,279 @@
+/**
+ * Copyright 2010/2011, Martin Lansler
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codegility.commandflow.test.admission;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.codegility.commandflow.Command;
+import org.codegility.commandflow.admission.AdaptiveLimit;
+import org.codegility.commandflow.admission.AdmissionController;
+import org.codegility.commandflow.admission.AdmissionController.Permit;
+import org.codegility.commandflow.admission.AdmissionRejectedException;
+import org.codegility.commandflow.catalog.DefaultCommandCatalog;
+import org.codegility.commandflow.command.TrueCommand;
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Tests {@link AdmissionController} and its use by the command catalog
+ * @author Martin Lansler
+ */
+public class AdmissionControllerTest {
+    private ExecutorService executor = Executors.newCachedThreadPool();
+
+    @After
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void concurrencyLimit() {
+        AdmissionController controller = new AdmissionController().setMaxConcurrency(2);
+        Permit first = controller.acquire();
+        Permit second = controller.acquire();
+        assertEquals(2, controller.getInFlight());
+        try {
+            controller.acquire();
+            fail();
+        } catch (AdmissionRejectedException e) {
+            // expected
+        }
+        first.release(false);
+        first.release(false);
+        assertEquals(1, controller.getInFlight());
+        controller.acquire().release(false);
+        second.release(false);
+        assertEquals(0, controller.getInFlight());
+        assertEquals(3, controller.getAdmittedCount());
+        assertEquals(1, controller.getRejectedCount());
+    }
+
+    @Test
+    public void boundedQueue() throws Exception {
+        final AdmissionController controller = new AdmissionController().setMaxConcurrency(1).setQueue(1, 10, TimeUnit.SECONDS);
+        Permit permit = controller.acquire();
+        Future<Boolean> queued = executor.submit(new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                controller.acquire().release(false);
+                return true;
+            }
+        });
+        while (controller.getQueued() == 0) {
+            Thread.sleep(1);
+        }
+        try {
+            controller.acquire();
+            fail();
+        } catch (AdmissionRejectedException e) {
+            // expected, queue full
+        }
+        permit.release(false);
+        assertTrue(queued.get(5, TimeUnit.SECONDS));
+        assertEquals(0, controller.getQueued());
+        assertEquals(2, controller.getAdmittedCount());
+    }
+
+    @Test
+    public void queueTimeout() {
+        AdmissionController controller = new AdmissionController().setMaxConcurrency(1).setQueue(1, 20, TimeUnit.MILLISECONDS);
+        controller.acquire();
+        long start = System.nanoTime();
+        try {
+            controller.acquire();
+            fail();
+        } catch (AdmissionRejectedException e) {
+            assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(20));
+        }
+        assertEquals(0, controller.getQueued());
+    }
+
+    @Test
+    public void rateLimit() {
+        AdmissionController controller = new AdmissionController().setRateLimit(1, 3);
+        for (int i = 0; i < 3; i++) {
+            controller.acquire().release(false);
+        }
+        try {
+            controller.acquire();
+            fail();
+        } catch (AdmissionRejectedException e) {
+            // expected, burst used
+        }
+        controller.setRateLimit(100, 1).setQueue(1, 1, TimeUnit.SECONDS);
+        controller.acquire().release(false);
+        long start = System.nanoTime();
+        controller.acquire().release(false);
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(5));
+    }
+
+    @Test
+    public void rateLimitReturnedOnRejection() {
+        AdmissionController controller = new AdmissionController().setMaxConcurrency(1).setRateLimit(1, 2);
+        Permit permit = controller.acquire();
+        try {
+            controller.acquire();
+            fail();
+        } catch (AdmissionRejectedException e) {
+            // expected, concurrency limit reached
+        }
+        permit.release(false);
+        // the rate permit reserved by the rejected execution is given back
+        controller.acquire().release(false);
+        assertEquals(2, controller.getAdmittedCount());
+    }
+
+    @Test
+    public void adaptiveLimit() {
+        AdaptiveLimit limit = new AdaptiveLimit(10, 2, 20);
+        limit.onSample(1000, false, 10);
+        assertEquals(11, limit.getLimit());
+        limit.onSample(1000, false, 1);
+        assertEquals(11, limit.getLimit());
+        limit.onSample(10000, false, 11);
+        assertEquals(9, limit.getLimit());
+        for (int i = 0; i < 20; i++) {
+            limit.onSample(1000, true, 1);
+        }
+        assertEquals(2, limit.getLimit());
+        assertEquals(1000, limit.getMinLatency());
+
+        AdmissionController controller = new AdmissionController().setMaxConcurrency(5).setAdaptiveLimit(limit);
+        assertEquals(2, controller.getLimit());
+        controller.acquire();
+        controller.acquire();
+        try {
+            controller.acquire();
+            fail();
+        } catch (AdmissionRejectedException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void catalog() throws Exception {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        DefaultCommandCatalog<Object> catalog = new DefaultCommandCatalog<Object>();
+        catalog.addCommand("blocking", new Command<Object>() {
+            @Override
+            public boolean execute(Object context) {
+                started.countDown();
+                try {
+                    return release.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    return false;
+                }
+            }
+        });
+        catalog.addCommand("true", TrueCommand.<Object> getInstance());
+        AdmissionController controller = new AdmissionController().setMaxConcurrency(1);
+        catalog.setAdmissionController("blocking", controller);
+        assertNull(catalog.getAdmissionController("true"));
+
+        Future<Boolean> running = catalog.executeAsync("blocking", null, executor);
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        try {
+            catalog.execute("blocking", null);
+            fail();
+        } catch (AdmissionRejectedException e) {
+            // expected
+        }
+        try {
+            catalog.executeAsync("blocking", null, executor);
+            fail();
+        } catch (AdmissionRejectedException e) {
+            // expected
+        }
+        assertTrue(catalog.execute("true", null));
+        release.countDown();
+        assertTrue(running.get(5, TimeUnit.SECONDS));
+        while (controller.getInFlight() != 0) {
+            Thread.sleep(1);
+        }
+        assertTrue(catalog.execute("blocking", null, 1, TimeUnit.SECONDS));
+        BitSet result = catalog.executeBatch("blocking", Arrays.<Object> asList("a", "b"));
+        assertEquals(2, result.cardinality());
+        assertEquals(3, controller.getAdmittedCount());
+        assertEquals(2, controller.getRejectedCount());
+
+        catalog.setAdmissionController("blocking", null);
+        assertNull(catalog.getAdmissionController("blocking"));
+        assertTrue(catalog.execute("blocking", null));
+        assertEquals(3, controller.getAdmittedCount());
+    }
+
+    @Test
+    public void cancelledAsyncExecution() throws Exception {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        DefaultCommandCatalog<Object> catalog = new DefaultCommandCatalog<Object>();
+        catalog.addCommand("uninterruptible", new Command<Object>() {
+            @Override
+            public boolean execute(Object context) {
+                started.countDown();
+                while (true) {
+                    try {
+                        return release.await(5, TimeUnit.SECONDS);
+                    } catch (InterruptedException e) {
+                        // ignored
+                    }
+                }
+            }
+        });
+        AdmissionController controller = new AdmissionController().setMaxConcurrency(1);
+        catalog.setAdmissionController("uninterruptible", controller);
+
+        Future<Boolean> running = catalog.executeAsync("uninterruptible", null, executor);
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        assertTrue(running.cancel(true));
+        // the command is still running, hence the permit is kept
+        assertEquals(1, controller.getInFlight());
+        release.countDown();
+        while (controller.getInFlight() != 0) {
+            Thread.sleep(1);
+        }
+
+        // cancelled before started
+        final List<Runnable> submitted = new ArrayList<Runnable>();
+        Future<Boolean> queued = catalog.executeAsync("uninterruptible", null, new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                submitted.add(command);
+            }
+        });
+        assertEquals(1, controller.getInFlight());
+        assertTrue(queued.cancel(false));
+        assertEquals(0, controller.getInFlight());
+        submitted.get(0).run();
+        assertEquals(0, controller.getInFlight());
+    }
+}
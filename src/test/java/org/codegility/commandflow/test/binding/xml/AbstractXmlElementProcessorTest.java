@@ -61,6 +61,10 @@ public abstract class AbstractXmlElementProcessorTest {
 
     protected abstract void setupBindingHandler(XmlBindingHandler<TestContext> xmlBindingHandler);
 
+    protected XmlBindingHandler<TestContext> getXmlBindingHandler() {
+        return xmlBindingHandler;
+    }
+
     protected DefaultCommandCatalog<TestContext> getCommandCatalog() {
         return commandCatalog;
     }
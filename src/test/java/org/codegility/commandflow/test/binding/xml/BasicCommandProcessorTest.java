@@ -17,14 +17,28 @@ package org.codegility.commandflow.test.binding.xml;
 
 import static org.hamcrest.CoreMatchers.is;
 import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
 
+import java.net.URL;
+import java.net.URLClassLoader;
+
+import javax.script.ScriptEngineManager;
 import javax.xml.namespace.QName;
 
+import org.codegility.commandflow.binding.BindingException;
+import org.codegility.commandflow.binding.xml.AttributeCommandNameLookup;
 import org.codegility.commandflow.binding.xml.BasicCommandProcessor;
+import org.codegility.commandflow.binding.xml.IgnoreElementProcessor;
 import org.codegility.commandflow.binding.xml.XmlBindingHandler;
+import org.codegility.commandflow.builder.DefaultCommandBuilder;
 import org.codegility.commandflow.catalog.CommandReference;
+import org.codegility.commandflow.catalog.DefaultCommandCatalog;
+import org.codegility.commandflow.command.ExpressionCommand;
+import org.codegility.commandflow.command.ScriptCache;
 import org.codegility.commandflow.command.ScriptCommand;
 import org.codegility.commandflow.command.TrueCommand;
+import org.codegility.commandflow.expression.ExpressionException;
+import org.codegility.commandflow.io.ClassPathResource;
 import org.junit.Test;
 
 /**
@@ -46,6 +60,8 @@ public class BasicCommandProcessorTest extends AbstractXmlElementProcessorTest {
     @Override
     protected void setupBindingHandler(XmlBindingHandler<TestContext> xmlBindingHandler) {
         xmlBindingHandler.addElementProcessor(new QName("command"), new BasicCommandProcessor<TestContext>("class", "ref", "dynamic", "value"));
+        xmlBindingHandler.addElementProcessor(new QName("expression"),
+                new BasicCommandProcessor<TestContext>("class", "ref", "dynamic", "value").setExpressionsEnabled(true));
     }
 
     @Test
@@ -68,16 +84,100 @@ public class BasicCommandProcessorTest extends AbstractXmlElementProcessorTest {
 
     @Test
     public void testViaEL() {
-        testScript("commandViaScript", true);
+        testScript("commandViaScript", ScriptCommand.class, true);
+        testScript("expressionViaScript", ExpressionCommand.class, true);
+    }
+
+    @Test
+    public void testViaScriptEngine() {
+        testScript("commandViaScriptEngine", ScriptCommand.class, true);
+        testScript("expressionViaScriptEngine", ScriptCommand.class, true);
+        // JavaScript identifiers are left to the script engine
+        testScript("expressionComparingUndefined", ScriptCommand.class, true);
+    }
+
+    @Test
+    public void testScriptCachePerCatalog() {
+        ScriptCache scriptCache = getXmlBindingHandler().getScriptCache();
+        assertThat(scriptCache == ScriptCache.getDefault(), is(false));
+        // identical scripts are compiled once
+        assertThat(scriptCache.getSize(), is(7));
+    }
+
+    @Test
+    public void testExpressionsEnabledForHandler() {
+        XmlBindingHandler<TestContext> handler = newHandler("basicCommandProcessorTest_expressions.xml").setExpressionsEnabled(true);
+        DefaultCommandCatalog<TestContext> catalog = build(handler);
+        assertThat(catalog.getCommand("commandViaScript"), is(ExpressionCommand.class));
+        assertThat(catalog.getCommand("commandComparingNumberWithString"), is(ExpressionCommand.class));
+        assertThat(handler.getScriptCache().getSize(), is(0));
+    }
+
+    @Test
+    public void testExpressionsWithoutScriptEngine() {
+        // finds no script engines
+        ScriptCache scriptCache = new ScriptCache(new ScriptEngineManager(new URLClassLoader(new URL[0], null)));
+        DefaultCommandCatalog<TestContext> catalog = build(newHandler("basicCommandProcessorTest_expressions.xml").setScriptCache(scriptCache));
+        assertThat(catalog.getCommand("commandViaScript"), is(ExpressionCommand.class));
+        assertThat(catalog.getCommand("commandViaScript").execute(new TestContext()), is(true));
+        try {
+            build(newHandler("basicCommandProcessorTest_invalidExpression.xml").setScriptCache(scriptCache));
+            fail("Expected exception");
+        } catch (BindingException e) {
+            Throwable cause = e;
+            while (cause.getCause() != null) {
+                cause = cause.getCause();
+            }
+            assertThat(cause instanceof ExpressionException, is(true));
+        }
+    }
+
+    private XmlBindingHandler<TestContext> newHandler(String resourceName) {
+        XmlBindingHandler<TestContext> handler = new XmlBindingHandler<TestContext>();
+        handler.addCommandResource(new ClassPathResource(getClass().getPackage(), resourceName));
+        handler.addElementProcessor(new QName("commands"), new IgnoreElementProcessor<TestContext>());
+        handler.setCommandNameLookup(new AttributeCommandNameLookup<TestContext>("name"));
+        handler.addElementProcessor(new QName("command"), new BasicCommandProcessor<TestContext>("class", "ref", "dynamic", "value"));
+        return handler;
+    }
+
+    private DefaultCommandCatalog<TestContext> build(XmlBindingHandler<TestContext> handler) {
+        DefaultCommandCatalog<TestContext> catalog = new DefaultCommandCatalog<TestContext>();
+        new DefaultCommandBuilder<TestContext>(catalog).addBindingHandler(handler).make();
+        return catalog;
+    }
+
+    @Test
+    public void testScriptSemanticsByDefault() {
+        testScript("commandComparingNumberWithString", ScriptCommand.class, true);
+        testScript("commandComparingMissingWithNull", ScriptCommand.class, true);
+        testScript("commandComparingNaN", ScriptCommand.class, false);
+    }
+
+    @Test
+    public void testExpressionSemantics() {
+        // no coercion of strings to numbers
+        testScript("expressionComparingNumberWithString", ExpressionCommand.class, false);
+        // numbers are equal by value
+        testScript("expressionComparingNaN", ExpressionCommand.class, true);
+        // missing properties are errors
+        hasCommand("expressionComparingMissingWithNull", ExpressionCommand.class);
+        try {
+            assertExecute("expressionComparingMissingWithNull", true);
+            fail("Expected exception");
+        } catch (ExpressionException e) {
+            // expected
+        }
     }
 
-    public void testScript(String commandName, boolean expectedValue) {
-        hasCommand(commandName, ScriptCommand.class);
+    public void testScript(String commandName, Class<?> commandClass, boolean expectedValue) {
+        hasCommand(commandName, commandClass);
         assertExecute(commandName, expectedValue);
     }
 
     @Test
     public void testViaValue() {
-        testScript("commandViaValue", true);
+        testScript("commandViaValue", ScriptCommand.class, true);
+        testScript("expressionViaValue", ExpressionCommand.class, true);
     }
 }
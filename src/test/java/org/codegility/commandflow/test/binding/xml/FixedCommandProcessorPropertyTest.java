@@ -0,0 +1,119 @@
+/**
+ * Copyright 2010/2011, Martin Lansler
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codegility.commandflow.test.binding.xml;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import javax.xml.namespace.QName;
+
+import org.codegility.commandflow.binding.xml.FixedCommandProcessor;
+import org.codegility.commandflow.binding.xml.XmlBindingHandler;
+import org.codegility.commandflow.command.CachingCommand;
+import org.codegility.commandflow.command.CircuitBreakerCommand;
+import org.codegility.commandflow.command.ForEachCommand;
+import org.codegility.commandflow.command.HedgedCommand;
+import org.codegility.commandflow.command.PipelineCommand;
+import org.codegility.commandflow.command.StageCommand;
+import org.codegility.commandflow.command.TimeoutCommand;
+import org.codegility.commandflow.command.TrueCommand;
+import org.junit.Test;
+
+/**
+ * Tests {@link FixedCommandProcessor} configuring command properties from attributes.
+ * @author Martin Lansler
+ */
+public class FixedCommandProcessorPropertyTest extends AbstractXmlElementProcessorTest {
+
+    @Override
+    protected String getTestResourceName() {
+        return "fixedCommandProcessorPropertyTest.xml";
+    }
+
+    @Override
+    protected void setupBindingHandler(XmlBindingHandler<TestContext> xmlBindingHandler) {
+        xmlBindingHandler.addElementProcessor(new QName("pipeline"), new FixedCommandProcessor<TestContext>(PipelineCommand.class, "queueCapacity"));
+        xmlBindingHandler.addElementProcessor(new QName("stage"), new FixedCommandProcessor<TestContext>(StageCommand.class, "parallelism"));
+        xmlBindingHandler.addElementProcessor(new QName("timeout"), new FixedCommandProcessor<TestContext>(TimeoutCommand.class, "millis"));
+        xmlBindingHandler.addElementProcessor(new QName("circuitBreaker"), new FixedCommandProcessor<TestContext>(CircuitBreakerCommand.class, "minimumCalls",
+                "openMillis"));
+        xmlBindingHandler.addElementProcessor(new QName("cache"), new FixedCommandProcessor<TestContext>(CachingCommand.class, "key", "maxSize", "ttl",
+                "capture"));
+        xmlBindingHandler.addElementProcessor(new QName("hedged"), new FixedCommandProcessor<TestContext>(HedgedCommand.class, "delayMillis", "percentile"));
+        xmlBindingHandler.addElementProcessor(new QName("forEach"), new FixedCommandProcessor<TestContext>(ForEachCommand.class, "items", "var",
+                "parallelism", "result", "results", "ordered"));
+        xmlBindingHandler.addElementProcessor(new QName("true"), new FixedCommandProcessor<TestContext>(TrueCommand.class));
+    }
+
+    @Test
+    public void test() {
+        hasCommand("pipeline", PipelineCommand.class);
+        PipelineCommand<TestContext> pipeline = (PipelineCommand<TestContext>) getCommandCatalog().getCommand("pipeline");
+        assertThat(pipeline.getQueueCapacity(), is(8));
+        assertThat(pipeline.getCommands().size(), is(2));
+        assertThat(((StageCommand<TestContext>) pipeline.getCommands().get(0)).getParallelism(), is(3));
+        assertExecute("pipeline", true);
+    }
+
+    @Test
+    public void timeout() {
+        hasCommand("timeout", TimeoutCommand.class);
+        assertThat(((TimeoutCommand<TestContext>) getCommandCatalog().getCommand("timeout")).getMillis(), is(250L));
+        assertExecute("timeout", true);
+    }
+
+    @Test
+    public void circuitBreaker() {
+        hasCommand("circuitBreaker", CircuitBreakerCommand.class);
+        CircuitBreakerCommand<TestContext> circuitBreaker = (CircuitBreakerCommand<TestContext>) getCommandCatalog().getCommand("circuitBreaker");
+        assertThat(circuitBreaker.getMinimumCalls(), is(5));
+        assertThat(circuitBreaker.getOpenMillis(), is(100L));
+        assertThat(circuitBreaker.getFallbackCommand() instanceof TrueCommand, is(true));
+        assertExecute("circuitBreaker", true);
+    }
+
+    @Test
+    public void cache() {
+        hasCommand("cache", CachingCommand.class);
+        CachingCommand<TestContext> cache = (CachingCommand<TestContext>) getCommandCatalog().getCommand("cache");
+        assertThat(cache.getKey(), is("executed"));
+        assertThat(cache.getMaxSize(), is(100));
+        assertThat(cache.getTtl(), is(1000L));
+        assertThat(cache.getCapture(), is("executedCommand"));
+        assertExecute("cache", true);
+    }
+
+    @Test
+    public void hedged() {
+        hasCommand("hedged", HedgedCommand.class);
+        HedgedCommand<TestContext> hedged = (HedgedCommand<TestContext>) getCommandCatalog().getCommand("hedged");
+        assertThat(hedged.getDelayMillis(), is(20L));
+        assertThat(hedged.getPercentile(), is(95.0));
+        assertExecute("hedged", true);
+    }
+
+    @Test
+    public void forEach() {
+        hasCommand("forEach", ForEachCommand.class);
+        ForEachCommand<TestContext> forEach = (ForEachCommand<TestContext>) getCommandCatalog().getCommand("forEach");
+        assertThat(forEach.getItems(), is("lines"));
+        assertThat(forEach.getVar(), is("line"));
+        assertThat(forEach.getParallelism(), is(4));
+        assertThat(forEach.getResult(), is("price"));
+        assertThat(forEach.getResults(), is("prices"));
+        assertThat(forEach.isOrdered(), is(false));
+    }
+}
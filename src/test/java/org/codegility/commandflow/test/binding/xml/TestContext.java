@@ -41,4 +41,12 @@ public class TestContext {
         return command;
     }
 
+    public int getCount() {
+        return 1;
+    }
+
+    public double getRatio() {
+        return Double.NaN;
+    }
+
 }
@@ -0,0 +1,129 @@
+/**
+ * Copyright 2010/2011, Martin Lansler
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codegility.commandflow.test.builder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.codegility.commandflow.Command;
+import org.codegility.commandflow.builder.DefaultCommandBuilder;
+import org.codegility.commandflow.catalog.CommandCatalog;
+import org.codegility.commandflow.catalog.CommandReference;
+import org.codegility.commandflow.catalog.DefaultCommandCatalog;
+import org.codegility.commandflow.catalog.FrozenCommandCatalog;
+import org.codegility.commandflow.command.CommandExecutors;
+import org.codegility.commandflow.command.ParallelCommand;
+import org.codegility.commandflow.command.TrueCommand;
+import org.junit.Test;
+
+/**
+ * Tests {@link DefaultCommandBuilder}
+ * @author Martin Lansler
+ */
+public class DefaultCommandBuilderTest {
+
+    @Test
+    public void executorInjection() throws Exception {
+        final AtomicInteger executed = new AtomicInteger();
+        Executor executor = new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                executed.incrementAndGet();
+                command.run();
+            }
+        };
+        DefaultCommandCatalog<Object> catalog = new DefaultCommandCatalog<Object>();
+        Command<Object> parallel = new ParallelCommand<Object>().add(TrueCommand.getInstance()).add(TrueCommand.getInstance());
+        catalog.addCommand("parallel", parallel);
+
+        new DefaultCommandBuilder<Object>(catalog).setExecutor(executor).make();
+
+        assertTrue(catalog.execute("parallel", null));
+        assertEquals(1, executed.get());
+        assertTrue(catalog.executeAsync("parallel", null).get());
+        assertEquals(3, executed.get());
+    }
+
+    @Test
+    public void freeze() throws Exception {
+        final AtomicInteger executed = new AtomicInteger();
+        Executor executor = new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                executed.incrementAndGet();
+                command.run();
+            }
+        };
+        DefaultCommandCatalog<Object> catalog = new DefaultCommandCatalog<Object>();
+        Command<Object> parallel = new ParallelCommand<Object>().add(TrueCommand.getInstance()).add(new CommandReference<Object>("true"));
+        catalog.addCommand("parallel", parallel);
+        catalog.addCommand("true", TrueCommand.getInstance());
+        catalog.addCommand("alias", new CommandReference<Object>("parallel"));
+
+        CommandCatalog<Object> frozen = new DefaultCommandBuilder<Object>(catalog).setExecutor(executor).make().freeze();
+        catalog.removeCommand("alias");
+
+        assertTrue(frozen instanceof FrozenCommandCatalog);
+        assertSame(parallel, frozen.getCommand("alias"));
+        assertSame(parallel, frozen.getCommand("parallel"));
+        assertTrue(frozen.executeAsync("alias", null).get());
+        assertEquals(2, executed.get());
+    }
+
+    @Test
+    public void freezeKeepsCatalogExecutor() {
+        Executor executor = new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                command.run();
+            }
+        };
+        DefaultCommandCatalog<Object> catalog = new DefaultCommandCatalog<Object>();
+        catalog.addCommand("true", TrueCommand.getInstance());
+        catalog.setExecutor(executor);
+        FrozenCommandCatalog<Object> frozen = (FrozenCommandCatalog<Object>) new DefaultCommandBuilder<Object>(catalog).make().freeze();
+        assertSame(executor, frozen.getExecutor());
+    }
+
+    @Test
+    public void virtualThreadExecutor() throws Exception {
+        if (!CommandExecutors.isVirtualThreadSupported()) {
+            try {
+                CommandExecutors.newVirtualThreadExecutor();
+                fail("Expected exception");
+            } catch (UnsupportedOperationException e) {
+                // expected
+            }
+            return;
+        }
+        ExecutorService executor = CommandExecutors.newVirtualThreadExecutor();
+        try {
+            DefaultCommandCatalog<Object> catalog = new DefaultCommandCatalog<Object>();
+            catalog.addCommand("parallel", new ParallelCommand<Object>().add(TrueCommand.getInstance()).add(TrueCommand.getInstance()));
+            new DefaultCommandBuilder<Object>(catalog).setExecutor(executor).make();
+            assertTrue(catalog.executeAsync("parallel", null).get(10, TimeUnit.SECONDS));
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
@@ -0,0 +1,107 @@
+/**
+ * Copyright 2010/2011, Martin Lansler
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codegility.commandflow.test.catalog;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.codegility.commandflow.Command;
+import org.codegility.commandflow.catalog.CatalogException;
+import org.codegility.commandflow.catalog.CommandReference;
+import org.codegility.commandflow.catalog.DefaultCommandCatalog;
+import org.codegility.commandflow.command.FalseCommand;
+import org.codegility.commandflow.command.TrueCommand;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests {@link CommandReference}
+ * @author Martin Lansler
+ */
+public class CommandReferenceTest {
+    private CountingCatalog catalog;
+    private CommandReference<Object> reference;
+
+    @Before
+    public void init() {
+        catalog = new CountingCatalog();
+        reference = new CommandReference<Object>("target", true);
+        reference.setCommandCatalog(catalog);
+    }
+
+    @Test
+    public void resolutionCached() {
+        catalog.addCommand("target", TrueCommand.<Object> getInstance());
+        for (int i = 0; i < 10; i++) {
+            assertTrue(reference.execute(null));
+        }
+        assertEquals(1, catalog.lookups);
+    }
+
+    @Test
+    public void hotSwap() {
+        catalog.addCommand("target", TrueCommand.<Object> getInstance());
+        assertTrue(reference.execute(null));
+        catalog.addCommand("target", FalseCommand.<Object> getInstance());
+        assertFalse(reference.execute(null));
+        Map<String, Command<Object>> commands = new HashMap<String, Command<Object>>();
+        commands.put("target", TrueCommand.<Object> getInstance());
+        catalog.setCommands(commands);
+        assertTrue(reference.execute(null));
+        assertEquals(3, catalog.lookups);
+    }
+
+    @Test
+    public void removedTarget() {
+        catalog.addCommand("target", TrueCommand.<Object> getInstance());
+        assertTrue(reference.execute(null));
+        catalog.removeCommand("target");
+        try {
+            reference.execute(null);
+            fail("Expected exception");
+        } catch (CatalogException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void versionChanges() {
+        long version = catalog.getVersion();
+        catalog.addCommand("target", TrueCommand.<Object> getInstance());
+        assertTrue(catalog.getVersion() > version);
+        version = catalog.getVersion();
+        catalog.clear();
+        assertTrue(catalog.getVersion() > version);
+    }
+
+    /**
+     * Catalog counting command lookups.
+     */
+    private static class CountingCatalog extends DefaultCommandCatalog<Object> {
+        private int lookups;
+
+        @Override
+        public Command<Object> getCommand(String name) {
+            lookups++;
+            return super.getCommand(name);
+        }
+    }
+}
@@ -0,0 +1,123 @@
+/**
+ * Copyright 2010/2011, Martin Lansler
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codegility.commandflow.test.catalog;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.codegility.commandflow.Command;
+import org.codegility.commandflow.catalog.CatalogException;
+import org.codegility.commandflow.catalog.DefaultCommandCatalog;
+import org.codegility.commandflow.command.CommandTask;
+import org.codegility.commandflow.command.FalseCommand;
+import org.codegility.commandflow.command.TrueCommand;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests {@link DefaultCommandCatalog}
+ * @author Martin Lansler
+ */
+public class DefaultCommandCatalogTest {
+    private DefaultCommandCatalog<Object> catalog;
+    private ExecutorService executor;
+
+    @Before
+    public void init() {
+        catalog = new DefaultCommandCatalog<Object>();
+        catalog.addCommand("true", TrueCommand.getInstance());
+        catalog.addCommand("false", FalseCommand.getInstance());
+        catalog.addCommand("failing", new Command<Object>() {
+            @Override
+            public boolean execute(Object context) {
+                throw new IllegalStateException("failed");
+            }
+        });
+        executor = Executors.newSingleThreadExecutor();
+    }
+
+    @After
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void execute() {
+        assertTrue(catalog.execute("true", null));
+        assertFalse(catalog.execute("false", null));
+    }
+
+    @Test(expected = CatalogException.class)
+    public void executeUnknown() {
+        catalog.execute("unknown", null);
+    }
+
+    @Test
+    public void executeAsync() throws Exception {
+        assertTrue(catalog.executeAsync("true", null).get());
+        assertFalse(catalog.executeAsync("false", null, executor).get());
+        catalog.setExecutor(executor);
+        assertTrue(catalog.executeAsync("true", null).get());
+    }
+
+    @Test
+    public void executeAsyncListener() throws Exception {
+        final CommandTask<Object> task = catalog.executeAsync("true", null, executor);
+        final BlockingQueue<Boolean> results = new LinkedBlockingQueue<Boolean>();
+        Runnable listener = new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    results.add(task.get());
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        };
+        task.addListener(listener, executor);
+        assertTrue(results.poll(10, TimeUnit.SECONDS));
+        // notified directly once done
+        task.addListener(listener, executor);
+        assertTrue(results.poll(10, TimeUnit.SECONDS));
+    }
+
+    @Test(expected = CatalogException.class)
+    public void executeAsyncUnknown() {
+        catalog.executeAsync("unknown", null);
+    }
+
+    @Test
+    public void executeAsyncFailure() throws Exception {
+        Future<Boolean> result = catalog.executeAsync("failing", null, executor);
+        try {
+            result.get();
+            fail("Expected exception");
+        } catch (ExecutionException e) {
+            assertEquals(IllegalStateException.class, e.getCause().getClass());
+        }
+    }
+}
@@ -0,0 +1,141 @@
+/**
+ * Copyright 2010/2011, Martin Lansler
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codegility.commandflow.test.catalog;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.codegility.commandflow.Command;
+import org.codegility.commandflow.admission.AdmissionController;
+import org.codegility.commandflow.catalog.CatalogException;
+import org.codegility.commandflow.catalog.CommandCatalog;
+import org.codegility.commandflow.catalog.DefaultCommandCatalog;
+import org.codegility.commandflow.catalog.FrozenCommandCatalog;
+import org.codegility.commandflow.command.FalseCommand;
+import org.codegility.commandflow.command.TrueCommand;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests {@link FrozenCommandCatalog}
+ * @author Martin Lansler
+ */
+public class FrozenCommandCatalogTest {
+    private static final int SIZE = 100;
+
+    private DefaultCommandCatalog<Object> source;
+    private CommandCatalog<Object> catalog;
+
+    @Before
+    public void init() {
+        source = new DefaultCommandCatalog<Object>();
+        for (int i = 0; i < SIZE; i++) {
+            source.addCommand("command" + i, i % 2 == 0 ? TrueCommand.getInstance() : FalseCommand.getInstance());
+        }
+        source.setAdmissionController("command0", new AdmissionController().setMaxConcurrency(1));
+        catalog = new FrozenCommandCatalog<Object>(source);
+    }
+
+    @Test
+    public void lookup() {
+        for (int i = 0; i < SIZE; i++) {
+            String name = "command" + i;
+            assertSame(source.getCommand(name), catalog.getCommand(name));
+            // an equal but not identical name
+            assertSame(source.getCommand(name), catalog.getCommand(new String(name)));
+        }
+        assertNull(catalog.getCommand("unknown"));
+        assertSame(source.getAdmissionController("command0"), catalog.getAdmissionController("command0"));
+        assertNull(catalog.getAdmissionController("command1"));
+        assertEquals(source.getVersion(), catalog.getVersion());
+    }
+
+    @Test
+    public void snapshot() {
+        source.addCommand("added", TrueCommand.getInstance());
+        source.removeCommand("command1");
+        assertNull(catalog.getCommand("added"));
+        assertTrue(catalog.getCommand("command1") != null);
+    }
+
+    @Test
+    public void execute() {
+        assertTrue(catalog.execute("command0", null));
+        assertFalse(catalog.execute("command1", null));
+        assertEquals(1, catalog.getAdmissionController("command0").getAdmittedCount());
+    }
+
+    @Test(expected = CatalogException.class)
+    public void executeUnknown() {
+        catalog.execute("unknown", null);
+    }
+
+    @Test
+    public void view() {
+        Map<String, Command<Object>> view = catalog.getCommandsView();
+        assertSame(view, catalog.getCommandsView());
+        assertEquals(SIZE, view.size());
+        assertTrue(view.containsKey("command42"));
+        assertFalse(view.containsKey(42));
+        Set<String> names = new HashSet<String>();
+        for (Map.Entry<String, Command<Object>> entry : view.entrySet()) {
+            assertSame(source.getCommand(entry.getKey()), entry.getValue());
+            names.add(entry.getKey());
+        }
+        assertEquals(source.getCommands().keySet(), names);
+        assertEquals(source.getCommands(), view);
+        try {
+            view.put("added", TrueCommand.getInstance());
+            fail("Expected exception");
+        } catch (UnsupportedOperationException e) {
+            // expected
+        }
+        try {
+            view.clear();
+            fail("Expected exception");
+        } catch (UnsupportedOperationException e) {
+            // expected
+        }
+        Map<String, Command<Object>> copy = catalog.getCommands();
+        copy.clear();
+        assertEquals(SIZE, view.size());
+    }
+
+    @Test
+    public void empty() {
+        CommandCatalog<Object> empty = new FrozenCommandCatalog<Object>(new DefaultCommandCatalog<Object>());
+        assertNull(empty.getCommand("command0"));
+        assertTrue(empty.getCommandsView().isEmpty());
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void addCommand() {
+        catalog.addCommand("added", TrueCommand.getInstance());
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void removeCommand() {
+        catalog.removeCommand("command0");
+    }
+}
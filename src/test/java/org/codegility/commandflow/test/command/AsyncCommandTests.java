@@ -0,0 +1,337 @@
+/**
+ * Copyright 2010/2011, Martin Lansler
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codegility.commandflow.test.command;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.codegility.commandflow.AsyncCommand;
+import org.codegility.commandflow.Command;
+import org.codegility.commandflow.admission.AdmissionController;
+import org.codegility.commandflow.admission.AdmissionRejectedException;
+import org.codegility.commandflow.builder.DefaultCommandBuilder;
+import org.codegility.commandflow.catalog.DefaultCommandCatalog;
+import org.codegility.commandflow.command.AbstractCompositeCommand;
+import org.codegility.commandflow.command.AndCommand;
+import org.codegility.commandflow.command.CommandTask;
+import org.codegility.commandflow.command.CommandUtil;
+import org.codegility.commandflow.command.DoWhileCommand;
+import org.codegility.commandflow.command.IfCommand;
+import org.codegility.commandflow.command.OrCommand;
+import org.codegility.commandflow.command.SequenceCommand;
+import org.codegility.commandflow.command.WhileCommand;
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Tests asynchronous execution, see {@link AsyncCommand}.
+ * @author Martin Lansler
+ */
+public class AsyncCommandTests {
+    /** Latency of a remote call, in milliseconds */
+    private static final long LATENCY = 20;
+
+    private final ScheduledExecutorService timer = Executors.newScheduledThreadPool(1);
+
+    private final ExecutorService executor = Executors.newFixedThreadPool(2);
+
+    @After
+    public void shutdown() {
+        timer.shutdownNow();
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void manyFlowsOnSmallExecutor() throws Exception {
+        Remote remote = new Remote();
+        DefaultCommandCatalog<Calls> catalog = new DefaultCommandCatalog<Calls>();
+        catalog.addCommand("flow", new SequenceCommand<Calls>()
+                .add(remote)
+                .add(new WhileCommand<Calls>().add(new Below(4)).add(remote))
+                .add(new IfCommand<Calls>().add(remote).add(remote)));
+        new DefaultCommandBuilder<Calls>(catalog).make();
+
+        // blocking on the 2 threads each flow would take 6 * 20 ms, i.e. 60 s in total
+        int count = 1000;
+        List<Calls> contexts = new ArrayList<Calls>();
+        List<CommandTask<Calls>> tasks = new ArrayList<CommandTask<Calls>>();
+        long start = System.nanoTime();
+        for (int i = 0; i < count; i++) {
+            Calls calls = new Calls();
+            contexts.add(calls);
+            tasks.add(catalog.executeAsync("flow", calls, executor));
+        }
+        for (int i = 0; i < count; i++) {
+            assertTrue(tasks.get(i).get(30, TimeUnit.SECONDS));
+            assertEquals(6, contexts.get(i).count);
+        }
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        assertTrue("Elapsed " + elapsed + " ms", elapsed < 10000);
+    }
+
+    @Test
+    public void randomFlows() throws Exception {
+        Random random = new Random(42);
+        for (int i = 0; i < 300; i++) {
+            int[] steps = new int[1];
+            Command<Trace> flow = newFlow(random, steps, 4);
+            DefaultCommandCatalog<Trace> catalog = new DefaultCommandCatalog<Trace>();
+            catalog.addCommand("flow", flow);
+            new DefaultCommandBuilder<Trace>(catalog).make();
+
+            long[] patterns = new long[steps[0]];
+            for (int j = 0; j < patterns.length; j++) {
+                patterns[j] = random.nextLong();
+            }
+            Trace expected = new Trace(patterns);
+            Trace actual = new Trace(patterns);
+            boolean status = flow.execute(expected);
+            assertEquals(status, CommandUtil.executeAsync(flow, actual, executor).get(10, TimeUnit.SECONDS));
+            assertEquals(expected.executed, actual.executed);
+        }
+    }
+
+    @Test
+    public void failureCompletesFlow() throws Exception {
+        CounterCommand<Calls> after = new CounterCommand<Calls>();
+        SequenceCommand<Calls> flow = new SequenceCommand<Calls>();
+        flow.add(new Remote()).add(new Command<Calls>() {
+            @Override
+            public boolean execute(Calls calls) {
+                throw new IllegalStateException("Remote call failed");
+            }
+        }).add(after);
+
+        CommandTask<Calls> task = flow.executeAsync(new Calls(), executor);
+        try {
+            task.get(10, TimeUnit.SECONDS);
+            fail("Expected failure");
+        } catch (ExecutionException e) {
+            assertEquals(IllegalStateException.class, e.getCause().getClass());
+        }
+        assertEquals(0L, after.getCount());
+    }
+
+    @Test
+    public void cancellationStopsFlow() throws Exception {
+        final CommandTask<Calls> pending = new CommandTask<Calls>();
+        CounterCommand<Calls> after = new CounterCommand<Calls>();
+        AndCommand<Calls> flow = new AndCommand<Calls>();
+        flow.add(new Remote()).add(new Pending(pending)).add(after);
+
+        CommandTask<Calls> task = flow.executeAsync(new Calls(), executor);
+        Thread.sleep(4 * LATENCY);
+        assertFalse(task.isDone());
+        task.cancel(true);
+        assertTrue(pending.isCancelled());
+        try {
+            task.get();
+            fail("Expected cancellation");
+        } catch (CancellationException e) {
+            // expected
+        }
+        assertEquals(0L, after.getCount());
+    }
+
+    @Test
+    public void admissionPermitHeldUntilDone() throws Exception {
+        final CommandTask<Calls> pending = new CommandTask<Calls>();
+        DefaultCommandCatalog<Calls> catalog = new DefaultCommandCatalog<Calls>();
+        catalog.addCommand("flow", new SequenceCommand<Calls>().add(new Remote()).add(new Pending(pending)));
+        new DefaultCommandBuilder<Calls>(catalog).make();
+        AdmissionController controller = new AdmissionController().setMaxConcurrency(1);
+        catalog.setAdmissionController("flow", controller);
+
+        CommandTask<Calls> task = catalog.executeAsync("flow", new Calls(), executor);
+        Thread.sleep(4 * LATENCY);
+        assertEquals(1, controller.getInFlight());
+        try {
+            catalog.executeAsync("flow", new Calls(), executor);
+            fail("Expected rejection");
+        } catch (AdmissionRejectedException e) {
+            // expected
+        }
+        pending.complete(true);
+        assertTrue(task.get(10, TimeUnit.SECONDS));
+        assertEquals(0, controller.getInFlight());
+    }
+
+    private Command<Trace> newFlow(Random random, int[] steps, int depth) {
+        if (depth == 0 || random.nextInt(4) == 0) {
+            return newStep(random, steps);
+        }
+        switch (random.nextInt(6)) {
+        case 0:
+            return addAll(new SequenceCommand<Trace>(), random, steps, depth, random.nextInt(4));
+        case 1:
+            return addAll(new AndCommand<Trace>(), random, steps, depth, random.nextInt(4));
+        case 2:
+            return addAll(new OrCommand<Trace>(), random, steps, depth, random.nextInt(4));
+        case 3:
+            return addAll(new IfCommand<Trace>().add(newFlow(random, steps, depth - 1)), random, steps, depth, 1 + random.nextInt(2));
+        case 4:
+            return addAll(new WhileCommand<Trace>().add(newStep(random, steps)), random, steps, depth, 1 + random.nextInt(2));
+        default:
+            return addAll(new DoWhileCommand<Trace>().add(newStep(random, steps)), random, steps, depth, 1 + random.nextInt(2));
+        }
+    }
+
+    private Command<Trace> addAll(AbstractCompositeCommand<Trace> composite, Random random, int[] steps, int depth, int count) {
+        for (int i = 0; i < count; i++) {
+            composite.add(newFlow(random, steps, depth - 1));
+        }
+        return composite;
+    }
+
+    private Command<Trace> newStep(Random random, int[] steps) {
+        int id = steps[0]++;
+        return random.nextBoolean() ? new Step(id) : new AsyncStep(id);
+    }
+
+    /**
+     * Number of remote calls of a flow execution.
+     */
+    private static class Calls {
+        private volatile int count;
+    }
+
+    /**
+     * Remote call completed by the timer after the latency, blocks the executing thread if executed synchronously.
+     */
+    private class Remote implements AsyncCommand<Calls> {
+        @Override
+        public boolean execute(Calls calls) {
+            try {
+                Thread.sleep(LATENCY);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            calls.count++;
+            return true;
+        }
+
+        @Override
+        public CommandTask<Calls> executeAsync(final Calls calls, Executor executor) {
+            final CommandTask<Calls> task = new CommandTask<Calls>();
+            timer.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    calls.count++;
+                    task.complete(true);
+                }
+            }, LATENCY, TimeUnit.MILLISECONDS);
+            return task;
+        }
+    }
+
+    /**
+     * Answers <code>true</code> while fewer remote calls than the limit have been made.
+     */
+    private static class Below implements Command<Calls> {
+        private final int limit;
+
+        Below(int limit) {
+            this.limit = limit;
+        }
+
+        @Override
+        public boolean execute(Calls calls) {
+            return calls.count < limit;
+        }
+    }
+
+    /**
+     * Remote call completed by the test.
+     */
+    private static class Pending implements AsyncCommand<Calls> {
+        private final CommandTask<Calls> task;
+
+        Pending(CommandTask<Calls> task) {
+            this.task = task;
+        }
+
+        @Override
+        public boolean execute(Calls calls) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public CommandTask<Calls> executeAsync(Calls calls, Executor executor) {
+            return task;
+        }
+    }
+
+    /**
+     * Per context execution trace, each step answers according to a bit pattern of its own.
+     */
+    private static class Trace {
+        private final List<Integer> executed = new ArrayList<Integer>();
+        private final long[] patterns;
+        private final int[] counts;
+
+        Trace(long[] patterns) {
+            this.patterns = patterns;
+            this.counts = new int[patterns.length];
+        }
+    }
+
+    /**
+     * Leaf command answering according to the bit pattern of the context, always <code>false</code> after its first 4 executions.
+     */
+    private static class Step implements Command<Trace> {
+        private final int id;
+
+        Step(int id) {
+            this.id = id;
+        }
+
+        @Override
+        public boolean execute(Trace trace) {
+            int n = trace.counts[id]++;
+            trace.executed.add(id);
+            return n < 4 && (trace.patterns[id] >>> n & 1L) != 0L;
+        }
+    }
+
+    /**
+     * Step completing its asynchronous execution before returning it.
+     */
+    private static class AsyncStep extends Step implements AsyncCommand<Trace> {
+        AsyncStep(int id) {
+            super(id);
+        }
+
+        @Override
+        public CommandTask<Trace> executeAsync(Trace trace, Executor executor) {
+            CommandTask<Trace> task = new CommandTask<Trace>();
+            task.complete(execute(trace));
+            return task;
+        }
+    }
+}
@@ -0,0 +1,206 @@
+/**
+ * Copyright 2010/2011, Martin Lansler
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codegility.commandflow.test.command;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Random;
+
+import org.codegility.commandflow.BatchCommand;
+import org.codegility.commandflow.Command;
+import org.codegility.commandflow.builder.DefaultCommandBuilder;
+import org.codegility.commandflow.catalog.DefaultCommandCatalog;
+import org.codegility.commandflow.command.AbstractCompositeCommand;
+import org.codegility.commandflow.command.AndCommand;
+import org.codegility.commandflow.command.DoWhileCommand;
+import org.codegility.commandflow.command.IfCommand;
+import org.codegility.commandflow.command.NotCommand;
+import org.codegility.commandflow.command.OrCommand;
+import org.codegility.commandflow.command.SequenceCommand;
+import org.codegility.commandflow.command.WhileCommand;
+import org.codegility.commandflow.compiler.InstructionFlowCompiler;
+import org.junit.Test;
+
+/**
+ * Tests batch execution, see {@link BatchCommand}.
+ * @author Martin Lansler
+ */
+public class BatchCommandTests {
+
+    @Test
+    public void randomFlows() {
+        Random random = new Random(42);
+        for (int i = 0; i < 500; i++) {
+            int[] steps = new int[1];
+            Command<Trace> flow = newFlow(random, steps, 4);
+            DefaultCommandCatalog<Trace> catalog = new DefaultCommandCatalog<Trace>();
+            catalog.addCommand("flow", flow);
+            new DefaultCommandBuilder<Trace>(catalog).make();
+
+            List<Trace> expected = newTraces(random.nextInt(20), steps[0]);
+            List<Trace> actual = copy(expected);
+            BitSet expectedStatus = new BitSet();
+            for (int j = 0; j < expected.size(); j++) {
+                if (flow.execute(expected.get(j))) {
+                    expectedStatus.set(j);
+                }
+            }
+            assertEquals(expectedStatus, catalog.executeBatch("flow", actual));
+            for (int j = 0; j < expected.size(); j++) {
+                assertEquals(expected.get(j).executed, actual.get(j).executed);
+            }
+        }
+    }
+
+    @Test
+    public void batchCommandExecutedOncePerSubBatch() {
+        BatchStep condition = new BatchStep(0);
+        BatchStep action = new BatchStep(1);
+        DefaultCommandCatalog<Trace> catalog = new DefaultCommandCatalog<Trace>();
+        catalog.addCommand("flow", new IfCommand<Trace>().add(condition).add(action));
+        new DefaultCommandBuilder<Trace>(catalog).setFlowCompiler(new InstructionFlowCompiler<Trace>()).make();
+
+        List<Trace> traces = newTraces(100, 2);
+        BitSet status = catalog.executeBatch("flow", traces);
+        assertEquals(1, condition.batches);
+        assertEquals(1, action.batches);
+        for (int i = 0; i < traces.size(); i++) {
+            boolean expected = (traces.get(i).patterns[0] & 1L) != 0;
+            assertEquals(expected, status.get(i));
+            assertEquals(expected ? 2 : 1, traces.get(i).executed.size());
+        }
+    }
+
+    @Test
+    public void emptyBatch() {
+        DefaultCommandCatalog<Trace> catalog = new DefaultCommandCatalog<Trace>();
+        catalog.addCommand("flow", new AndCommand<Trace>().add(new BatchStep(0)));
+        assertEquals(new BitSet(), catalog.executeBatch("flow", new ArrayList<Trace>()));
+    }
+
+    private Command<Trace> newFlow(Random random, int[] steps, int depth) {
+        if (depth == 0 || random.nextInt(4) == 0) {
+            return newStep(random, steps);
+        }
+        switch (random.nextInt(7)) {
+        case 0:
+            return addAll(new SequenceCommand<Trace>(), random, steps, depth, random.nextInt(4));
+        case 1:
+            return addAll(new AndCommand<Trace>(), random, steps, depth, random.nextInt(4));
+        case 2:
+            return addAll(new OrCommand<Trace>(), random, steps, depth, random.nextInt(4));
+        case 3:
+            return addAll(new NotCommand<Trace>(), random, steps, depth, 1 + random.nextInt(2));
+        case 4:
+            return addAll(new IfCommand<Trace>().add(newFlow(random, steps, depth - 1)), random, steps, depth, 1 + random.nextInt(2));
+        case 5:
+            return addAll(new WhileCommand<Trace>().add(newStep(random, steps)), random, steps, depth, 1 + random.nextInt(2));
+        default:
+            return addAll(new DoWhileCommand<Trace>().add(newStep(random, steps)), random, steps, depth, 1 + random.nextInt(2));
+        }
+    }
+
+    private Command<Trace> addAll(AbstractCompositeCommand<Trace> composite, Random random, int[] steps, int depth, int count) {
+        for (int i = 0; i < count; i++) {
+            composite.add(newFlow(random, steps, depth - 1));
+        }
+        return composite;
+    }
+
+    private Command<Trace> newStep(Random random, int[] steps) {
+        int id = steps[0]++;
+        return random.nextBoolean() ? new Step(id) : new BatchStep(id);
+    }
+
+    private List<Trace> newTraces(int count, int steps) {
+        Random random = new Random(count);
+        List<Trace> traces = new ArrayList<Trace>();
+        for (int i = 0; i < count; i++) {
+            long[] patterns = new long[steps];
+            for (int j = 0; j < steps; j++) {
+                patterns[j] = random.nextLong();
+            }
+            traces.add(new Trace(patterns));
+        }
+        return traces;
+    }
+
+    private List<Trace> copy(List<Trace> traces) {
+        List<Trace> copy = new ArrayList<Trace>();
+        for (Trace trace : traces) {
+            copy.add(new Trace(trace.patterns));
+        }
+        return copy;
+    }
+
+    /**
+     * Per context execution trace, each step answers according to a bit pattern of its own.
+     */
+    private static class Trace {
+        private final List<Integer> executed = new ArrayList<Integer>();
+        private final long[] patterns;
+        private final int[] counts;
+
+        Trace(long[] patterns) {
+            this.patterns = patterns;
+            this.counts = new int[patterns.length];
+        }
+    }
+
+    /**
+     * Leaf command answering according to the bit pattern of the context, always <code>false</code> after its first 4 executions.
+     */
+    private static class Step implements Command<Trace> {
+        private final int id;
+
+        Step(int id) {
+            this.id = id;
+        }
+
+        @Override
+        public boolean execute(Trace trace) {
+            int n = trace.counts[id]++;
+            trace.executed.add(id);
+            return n < 4 && (trace.patterns[id] >>> n & 1L) != 0L;
+        }
+    }
+
+    /**
+     * Step also supporting batches.
+     */
+    private static class BatchStep extends Step implements BatchCommand<Trace> {
+        private int batches;
+
+        BatchStep(int id) {
+            super(id);
+        }
+
+        @Override
+        public BitSet executeBatch(List<Trace> contexts, BitSet selection) {
+            batches++;
+            BitSet status = new BitSet();
+            for (int i = selection.nextSetBit(0); i >= 0; i = selection.nextSetBit(i + 1)) {
+                if (execute(contexts.get(i))) {
+                    status.set(i);
+                }
+            }
+            return status;
+        }
+    }
+}
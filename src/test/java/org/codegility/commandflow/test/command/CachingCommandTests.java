@@ -0,0 +1,254 @@
+/**
+ * Copyright 2010/2011, Martin Lansler
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codegility.commandflow.test.command;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertTrue;
+import static junit.framework.Assert.fail;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.codegility.commandflow.Command;
+import org.codegility.commandflow.builder.BuilderException;
+import org.codegility.commandflow.command.CachingCommand;
+import org.codegility.commandflow.command.CommandExecutionException;
+import org.codegility.commandflow.command.TrueCommand;
+import org.junit.Test;
+
+/**
+ * Tests of {@link CachingCommand}.
+ * @author Martin Lansler
+ */
+public class CachingCommandTests {
+
+    @Test
+    public void memoizesStatus() {
+        DiscountCommand discount = new DiscountCommand();
+        CachingCommand<Order> cache = newCache(discount, "customer", null);
+        assertTrue(cache.execute(new Order("a", "eu")));
+        assertTrue(cache.execute(new Order("a", "us")));
+        assertFalse(cache.execute(new Order("b", "eu")));
+        assertFalse(cache.execute(new Order("b", "eu")));
+        assertEquals(2, discount.calls.get());
+        assertEquals(2, cache.getHitCount());
+        assertEquals(2, cache.getMissCount());
+        assertEquals(0.5, cache.getHitRate());
+        assertEquals(2, cache.getSize());
+    }
+
+    @Test
+    public void compositeKey() {
+        DiscountCommand discount = new DiscountCommand();
+        CachingCommand<Order> cache = newCache(discount, "customer, region", null);
+        cache.execute(new Order("a", "eu"));
+        cache.execute(new Order("a", "us"));
+        cache.execute(new Order("a", "eu"));
+        assertEquals(2, discount.calls.get());
+    }
+
+    @Test
+    public void replaysCapturedProperties() {
+        DiscountCommand discount = new DiscountCommand();
+        CachingCommand<Order> cache = newCache(discount, "customer", "discount");
+        Order first = new Order("a", "eu");
+        assertTrue(cache.execute(first));
+        assertEquals(10, first.getDiscount());
+        Order second = new Order("a", "eu");
+        assertTrue(cache.execute(second));
+        assertEquals(10, second.getDiscount());
+        assertEquals(1, discount.calls.get());
+    }
+
+    @Test
+    public void mapContext() {
+        final AtomicInteger calls = new AtomicInteger();
+        Command<Map<String, Object>> command = new Command<Map<String, Object>>() {
+            @Override
+            public boolean execute(Map<String, Object> context) {
+                calls.incrementAndGet();
+                context.put("result", "computed " + context.get("input"));
+                return true;
+            }
+        };
+        CachingCommand<Map<String, Object>> cache = new CachingCommand<Map<String, Object>>();
+        cache.setKey("input");
+        cache.setCapture("result");
+        cache.add(command);
+        cache.init();
+        for (int i = 0; i < 3; i++) {
+            Map<String, Object> context = new HashMap<String, Object>();
+            context.put("input", "x");
+            assertTrue(cache.execute(context));
+            assertEquals("computed x", context.get("result"));
+        }
+        assertEquals(1, calls.get());
+    }
+
+    @Test
+    public void boundedSize() {
+        DiscountCommand discount = new DiscountCommand();
+        CachingCommand<Order> cache = newCache(discount, "customer", null);
+        cache.setMaxSize(16);
+        cache.init();
+        for (int i = 0; i < 100; i++) {
+            cache.execute(new Order("c" + i, "eu"));
+        }
+        assertTrue(cache.getSize() <= 16);
+        assertEquals(100 - cache.getSize(), cache.getEvictionCount());
+        // the most recently used entry is kept
+        cache.execute(new Order("c99", "eu"));
+        assertEquals(100, discount.calls.get());
+    }
+
+    @Test
+    public void expiry() throws Exception {
+        DiscountCommand discount = new DiscountCommand();
+        CachingCommand<Order> cache = newCache(discount, "customer", null);
+        cache.setTtl(20);
+        cache.execute(new Order("a", "eu"));
+        cache.execute(new Order("a", "eu"));
+        assertEquals(1, discount.calls.get());
+        Thread.sleep(50);
+        cache.execute(new Order("a", "eu"));
+        assertEquals(2, discount.calls.get());
+    }
+
+    @Test
+    public void exceptionNotCached() {
+        final AtomicInteger calls = new AtomicInteger();
+        CachingCommand<Order> cache = newCache(new Command<Order>() {
+            @Override
+            public boolean execute(Order context) {
+                calls.incrementAndGet();
+                throw new IllegalStateException();
+            }
+        }, "customer", null);
+        for (int i = 0; i < 2; i++) {
+            try {
+                cache.execute(new Order("a", "eu"));
+                fail("Expected exception");
+            } catch (IllegalStateException e) {
+                // expected
+            }
+        }
+        assertEquals(2, calls.get());
+        assertEquals(0, cache.getSize());
+    }
+
+    @Test
+    public void nestedCapture() {
+        final AtomicInteger calls = new AtomicInteger();
+        CachingCommand<Map<String, Object>> cache = new CachingCommand<Map<String, Object>>();
+        cache.setKey("order.customer");
+        cache.setCapture("order.discount, totals.sum");
+        cache.add(new Command<Map<String, Object>>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public boolean execute(Map<String, Object> context) {
+                calls.incrementAndGet();
+                ((Order) context.get("order")).setDiscount(10);
+                ((Map<String, Object>) context.get("totals")).put("sum", 42);
+                return true;
+            }
+        });
+        cache.init();
+        assertTrue(cache.execute(newNestedContext()));
+        Map<String, Object> context = newNestedContext();
+        assertTrue(cache.execute(context));
+        assertEquals(1, calls.get());
+        assertEquals(10, ((Order) context.get("order")).getDiscount());
+        assertEquals(42, ((Map<?, ?>) context.get("totals")).get("sum"));
+        assertFalse(context.containsKey("order.discount"));
+    }
+
+    @Test(expected = CommandExecutionException.class)
+    public void unknownKeyProperty() {
+        newCache(new DiscountCommand(), "unknown", null).execute(new Order("a", "eu"));
+    }
+
+    @Test(expected = BuilderException.class)
+    public void keyRequired() {
+        CachingCommand<Object> cache = new CachingCommand<Object>();
+        cache.add(TrueCommand.getInstance());
+        cache.init();
+    }
+
+    private Map<String, Object> newNestedContext() {
+        Map<String, Object> context = new HashMap<String, Object>();
+        context.put("order", new Order("a", "eu"));
+        context.put("totals", new HashMap<String, Object>());
+        return context;
+    }
+
+    private CachingCommand<Order> newCache(Command<Order> command, String key, String capture) {
+        CachingCommand<Order> cache = new CachingCommand<Order>();
+        cache.setKey(key);
+        cache.setCapture(capture);
+        cache.add(command);
+        cache.init();
+        return cache;
+    }
+
+    /**
+     * Grants a discount to customer "a".
+     */
+    private static class DiscountCommand implements Command<Order> {
+        private final AtomicInteger calls = new AtomicInteger();
+
+        @Override
+        public boolean execute(Order context) {
+            calls.incrementAndGet();
+            if ("a".equals(context.getCustomer())) {
+                context.setDiscount(10);
+                return true;
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Test context.
+     */
+    public static class Order {
+        private final String customer;
+        private final String region;
+        private int discount;
+
+        Order(String customer, String region) {
+            this.customer = customer;
+            this.region = region;
+        }
+
+        public String getCustomer() {
+            return customer;
+        }
+
+        public String getRegion() {
+            return region;
+        }
+
+        public int getDiscount() {
+            return discount;
+        }
+
+        public void setDiscount(int discount) {
+            this.discount = discount;
+        }
+    }
+}
@@ -0,0 +1,252 @@
+/**
+ * Copyright 2010/2011, Martin Lansler
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codegility.commandflow.test.command;
+
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertNotNull;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertSame;
+import static junit.framework.Assert.assertTrue;
+import static junit.framework.Assert.fail;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.codegility.commandflow.Command;
+import org.codegility.commandflow.catalog.DefaultCommandCatalog;
+import org.codegility.commandflow.command.CancellationToken;
+import org.codegility.commandflow.command.CommandCancelledException;
+import org.codegility.commandflow.command.CommandTask;
+import org.codegility.commandflow.command.ExecutionScope;
+import org.codegility.commandflow.command.ParallelCommand;
+import org.codegility.commandflow.command.ParallelOrCommand;
+import org.codegility.commandflow.command.TrueCommand;
+import org.codegility.commandflow.command.WhileCommand;
+import org.codegility.commandflow.compiler.BytecodeFlowCompiler;
+import org.codegility.commandflow.compiler.FlowCompiler;
+import org.codegility.commandflow.compiler.InstructionFlowCompiler;
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Tests of the co-operative cancellation of flows via {@link CancellationToken}.
+ * @author Martin Lansler
+ */
+public class CancellationTests {
+    private ExecutorService executor = Executors.newCachedThreadPool();
+
+    @After
+    public void shutdown() {
+        executor.shutdownNow();
+        assertNull(ExecutionScope.current());
+    }
+
+    @Test
+    public void linkedToken() {
+        CancellationToken parent = new CancellationToken();
+        CancellationToken child = new CancellationToken(parent);
+        assertFalse(child.isCancelled());
+        child.cancel();
+        assertTrue(child.isCancelled());
+        assertFalse(parent.isCancelled());
+        child = new CancellationToken(parent);
+        parent.cancel();
+        assertTrue(child.isCancelled());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void scopeCancelled() throws Exception {
+        for (Command<Object> loop : Arrays.asList(newEndlessLoop(), compile(new InstructionFlowCompiler<Object>()), compile(new BytecodeFlowCompiler<Object>()))) {
+            final CancellationToken token = new CancellationToken();
+            TrackedCommand tracked = new TrackedCommand(loop);
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    token.cancel();
+                }
+            });
+            ExecutionScope scope = ExecutionScope.enter(token);
+            try {
+                tracked.execute(null);
+                fail("Expected cancellation");
+            } catch (CommandCancelledException e) {
+                // expected
+            } finally {
+                scope.exit();
+            }
+        }
+    }
+
+    @Test
+    public void asyncExecutionCancelledViaFuture() throws Exception {
+        ExecutorService single = Executors.newSingleThreadExecutor();
+        try {
+            DefaultCommandCatalog<Object> catalog = new DefaultCommandCatalog<Object>();
+            TrackedCommand loop = new TrackedCommand(newEndlessLoop());
+            catalog.addCommand("loop", loop);
+            catalog.addCommand("true", TrueCommand.getInstance());
+            Future<Boolean> future = catalog.executeAsync("loop", null, single);
+            loop.awaitStarted();
+            // not interrupted, the loop must observe the token
+            assertTrue(future.cancel(false));
+            loop.awaitStopped();
+            assertTrue(future.isCancelled());
+            // the thread is released
+            assertTrue(catalog.executeAsync("true", null, single).get(10, TimeUnit.SECONDS));
+        } finally {
+            single.shutdownNow();
+        }
+    }
+
+    @Test
+    public void cancellationPropagatedToForkedCommands() throws Exception {
+        DefaultCommandCatalog<Object> catalog = new DefaultCommandCatalog<Object>();
+        TrackedCommand first = new TrackedCommand(newEndlessLoop()), second = new TrackedCommand(newEndlessLoop());
+        ParallelCommand<Object> parallel = new ParallelCommand<Object>();
+        parallel.setExecutor(executor);
+        catalog.addCommand("parallel", parallel.add(first).add(second));
+        Future<Boolean> future = catalog.executeAsync("parallel", null, executor);
+        first.awaitStarted();
+        second.awaitStarted();
+        future.cancel(false);
+        first.awaitStopped();
+        second.awaitStopped();
+        try {
+            future.get();
+            fail("Expected cancellation");
+        } catch (CancellationException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void scopesBoundPerThread() throws Exception {
+        final List<ExecutionScope> scopes = new CopyOnWriteArrayList<ExecutionScope>();
+        Command<Object> command = new Command<Object>() {
+            @Override
+            public boolean execute(Object context) {
+                scopes.add(ExecutionScope.current());
+                return true;
+            }
+        };
+        // a plain task binds a scope holding its token, it is not seen by the creating thread
+        CommandTask<Object> task = new CommandTask<Object>(command, null);
+        executor.execute(task);
+        assertTrue(task.get());
+        assertNull(ExecutionScope.current());
+        assertFalse(scopes.get(0).hasDeadline());
+        assertSame(task.getCancellationToken(), scopes.get(0).getCancellationToken());
+        scopes.clear();
+
+        CancellationToken token = new CancellationToken();
+        ExecutionScope scope = ExecutionScope.enter(token);
+        try {
+            task = new CommandTask<Object>(command, null);
+        } finally {
+            scope.exit();
+        }
+        executor.execute(task);
+        assertTrue(task.get());
+        assertNotNull(scopes.get(0));
+        token.cancel();
+        assertTrue(scopes.get(0).isCancelled());
+    }
+
+    @Test
+    public void parallelOrCancelsSiblings() throws Exception {
+        TrackedCommand loop = new TrackedCommand(newEndlessLoop());
+        ParallelOrCommand<Object> or = new ParallelOrCommand<Object>();
+        or.setExecutor(executor);
+        assertTrue(or.add(loop).add(loop.afterStarted(true)).execute(null));
+        // the loop does not respond to interruption, it must observe the token
+        loop.awaitStopped();
+    }
+
+    private Command<Object> compile(FlowCompiler<Object> compiler) throws Exception {
+        return compiler.compile(newEndlessLoop());
+    }
+
+    private Command<Object> newEndlessLoop() {
+        WhileCommand<Object> loop = new WhileCommand<Object>();
+        loop.add(TrueCommand.getInstance()).add(new CounterCommand<Object>().alwaysTrue());
+        try {
+            loop.init();
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+        return loop;
+    }
+
+    /**
+     * Command signalling when the wrapped command has started and stopped.
+     */
+    private static class TrackedCommand implements Command<Object> {
+        private final Command<Object> command;
+        private final CountDownLatch started = new CountDownLatch(1);
+        private final CountDownLatch stopped = new CountDownLatch(1);
+
+        TrackedCommand(Command<Object> command) {
+            this.command = command;
+        }
+
+        @Override
+        public boolean execute(Object context) {
+            started.countDown();
+            try {
+                return command.execute(context);
+            } finally {
+                stopped.countDown();
+            }
+        }
+
+        /**
+         * @return a command returning the given status once this command has started
+         */
+        Command<Object> afterStarted(final boolean status) {
+            return new Command<Object>() {
+                @Override
+                public boolean execute(Object context) {
+                    awaitStarted();
+                    return status;
+                }
+            };
+        }
+
+        void awaitStarted() {
+            await(started);
+        }
+
+        void awaitStopped() {
+            await(stopped);
+        }
+
+        private void await(CountDownLatch latch) {
+            try {
+                assertTrue(latch.await(10, TimeUnit.SECONDS));
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+}
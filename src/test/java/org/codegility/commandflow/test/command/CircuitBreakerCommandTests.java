@@ -0,0 +1,229 @@
+/**
+ * Copyright 2010/2011, Martin Lansler
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codegility.commandflow.test.command;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertTrue;
+import static junit.framework.Assert.fail;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.codegility.commandflow.Command;
+import org.codegility.commandflow.builder.BuilderException;
+import org.codegility.commandflow.builder.DefaultCommandBuilder;
+import org.codegility.commandflow.catalog.DefaultCommandCatalog;
+import org.codegility.commandflow.command.CircuitBreakerCommand;
+import org.codegility.commandflow.command.CircuitBreakerCommand.State;
+import org.codegility.commandflow.command.FalseCommand;
+import org.codegility.commandflow.command.NotCommand;
+import org.codegility.commandflow.command.TrueCommand;
+import org.junit.Test;
+
+/**
+ * Tests of {@link CircuitBreakerCommand}.
+ * @author Martin Lansler
+ */
+public class CircuitBreakerCommandTests {
+
+    @Test
+    public void closed() {
+        FlakyCommand flaky = new FlakyCommand();
+        CircuitBreakerCommand<Object> breaker = newCircuitBreaker(flaky);
+        for (int i = 0; i < 10; i++) {
+            assertTrue(breaker.execute(null));
+        }
+        assertEquals(10, flaky.calls.get());
+        assertEquals(State.CLOSED, breaker.getState());
+        assertEquals(10, breaker.getCallCount());
+        assertEquals(0.0, breaker.getFailureRate());
+    }
+
+    @Test
+    public void opensAtFailureRate() {
+        FlakyCommand flaky = new FlakyCommand();
+        CircuitBreakerCommand<Object> breaker = newCircuitBreaker(flaky);
+        assertTrue(breaker.execute(null));
+        flaky.failing = true;
+        executeFailing(breaker, 2);
+        // 2 of 3 calls failed but the minimum of 4 calls is not reached
+        assertEquals(State.CLOSED, breaker.getState());
+        executeFailing(breaker, 1);
+        assertEquals(State.OPEN, breaker.getState());
+        assertEquals(1, breaker.getOpenCount());
+        assertEquals(75.0, breaker.getFailureRate());
+        // short-circuits without executing the wrapped command
+        assertFalse(breaker.execute(null));
+        assertEquals(4, flaky.calls.get());
+        assertEquals(1, breaker.getShortCircuitCount());
+    }
+
+    @Test
+    public void fallbackWhileOpen() {
+        FlakyCommand flaky = new FlakyCommand();
+        flaky.failing = true;
+        CounterCommand<Object> fallback = new CounterCommand<Object>();
+        CircuitBreakerCommand<Object> breaker = newCircuitBreaker(flaky, fallback.alwaysTrue());
+        executeFailing(breaker, 4);
+        assertTrue(breaker.execute(null));
+        assertEquals(1, fallback.getCount());
+        assertEquals(4, flaky.calls.get());
+    }
+
+    @Test
+    public void compositeFallbackInitializedByBuilder() {
+        FlakyCommand flaky = new FlakyCommand();
+        flaky.failing = true;
+        CircuitBreakerCommand<Object> breaker = new CircuitBreakerCommand<Object>();
+        breaker.setMinimumCalls(1);
+        breaker.setOpenMillis(60000);
+        breaker.add(flaky).add(new NotCommand<Object>().add(FalseCommand.getInstance()));
+        DefaultCommandCatalog<Object> catalog = new DefaultCommandCatalog<Object>();
+        catalog.addCommand("breaker", breaker);
+        new DefaultCommandBuilder<Object>(catalog).make();
+        executeFailing(breaker, 1);
+        assertEquals(State.OPEN, breaker.getState());
+        assertTrue(catalog.execute("breaker", null));
+        assertEquals(1, flaky.calls.get());
+        assertEquals(2, breaker.getCommands().size());
+    }
+
+    @Test
+    public void halfOpenProbe() throws Exception {
+        FlakyCommand flaky = new FlakyCommand();
+        flaky.failing = true;
+        CircuitBreakerCommand<Object> breaker = newCircuitBreaker(flaky);
+        breaker.setOpenMillis(20);
+        executeFailing(breaker, 4);
+        assertEquals(State.OPEN, breaker.getState());
+        Thread.sleep(50);
+        // failed probe opens the circuit again
+        executeFailing(breaker, 1);
+        assertEquals(State.OPEN, breaker.getState());
+        assertEquals(2, breaker.getOpenCount());
+        assertFalse(breaker.execute(null));
+        assertEquals(5, flaky.calls.get());
+        Thread.sleep(50);
+        // successful probe closes the circuit
+        flaky.failing = false;
+        assertTrue(breaker.execute(null));
+        assertEquals(State.CLOSED, breaker.getState());
+        assertEquals(0, breaker.getCallCount());
+        assertTrue(breaker.execute(null));
+        assertEquals(7, flaky.calls.get());
+    }
+
+    @Test
+    public void slowCallsAreFailures() {
+        FlakyCommand flaky = new FlakyCommand();
+        flaky.sleepMillis = 5;
+        CircuitBreakerCommand<Object> breaker = newCircuitBreaker(flaky);
+        breaker.setSlowCallMillis(1);
+        for (int i = 0; i < 4; i++) {
+            assertTrue(breaker.execute(null));
+        }
+        assertEquals(State.OPEN, breaker.getState());
+        assertEquals(4, breaker.getSlowCallCount());
+        assertEquals(0, breaker.getFailureCount());
+    }
+
+    @Test
+    public void windowSlides() throws Exception {
+        FlakyCommand flaky = new FlakyCommand();
+        flaky.failing = true;
+        CircuitBreakerCommand<Object> breaker = new CircuitBreakerCommand<Object>();
+        breaker.setMinimumCalls(4);
+        breaker.setWindowMillis(50);
+        breaker.add(flaky);
+        breaker.init();
+        executeFailing(breaker, 3);
+        Thread.sleep(100);
+        assertEquals(0, breaker.getCallCount());
+        executeFailing(breaker, 1);
+        assertEquals(State.CLOSED, breaker.getState());
+    }
+
+    @Test
+    public void reset() {
+        FlakyCommand flaky = new FlakyCommand();
+        flaky.failing = true;
+        CircuitBreakerCommand<Object> breaker = newCircuitBreaker(flaky);
+        executeFailing(breaker, 4);
+        assertEquals(State.OPEN, breaker.getState());
+        breaker.reset();
+        assertEquals(State.CLOSED, breaker.getState());
+        assertEquals(0, breaker.getCallCount());
+    }
+
+    @Test(expected = BuilderException.class)
+    public void tooManyCommands() {
+        CircuitBreakerCommand<Object> breaker = new CircuitBreakerCommand<Object>();
+        breaker.add(TrueCommand.getInstance()).add(TrueCommand.getInstance()).add(TrueCommand.getInstance());
+        breaker.init();
+    }
+
+    private CircuitBreakerCommand<Object> newCircuitBreaker(Command<Object> command) {
+        return newCircuitBreaker(command, null);
+    }
+
+    private CircuitBreakerCommand<Object> newCircuitBreaker(Command<Object> command, Command<Object> fallback) {
+        CircuitBreakerCommand<Object> breaker = new CircuitBreakerCommand<Object>();
+        breaker.setMinimumCalls(4);
+        breaker.setOpenMillis(60000);
+        breaker.add(command);
+        if (fallback != null) {
+            breaker.add(fallback);
+        }
+        breaker.init();
+        return breaker;
+    }
+
+    private void executeFailing(CircuitBreakerCommand<Object> breaker, int times) {
+        for (int i = 0; i < times; i++) {
+            try {
+                breaker.execute(null);
+                fail("Expected failure");
+            } catch (IllegalStateException e) {
+                // expected
+            }
+        }
+    }
+
+    /**
+     * Command that fails or is slow on demand.
+     */
+    private static class FlakyCommand implements Command<Object> {
+        private final AtomicInteger calls = new AtomicInteger();
+        private volatile boolean failing;
+        private volatile long sleepMillis;
+
+        @Override
+        public boolean execute(Object context) {
+            calls.incrementAndGet();
+            if (sleepMillis > 0) {
+                try {
+                    Thread.sleep(sleepMillis);
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+            if (failing) {
+                throw new IllegalStateException("failing");
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,255 @@
+/**
+ * Copyright 2010/2011, Martin Lansler
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codegility.commandflow.test.command;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertTrue;
+import static junit.framework.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.codegility.commandflow.Command;
+import org.codegility.commandflow.builder.BuilderException;
+import org.codegility.commandflow.command.CommandExecutionException;
+import org.codegility.commandflow.command.ForEachCommand;
+import org.codegility.commandflow.command.TrueCommand;
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Tests of {@link ForEachCommand}.
+ * @author Martin Lansler
+ */
+public class ForEachCommandTests {
+    private ExecutorService executor = Executors.newCachedThreadPool();
+
+    @After
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void serial() {
+        ForEachCommand<Map<String, Object>> forEach = newForEach(new SquareCommand(), 1);
+        Map<String, Object> context = newContext(1, 2, 3);
+        assertTrue(forEach.execute(context));
+        assertEquals(Arrays.asList(1, 4, 9), context.get("squares"));
+        assertFalse(context.containsKey("square"));
+    }
+
+    @Test
+    public void parallel() {
+        final CyclicBarrier barrier = new CyclicBarrier(4);
+        ForEachCommand<Map<String, Object>> forEach = newForEach(new Command<Map<String, Object>>() {
+            @Override
+            public boolean execute(Map<String, Object> context) {
+                try {
+                    // only passes if all four elements are executed concurrently
+                    barrier.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    return false;
+                } catch (BrokenBarrierException e) {
+                    return false;
+                } catch (TimeoutException e) {
+                    return false;
+                }
+                return new SquareCommand().execute(context);
+            }
+        }, 4);
+        Map<String, Object> context = newContext(1, 2, 3, 4);
+        assertTrue(forEach.execute(context));
+        assertEquals(Arrays.asList(1, 4, 9, 16), context.get("squares"));
+    }
+
+    @Test
+    public void unordered() {
+        ForEachCommand<Map<String, Object>> forEach = newForEach(new SquareCommand(), 3);
+        forEach.setOrdered(false);
+        Integer[] values = new Integer[100];
+        List<Integer> expected = new ArrayList<Integer>();
+        for (int i = 0; i < values.length; i++) {
+            values[i] = i + 1;
+            expected.add((i + 1) * (i + 1));
+        }
+        Map<String, Object> context = newContext(values);
+        assertTrue(forEach.execute(context));
+        @SuppressWarnings("unchecked")
+        List<Integer> squares = new ArrayList<Integer>((List<Integer>) context.get("squares"));
+        Collections.sort(squares);
+        assertEquals(expected, squares);
+    }
+
+    @Test
+    public void status() {
+        ForEachCommand<Map<String, Object>> forEach = newForEach(new SquareCommand(), 2);
+        assertFalse(forEach.execute(newContext(1, -2, 3)));
+        assertFalse(forEach.execute(newContext()));
+        Map<String, Object> context = new HashMap<String, Object>();
+        assertFalse(forEach.execute(context));
+        assertEquals(Collections.emptyList(), context.get("squares"));
+    }
+
+    @Test
+    public void cloneableContext() {
+        ForEachCommand<Invoice> forEach = new ForEachCommand<Invoice>();
+        forEach.setItems("order.lines");
+        forEach.setVar("line");
+        forEach.setParallelism(2);
+        final List<String> lines = Collections.synchronizedList(new ArrayList<String>());
+        forEach.add(new Command<Invoice>() {
+            @Override
+            public boolean execute(Invoice context) {
+                lines.add(context.getLine());
+                return true;
+            }
+        });
+        forEach.init();
+        Invoice invoice = new Invoice();
+        invoice.setOrder(new Order(new String[] { "a", "b", "c" }));
+        assertTrue(forEach.execute(invoice));
+        assertEquals(new HashSet<String>(Arrays.asList("a", "b", "c")), new HashSet<String>(lines));
+        assertEquals(null, invoice.getLine());
+    }
+
+    @Test
+    public void failure() {
+        ForEachCommand<Map<String, Object>> forEach = newForEach(new Command<Map<String, Object>>() {
+            @Override
+            public boolean execute(Map<String, Object> context) {
+                if (((Integer) context.get("value")) == 3) {
+                    throw new IllegalStateException("failed");
+                }
+                return true;
+            }
+        }, 2);
+        Map<String, Object> context = newContext(1, 2, 3, 4, 5);
+        try {
+            forEach.execute(context);
+            fail();
+        } catch (IllegalStateException e) {
+            assertEquals("failed", e.getMessage());
+        }
+        assertFalse(context.containsKey("squares"));
+    }
+
+    @Test
+    public void requiresContextCopy() {
+        ForEachCommand<Order> forEach = new ForEachCommand<Order>();
+        forEach.setItems("lines");
+        forEach.setVar("line");
+        forEach.add(TrueCommand.<Order> getInstance());
+        forEach.init();
+        try {
+            forEach.execute(new Order(new String[] { "a" }));
+            fail();
+        } catch (CommandExecutionException e) {
+            // expected, neither a map nor cloneable
+        }
+    }
+
+    @Test(expected = BuilderException.class)
+    public void requiresItems() {
+        ForEachCommand<Object> forEach = new ForEachCommand<Object>();
+        forEach.add(TrueCommand.getInstance());
+        forEach.init();
+    }
+
+    private ForEachCommand<Map<String, Object>> newForEach(Command<Map<String, Object>> command, int parallelism) {
+        ForEachCommand<Map<String, Object>> forEach = new ForEachCommand<Map<String, Object>>();
+        forEach.setItems("values");
+        forEach.setVar("value");
+        forEach.setResult("square");
+        forEach.setResults("squares");
+        forEach.setParallelism(parallelism);
+        forEach.setExecutor(executor);
+        forEach.add(command);
+        forEach.init();
+        return forEach;
+    }
+
+    private Map<String, Object> newContext(Integer... values) {
+        Map<String, Object> context = new HashMap<String, Object>();
+        context.put("values", values);
+        return context;
+    }
+
+    /**
+     * Squares the value, the command status is <code>true</code> if the value is positive.
+     */
+    private static class SquareCommand implements Command<Map<String, Object>> {
+        @Override
+        public boolean execute(Map<String, Object> context) {
+            int value = (Integer) context.get("value");
+            context.put("square", value * value);
+            return value > 0;
+        }
+    }
+
+    public static class Order {
+        private final List<String> lines;
+
+        public Order(String[] lines) {
+            this.lines = Arrays.asList(lines);
+        }
+
+        public List<String> getLines() {
+            return lines;
+        }
+    }
+
+    public static class Invoice implements Cloneable {
+        private Order order;
+        private String line;
+
+        public Order getOrder() {
+            return order;
+        }
+
+        public void setOrder(Order order) {
+            this.order = order;
+        }
+
+        public String getLine() {
+            return line;
+        }
+
+        public void setLine(String line) {
+            this.line = line;
+        }
+
+        @Override
+        public Invoice clone() {
+            try {
+                return (Invoice) super.clone();
+            } catch (CloneNotSupportedException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,174 @@
+/**
+ * Copyright 2010/2011, Martin Lansler
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codegility.commandflow.test.command;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+import static junit.framework.Assert.fail;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.codegility.commandflow.Command;
+import org.codegility.commandflow.command.HedgedCommand;
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Tests of {@link HedgedCommand}.
+ * @author Martin Lansler
+ */
+public class HedgedCommandTests {
+    private ExecutorService executor = Executors.newCachedThreadPool();
+
+    @After
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void fastExecutionNotHedged() {
+        CounterCommand<Object> counter = new CounterCommand<Object>();
+        HedgedCommand<Object> hedged = newHedged(counter.alwaysTrue(), 10000);
+        for (int i = 0; i < 10; i++) {
+            assertTrue(hedged.execute(null));
+        }
+        assertEquals(10, counter.getCount());
+        assertEquals(10, hedged.getExecutionCount());
+        assertEquals(0, hedged.getHedgeCount());
+    }
+
+    @Test
+    public void slowExecutionHedged() throws Exception {
+        final CountDownLatch interrupted = new CountDownLatch(1);
+        final AtomicInteger calls = new AtomicInteger();
+        HedgedCommand<Object> hedged = newHedged(new Command<Object>() {
+            @Override
+            public boolean execute(Object context) {
+                if (calls.incrementAndGet() == 1) {
+                    try {
+                        Thread.sleep(TimeUnit.SECONDS.toMillis(30));
+                    } catch (InterruptedException e) {
+                        interrupted.countDown();
+                    }
+                    return false;
+                }
+                return true;
+            }
+        }, 10);
+        long start = System.nanoTime();
+        assertTrue(hedged.execute(null));
+        assertTrue(TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - start) < 5);
+        assertEquals(1, hedged.getHedgeCount());
+        assertEquals(1, hedged.getHedgeWinCount());
+        // the losing execution is cancelled
+        assertTrue(interrupted.await(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void failedExecutionWaitsForOther() {
+        final AtomicInteger calls = new AtomicInteger();
+        HedgedCommand<Object> hedged = newHedged(new Command<Object>() {
+            @Override
+            public boolean execute(Object context) {
+                if (calls.incrementAndGet() == 1) {
+                    sleep(50);
+                    throw new IllegalStateException("first");
+                }
+                sleep(100);
+                return true;
+            }
+        }, 10);
+        assertTrue(hedged.execute(null));
+        assertEquals(1, hedged.getHedgeWinCount());
+    }
+
+    @Test
+    public void bothExecutionsFail() {
+        HedgedCommand<Object> hedged = newHedged(new Command<Object>() {
+            @Override
+            public boolean execute(Object context) {
+                sleep(20);
+                throw new IllegalStateException("failed");
+            }
+        }, 0);
+        try {
+            hedged.execute(null);
+            fail("Expected exception");
+        } catch (IllegalStateException e) {
+            assertEquals("failed", e.getMessage());
+        }
+        assertEquals(1, hedged.getHedgeCount());
+    }
+
+    @Test
+    public void percentileDelay() {
+        HedgedCommand<Object> hedged = newHedged(new CounterCommand<Object>().alwaysTrue(), 10000);
+        hedged.setPercentile(95);
+        assertEquals(10000.0, hedged.getCurrentDelayMillis());
+        for (int i = 0; i < 128; i++) {
+            hedged.execute(null);
+        }
+        assertTrue(hedged.getCurrentDelayMillis() < 10000.0);
+        assertEquals(128, hedged.getLatency().getCount());
+    }
+
+    @Test
+    public void percentileDelayFollowsLatency() {
+        final AtomicInteger sleepMillis = new AtomicInteger(10);
+        HedgedCommand<Object> hedged = newHedged(new Command<Object>() {
+            public boolean execute(Object context) {
+                try {
+                    Thread.sleep(sleepMillis.get());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return true;
+            }
+        }, 10000);
+        hedged.setPercentile(50);
+        for (int i = 0; i < 128; i++) {
+            hedged.execute(null);
+        }
+        assertTrue(hedged.getCurrentDelayMillis() >= 5.0);
+        sleepMillis.set(0);
+        for (int i = 0; i < 2048; i++) {
+            hedged.execute(null);
+        }
+        assertTrue(hedged.getCurrentDelayMillis() < 5.0);
+        assertTrue(hedged.getLatency().getCount() <= 1024);
+    }
+
+    private HedgedCommand<Object> newHedged(Command<Object> command, long delayMillis) {
+        HedgedCommand<Object> hedged = new HedgedCommand<Object>();
+        hedged.setExecutor(executor);
+        hedged.setDelayMillis(delayMillis);
+        hedged.add(command);
+        hedged.init();
+        return hedged;
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
@@ -0,0 +1,257 @@
+/**
+ * Copyright 2010/2011, Martin Lansler
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codegility.commandflow.test.command;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertTrue;
+import static junit.framework.Assert.fail;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.codegility.commandflow.Command;
+import org.codegility.commandflow.command.AbstractParallelCommand;
+import org.codegility.commandflow.command.ParallelAndCommand;
+import org.codegility.commandflow.command.ParallelCommand;
+import org.codegility.commandflow.command.ParallelOrCommand;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests of {@link ParallelCommand}, {@link ParallelAndCommand} and {@link ParallelOrCommand}.
+ * @author Martin Lansler
+ */
+public class ParallelCommandTests {
+    private ExecutorService executor;
+
+    @Before
+    public void init() {
+        executor = Executors.newFixedThreadPool(4);
+    }
+
+    @After
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private ParallelCommand<Object> newParallel() {
+        return withExecutor(new ParallelCommand<Object>());
+    }
+
+    private <T extends AbstractParallelCommand<Object>> T withExecutor(T parallel) {
+        parallel.setExecutor(executor);
+        return parallel;
+    }
+
+    @Test
+    public void emptyParallel() {
+        assertFalse(newParallel().execute(null));
+    }
+
+    @Test
+    public void statusAggregation() {
+        Boolean[][] cases = { { true, true, true }, { true, false, true }, { false, true, true }, { false, false, false } };
+        boolean[] asserts = { true, false, false, false };
+        for (int i = 0; i < cases.length; i++) {
+            ParallelCommand<Object> parallel = newParallel();
+            CounterCommand<Object>[] counters = newCounters(cases[i].length);
+            for (int j = 0; j < cases[i].length; j++) {
+                parallel.add(counters[j].always(cases[i][j]));
+            }
+            assertEquals(asserts[i], parallel.execute(null));
+            for (CounterCommand<Object> counter : counters) {
+                assertEquals(1, counter.getCount());
+            }
+        }
+    }
+
+    @Test
+    public void executesConcurrently() {
+        final CountDownLatch latch = new CountDownLatch(3);
+        Command<Object> await = new Command<Object>() {
+            @Override
+            public boolean execute(Object context) {
+                latch.countDown();
+                try {
+                    return latch.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        };
+        assertTrue(newParallel().add(await).add(await).add(await).execute(null));
+    }
+
+    @Test
+    public void callerExecutesRejectedCommands() {
+        ParallelCommand<Object> parallel = new ParallelCommand<Object>();
+        parallel.setExecutor(new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                throw new RejectedExecutionException();
+            }
+        });
+        CounterCommand<Object>[] counters = newCounters(3);
+        for (CounterCommand<Object> counter : counters) {
+            parallel.add(counter.alwaysTrue());
+        }
+        assertTrue(parallel.execute(null));
+        for (CounterCommand<Object> counter : counters) {
+            assertEquals(1, counter.getCount());
+        }
+    }
+
+    @Test
+    public void exceptionPropagatedAfterAllCommandsFinished() {
+        CounterCommand<Object> counter = new CounterCommand<Object>();
+        Command<Object> failing = new Command<Object>() {
+            @Override
+            public boolean execute(Object context) {
+                throw new IllegalStateException("failed");
+            }
+        };
+        try {
+            newParallel().add(counter.alwaysTrue()).add(failing).add(counter).execute(null);
+            fail("Expected exception");
+        } catch (IllegalStateException e) {
+            assertEquals("failed", e.getMessage());
+        }
+        assertEquals(2, counter.getCount());
+    }
+
+    @Test
+    public void parallelAndCommand() {
+        assertFalse(withExecutor(new ParallelAndCommand<Object>()).execute(null));
+        assertTrue(withExecutor(new ParallelAndCommand<Object>()).add(new CounterCommand<Object>().alwaysTrue()).add(new CounterCommand<Object>().alwaysTrue()).execute(null));
+        //
+        InterruptibleCommand slow = new InterruptibleCommand();
+        long start = System.nanoTime();
+        assertFalse(withExecutor(new ParallelAndCommand<Object>()).add(slow).add(slow.afterStarted(false)).execute(null));
+        assertTrue(TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - start) < 5);
+        assertTrue(slow.awaitInterrupted());
+    }
+
+    @Test
+    public void parallelOrCommand() {
+        assertFalse(withExecutor(new ParallelOrCommand<Object>()).execute(null));
+        assertFalse(withExecutor(new ParallelOrCommand<Object>()).add(new CounterCommand<Object>().alwaysFalse()).add(new CounterCommand<Object>().alwaysFalse()).execute(null));
+        //
+        InterruptibleCommand slow = new InterruptibleCommand();
+        long start = System.nanoTime();
+        assertTrue(withExecutor(new ParallelOrCommand<Object>()).add(slow).add(slow.afterStarted(true)).execute(null));
+        assertTrue(TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - start) < 5);
+        assertTrue(slow.awaitInterrupted());
+    }
+
+    @Test
+    public void parallelOrCallerExecutesRejectedCommands() {
+        ParallelOrCommand<Object> or = new ParallelOrCommand<Object>();
+        or.setExecutor(new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                throw new RejectedExecutionException();
+            }
+        });
+        CounterCommand<Object> first = new CounterCommand<Object>(), second = new CounterCommand<Object>();
+        assertTrue(or.add(first.alwaysTrue()).add(second.alwaysTrue()).execute(null));
+        assertEquals(1, first.getCount());
+        assertEquals(0, second.getCount());
+    }
+
+    @Test(timeout = 10000)
+    public void nestedOnSingleThread() {
+        ExecutorService single = Executors.newSingleThreadExecutor();
+        try {
+            ParallelAndCommand<Object> and = new ParallelAndCommand<Object>();
+            ParallelOrCommand<Object> or = new ParallelOrCommand<Object>();
+            for (int i = 0; i < 2; i++) {
+                ParallelAndCommand<Object> nestedAnd = new ParallelAndCommand<Object>();
+                nestedAnd.add(new CounterCommand<Object>().alwaysTrue()).add(new CounterCommand<Object>().alwaysTrue());
+                nestedAnd.setExecutor(single);
+                and.add(nestedAnd);
+                ParallelOrCommand<Object> nestedOr = new ParallelOrCommand<Object>();
+                nestedOr.add(new CounterCommand<Object>().alwaysFalse()).add(new CounterCommand<Object>().alwaysFalse());
+                nestedOr.setExecutor(single);
+                or.add(nestedOr);
+            }
+            and.setExecutor(single);
+            or.setExecutor(single);
+            assertTrue(and.execute(null));
+            assertFalse(or.execute(null));
+        } finally {
+            single.shutdownNow();
+        }
+    }
+
+    /**
+     * Command blocking until interrupted.
+     */
+    private static class InterruptibleCommand implements Command<Object> {
+        private final CountDownLatch started = new CountDownLatch(1);
+        private final CountDownLatch interrupted = new CountDownLatch(1);
+
+        @Override
+        public boolean execute(Object context) {
+            started.countDown();
+            try {
+                Thread.sleep(TimeUnit.SECONDS.toMillis(30));
+            } catch (InterruptedException e) {
+                interrupted.countDown();
+            }
+            return true;
+        }
+
+        /**
+         * @return a command returning the given status once this command has started
+         */
+        Command<Object> afterStarted(final boolean status) {
+            return new Command<Object>() {
+                @Override
+                public boolean execute(Object context) {
+                    try {
+                        started.await(10, TimeUnit.SECONDS);
+                    } catch (InterruptedException e) {
+                        throw new RuntimeException(e);
+                    }
+                    return status;
+                }
+            };
+        }
+
+        boolean awaitInterrupted() {
+            try {
+                return interrupted.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    private CounterCommand<Object>[] newCounters(int n) {
+        CounterCommand<Object>[] counters = new CounterCommand[n];
+        for (int i = 0; i < n; i++) {
+            counters[i] = new CounterCommand<Object>();
+        }
+        return counters;
+    }
+}
@@ -0,0 +1,349 @@
+/**
+ * Copyright 2010/2011, Martin Lansler
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codegility.commandflow.test.command;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.codegility.commandflow.Command;
+import org.codegility.commandflow.builder.DefaultCommandBuilder;
+import org.codegility.commandflow.catalog.DefaultCommandCatalog;
+import org.codegility.commandflow.command.CommandExecutionException;
+import org.codegility.commandflow.command.CommandTimeoutException;
+import org.codegility.commandflow.command.CommandUtil;
+import org.codegility.commandflow.command.ExecutionScope;
+import org.codegility.commandflow.command.PipelineCommand;
+import org.codegility.commandflow.command.StageCommand;
+import org.codegility.commandflow.metrics.FlowMetrics;
+import org.codegility.commandflow.metrics.InstrumentedCommand;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests of {@link PipelineCommand}
+ * @author Martin Lansler
+ */
+public class PipelineCommandTests {
+    private ExecutorService executor;
+
+    @Before
+    public void init() {
+        executor = Executors.newCachedThreadPool();
+    }
+
+    @After
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private PipelineCommand<int[]> newPipeline() {
+        PipelineCommand<int[]> pipeline = new PipelineCommand<int[]>();
+        pipeline.setExecutor(executor);
+        pipeline.setQueueCapacity(4);
+        return pipeline;
+    }
+
+    @Test
+    public void batchPassesAllStages() {
+        PipelineCommand<int[]> pipeline = newPipeline();
+        pipeline.add(new Increment(true)).add(stage(new Increment(true), 3)).add(new Command<int[]>() {
+            @Override
+            public boolean execute(int[] context) {
+                context[0]++;
+                return context[1] % 2 == 0;
+            }
+        });
+        List<int[]> contexts = newContexts(1000);
+        BitSet status = CommandUtil.executeBatch(pipeline, contexts, all(contexts.size()));
+        for (int i = 0; i < contexts.size(); i++) {
+            assertEquals(3, contexts.get(i)[0]);
+            assertEquals(i % 2 == 0, status.get(i));
+        }
+    }
+
+    @Test
+    public void stagesExecuteConcurrently() {
+        // the second stage only completes once the first stage has processed all contexts
+        final CountDownLatch firstStageDone = new CountDownLatch(10);
+        PipelineCommand<int[]> pipeline = newPipeline();
+        pipeline.add(new Command<int[]>() {
+            @Override
+            public boolean execute(int[] context) {
+                firstStageDone.countDown();
+                return true;
+            }
+        }).add(stage(new Command<int[]>() {
+            @Override
+            public boolean execute(int[] context) {
+                try {
+                    return firstStageDone.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        }, 10));
+        List<int[]> contexts = newContexts(10);
+        assertEquals(all(10), CommandUtil.executeBatch(pipeline, contexts, all(10)));
+    }
+
+    @Test(timeout = 10000)
+    public void interruptedWorkerFailsPipeline() {
+        PipelineCommand<int[]> pipeline = newPipeline();
+        pipeline.add(new Increment(true)).add(new Command<int[]>() {
+            @Override
+            public boolean execute(int[] context) {
+                // as if the executor was shut down, the worker is interrupted while waiting for the next context
+                Thread.currentThread().interrupt();
+                return true;
+            }
+        });
+        List<int[]> contexts = newContexts(100);
+        try {
+            CommandUtil.executeBatch(pipeline, contexts, all(contexts.size()));
+            fail("Expected exception");
+        } catch (CommandExecutionException e) {
+            assertTrue(e.getCause() instanceof InterruptedException);
+        }
+    }
+
+    @Test
+    public void stageParallelism() {
+        final Set<Thread> threads = Collections.newSetFromMap(new ConcurrentHashMap<Thread, Boolean>());
+        final CountDownLatch started = new CountDownLatch(4);
+        PipelineCommand<int[]> pipeline = newPipeline();
+        pipeline.add(stage(new Command<int[]>() {
+            @Override
+            public boolean execute(int[] context) {
+                threads.add(Thread.currentThread());
+                started.countDown();
+                try {
+                    started.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+                return true;
+            }
+        }, 4));
+        List<int[]> contexts = newContexts(100);
+        assertEquals(all(100), CommandUtil.executeBatch(pipeline, contexts, all(100)));
+        assertEquals(4, threads.size());
+    }
+
+    @Test
+    public void instrumentedStageParallelism() {
+        final AtomicInteger concurrent = new AtomicInteger();
+        final AtomicInteger maxConcurrent = new AtomicInteger();
+        final CountDownLatch started = new CountDownLatch(4);
+        PipelineCommand<int[]> pipeline = newPipeline();
+        pipeline.add(stage(new Command<int[]>() {
+            @Override
+            public boolean execute(int[] context) {
+                int count = concurrent.incrementAndGet();
+                while (count > maxConcurrent.get()) {
+                    maxConcurrent.compareAndSet(maxConcurrent.get(), count);
+                }
+                started.countDown();
+                try {
+                    started.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                } finally {
+                    concurrent.decrementAndGet();
+                }
+                return true;
+            }
+        }, 4));
+        DefaultCommandCatalog<int[]> catalog = new DefaultCommandCatalog<int[]>();
+        catalog.addCommand("pipeline", pipeline);
+        new DefaultCommandBuilder<int[]>(catalog).setFlowMetrics(new FlowMetrics("test")).make();
+        assertTrue(catalog.getCommand("pipeline") instanceof InstrumentedCommand);
+        List<int[]> contexts = newContexts(100);
+        assertEquals(all(100), catalog.executeBatch("pipeline", contexts));
+        assertEquals(4, maxConcurrent.get());
+    }
+
+    @Test
+    public void stream() {
+        PipelineCommand<int[]> pipeline = newPipeline();
+        pipeline.add(new Increment(true)).add(new Increment(false));
+        final AtomicInteger accepted = new AtomicInteger();
+        pipeline.executeStream(newContexts(100).iterator(), new PipelineCommand.Sink<int[]>() {
+            @Override
+            public void accept(int[] context, boolean status) {
+                assertEquals(2, context[0]);
+                if (!status) {
+                    accepted.incrementAndGet();
+                }
+            }
+        });
+        assertEquals(100, accepted.get());
+    }
+
+    @Test
+    public void failurePropagated() {
+        PipelineCommand<int[]> pipeline = newPipeline();
+        pipeline.add(new Increment(true)).add(new Command<int[]>() {
+            @Override
+            public boolean execute(int[] context) {
+                if (context[1] == 50) {
+                    throw new IllegalStateException("failed");
+                }
+                return true;
+            }
+        });
+        List<int[]> contexts = newContexts(1000);
+        try {
+            CommandUtil.executeBatch(pipeline, contexts, all(contexts.size()));
+            fail("Expected exception");
+        } catch (IllegalStateException e) {
+            assertEquals("failed", e.getMessage());
+        }
+        // contexts after the failure are not accepted
+        assertTrue(contexts.get(contexts.size() - 1)[0] == 0);
+    }
+
+    @Test
+    public void rejectedExecutionFallsBackToSequence() {
+        PipelineCommand<int[]> pipeline = new PipelineCommand<int[]>();
+        pipeline.setExecutor(new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                throw new RejectedExecutionException();
+            }
+        });
+        pipeline.add(new Increment(true)).add(new Increment(true));
+        List<int[]> contexts = newContexts(10);
+        assertEquals(all(10), CommandUtil.executeBatch(pipeline, contexts, all(10)));
+        for (int[] context : contexts) {
+            assertEquals(2, context[0]);
+        }
+    }
+
+    @Test
+    public void unstartedWorkersFallBackToSequence() {
+        // a single thread executor queues the workers of the second stage behind the worker of the first stage
+        ExecutorService bounded = Executors.newSingleThreadExecutor();
+        try {
+            PipelineCommand<int[]> pipeline = new PipelineCommand<int[]>();
+            pipeline.setExecutor(bounded);
+            pipeline.setStartTimeout(50);
+            pipeline.add(new Increment(true)).add(new Increment(true));
+            List<int[]> contexts = newContexts(10);
+            assertEquals(all(10), CommandUtil.executeBatch(pipeline, contexts, all(10)));
+            for (int[] context : contexts) {
+                assertEquals(2, context[0]);
+            }
+        } finally {
+            bounded.shutdownNow();
+        }
+    }
+
+    @Test
+    public void blockedHandOffTimesOut() {
+        PipelineCommand<int[]> pipeline = newPipeline();
+        pipeline.setQueueCapacity(1);
+        pipeline.add(new Increment(true)).add(new Command<int[]>() {
+            @Override
+            public boolean execute(int[] context) {
+                try {
+                    Thread.sleep(10000);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return true;
+            }
+        });
+        List<int[]> contexts = newContexts(10);
+        long start = System.nanoTime();
+        ExecutionScope scope = ExecutionScope.enter(100, TimeUnit.MILLISECONDS);
+        try {
+            CommandUtil.executeBatch(pipeline, contexts, all(contexts.size()));
+            fail("Expected exception");
+        } catch (CommandTimeoutException e) {
+            // expected
+        } finally {
+            scope.exit();
+        }
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+    }
+
+    @Test
+    public void singleContextExecutedAsSequence() {
+        PipelineCommand<int[]> pipeline = newPipeline();
+        pipeline.add(new Increment(false)).add(new Increment(true));
+        int[] context = new int[2];
+        assertTrue(pipeline.execute(context));
+        assertEquals(2, context[0]);
+    }
+
+    private StageCommand<int[]> stage(Command<int[]> command, int parallelism) {
+        StageCommand<int[]> stage = new StageCommand<int[]>();
+        stage.add(command);
+        stage.init();
+        stage.setParallelism(parallelism);
+        return stage;
+    }
+
+    /**
+     * @return contexts holding the execution count and the index
+     */
+    private List<int[]> newContexts(int count) {
+        List<int[]> contexts = new ArrayList<int[]>();
+        for (int i = 0; i < count; i++) {
+            contexts.add(new int[] { 0, i });
+        }
+        return contexts;
+    }
+
+    private BitSet all(int count) {
+        BitSet all = new BitSet();
+        all.set(0, count);
+        return all;
+    }
+
+    /**
+     * Command incrementing the execution count of the context
+     */
+    private static class Increment implements Command<int[]> {
+        private final boolean status;
+
+        Increment(boolean status) {
+            this.status = status;
+        }
+
+        @Override
+        public boolean execute(int[] context) {
+            context[0]++;
+            return status;
+        }
+    }
+}
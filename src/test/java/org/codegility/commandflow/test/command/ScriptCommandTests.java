@@ -0,0 +1,333 @@
+/**
+ * Copyright 2010/2011, Martin Lansler
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codegility.commandflow.test.command;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertNotSame;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertSame;
+import static junit.framework.Assert.assertTrue;
+import static junit.framework.Assert.fail;
+
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.script.AbstractScriptEngine;
+import javax.script.Bindings;
+import javax.script.ScriptContext;
+import javax.script.ScriptEngine;
+import javax.script.ScriptEngineFactory;
+import javax.script.ScriptEngineManager;
+import javax.script.SimpleBindings;
+
+import org.codegility.commandflow.command.CommandExecutionException;
+import org.codegility.commandflow.command.ScriptCache;
+import org.codegility.commandflow.command.ScriptCommand;
+import org.codegility.commandflow.command.ScriptEnginePool;
+import org.junit.Test;
+
+/**
+ * Tests of the script contexts and engine pooling used by {@link ScriptCommand}, using a stub script engine that evaluates to <code>true</code> if the
+ * context binding is a non-empty string.
+ * @author Martin Lansler
+ */
+public class ScriptCommandTests {
+
+    @Test
+    public void reusesScriptContextPerThread() throws Exception {
+        final StubEngine engine = new StubEngine();
+        final ScriptCommand<String> script = new ScriptCommand<String>("stub", engine);
+        assertTrue(script.execute("a"));
+        assertFalse(script.execute(""));
+        assertEquals(2, engine.contexts.size());
+        ScriptContext context = engine.contexts.get(0);
+        assertSame(context, engine.contexts.get(1));
+        assertNull(context.getAttribute(ScriptCommand.DEFAULT_CONTEXT_BINDING_NAME));
+
+        Thread thread = new Thread() {
+            @Override
+            public void run() {
+                script.execute("b");
+            }
+        };
+        thread.start();
+        thread.join();
+        assertEquals(3, engine.contexts.size());
+        assertNotSame(context, engine.contexts.get(2));
+    }
+
+    @Test
+    public void clearsAssignedVariables() {
+        ScriptCommand<String> script = new ScriptCommand<String>("assign", new StubEngine());
+        assertTrue(script.execute("a"));
+        assertTrue(script.execute("b"));
+        ScriptContext context = ((StubEngine) script.getEngine()).contexts.get(0);
+        assertNull(context.getAttribute("variable"));
+        assertEquals(1, context.getBindings(ScriptContext.ENGINE_SCOPE).size());
+    }
+
+    @Test
+    public void requiresBooleanResult() {
+        ScriptCommand<Object> script = new ScriptCommand<Object>("stub", new StubEngine());
+        try {
+            script.execute(Integer.valueOf(1));
+            fail();
+        } catch (CommandExecutionException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void poolsEnginesNotThreadSafe() throws Exception {
+        StubEngine engine = new StubEngine(null);
+        final ScriptCommand<String> script = new ScriptCommand<String>("stub", engine);
+        script.setPoolSize(3);
+        ScriptEnginePool pool = script.getPool();
+        assertEquals(3, pool.getMaxSize());
+        assertEquals(1, pool.getSize());
+        assertTrue(script.execute("a"));
+        assertEquals(1, pool.getSize());
+
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Boolean>> futures = new ArrayList<Future<Boolean>>();
+            for (int i = 0; i < 8; i++) {
+                futures.add(executor.submit(new Callable<Boolean>() {
+                    @Override
+                    public Boolean call() {
+                        boolean status = true;
+                        for (int j = 0; j < 200; j++) {
+                            status &= script.execute("a");
+                        }
+                        return status;
+                    }
+                }));
+            }
+            for (Future<Boolean> future : futures) {
+                assertTrue(future.get());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        assertTrue(pool.getSize() <= 3);
+        assertEquals(0, StubEngine.concurrentUses.get());
+    }
+
+    @Test
+    public void sharesThreadSafeEngine() {
+        ScriptCommand<String> script = new ScriptCommand<String>("stub", new StubEngine());
+        assertNull(script.getPool());
+        assertTrue(script.execute("a"));
+    }
+
+    @Test
+    public void sharesCompiledScripts() {
+        int size = ScriptCache.getDefault().getSize();
+        ScriptCommand<String> first = new ScriptCommand<String>("c.length == 4 && 'shared' != null");
+        ScriptCommand<String> second = new ScriptCommand<String>("c.length == 4 && 'shared' != null");
+        assertEquals(size + 1, ScriptCache.getDefault().getSize());
+        assertSame(first.getEngine(), second.getEngine());
+        assertSame(first.getPool(), second.getPool());
+        assertTrue(first.execute("test"));
+        assertFalse(second.execute("other"));
+    }
+
+    @Test
+    public void sharesPoolPerEngine() {
+        ScriptEngineManager manager = new ScriptEngineManager();
+        manager.registerEngineName("JavaScript", new StubEngineFactory(null));
+        ScriptCache cache = new ScriptCache(manager);
+        ScriptEnginePool pool = null;
+        for (int i = 0; i < 100; i++) {
+            ScriptCommand<String> script = new ScriptCommand<String>("stub" + i, cache);
+            if (pool == null) {
+                pool = script.getPool();
+            }
+            assertSame(pool, script.getPool());
+            assertTrue(script.execute("a"));
+        }
+        assertEquals(100, cache.getSize());
+        assertEquals(1, pool.getSize());
+    }
+
+    @Test
+    public void sharesScriptContextPerEngine() {
+        ScriptEngineManager manager = new ScriptEngineManager();
+        manager.registerEngineName("JavaScript", new StubEngineFactory("MULTITHREADED"));
+        ScriptCache cache = new ScriptCache(manager);
+        ScriptCommand<String> first = new ScriptCommand<String>("first", cache);
+        ScriptCommand<String> second = new ScriptCommand<String>("second", cache);
+        assertTrue(first.execute("a"));
+        assertTrue(second.execute("b"));
+        StubEngine engine = (StubEngine) cache.getEngine("JavaScript");
+        assertEquals(2, engine.contexts.size());
+        assertSame(engine.contexts.get(0), engine.contexts.get(1));
+    }
+
+    @Test
+    public void looksUpEnginesOnce() {
+        ScriptEngineManager manager = new ScriptEngineManager();
+        manager.registerEngineName("stub", new StubEngineFactory("MULTITHREADED"));
+        ScriptCache cache = new ScriptCache(manager);
+        ScriptEngine engine = cache.getEngine("stub");
+        assertSame(engine, cache.getEngine("stub"));
+        try {
+            cache.getEngine("unknown");
+            fail();
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    /**
+     * Script engine stub recording the script contexts it evaluates in.
+     */
+    private static class StubEngine extends AbstractScriptEngine {
+        /** The number of evaluations that found their engine already in use */
+        private static final AtomicInteger concurrentUses = new AtomicInteger();
+
+        private final List<ScriptContext> contexts = Collections.synchronizedList(new ArrayList<ScriptContext>());
+        private final AtomicBoolean busy = new AtomicBoolean();
+        private final String threading;
+
+        StubEngine() {
+            this("MULTITHREADED");
+        }
+
+        StubEngine(String threading) {
+            this.threading = threading;
+        }
+
+        @Override
+        public Object eval(String script, ScriptContext context) {
+            if (threading == null && !busy.compareAndSet(false, true)) {
+                concurrentUses.incrementAndGet();
+            }
+            try {
+                return evalStub(script, context);
+            } finally {
+                busy.set(false);
+            }
+        }
+
+        private Object evalStub(String script, ScriptContext context) {
+            contexts.add(context);
+            if ("assign".equals(script)) {
+                // true unless a previous evaluation left its variable
+                boolean assigned = context.getAttribute("variable") != null;
+                context.setAttribute("variable", context.getAttribute(ScriptCommand.DEFAULT_CONTEXT_BINDING_NAME), ScriptContext.ENGINE_SCOPE);
+                return Boolean.valueOf(!assigned);
+            }
+            Object value = context.getAttribute(ScriptCommand.DEFAULT_CONTEXT_BINDING_NAME);
+            return value instanceof String ? Boolean.valueOf(((String) value).length() > 0) : value;
+        }
+
+        @Override
+        public Object eval(Reader reader, ScriptContext context) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Bindings createBindings() {
+            return new SimpleBindings();
+        }
+
+        @Override
+        public ScriptEngineFactory getFactory() {
+            return new StubEngineFactory(threading);
+        }
+    }
+
+    /**
+     * Factory of the script engine stub.
+     */
+    private static class StubEngineFactory implements ScriptEngineFactory {
+        private final String threading;
+
+        StubEngineFactory(String threading) {
+            this.threading = threading;
+        }
+
+        @Override
+        public String getEngineName() {
+            return "stub";
+        }
+
+        @Override
+        public String getEngineVersion() {
+            return "1.0";
+        }
+
+        @Override
+        public List<String> getExtensions() {
+            return Collections.emptyList();
+        }
+
+        @Override
+        public List<String> getMimeTypes() {
+            return Collections.emptyList();
+        }
+
+        @Override
+        public List<String> getNames() {
+            return Collections.singletonList("stub");
+        }
+
+        @Override
+        public String getLanguageName() {
+            return "stub";
+        }
+
+        @Override
+        public String getLanguageVersion() {
+            return "1.0";
+        }
+
+        @Override
+        public Object getParameter(String key) {
+            return "THREADING".equals(key) ? threading : null;
+        }
+
+        @Override
+        public String getMethodCallSyntax(String obj, String m, String... args) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public String getOutputStatement(String toDisplay) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public String getProgram(String... statements) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public ScriptEngine getScriptEngine() {
+            return new StubEngine(threading);
+        }
+    }
+}
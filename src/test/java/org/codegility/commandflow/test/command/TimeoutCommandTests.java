@@ -0,0 +1,204 @@
+/**
+ * Copyright 2010/2011, Martin Lansler
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codegility.commandflow.test.command;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertTrue;
+import static junit.framework.Assert.fail;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.codegility.commandflow.Command;
+import org.codegility.commandflow.catalog.DefaultCommandCatalog;
+import org.codegility.commandflow.command.CommandTimeoutException;
+import org.codegility.commandflow.command.ExecutionScope;
+import org.codegility.commandflow.command.ParallelCommand;
+import org.codegility.commandflow.command.PipelineCommand;
+import org.codegility.commandflow.command.SequenceCommand;
+import org.codegility.commandflow.command.TimeoutCommand;
+import org.codegility.commandflow.command.TrueCommand;
+import org.codegility.commandflow.command.WhileCommand;
+import org.codegility.commandflow.compiler.BytecodeFlowCompiler;
+import org.codegility.commandflow.compiler.FlowCompiler;
+import org.codegility.commandflow.compiler.InstructionFlowCompiler;
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Tests of {@link TimeoutCommand} and the propagation of the {@link ExecutionScope} deadline.
+ * @author Martin Lansler
+ */
+public class TimeoutCommandTests {
+    private ExecutorService executor = Executors.newCachedThreadPool();
+
+    @After
+    public void shutdown() {
+        executor.shutdownNow();
+        assertNull(ExecutionScope.current());
+    }
+
+    @Test
+    public void withinTimeout() {
+        CounterCommand<Object> counter = new CounterCommand<Object>();
+        assertTrue(timeout(1000, new SequenceCommand<Object>().add(counter.alwaysTrue()).add(counter)).execute(null));
+        assertEquals(2, counter.getCount());
+    }
+
+    @Test
+    public void sequenceStopsAtDeadline() {
+        CounterCommand<Object> counter = new CounterCommand<Object>();
+        assertTimeout(timeout(20, new SequenceCommand<Object>().add(sleep(100)).add(counter.alwaysTrue())));
+        assertEquals(0, counter.getCount());
+    }
+
+    @Test
+    public void endlessLoop() {
+        assertTimeout(timeout(20, newEndlessLoop()));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void compiledEndlessLoop() throws Exception {
+        for (FlowCompiler<Object> compiler : Arrays.<FlowCompiler<Object>> asList(new InstructionFlowCompiler<Object>(), new BytecodeFlowCompiler<Object>())) {
+            assertTimeout(timeout(20, compiler.compile(newEndlessLoop())));
+        }
+    }
+
+    @Test
+    public void nestedTimeoutDoesNotExtendDeadline() {
+        long start = System.nanoTime();
+        assertTimeout(timeout(20, timeout(10000, newEndlessLoop())));
+        assertTrue(TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - start) < 5);
+    }
+
+    @Test
+    public void zeroTimeout() {
+        CounterCommand<Object> counter = new CounterCommand<Object>();
+        assertTimeout(timeout(0, counter.alwaysTrue()));
+        assertEquals(0, counter.getCount());
+    }
+
+    @Test
+    public void catalogExecute() {
+        DefaultCommandCatalog<Object> catalog = new DefaultCommandCatalog<Object>();
+        catalog.addCommand("loop", newEndlessLoop());
+        catalog.addCommand("true", TrueCommand.getInstance());
+        assertTrue(catalog.execute("true", null, 1, TimeUnit.SECONDS));
+        try {
+            catalog.execute("loop", null, 20, TimeUnit.MILLISECONDS);
+            fail("Expected timeout");
+        } catch (CommandTimeoutException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void parallelBranchesCancelled() throws Exception {
+        final CountDownLatch interrupted = new CountDownLatch(1);
+        Command<Object> blocking = new Command<Object>() {
+            @Override
+            public boolean execute(Object context) {
+                try {
+                    Thread.sleep(TimeUnit.SECONDS.toMillis(30));
+                } catch (InterruptedException e) {
+                    interrupted.countDown();
+                }
+                return true;
+            }
+        };
+        ParallelCommand<Object> parallel = new ParallelCommand<Object>();
+        parallel.setExecutor(executor);
+        long start = System.nanoTime();
+        assertTimeout(timeout(50, parallel.add(TrueCommand.getInstance()).add(blocking)));
+        assertTrue(TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - start) < 5);
+        assertTrue(interrupted.await(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void parallelBranchesSeeDeadline() {
+        ParallelCommand<Object> parallel = new ParallelCommand<Object>();
+        parallel.setExecutor(executor);
+        assertTimeout(timeout(20, parallel.add(TrueCommand.getInstance()).add(newEndlessLoop())));
+    }
+
+    @Test
+    public void pipelineWorkersSeeDeadline() {
+        PipelineCommand<Object> pipeline = new PipelineCommand<Object>();
+        pipeline.setExecutor(executor);
+        pipeline.add(TrueCommand.getInstance()).add(newEndlessLoop());
+        TimeoutCommand<Object> timeout = timeout(20, pipeline);
+        try {
+            timeout.executeBatch(Arrays.<Object> asList(1, 2, 3), bits(3));
+            fail("Expected timeout");
+        } catch (CommandTimeoutException e) {
+            // expected
+        }
+    }
+
+    private BitSet bits(int n) {
+        BitSet bits = new BitSet();
+        bits.set(0, n);
+        return bits;
+    }
+
+    private TimeoutCommand<Object> timeout(long millis, Command<Object> command) {
+        TimeoutCommand<Object> timeout = new TimeoutCommand<Object>();
+        timeout.add(command);
+        timeout.setMillis(millis);
+        timeout.init();
+        return timeout;
+    }
+
+    private Command<Object> newEndlessLoop() {
+        WhileCommand<Object> loop = new WhileCommand<Object>();
+        loop.add(TrueCommand.getInstance()).add(new CounterCommand<Object>().alwaysTrue());
+        try {
+            loop.init();
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+        return loop;
+    }
+
+    private Command<Object> sleep(final long millis) {
+        return new Command<Object>() {
+            @Override
+            public boolean execute(Object context) {
+                try {
+                    Thread.sleep(millis);
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+                return true;
+            }
+        };
+    }
+
+    private void assertTimeout(Command<Object> command) {
+        try {
+            command.execute(null);
+            fail("Expected timeout");
+        } catch (CommandTimeoutException e) {
+            // expected
+        }
+    }
+}
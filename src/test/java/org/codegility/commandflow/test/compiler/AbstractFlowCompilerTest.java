@@ -0,0 +1,252 @@
+/**
+ * Copyright 2010/2011, Martin Lansler
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codegility.commandflow.test.compiler;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.codegility.commandflow.Command;
+import org.codegility.commandflow.builder.CommandInitialization;
+import org.codegility.commandflow.builder.CompositeCommand;
+import org.codegility.commandflow.builder.DefaultCommandBuilder;
+import org.codegility.commandflow.catalog.CommandReference;
+import org.codegility.commandflow.catalog.DefaultCommandCatalog;
+import org.codegility.commandflow.command.AbstractCompositeCommand;
+import org.codegility.commandflow.command.AndCommand;
+import org.codegility.commandflow.command.DoWhileCommand;
+import org.codegility.commandflow.command.IfCommand;
+import org.codegility.commandflow.command.NotCommand;
+import org.codegility.commandflow.command.OrCommand;
+import org.codegility.commandflow.command.ParallelCommand;
+import org.codegility.commandflow.command.SequenceCommand;
+import org.codegility.commandflow.command.WhileCommand;
+import org.codegility.commandflow.compiler.CompiledFlow;
+import org.codegility.commandflow.compiler.FlowCompiler;
+import org.junit.Test;
+
+/**
+ * Base class for {@link FlowCompiler} tests, the compiled flows are verified to execute exactly as the source flows.
+ * @author Martin Lansler
+ */
+public abstract class AbstractFlowCompilerTest {
+    protected final FlowCompiler<Trace> compiler = newCompiler();
+
+    /**
+     * @return the compiler to test
+     */
+    protected abstract FlowCompiler<Trace> newCompiler();
+
+    @Test
+    public void randomFlows() {
+        Random random = new Random(4711);
+        for (int i = 0; i < 2000; i++) {
+            List<Step> steps = new ArrayList<Step>();
+            Command<Trace> flow = newFlow(random, steps, 5);
+            init(flow);
+            assertEquivalent(flow, compiler.compile(flow), steps.size());
+        }
+    }
+
+    @Test
+    public void emptyComposites() {
+        assertEquivalent(new SequenceCommand<Trace>(), compiler.compile(new SequenceCommand<Trace>()), 0);
+        assertEquivalent(new AndCommand<Trace>(), compiler.compile(new AndCommand<Trace>()), 0);
+        assertEquivalent(new OrCommand<Trace>(), compiler.compile(new OrCommand<Trace>()), 0);
+    }
+
+    @Test
+    public void leavesNotCompiled() {
+        Step step = new Step(0, 1);
+        assertSame(step, compiler.compile(step));
+        ParallelCommand<Trace> parallel = new ParallelCommand<Trace>();
+        assertSame(parallel, compiler.compile(parallel));
+        // subclasses may change the semantics, hence are leaves
+        SequenceCommand<Trace> subclass = new SequenceCommand<Trace>() {
+            @Override
+            public boolean execute(Trace context) {
+                return true;
+            }
+        };
+        assertSame(subclass, compiler.compile(subclass));
+    }
+
+    @Test
+    public void sharedAndRecursiveCommands() {
+        Step step = new Step(0, 0);
+        SequenceCommand<Trace> sequence = new SequenceCommand<Trace>();
+        sequence.add(step).add(step);
+        // recursion, terminated by the step answering false
+        sequence.add(new IfCommand<Trace>().add(step).add(sequence));
+        init(sequence);
+        assertEquivalent(sequence, compiler.compile(sequence), 1);
+    }
+
+    @Test
+    public void deeplyNestedLoops() {
+        List<Step> steps = new ArrayList<Step>();
+        Command<Trace> flow = new Step(0, 0xFFFFFFFFL);
+        steps.add((Step) flow);
+        for (int i = 1; i < 100; i++) {
+            Step condition = new Step(i, i % 2 == 0 ? 0x3L : 0x1L);
+            steps.add(condition);
+            flow = (i % 2 == 0 ? new WhileCommand<Trace>() : new DoWhileCommand<Trace>()).add(condition).add(flow);
+        }
+        init(flow);
+        assertEquivalent(flow, compiler.compile(flow), steps.size());
+    }
+
+    @Test
+    public void exceptionPropagated() {
+        Command<Trace> failing = new Command<Trace>() {
+            @Override
+            public boolean execute(Trace context) {
+                throw new IllegalStateException("failed");
+            }
+        };
+        Command<Trace> compiled = compiler.compile(new SequenceCommand<Trace>().add(new Step(0, 1)).add(failing));
+        try {
+            compiled.execute(new Trace(1));
+            fail("Expected exception");
+        } catch (IllegalStateException e) {
+            assertEquals("failed", e.getMessage());
+        }
+    }
+
+    @Test
+    public void builderCompilesCatalog() {
+        DefaultCommandCatalog<Trace> catalog = new DefaultCommandCatalog<Trace>();
+        Step step = new Step(0, 0x5L);
+        catalog.addCommand("leaf", step);
+        catalog.addCommand("flow", new WhileCommand<Trace>().add(new CommandReference<Trace>("leaf")).add(new Step(1, 1)));
+        new DefaultCommandBuilder<Trace>(catalog).setFlowCompiler(compiler).make();
+
+        assertSame(step, catalog.getCommand("leaf"));
+        Command<Trace> flow = catalog.getCommand("flow");
+        assertTrue(flow instanceof CompiledFlow);
+        assertEquivalent(((CompiledFlow<Trace>) flow).getSource(), flow, 2);
+    }
+
+    /**
+     * Executes both flows and asserts that the status and the executed steps are the same
+     */
+    protected void assertEquivalent(Command<Trace> expected, Command<Trace> actual, int steps) {
+        Trace expectedTrace = new Trace(steps), actualTrace = new Trace(steps);
+        assertEquals(expected.execute(expectedTrace), actual.execute(actualTrace));
+        assertEquals(expectedTrace.executed, actualTrace.executed);
+    }
+
+    /**
+     * Creates a random flow
+     */
+    private Command<Trace> newFlow(Random random, List<Step> steps, int depth) {
+        if (depth == 0 || random.nextInt(4) == 0) {
+            return newStep(random, steps);
+        }
+        switch (random.nextInt(7)) {
+        case 0:
+            return addAll(new SequenceCommand<Trace>(), random, steps, depth, random.nextInt(4));
+        case 1:
+            return addAll(new AndCommand<Trace>(), random, steps, depth, random.nextInt(4));
+        case 2:
+            return addAll(new OrCommand<Trace>(), random, steps, depth, random.nextInt(4));
+        case 3:
+            return addAll(new NotCommand<Trace>(), random, steps, depth, 1 + random.nextInt(2));
+        case 4:
+            return addAll(new IfCommand<Trace>().add(newFlow(random, steps, depth - 1)), random, steps, depth, 1 + random.nextInt(2));
+        case 5:
+            // loop conditions are steps to guarantee termination
+            return addAll(new WhileCommand<Trace>().add(newStep(random, steps)), random, steps, depth, 1 + random.nextInt(2));
+        default:
+            return addAll(new DoWhileCommand<Trace>().add(newStep(random, steps)), random, steps, depth, 1 + random.nextInt(2));
+        }
+    }
+
+    private Command<Trace> addAll(AbstractCompositeCommand<Trace> composite, Random random, List<Step> steps, int depth, int count) {
+        for (int i = 0; i < count; i++) {
+            composite.add(newFlow(random, steps, depth - 1));
+        }
+        return composite;
+    }
+
+    private Step newStep(Random random, List<Step> steps) {
+        Step step = new Step(steps.size(), random.nextLong());
+        steps.add(step);
+        return step;
+    }
+
+    /**
+     * Initializes a flow as done by the builder
+     */
+    protected void init(Command<Trace> command) {
+        init(command, new ArrayList<Command<Trace>>());
+    }
+
+    @SuppressWarnings("unchecked")
+    private void init(Command<Trace> command, List<Command<Trace>> initialized) {
+        for (Command<Trace> done : initialized) {
+            if (done == command) {
+                return;
+            }
+        }
+        initialized.add(command);
+        if (command instanceof CommandInitialization) {
+            ((CommandInitialization) command).init();
+        }
+        if (command instanceof CompositeCommand) {
+            for (Command<Trace> contained : ((CompositeCommand<Trace>) command).getCommands()) {
+                init(contained, initialized);
+            }
+        }
+    }
+
+    /**
+     * Execution trace, used as command context.
+     */
+    protected static class Trace {
+        private final List<Integer> executed = new ArrayList<Integer>();
+        private final int[] counts;
+
+        Trace(int steps) {
+            counts = new int[steps];
+        }
+    }
+
+    /**
+     * Leaf command answering according to a bit pattern, always <code>false</code> after its first 4 executions in a trace.
+     */
+    protected static class Step implements Command<Trace> {
+        private final int id;
+        private final long pattern;
+
+        Step(int id, long pattern) {
+            this.id = id;
+            this.pattern = pattern;
+        }
+
+        @Override
+        public boolean execute(Trace trace) {
+            int n = trace.counts[id]++;
+            trace.executed.add(id);
+            return n < 4 && (pattern >>> n & 1L) != 0L;
+        }
+    }
+}
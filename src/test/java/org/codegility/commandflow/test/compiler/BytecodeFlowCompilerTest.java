@@ -0,0 +1,78 @@
+/**
+ * Copyright 2010/2011, Martin Lansler
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codegility.commandflow.test.compiler;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.codegility.commandflow.Command;
+import org.codegility.commandflow.builder.DefaultCommandBuilder;
+import org.codegility.commandflow.catalog.DefaultCommandCatalog;
+import org.codegility.commandflow.command.OrCommand;
+import org.codegility.commandflow.command.SequenceCommand;
+import org.codegility.commandflow.compiler.BytecodeFlow;
+import org.codegility.commandflow.compiler.BytecodeFlowCompiler;
+import org.codegility.commandflow.compiler.CompiledFlow;
+import org.codegility.commandflow.compiler.FlowCompiler;
+import org.codegility.commandflow.compiler.InstructionFlow;
+import org.junit.Test;
+
+/**
+ * Tests {@link BytecodeFlowCompiler}
+ * @author Martin Lansler
+ */
+public class BytecodeFlowCompilerTest extends AbstractFlowCompilerTest {
+
+    @Override
+    protected FlowCompiler<Trace> newCompiler() {
+        return new BytecodeFlowCompiler<Trace>();
+    }
+
+    @Test
+    public void generatesClass() {
+        Command<Trace> flow = new OrCommand<Trace>().add(new Step(0, 0)).add(new Step(1, 1));
+        Command<Trace> compiled = compiler.compile(flow);
+        assertTrue(compiled instanceof BytecodeFlow);
+        assertEquivalent(flow, compiled, 2);
+    }
+
+    @Test
+    public void largeFlowFallsBackToInstructions() {
+        SequenceCommand<Trace> flow = new SequenceCommand<Trace>();
+        for (int i = 0; i < 5000; i++) {
+            flow.add(new Step(i, i));
+        }
+        Command<Trace> compiled = compiler.compile(flow);
+        assertTrue(compiled instanceof InstructionFlow);
+        assertEquivalent(flow, compiled, 5000);
+    }
+
+    @Test
+    public void catalogSwitch() {
+        DefaultCommandCatalog<Trace> catalog = new DefaultCommandCatalog<Trace>();
+        Command<Trace> flow = new SequenceCommand<Trace>().add(new Step(0, 1));
+        catalog.addCommand("flow", flow);
+        new DefaultCommandBuilder<Trace>(catalog).setFlowCompiler(compiler).make();
+
+        assertTrue(catalog.isCompiledFlowsEnabled());
+        assertTrue(catalog.getCommand("flow") instanceof CompiledFlow);
+        catalog.setCompiledFlowsEnabled(false);
+        assertFalse(catalog.isCompiledFlowsEnabled());
+        assertSame(flow, catalog.getCommand("flow"));
+        assertTrue(catalog.execute("flow", new Trace(1)));
+    }
+}
@@ -0,0 +1,48 @@
+/**
+ * Copyright 2010/2011, Martin Lansler
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codegility.commandflow.test.compiler;
+
+import static org.junit.Assert.assertEquals;
+
+import org.codegility.commandflow.command.IfCommand;
+import org.codegility.commandflow.command.SequenceCommand;
+import org.codegility.commandflow.compiler.FlowCompiler;
+import org.codegility.commandflow.compiler.InstructionFlow;
+import org.codegility.commandflow.compiler.InstructionFlowCompiler;
+import org.junit.Test;
+
+/**
+ * Tests {@link InstructionFlowCompiler}
+ * @author Martin Lansler
+ */
+public class InstructionFlowCompilerTest extends AbstractFlowCompilerTest {
+
+    @Override
+    protected FlowCompiler<Trace> newCompiler() {
+        return new InstructionFlowCompiler<Trace>();
+    }
+
+    @Test
+    public void leavesAddedOnce() {
+        Step step = new Step(0, 0);
+        SequenceCommand<Trace> sequence = new SequenceCommand<Trace>();
+        sequence.add(step).add(new IfCommand<Trace>().add(step).add(step));
+        init(sequence);
+        InstructionFlow<Trace> compiled = (InstructionFlow<Trace>) compiler.compile(sequence);
+        assertEquals(1, compiled.getLeafCount());
+        assertEquivalent(sequence, compiled, 1);
+    }
+}
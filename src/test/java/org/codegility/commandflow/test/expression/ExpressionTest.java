@@ -0,0 +1,290 @@
+/**
+ * Copyright 2010/2011, Martin Lansler
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codegility.commandflow.test.expression;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.codegility.commandflow.command.ExpressionCommand;
+import org.codegility.commandflow.expression.Expression;
+import org.codegility.commandflow.expression.ExpressionException;
+import org.junit.Test;
+
+/**
+ * Tests {@link Expression}
+ * @author Martin Lansler
+ */
+public class ExpressionTest {
+
+    @Test
+    public void literals() {
+        assertTrue(test("true", null));
+        assertFalse(test("false", null));
+        assertTrue(test("2 > 1", null));
+        assertTrue(test("1.5 >= 1.5", null));
+        assertTrue(test("'a' == \"a\"", null));
+        assertTrue(test("'it\\'s' == \"it's\"", null));
+        assertTrue(test("null == null", null));
+        assertEquals(42L, Expression.parse("42").evaluate(null));
+    }
+
+    @Test
+    public void beanProperties() {
+        Order order = new Order("gold", 150, new Customer("Ann", null));
+        assertTrue(test("amount > 100", order));
+        assertTrue(test("c.amount > 100", order));
+        assertTrue(test("c.customer.name == 'Ann'", order));
+        assertTrue(test("customer.email == null", order));
+        assertTrue(test("customer.email.length == null", order));
+        assertTrue(test("level == 'gold' and customer.name.length == 3", order));
+        assertTrue(test("level eq 'GOLD' or amount ge 150", order));
+        assertTrue(test("status == 'OPEN'", order));
+        assertTrue(test("active", order));
+    }
+
+    @Test
+    public void mapProperties() {
+        Map<String, Object> context = new HashMap<String, Object>();
+        context.put("amount", new BigDecimal("10.50"));
+        context.put("tags", Arrays.asList("a", "b"));
+        assertTrue(test("amount > 10", context));
+        assertTrue(test("amount == 10.5", context));
+        assertTrue(test("tags.size == 2", context));
+        assertTrue(test("missing == null && empty missing", context));
+    }
+
+    @Test
+    public void numbersByValue() {
+        Map<String, Object> context = new HashMap<String, Object>();
+        context.put("i", 3);
+        context.put("l", 3L);
+        context.put("d", 3.0);
+        assertTrue(test("i == l && l == d && i == 3 && d == 3", context));
+        assertTrue(test("i < 3.5 && !(i > 3)", context));
+        assertFalse(test("i < null", context));
+        context.put("big", new BigDecimal("1E400"));
+        context.put("inf", Double.POSITIVE_INFINITY);
+        context.put("nan", Double.NaN);
+        assertTrue(test("inf > big && big > d", context));
+        assertFalse(test("nan == big", context));
+    }
+
+    @Test
+    public void booleanOperators() {
+        assertTrue(test("true || c.missing", "shortCircuit"));
+        assertFalse(test("false && c.missing", "shortCircuit"));
+        assertTrue(test("not false and !(1 > 2)", null));
+        assertTrue(test("(true || false) && true", null));
+    }
+
+    @Test
+    public void empty() {
+        Map<String, Object> context = new HashMap<String, Object>();
+        context.put("text", "");
+        context.put("list", Collections.emptyList());
+        context.put("array", new int[0]);
+        context.put("full", new int[] { 1 });
+        assertTrue(test("empty text && empty list && empty array && empty null", context));
+        assertFalse(test("empty full", context));
+        assertTrue(test("full.length == 1", context));
+    }
+
+    @Test
+    public void regularExpressions() {
+        assertTrue(test("c =~ '[a-z]+@example\\\\.com'", "ann@example.com"));
+        assertFalse(test("c matches 'example'", "ann@example.com"));
+        assertFalse(test("c =~ '.*'", null));
+    }
+
+    @Test
+    public void cachedAccessorsPerClass() {
+        Expression expression = Expression.parse("c.name == 'Ann'");
+        assertTrue(expression.test(new Customer("Ann", null)));
+        // an anonymous class reads the property via its public superclass
+        assertFalse(expression.test(new Customer("Bob", null) {
+        }));
+        assertTrue(expression.test(new Customer("Ann", null)));
+    }
+
+    @Test
+    public void generatedAccessors() {
+        Primitives primitives = new Primitives();
+        assertTrue(test("flag && b == 1 && s == 2 && i == 3 && l == 4 && f == 5.5 && d == 6.5 && ch == 'x'", primitives));
+        assertEquals(4L, Expression.parse("l").evaluate(primitives));
+        assertEquals('x', Expression.parse("ch").evaluate(primitives));
+        assertNull(Expression.parse("reset").evaluate(primitives));
+        // a private class reads the property via its public interface
+        assertTrue(test("name == 'Ann'", new Named() {
+            public String getName() {
+                return "Ann";
+            }
+        }));
+        try {
+            test("failing", primitives);
+            fail();
+        } catch (ExpressionException e) {
+            assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+    }
+
+    @Test
+    public void syntaxErrors() {
+        for (String text : new String[] { "", "1 >", "(true", "a.", "'open", "a === b", "[1]", "true false", "a == undefined", "a != NaN", "a < Infinity" }) {
+            try {
+                Expression.parse(text);
+                fail(text);
+            } catch (ExpressionException e) {
+                // expected
+            }
+        }
+    }
+
+    @Test
+    public void evaluationErrors() {
+        try {
+            test("c.missing", "text");
+            fail();
+        } catch (ExpressionException e) {
+            // expected, no such property
+        }
+        try {
+            test("c", "text");
+            fail();
+        } catch (ExpressionException e) {
+            // expected, not a boolean
+        }
+    }
+
+    @Test
+    public void command() {
+        ExpressionCommand<Order> command = new ExpressionCommand<Order>("amount > 100");
+        assertTrue(command.execute(new Order("gold", 101, null)));
+        assertFalse(command.execute(new Order("gold", 100, null)));
+        assertNull(Expression.parse("null").evaluate(null));
+    }
+
+    private boolean test(String expression, Object context) {
+        return Expression.parse(expression).test(context);
+    }
+
+    public enum Status {
+        OPEN, CLOSED
+    }
+
+    public static class Order {
+        private final String level;
+        private final int amount;
+        private final Customer customer;
+
+        public Order(String level, int amount, Customer customer) {
+            this.level = level;
+            this.amount = amount;
+            this.customer = customer;
+        }
+
+        public String getLevel() {
+            return level;
+        }
+
+        public int getAmount() {
+            return amount;
+        }
+
+        public Customer getCustomer() {
+            return customer;
+        }
+
+        public Status getStatus() {
+            return Status.OPEN;
+        }
+
+        public boolean isActive() {
+            return true;
+        }
+    }
+
+    public interface Named {
+        String getName();
+    }
+
+    public static class Primitives {
+        public boolean isFlag() {
+            return true;
+        }
+
+        public byte getB() {
+            return 1;
+        }
+
+        public short getS() {
+            return 2;
+        }
+
+        public int getI() {
+            return 3;
+        }
+
+        public long getL() {
+            return 4;
+        }
+
+        public float getF() {
+            return 5.5f;
+        }
+
+        public double getD() {
+            return 6.5;
+        }
+
+        public char getCh() {
+            return 'x';
+        }
+
+        public void reset() {
+        }
+
+        public boolean isFailing() {
+            throw new IllegalStateException("failing");
+        }
+    }
+
+    public static class Customer {
+        private final String name;
+        private final String email;
+
+        public Customer(String name, String email) {
+            this.name = name;
+            this.email = email;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getEmail() {
+            return email;
+        }
+    }
+}
@@ -0,0 +1,156 @@
+/**
+ * Copyright 2010/2011, Martin Lansler
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codegility.commandflow.test.metrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.codegility.commandflow.Command;
+import org.codegility.commandflow.builder.DefaultCommandBuilder;
+import org.codegility.commandflow.catalog.CommandReference;
+import org.codegility.commandflow.catalog.DefaultCommandCatalog;
+import org.codegility.commandflow.command.CircuitBreakerCommand;
+import org.codegility.commandflow.command.FalseCommand;
+import org.codegility.commandflow.command.IfCommand;
+import org.codegility.commandflow.command.SequenceCommand;
+import org.codegility.commandflow.command.TrueCommand;
+import org.codegility.commandflow.metrics.CircuitBreakerMetrics;
+import org.codegility.commandflow.metrics.CommandMetrics;
+import org.codegility.commandflow.metrics.FlowMetrics;
+import org.junit.Test;
+
+/**
+ * Tests {@link FlowMetrics} and the instrumentation of flows by the builder
+ * @author Martin Lansler
+ */
+public class FlowMetricsTest {
+
+    @Test
+    public void notInstrumentedByDefault() {
+        DefaultCommandCatalog<Object> catalog = new DefaultCommandCatalog<Object>();
+        Command<Object> flow = new SequenceCommand<Object>().add(TrueCommand.getInstance());
+        catalog.addCommand("flow", flow);
+        new DefaultCommandBuilder<Object>(catalog).make();
+        assertSame(flow, catalog.getCommand("flow"));
+        assertNull(catalog.getFlowMetrics());
+    }
+
+    @Test
+    public void instrumentedFlow() {
+        DefaultCommandCatalog<Object> catalog = new DefaultCommandCatalog<Object>();
+        catalog.addCommand("check", FalseCommand.getInstance());
+        catalog.addCommand("flow", new SequenceCommand<Object>().add(new IfCommand<Object>().add(new CommandReference<Object>("check")).add(new TrueCommand<Object>()))
+                .add(TrueCommand.getInstance()));
+        FlowMetrics metrics = new FlowMetrics("test");
+        new DefaultCommandBuilder<Object>(catalog).setFlowMetrics(metrics).make();
+        assertSame(metrics, catalog.getFlowMetrics());
+
+        for (int i = 0; i < 10; i++) {
+            assertTrue(catalog.execute("flow", null));
+        }
+        assertCounts(metrics.getCommandMetrics("flow"), 10, 0, 0);
+        assertCounts(metrics.getCommandMetrics("flow/0:IfCommand"), 0, 10, 0);
+        // named commands are recorded under their name
+        assertCounts(metrics.getCommandMetrics("check"), 0, 10, 0);
+        assertCounts(metrics.getCommandMetrics("flow/0:IfCommand/1:TrueCommand"), 0, 0, 0);
+        assertCounts(metrics.getCommandMetrics("flow/1:TrueCommand"), 10, 0, 0);
+        assertEquals(10, metrics.getCommandMetrics("flow").getLatency().getCount());
+        assertEquals(5, metrics.getCommandMetrics().size());
+        // shared command instances are recorded once, under the first path found
+        assertNull(metrics.getCommandMetrics("flow/0:IfCommand/0:CommandReference"));
+
+        metrics.reset();
+        assertCounts(metrics.getCommandMetrics("flow"), 0, 0, 0);
+    }
+
+    @Test
+    public void exceptionsCounted() {
+        DefaultCommandCatalog<Object> catalog = new DefaultCommandCatalog<Object>();
+        catalog.addCommand("failing", new Command<Object>() {
+            @Override
+            public boolean execute(Object context) {
+                throw new IllegalStateException();
+            }
+        });
+        FlowMetrics metrics = new FlowMetrics("test");
+        new DefaultCommandBuilder<Object>(catalog).setFlowMetrics(metrics).make();
+        try {
+            catalog.execute("failing", null);
+            fail("Expected exception");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        assertCounts(metrics.getCommandMetrics("failing"), 0, 0, 1);
+    }
+
+    @Test
+    public void mbeans() throws Exception {
+        DefaultCommandCatalog<Object> catalog = new DefaultCommandCatalog<Object>();
+        catalog.addCommand("flow", new SequenceCommand<Object>().add(TrueCommand.getInstance()));
+        FlowMetrics metrics = new FlowMetrics("mbeans");
+        new DefaultCommandBuilder<Object>(catalog).setFlowMetrics(metrics).make();
+        metrics.registerMBeans();
+        try {
+            catalog.execute("flow", null);
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = metrics.getObjectName(metrics.getCommandMetrics("flow"));
+            assertTrue(server.isRegistered(name));
+            assertEquals(1L, server.getAttribute(name, "TrueCount"));
+            assertNotNull(server.getAttribute(name, "99thPercentileLatency"));
+        } finally {
+            metrics.unregisterMBeans();
+        }
+        assertFalse(ManagementFactory.getPlatformMBeanServer().isRegistered(metrics.getObjectName(metrics.getCommandMetrics("flow"))));
+    }
+
+    @Test
+    public void circuitBreakerState() throws Exception {
+        DefaultCommandCatalog<Object> catalog = new DefaultCommandCatalog<Object>();
+        catalog.addCommand("breaker", new CircuitBreakerCommand<Object>().add(TrueCommand.getInstance()));
+        FlowMetrics metrics = new FlowMetrics("breaker");
+        new DefaultCommandBuilder<Object>(catalog).setFlowMetrics(metrics).make();
+        metrics.registerMBeans();
+        try {
+            assertTrue(catalog.execute("breaker", null));
+            CircuitBreakerMetrics circuitBreaker = metrics.getCircuitBreakerMetrics("breaker");
+            assertNotNull(circuitBreaker);
+            assertEquals(1, metrics.getCircuitBreakerMetrics().size());
+            ObjectName name = metrics.getObjectName(circuitBreaker);
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            assertEquals("CLOSED", server.getAttribute(name, "State"));
+            assertEquals(1L, server.getAttribute(name, "CallCount"));
+        } finally {
+            metrics.unregisterMBeans();
+        }
+    }
+
+    private void assertCounts(CommandMetrics metrics, long trueCount, long falseCount, long exceptionCount) {
+        assertNotNull(metrics);
+        assertEquals(trueCount, metrics.getTrueCount());
+        assertEquals(falseCount, metrics.getFalseCount());
+        assertEquals(exceptionCount, metrics.getExceptionCount());
+    }
+}
@@ -0,0 +1,132 @@
+/**
+ * Copyright 2010/2011, Martin Lansler
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codegility.commandflow.test.metrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.codegility.commandflow.Command;
+import org.codegility.commandflow.builder.DefaultCommandBuilder;
+import org.codegility.commandflow.catalog.DefaultCommandCatalog;
+import org.codegility.commandflow.command.FalseCommand;
+import org.codegility.commandflow.command.OrCommand;
+import org.codegility.commandflow.command.TrueCommand;
+import org.codegility.commandflow.metrics.FlowMetrics;
+import org.codegility.commandflow.metrics.FlowRecorder;
+import org.codegility.commandflow.metrics.TraceEvent;
+import org.codegility.commandflow.metrics.TraceEvent.Type;
+import org.junit.Test;
+
+/**
+ * Tests {@link FlowRecorder}
+ * @author Martin Lansler
+ */
+public class FlowRecorderTest {
+
+    private DefaultCommandCatalog<Object> newCatalog(FlowRecorder recorder, Command<Object> flow) {
+        DefaultCommandCatalog<Object> catalog = new DefaultCommandCatalog<Object>();
+        catalog.addCommand("flow", flow);
+        new DefaultCommandBuilder<Object>(catalog).setFlowMetrics(new FlowMetrics("test").setRecorder(recorder)).make();
+        return catalog;
+    }
+
+    @Test
+    public void recordsTakenBranch() {
+        FlowRecorder recorder = new FlowRecorder();
+        DefaultCommandCatalog<Object> catalog = newCatalog(recorder,
+                new OrCommand<Object>().add(FalseCommand.getInstance()).add(TrueCommand.getInstance()).add(new FalseCommand<Object>()));
+        assertTrue(catalog.execute("flow", null));
+
+        List<TraceEvent> events = recorder.getEvents();
+        assertEvents(events, Type.ENTER, "flow", Type.ENTER, "flow/0:FalseCommand", Type.EXIT_FALSE, "flow/0:FalseCommand", Type.ENTER, "flow/1:TrueCommand",
+                Type.EXIT_TRUE, "flow/1:TrueCommand", Type.EXIT_TRUE, "flow");
+        for (int i = 1; i < events.size(); i++) {
+            assertTrue(events.get(i).getNanoTime() >= events.get(i - 1).getNanoTime());
+        }
+    }
+
+    @Test
+    public void ringBufferRetainsLatestEvents() {
+        FlowRecorder recorder = new FlowRecorder(3);
+        assertEquals(4, recorder.getCapacity());
+        DefaultCommandCatalog<Object> catalog = newCatalog(recorder, new OrCommand<Object>().add(TrueCommand.getInstance()));
+        for (int i = 0; i < 10; i++) {
+            catalog.execute("flow", null);
+        }
+        assertEvents(recorder.getEvents(), Type.ENTER, "flow", Type.ENTER, "flow/0:TrueCommand", Type.EXIT_TRUE, "flow/0:TrueCommand", Type.EXIT_TRUE, "flow");
+    }
+
+    @Test
+    public void disabled() {
+        FlowRecorder recorder = new FlowRecorder();
+        recorder.setEnabled(false);
+        newCatalog(recorder, new OrCommand<Object>().add(TrueCommand.getInstance())).execute("flow", null);
+        assertTrue(recorder.getEvents().isEmpty());
+    }
+
+    @Test
+    public void exceptionListener() throws Exception {
+        FlowRecorder recorder = new FlowRecorder();
+        final List<List<TraceEvent>> traces = new ArrayList<List<TraceEvent>>();
+        recorder.setExceptionListener(new FlowRecorder.ExceptionListener() {
+            @Override
+            public void exceptionRecorded(Throwable exception, List<TraceEvent> events) {
+                assertTrue(exception instanceof IllegalStateException);
+                traces.add(events);
+            }
+        });
+        Command<Object> failing = new Command<Object>() {
+            @Override
+            public boolean execute(Object context) {
+                throw new IllegalStateException();
+            }
+        };
+        DefaultCommandCatalog<Object> catalog = newCatalog(recorder, new OrCommand<Object>().add(FalseCommand.getInstance()).add(failing));
+        try {
+            catalog.execute("flow", null);
+            fail("Expected exception");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        assertEquals(1, traces.size());
+        List<TraceEvent> events = traces.get(0);
+        assertEquals(6, events.size());
+        assertSame(Type.EXCEPTION, events.get(4).getType());
+        assertSame(Type.EXCEPTION, events.get(5).getType());
+        assertEquals("flow", events.get(5).getPath());
+
+        StringBuilder dump = new StringBuilder();
+        recorder.dump(dump);
+        assertTrue(dump.toString(), dump.indexOf("Thread " + Thread.currentThread().getName()) >= 0);
+        assertTrue(dump.toString(), dump.indexOf("    ENTER flow/0:FalseCommand") > 0);
+    }
+
+    private void assertEvents(List<TraceEvent> events, Object... expected) {
+        assertEquals(events.toString(), expected.length / 2, events.size());
+        for (int i = 0; i < events.size(); i++) {
+            TraceEvent event = events.get(i);
+            assertSame(expected[i * 2], event.getType());
+            assertEquals(expected[i * 2 + 1], event.getPath());
+            assertNotNull(event.toString());
+        }
+    }
+}